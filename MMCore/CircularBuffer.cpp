@@ -33,11 +33,12 @@ const long long bytesInMB = 1 << 20;
 const long adjustThreshold = LONG_MAX / 2;
 const unsigned long maxCBSize = 100000;    //a reasonable limit to circular buffer size
 
-CircularBuffer::CircularBuffer(unsigned int memorySizeMB) :
+CircularBuffer::CircularBuffer(unsigned int memorySizeMB, ImageCounter* imageCounter) :
    width_(0), 
    height_(0), 
    pixDepth_(0), 
    imageCounter_(0), 
+   insertedImageCounter_(imageCounter), 
    insertIndex_(0), 
    saveIndex_(0), 
    memorySizeMB_(memorySizeMB), 
@@ -49,10 +50,62 @@ CircularBuffer::CircularBuffer(unsigned int memorySizeMB) :
 
 CircularBuffer::~CircularBuffer() {}
 
+ImageCounter::ImageCounter() :
+   count_(0),
+   wakeups_(0)
+{
+}
+
+/**
+* Returns the number of frames inserted so far.
+*/
+long ImageCounter::Get() const
+{
+   boost::mutex::scoped_lock lock(mutex_);
+   return count_;
+}
+
+void ImageCounter::Increment()
+{
+   {
+      boost::mutex::scoped_lock lock(mutex_);
+      ++count_;
+   }
+   cond_.notify_all();
+}
+
+void ImageCounter::WakeWaiters()
+{
+   {
+      boost::mutex::scoped_lock lock(mutex_);
+      ++wakeups_;
+   }
+   cond_.notify_all();
+}
+
+/**
+* Blocks until the count differs from lastCount, WakeWaiters() is called, or
+* timeoutMs passed. Returns the count.
+*/
+long ImageCounter::WaitForChange(long lastCount, long timeoutMs) const
+{
+   boost::system_time deadline = boost::get_system_time() +
+      boost::posix_time::milliseconds(timeoutMs);
+   boost::mutex::scoped_lock lock(mutex_);
+   const unsigned long wakeups = wakeups_;
+   while (count_ == lastCount && wakeups_ == wakeups)
+   {
+      if (!cond_.timed_wait(lock, deadline))
+         break;
+   }
+   return count_;
+}
+
 bool CircularBuffer::Initialize(unsigned channels, unsigned int w, unsigned int h, unsigned int pixDepth)
 {
    MMThreadGuard guard(g_bufferLock);
    imageNumbers_.clear();
+   lastIndexForCamera_.clear();
    boost::posix_time::ptime t = boost::posix_time::microsec_clock::local_time();
    startTime_ = GetMMTimeNow(t);
 
@@ -115,13 +168,19 @@ bool CircularBuffer::Initialize(unsigned channels, unsigned int w, unsigned int
 
 void CircularBuffer::Clear() 
 {
-   MMThreadGuard guard(g_bufferLock); 
-   insertIndex_=0; 
-   saveIndex_=0; 
-   overflow_ = false;
-   boost::posix_time::ptime t = boost::posix_time::microsec_clock::local_time();
-   startTime_ = GetMMTimeNow(t);
-   imageNumbers_.clear();
+   {
+      MMThreadGuard guard(g_bufferLock); 
+      insertIndex_=0; 
+      saveIndex_=0; 
+      overflow_ = false;
+      boost::posix_time::ptime t = boost::posix_time::microsec_clock::local_time();
+      startTime_ = GetMMTimeNow(t);
+      imageNumbers_.clear();
+      lastIndexForCamera_.clear();
+   }
+   // Wake up waiters so that they can notice that the buffer was emptied
+   if (insertedImageCounter_)
+      insertedImageCounter_->WakeWaiters();
 }
 
 unsigned long CircularBuffer::GetSize() const
@@ -216,6 +275,7 @@ bool CircularBuffer::InsertMultiChannel(const unsigned char* pixArray, unsigned
          {
             imageNumbers_[cameraName] = 0;
          }
+         lastIndexForCamera_[cameraName] = insertIndex_;
 
          // insert image number. 
          md.put(MM::g_Keyword_Metadata_ImageNumber, CDeviceUtils::ConvertToString(imageNumbers_[cameraName]));
@@ -266,8 +326,13 @@ bool CircularBuffer::InsertMultiChannel(const unsigned char* pixArray, unsigned
          // adjust buffer indices to avoid overflowing integer size
          insertIndex_ -= adjustThreshold;
          saveIndex_ -= adjustThreshold;
+         for (std::map<std::string, long>::iterator it = lastIndexForCamera_.begin();
+               it != lastIndexForCamera_.end(); ++it)
+            it->second -= adjustThreshold;
       }
    }
+   if (insertedImageCounter_)
+      insertedImageCounter_->Increment();
 
    return true;
 }
@@ -308,6 +373,26 @@ const mm::ImgBuffer* CircularBuffer::GetNthFromTopImageBuffer(long n,
    return frameArray_[targetIndex].FindImage(channel);
 }
 
+/**
+* Returns the most recent frame inserted by the given camera (as given by the
+* "Camera" metadata tag), or 0 if the buffer does not hold a frame from that
+* camera.
+*/
+const mm::ImgBuffer* CircularBuffer::GetLastImageBufferFromCamera(
+      const std::string& camera, unsigned channel) const
+{
+   MMThreadGuard guard(g_bufferLock);
+
+   std::map<std::string, long>::const_iterator it = lastIndexForCamera_.find(camera);
+   if (it == lastIndexForCamera_.end())
+      return 0;
+   // Frames between saveIndex_ and insertIndex_ have not been overwritten
+   if (it->second < saveIndex_ || it->second >= insertIndex_)
+      return 0;
+
+   return frameArray_[it->second % frameArray_.size()].FindImage(channel);
+}
+
 const unsigned char* CircularBuffer::GetNextImage()
 {
    const mm::ImgBuffer* img = GetNextImageBuffer(0);
@@ -31,18 +31,46 @@
 #include "../MMDevice/DeviceThreads.h"
 #include "../MMDevice/MMDevice.h"
 
+#include <map>
+#include <string>
 #include <vector>
 #include "boost/date_time/posix_time/posix_time.hpp"
+#include <boost/thread/condition_variable.hpp>
+#include <boost/thread/mutex.hpp>
 
 #ifdef _MSC_VER
 #pragma warning( disable : 4290 ) // exception declaration warning
 #endif
 
 
+// Counts images inserted into circular buffers and lets threads wait for the
+// count to change. It is owned by the Core rather than by the buffer, so that
+// threads waiting for images never refer to a buffer that is being replaced.
+class ImageCounter
+{
+public:
+   ImageCounter();
+
+   long Get() const;
+   void Increment();
+   // Wake up waiting threads without changing the count
+   void WakeWaiters();
+   long WaitForChange(long lastCount, long timeoutMs) const;
+
+private:
+   mutable boost::mutex mutex_;
+   mutable boost::condition_variable cond_;
+   long count_;
+   unsigned long wakeups_;
+};
+
+
 class CircularBuffer
 {
 public:
-   CircularBuffer(unsigned int memorySizeMB);
+   // imageCounter, if not null, is incremented for each inserted frame and
+   // woken when the buffer is cleared; it must outlive the buffer
+   CircularBuffer(unsigned int memorySizeMB, ImageCounter* imageCounter = 0);
    ~CircularBuffer();
 
    unsigned GetMemorySizeMB() const { return memorySizeMB_; }
@@ -66,6 +94,7 @@ public:
    const mm::ImgBuffer* GetNthFromTopImageBuffer(unsigned long n) const;
    const mm::ImgBuffer* GetNthFromTopImageBuffer(long n, unsigned channel) const;
    const mm::ImgBuffer* GetNextImageBuffer(unsigned channel);
+   const mm::ImgBuffer* GetLastImageBufferFromCamera(const std::string& camera, unsigned channel) const;
    void Clear(); 
 
    bool Overflow() {MMThreadGuard guard(g_bufferLock); return overflow_;}
@@ -80,6 +109,10 @@ private:
    long imageCounter_;
    MM::MMTime startTime_;
    std::map<std::string, long> imageNumbers_;
+   // insertIndex_ of the most recent frame from each camera
+   std::map<std::string, long> lastIndexForCamera_;
+
+   ImageCounter* insertedImageCounter_;
 
    // Invariants:
    // 0 <= saveIndex_ <= insertIndex_
@@ -235,3 +235,60 @@ std::string PropertyBlock::getValue(const char* key) const throw (CMMError)
    throw CMMError(errTxt.str().c_str(), MMERR_DEVICE_GENERIC);
 }
 
+
+/**
+ * Adds a property to the snapshot, replacing any earlier entry for the same
+ * device and property.
+ */
+void PropertySnapshot::addInfo(const PropertyInfo& info)
+{
+   std::string key = info.getKey();
+   map<string, size_t>::const_iterator it = index_.find(key);
+   if (it != index_.end())
+   {
+      infos_[it->second] = info;
+   }
+   else
+   {
+      index_[key] = infos_.size();
+      infos_.push_back(info);
+   }
+}
+
+/**
+ * Checks whether the property is included in the snapshot.
+ */
+bool PropertySnapshot::isPropertyIncluded(const char* device, const char* prop) const
+{
+   return index_.find(PropertySetting::generateKey(device, prop)) != index_.end();
+}
+
+/**
+ * Returns the property with specified index.
+ */
+PropertyInfo PropertySnapshot::getInfo(size_t index) const throw (CMMError)
+{
+   if (index >= infos_.size())
+   {
+      std::ostringstream errTxt;
+      errTxt << (unsigned int)index << " - invalid property snapshot index";
+      throw CMMError(errTxt.str().c_str(), MMERR_DEVICE_GENERIC);
+   }
+   return infos_[index];
+}
+
+/**
+ * Returns the property with specified device name and property name.
+ */
+PropertyInfo PropertySnapshot::getInfo(const char* device, const char* prop) const throw (CMMError)
+{
+   map<string, size_t>::const_iterator it =
+      index_.find(PropertySetting::generateKey(device, prop));
+   if (it == index_.end())
+   {
+      std::ostringstream errTxt;
+      errTxt << "Property " << prop << " not found in device " << device << ".";
+      throw CMMError(errTxt.str().c_str(), MMERR_DEVICE_GENERIC);
+   }
+   return infos_[it->second];
+}
@@ -31,6 +31,9 @@
 #include <vector>
 #include <map>
 #include "Error.h"
+#include "../MMDevice/MMDeviceConstants.h"
+
+class CMMCore;
 
 
 /**
@@ -174,4 +177,119 @@ private:
    std::map<std::string, PropertyPair> pairs_;
 };
 
+/**
+ * A property value together with its metadata (type, allowed values, limits,
+ * and flags). Filled in by CMMCore; see CMMCore::getPropertySnapshot().
+ */
+struct PropertyInfo
+{
+   PropertyInfo() :
+      deviceType_(MM::UnknownType),
+      type_(MM::Undef),
+      valueAvailable_(false),
+      readOnly_(false),
+      preInit_(false),
+      hasLimits_(false),
+      lowerLimit_(0.0),
+      upperLimit_(0.0)
+   {}
+   ~PropertyInfo() {}
+
+   /**
+    * Returns the device label.
+    */
+   std::string getDeviceLabel() const {return deviceLabel_;}
+   /**
+    * Returns the property name.
+    */
+   std::string getPropertyName() const {return propertyName_;}
+   /**
+    * Returns the type of the device the property belongs to.
+    */
+   MM::DeviceType getDeviceType() const {return deviceType_;}
+   /**
+    * Returns the property type.
+    */
+   MM::PropertyType getType() const {return type_;}
+   /**
+    * Returns the property value, or an empty string if it could not be read.
+    */
+   std::string getValue() const {return value_;}
+   /**
+    * Returns false if the value could not be read (or was not in the cache).
+    */
+   bool isValueAvailable() const {return valueAvailable_;}
+   /**
+    * Returns the read-only status.
+    */
+   bool isReadOnly() const {return readOnly_;}
+   /**
+    * Returns true for a pre-initialization property.
+    */
+   bool isPreInit() const {return preInit_;}
+   /**
+    * Returns true if the property has limits.
+    */
+   bool hasLimits() const {return hasLimits_;}
+   /**
+    * Returns the lower limit, or 0 if the property has no limits.
+    */
+   double getLowerLimit() const {return lowerLimit_;}
+   /**
+    * Returns the upper limit, or 0 if the property has no limits.
+    */
+   double getUpperLimit() const {return upperLimit_;}
+   /**
+    * Returns the allowed values; empty if there are no restrictions.
+    */
+   std::vector<std::string> getAllowedValues() const {return allowedValues_;}
+
+   std::string getKey() const
+      {return PropertySetting::generateKey(deviceLabel_.c_str(), propertyName_.c_str());}
+
+private:
+   friend class CMMCore;
+
+   std::string deviceLabel_;
+   std::string propertyName_;
+   MM::DeviceType deviceType_;
+   MM::PropertyType type_;
+   std::string value_;
+   bool valueAvailable_;
+   bool readOnly_;
+   bool preInit_;
+   bool hasLimits_;
+   double lowerLimit_;
+   double upperLimit_;
+   std::vector<std::string> allowedValues_;
+};
+
+/**
+ * Encapsulation of a snapshot of device properties and their metadata.
+ * Designed to be wrapped by SWIG, so that a property table can be filled
+ * with a single call into the Core.
+ */
+class PropertySnapshot
+{
+public:
+
+   PropertySnapshot() {}
+   ~PropertySnapshot() {}
+
+   void addInfo(const PropertyInfo& info);
+
+   bool isPropertyIncluded(const char* device, const char* prop) const;
+   PropertyInfo getInfo(size_t index) const throw (CMMError);
+   PropertyInfo getInfo(const char* device, const char* prop) const throw (CMMError);
+
+   /**
+    * Returns the number of properties.
+    */
+   size_t size() const {return infos_.size();}
+
+private:
+   std::vector<PropertyInfo> infos_;
+   std::map<std::string, size_t> index_;
+};
+
 #endif //_CONFIGURATION_H_
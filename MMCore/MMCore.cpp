@@ -54,13 +54,16 @@
 #include "LogManager.h"
 #include "MMCore.h"
 #include "MMEventCallback.h"
+#include "ParallelInitialization.h"
 #include "PluginManager.h"
 
+#include <boost/bind.hpp>
 #include <boost/date_time/posix_time/posix_time.hpp>
 
 #include <algorithm>
 #include <assert.h>
 #include <fstream>
+#include <map>
 #include <set>
 #include <sstream>
 #include <vector>
@@ -106,7 +109,7 @@ using namespace std;
  * (Keep the 3 numbers on one line to make it easier to look at diffs when
  * merging/rebasing.)
  */
-const int MMCore_versionMajor = 10, MMCore_versionMinor = 0, MMCore_versionPatch = 0;
+const int MMCore_versionMajor = 10, MMCore_versionMinor = 1, MMCore_versionPatch = 0;
 
 
 ///////////////////////////////////////////////////////////////////////////////
@@ -126,12 +129,14 @@ CMMCore::CMMCore() :
    pollingIntervalMs_(10),
    timeoutMs_(5000),
    autoShutter_(true),
+   parallelDeviceInitialization_(false),
    callback_(0),
    configGroups_(0),
    properties_(0),
    externalCallback_(0),
    pixelSizeGroup_(0),
    cbuf_(0),
+   imageCounter_(0),
    pluginManager_(new CPluginManager()),
    deviceManager_(new mm::DeviceManager()),
    pPostedErrorsLock_(NULL)
@@ -145,7 +150,8 @@ CMMCore::CMMCore() :
    callback_ = new CoreCallback(this);
 
    const unsigned seqBufMegabytes = (sizeof(void*) > 4) ? 250 : 25;
-   cbuf_ = new CircularBuffer(seqBufMegabytes);
+   imageCounter_ = new ImageCounter();
+   cbuf_ = new CircularBuffer(seqBufMegabytes, imageCounter_);
 
    nullAffine_ = new std::vector<double>(6);
    for (int i = 0; i < 6; i++) {
@@ -176,6 +182,7 @@ CMMCore::~CMMCore()
    delete configGroups_;
    delete properties_;
    delete cbuf_;
+   delete imageCounter_;
    delete pixelSizeGroup_;
    delete pPostedErrorsLock_;
 
@@ -870,33 +877,173 @@ void CMMCore::reset() throw (CMMError)
  * Calls Initialize() method for each loaded device.
  * This method also initialized allowed values for core properties, based
  * on the collection of loaded devices.
+ *
+ * If parallel device initialization is enabled, devices that do not depend
+ * on each other are initialized concurrently.
+ * @see enableParallelDeviceInitialization
  */
 void CMMCore::initializeAllDevices() throw (CMMError)
 {
    vector<string> devices = deviceManager_->GetDeviceList();
    LOG_INFO(coreLogger_) << "Will initialize " << devices.size() << " devices";
 
+   boost::posix_time::ptime startTime =
+      boost::posix_time::microsec_clock::universal_time();
+
+   vector< boost::shared_ptr<DeviceInstance> > pDevices;
    for (size_t i=0; i<devices.size(); i++)
    {
-      boost::shared_ptr<DeviceInstance> pDevice;
       try {
-         pDevice = deviceManager_->GetDevice(devices[i]);
+         pDevices.push_back(deviceManager_->GetDevice(devices[i]));
       }
       catch (CMMError& err) {
          logError(devices[i].c_str(), err.getMsg().c_str());
          throw;
       }
+   }
+
+   if (parallelDeviceInitialization_)
+   {
+      initializeDevicesInParallel(pDevices);
+
+      // Roles are assigned in load order, as in the sequential case
+      for (size_t i=0; i<pDevices.size(); i++)
+      {
+         mm::DeviceModuleLockGuard guard(pDevices[i]);
+         assignDefaultRole(pDevices[i]);
+      }
+   }
+   else
+   {
+      for (size_t i=0; i<pDevices.size(); i++)
+      {
+         boost::shared_ptr<DeviceInstance> pDevice = pDevices[i];
+         mm::DeviceModuleLockGuard guard(pDevice);
+         LOG_INFO(coreLogger_) << "Will initialize device " << devices[i];
+         boost::posix_time::ptime deviceStart =
+            boost::posix_time::microsec_clock::universal_time();
+         pDevice->Initialize();
+         LOG_INFO(coreLogger_) << "Did initialize device " << devices[i] <<
+            " (" << (boost::posix_time::microsec_clock::universal_time() -
+                  deviceStart).total_milliseconds() << " ms)";
+
+         assignDefaultRole(pDevice);
+      }
+   }
+
+   LOG_INFO(coreLogger_) << "Finished initializing " << devices.size() <<
+      " devices (" << (boost::posix_time::microsec_clock::universal_time() -
+            startTime).total_milliseconds() << " ms)";
+
+   updateCoreProperties();
+}
+
+namespace {
+
+void InitializeDeviceOfList(
+      const std::vector< boost::shared_ptr<DeviceInstance> >& devices,
+      mm::logging::Logger logger, size_t index)
+{
+   boost::shared_ptr<DeviceInstance> pDevice = devices[index];
+   std::string label = pDevice->GetLabel();
+   try
+   {
       mm::DeviceModuleLockGuard guard(pDevice);
-      LOG_INFO(coreLogger_) << "Will initialize device " << devices[i];
+      LOG_INFO(logger) << "Will initialize device " << label;
       pDevice->Initialize();
-      LOG_INFO(coreLogger_) << "Did initialize device " << devices[i];
+   }
+   catch (const CMMError&)
+   {
+      throw;
+   }
+   catch (const std::exception& e)
+   {
+      throw CMMError("Error initializing device " + ToQuotedString(label) +
+            ": " + e.what());
+   }
+   LOG_INFO(logger) << "Did initialize device " << label;
+}
+
+} // anonymous namespace
+
+/**
+ * Initialize the given devices on a bounded pool of threads.
+ *
+ * Devices are ordered as computed by mm::ComputeInitDependencies(); devices
+ * with no dependency between them are initialized concurrently.
+ *
+ * On error, no further devices are started and the first error is thrown
+ * once the devices already being initialized have finished.
+ */
+void CMMCore::initializeDevicesInParallel(
+      const std::vector< boost::shared_ptr<DeviceInstance> >& devices)
+      throw (CMMError)
+{
+   const size_t maxThreads = 8;
 
-      assignDefaultRole(pDevice);
+   std::vector<mm::DeviceInitInfo> infos(devices.size());
+   for (size_t i = 0; i < devices.size(); ++i)
+   {
+      boost::shared_ptr<DeviceInstance> pDevice = devices[i];
+      infos[i].label = pDevice->GetLabel();
+      infos[i].module = pDevice->GetAdapterModule()->GetName();
+      boost::shared_ptr<HubInstance> pHub =
+         deviceManager_->GetParentDevice(pDevice);
+      if (pHub)
+         infos[i].parentHub = pHub->GetLabel();
+
+      mm::DeviceModuleLockGuard guard(pDevice);
+      std::vector<std::string> props = pDevice->GetPropertyNames();
+      for (size_t p = 0; p < props.size(); ++p)
+      {
+         if (pDevice->GetPropertyInitStatus(props[p].c_str()))
+            infos[i].preInitPropertyValues.push_back(
+                  pDevice->GetProperty(props[p]));
+      }
    }
 
-   LOG_INFO(coreLogger_) << "Finished initializing " << devices.size() << " devices";
+   std::vector< std::vector<size_t> > dependencies =
+      mm::ComputeInitDependencies(infos);
+   for (size_t i = 0; i < dependencies.size(); ++i)
+   {
+      for (size_t j = 0; j < dependencies[i].size(); ++j)
+      {
+         LOG_DEBUG(coreLogger_) << "Device " << infos[i].label <<
+            " will be initialized after " << infos[dependencies[i][j]].label;
+      }
+   }
 
-   updateCoreProperties();
+   LOG_INFO(coreLogger_) << "Initializing devices on " <<
+      std::min(maxThreads, devices.size()) << " threads";
+   std::vector<long> durationsMs;
+   boost::shared_ptr<CMMError> error;
+   try
+   {
+      mm::RunWithDependencies(dependencies,
+            boost::bind(&InitializeDeviceOfList, boost::cref(devices),
+               coreLogger_, _1),
+            maxThreads, durationsMs);
+   }
+   catch (const CMMError& e)
+   {
+      error.reset(new CMMError(e));
+   }
+
+   std::vector< std::pair<long, std::string> > report;
+   for (size_t i = 0; i < devices.size(); ++i)
+      report.push_back(std::make_pair(durationsMs[i], infos[i].label));
+   std::sort(report.rbegin(), report.rend());
+   std::ostringstream oss;
+   oss << "Device initialization times (ms), slowest first:";
+   for (size_t i = 0; i < report.size(); ++i)
+      oss << "\n   " << report[i].first << " " << report[i].second;
+   LOG_INFO(coreLogger_) << oss.str();
+
+   if (error)
+   {
+      logError("MMCore::initializeAllDevices", error->getMsg().c_str());
+      throw CMMError(*error);
+   }
 }
 
 /**
@@ -950,6 +1097,40 @@ void CMMCore::initializeDevice(const char* label ///< the device to initialize
    updateCoreProperties();
 }
 
+/**
+ * Enables or disables parallel initialization of devices by
+ * initializeAllDevices() (and hence when loading a configuration file).
+ *
+ * When enabled, devices from different device adapters are initialized
+ * concurrently unless one depends on the other through its parent hub or a
+ * pre-initialization property (such as the serial port). Devices from the
+ * same adapter are still initialized one at a time, in load order. Disabled
+ * by default.
+ *
+ * Devices are initialized on worker threads that exit once all devices are
+ * initialized. Adapters whose SDK is bound to the thread that initialized it
+ * (e.g. SDKs based on COM apartments or thread-local state) may fail when
+ * later called from other threads; leave this disabled if any such adapter
+ * is in use.
+ *
+ * @param enable  true to initialize devices in parallel
+ */
+void CMMCore::enableParallelDeviceInitialization(bool enable)
+{
+   parallelDeviceInitialization_ = enable;
+   LOG_INFO(coreLogger_) << "Parallel device initialization " <<
+      (enable ? "enabled" : "disabled");
+}
+
+/**
+ * Indicates whether devices are initialized in parallel.
+ * @see enableParallelDeviceInitialization
+ */
+bool CMMCore::isParallelDeviceInitializationEnabled() const
+{
+   return parallelDeviceInitialization_;
+}
+
 
 
 /**
@@ -3025,6 +3206,30 @@ void* CMMCore::getNBeforeLastImageMD(unsigned long n, Metadata& md) const throw
       throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
 }
 
+/**
+ * Returns a pointer to the pixels of the most recent image that the given
+ * camera inserted into the circular buffer, and the metadata of that image.
+ * Useful with multiple cameras (e.g. the Multi Camera device), whose images
+ * are interleaved in the buffer.
+ * @param cameraLabel  label of the camera, as in the "Camera" metadata tag
+ * @param channel      channel within the frame (for cameras that insert
+ *                     multi-channel frames)
+ * @param md           receives the metadata of the image
+ */
+void* CMMCore::getLastImageFromCameraMD(const char* cameraLabel,
+      unsigned channel, Metadata& md) const throw (CMMError)
+{
+   const mm::ImgBuffer* pBuf = cbuf_->GetLastImageBufferFromCamera(
+         cameraLabel, channel);
+   if (pBuf != 0)
+   {
+      md = pBuf->GetMetadata();
+      return const_cast<unsigned char*>(pBuf->GetPixels());
+   }
+   else
+      throw CMMError(getCoreErrorText(MMERR_CircularBufferEmpty).c_str(), MMERR_CircularBufferEmpty);
+}
+
 /**
  * Gets and removes the next image from the circular buffer.
  * Returns 0 if the buffer is empty.
@@ -3089,7 +3294,7 @@ void CMMCore::setCircularBufferMemoryFootprint(unsigned sizeMB ///< n megabytes
       sizeMB << " MB";
 	try
 	{
-		cbuf_ = new CircularBuffer(sizeMB);
+		cbuf_ = new CircularBuffer(sizeMB, imageCounter_);
 	}
 	catch(bad_alloc& ex)
 	{
@@ -3100,6 +3305,8 @@ void CMMCore::setCircularBufferMemoryFootprint(unsigned sizeMB ///< n megabytes
 	}
 	if (NULL == cbuf_) throw CMMError(getCoreErrorText(MMERR_OutOfMemory).c_str(), MMERR_OutOfMemory);
 
+   // Images in the old buffer are gone; let waiters know
+   imageCounter_->WakeWaiters();
 
 	try
 	{
@@ -3150,6 +3357,34 @@ long CMMCore::getRemainingImageCount()
    return 0;
 }
 
+/**
+ * Returns the total number of images inserted into the Circular Buffer since
+ * the Core was created. The counter is not reset when the buffer is cleared
+ * or resized, so it can be used to detect new images, see waitForNewImage().
+ */
+long CMMCore::getImageCounter()
+{
+   return imageCounter_->Get();
+}
+
+/**
+ * Blocks until an image is inserted into the Circular Buffer, the buffer is
+ * cleared or resized, or the timeout passes, whichever comes first. This lets
+ * clients such as live mode react to new images without polling.
+ *
+ * The wait does not refer to the buffer itself, so it is safe to call
+ * setCircularBufferMemoryFootprint() while other threads are waiting.
+ * @param lastImageCounter  value of getImageCounter() for the last image
+ *                          the caller knows about
+ * @param timeoutMs         maximum time to wait
+ * @return the current value of getImageCounter(); equal to lastImageCounter
+ *         if no image arrived
+ */
+long CMMCore::waitForNewImage(long lastImageCounter, long timeoutMs)
+{
+   return imageCounter_->WaitForChange(lastImageCounter, timeoutMs);
+}
+
 /**
  * Returns the total number of images that can be stored in the buffer
  */
@@ -3997,6 +4232,157 @@ MM::PropertyType CMMCore::getPropertyType(const char* label, const char* propNam
    return pDevice->GetPropertyType(propName);
 }
 
+/**
+ * Returns all properties of all loaded devices (including the Core), with
+ * their values and metadata, in a single call.
+ *
+ * This is equivalent to calling getDevicePropertySnapshot() for each device
+ * returned by getLoadedDevices(), and is much faster than querying each
+ * property's value, type, limits, and allowed values separately (especially
+ * through a language binding).
+ *
+ * Properties whose value cannot be read (or, if fromCache is true, is not in
+ * the cache) are included with PropertyInfo::isValueAvailable() false.
+ *
+ * @param fromCache  if true, take the values from the system state cache
+ *                   instead of querying the devices
+ * @return the properties and their metadata
+ */
+PropertySnapshot CMMCore::getPropertySnapshot(bool fromCache) throw (CMMError)
+{
+   PropertySnapshot snapshot;
+   vector<string> devices = getLoadedDevices();
+   for (vector<string>::const_iterator it = devices.begin(), end = devices.end();
+         it != end; ++it)
+   {
+      appendPropertySnapshot(snapshot, it->c_str(), fromCache);
+   }
+   return snapshot;
+}
+
+/**
+ * Returns all properties of one device, with their values and metadata, in a
+ * single call.
+ * @see getPropertySnapshot
+ *
+ * @param label      the device label
+ * @param fromCache  if true, take the values from the system state cache
+ *                   instead of querying the device
+ * @return the properties and their metadata
+ */
+PropertySnapshot CMMCore::getDevicePropertySnapshot(const char* label,
+      bool fromCache) throw (CMMError)
+{
+   PropertySnapshot snapshot;
+   appendPropertySnapshot(snapshot, label, fromCache);
+   return snapshot;
+}
+
+void CMMCore::appendPropertySnapshot(PropertySnapshot& snapshot,
+      const char* label, bool fromCache) throw (CMMError)
+{
+   if (IsCoreDeviceLabel(label))
+   {
+      vector<string> names = properties_->GetNames();
+      for (vector<string>::const_iterator it = names.begin(), end = names.end();
+            it != end; ++it)
+      {
+         PropertyInfo info;
+         info.deviceLabel_ = MM::g_Keyword_CoreDevice;
+         info.propertyName_ = *it;
+         info.deviceType_ = MM::CoreDevice;
+         info.value_ = properties_->Get(it->c_str());
+         info.valueAvailable_ = true;
+         info.readOnly_ = properties_->IsReadOnly(it->c_str());
+         info.allowedValues_ = properties_->GetAllowedValues(it->c_str());
+         snapshot.addInfo(info);
+      }
+      return;
+   }
+
+   boost::shared_ptr<DeviceInstance> pDevice = deviceManager_->GetDevice(label);
+   MM::DeviceType deviceType = pDevice->GetType();
+
+   std::vector<PropertyInfo> infos;
+   {
+      mm::DeviceModuleLockGuard guard(pDevice);
+      std::vector<std::string> names = pDevice->GetPropertyNames();
+      infos.reserve(names.size());
+      for (std::vector<std::string>::const_iterator it = names.begin(),
+            end = names.end(); it != end; ++it)
+      {
+         const char* propName = it->c_str();
+         PropertyInfo info;
+         info.deviceLabel_ = label;
+         info.propertyName_ = *it;
+         info.deviceType_ = deviceType;
+         try
+         {
+            info.type_ = pDevice->GetPropertyType(propName);
+            info.readOnly_ = pDevice->GetPropertyReadOnly(propName);
+            info.preInit_ = pDevice->GetPropertyInitStatus(propName);
+            info.hasLimits_ = pDevice->HasPropertyLimits(propName);
+            info.lowerLimit_ = pDevice->GetPropertyLowerLimit(propName);
+            info.upperLimit_ = pDevice->GetPropertyUpperLimit(propName);
+            unsigned nrValues = pDevice->GetNumberOfPropertyValues(propName);
+            info.allowedValues_.reserve(nrValues);
+            for (unsigned i = 0; i < nrValues; ++i)
+               info.allowedValues_.push_back(pDevice->GetPropertyValueAt(*it, i));
+         }
+         catch (const CMMError& e)
+         {
+            LOG_ERROR(coreLogger_) << "Skipping property " << propName <<
+               " of device " << label << " in snapshot: " << e.getMsg();
+            continue;
+         }
+
+         if (!fromCache)
+         {
+            try
+            {
+               info.value_ = pDevice->GetProperty(*it);
+               info.valueAvailable_ = true;
+            }
+            catch (const CMMError& e)
+            {
+               LOG_ERROR(coreLogger_) << "Cannot read property " << propName <<
+                  " of device " << label << ": " << e.getMsg();
+            }
+         }
+         infos.push_back(info);
+      }
+   }
+
+   {
+      MMThreadGuard scg(stateCacheLock_);
+      for (std::vector<PropertyInfo>::iterator it = infos.begin(),
+            end = infos.end(); it != end; ++it)
+      {
+         if (fromCache)
+         {
+            if (stateCache_.isPropertyIncluded(label, it->propertyName_.c_str()))
+            {
+               it->value_ = stateCache_.getSetting(label,
+                     it->propertyName_.c_str()).getPropertyValue();
+               it->valueAvailable_ = true;
+            }
+         }
+         else if (it->valueAvailable_)
+         {
+            // As in getProperty(), use the opportunity to update the cache
+            stateCache_.addSetting(PropertySetting(label,
+                     it->propertyName_.c_str(), it->value_.c_str()));
+         }
+      }
+   }
+
+   for (std::vector<PropertyInfo>::const_iterator it = infos.begin(),
+         end = infos.end(); it != end; ++it)
+   {
+      snapshot.addInfo(*it);
+   }
+}
+
 
 /**
  * Horizontal dimension of the image buffer in pixels.
@@ -90,6 +90,7 @@ class CircularBuffer;
 class ConfigGroupCollection;
 class CoreCallback;
 class CorePropertyCollection;
+class ImageCounter;
 class MMEventCallback;
 class Metadata;
 class PixelSizeConfigGroup;
@@ -149,6 +150,8 @@ public:
    void unloadAllDevices() throw (CMMError);
    void initializeAllDevices() throw (CMMError);
    void initializeDevice(const char* label) throw (CMMError);
+   void enableParallelDeviceInitialization(bool enable);
+   bool isParallelDeviceInitializationEnabled() const;
    void reset() throw (CMMError);
 
    void unloadLibrary(const char* moduleName) throw (CMMError);
@@ -231,6 +234,8 @@ public:
    double getPropertyLowerLimit(const char* label, const char* propName) throw (CMMError);
    double getPropertyUpperLimit(const char* label, const char* propName) throw (CMMError);
    MM::PropertyType getPropertyType(const char* label, const char* propName) throw (CMMError);
+   PropertySnapshot getPropertySnapshot(bool fromCache) throw (CMMError);
+   PropertySnapshot getDevicePropertySnapshot(const char* label, bool fromCache) throw (CMMError);
 
    void startPropertySequence(const char* label, const char* propName) throw (CMMError);
    void stopPropertySequence(const char* label, const char* propName) throw (CMMError);
@@ -418,8 +423,12 @@ public:
    void* getNBeforeLastImageMD(unsigned long n, Metadata& md)
       const throw (CMMError);
    void* popNextImageMD(Metadata& md) throw (CMMError);
+   void* getLastImageFromCameraMD(const char* cameraLabel, unsigned channel,
+         Metadata& md) const throw (CMMError);
 
    long getRemainingImageCount();
+   long getImageCounter();
+   long waitForNewImage(long lastImageCounter, long timeoutMs);
    long getBufferTotalCapacity();
    long getBufferFreeCapacity();
    bool isBufferOverflowed() const;
@@ -665,6 +674,7 @@ private:
    long pollingIntervalMs_;
    long timeoutMs_;
    bool autoShutter_;
+   bool parallelDeviceInitialization_;
    std::vector<double> *nullAffine_;
    MM::Core* callback_;                 // core services for devices
    ConfigGroupCollection* configGroups_;
@@ -672,6 +682,7 @@ private:
    MMEventCallback* externalCallback_;  // notification hook to the higher layer (e.g. GUI)
    PixelSizeConfigGroup* pixelSizeGroup_;
    CircularBuffer* cbuf_;
+   ImageCounter* imageCounter_; // outlives cbuf_, see waitForNewImage()
 
    std::vector< boost::weak_ptr<DeviceInstance> > imageSynchroDevices_;
    boost::shared_ptr<CPluginManager> pluginManager_;
@@ -710,7 +721,12 @@ private:
    void logError(const char* device, const char* msg);
    void updateAllowedChannelGroups();
    void assignDefaultRole(boost::shared_ptr<DeviceInstance> pDev);
+   void initializeDevicesInParallel(
+         const std::vector< boost::shared_ptr<DeviceInstance> >& devices)
+         throw (CMMError);
    void updateCoreProperty(const char* propName, MM::DeviceType devType) throw (CMMError);
+   void appendPropertySnapshot(PropertySnapshot& snapshot, const char* label,
+         bool fromCache) throw (CMMError);
    void loadSystemConfigurationImpl(const char* fileName) throw (CMMError);
 };
 
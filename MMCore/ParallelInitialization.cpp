@@ -0,0 +1,185 @@
+#include "ParallelInitialization.h"
+
+#include <boost/bind.hpp>
+#include <boost/date_time/posix_time/posix_time.hpp>
+#include <boost/shared_ptr.hpp>
+#include <boost/thread/condition_variable.hpp>
+#include <boost/thread/mutex.hpp>
+#include <boost/thread/thread.hpp>
+
+#include <algorithm>
+#include <deque>
+#include <exception>
+#include <map>
+#include <set>
+
+namespace mm
+{
+
+namespace
+{
+
+// Shared state for the threads of RunWithDependencies().
+// All members other than the const ones are guarded by mutex_.
+class DependencyRunner
+{
+public:
+   DependencyRunner(const std::vector< std::vector<size_t> >& dependencies,
+         boost::function<void (size_t)> task) :
+      task_(task),
+      dependents_(dependencies.size()),
+      remainingDependencies_(dependencies.size(), 0),
+      durationsMs_(dependencies.size(), 0),
+      runningCount_(0)
+   {
+      for (size_t i = 0; i < dependencies.size(); ++i)
+      {
+         for (size_t j = 0; j < dependencies[i].size(); ++j)
+            dependents_[dependencies[i][j]].push_back(i);
+         remainingDependencies_[i] = dependencies[i].size();
+         if (remainingDependencies_[i] == 0)
+            ready_.push_back(i);
+      }
+   }
+
+   void RunWorker()
+   {
+      boost::unique_lock<boost::mutex> lock(mutex_);
+      for (;;)
+      {
+         // If nothing is ready or running, nothing will become ready
+         while (ready_.empty() && !firstError_ && runningCount_ > 0)
+            cv_.wait(lock);
+         if (firstError_ || ready_.empty())
+            return;
+
+         size_t index = ready_.front();
+         ready_.pop_front();
+         ++runningCount_;
+         lock.unlock();
+
+         boost::shared_ptr<CMMError> error;
+         long durationMs = RunTask(index, error);
+
+         lock.lock();
+         --runningCount_;
+         durationsMs_[index] = durationMs;
+         if (error)
+         {
+            if (!firstError_)
+               firstError_ = error;
+         }
+         else
+         {
+            for (size_t j = 0; j < dependents_[index].size(); ++j)
+            {
+               size_t dependent = dependents_[index][j];
+               if (--remainingDependencies_[dependent] == 0)
+                  ready_.push_back(dependent);
+            }
+         }
+         cv_.notify_all();
+      }
+   }
+
+   // Call after all workers have exited
+   boost::shared_ptr<CMMError> GetError() const { return firstError_; }
+   const std::vector<long>& GetDurationsMs() const { return durationsMs_; }
+
+private:
+   long RunTask(size_t index, boost::shared_ptr<CMMError>& error)
+   {
+      boost::posix_time::ptime start =
+         boost::posix_time::microsec_clock::universal_time();
+      try
+      {
+         task_(index);
+      }
+      catch (const CMMError& e)
+      {
+         error.reset(new CMMError(e));
+      }
+      catch (const std::exception& e)
+      {
+         error.reset(new CMMError(e.what()));
+      }
+      return static_cast<long>(
+            (boost::posix_time::microsec_clock::universal_time() - start).
+            total_milliseconds());
+   }
+
+   const boost::function<void (size_t)> task_;
+   std::vector< std::vector<size_t> > dependents_;
+
+   boost::mutex mutex_;
+   boost::condition_variable cv_;
+   std::vector<size_t> remainingDependencies_;
+   std::deque<size_t> ready_;
+   std::vector<long> durationsMs_;
+   size_t runningCount_;
+   boost::shared_ptr<CMMError> firstError_;
+};
+
+} // anonymous namespace
+
+
+std::vector< std::vector<size_t> >
+ComputeInitDependencies(const std::vector<DeviceInitInfo>& devices)
+{
+   std::map<std::string, size_t> indexOfLabel;
+   for (size_t i = 0; i < devices.size(); ++i)
+      indexOfLabel[devices[i].label] = i;
+
+   std::vector< std::vector<size_t> > result(devices.size());
+   std::map<std::string, size_t> lastOfModule;
+   for (size_t i = 0; i < devices.size(); ++i)
+   {
+      const DeviceInitInfo& device = devices[i];
+      std::set<size_t> dependencies;
+
+      std::map<std::string, size_t>::const_iterator sameModule =
+         lastOfModule.find(device.module);
+      if (sameModule != lastOfModule.end())
+         dependencies.insert(sameModule->second);
+      lastOfModule[device.module] = i;
+
+      std::vector<std::string> related = device.preInitPropertyValues;
+      if (!device.parentHub.empty())
+         related.push_back(device.parentHub);
+      for (size_t r = 0; r < related.size(); ++r)
+      {
+         std::map<std::string, size_t>::const_iterator it =
+            indexOfLabel.find(related[r]);
+         if (it != indexOfLabel.end() && it->second < i)
+            dependencies.insert(it->second);
+      }
+
+      result[i].assign(dependencies.begin(), dependencies.end());
+   }
+   return result;
+}
+
+
+void RunWithDependencies(
+      const std::vector< std::vector<size_t> >& dependencies,
+      boost::function<void (size_t)> task, size_t maxThreads,
+      std::vector<long>& durationsMs) throw (CMMError)
+{
+   DependencyRunner runner(dependencies, task);
+   size_t numThreads = std::min(std::max<size_t>(maxThreads, 1),
+         dependencies.size());
+   boost::thread_group threads;
+   for (size_t t = 0; t < numThreads; ++t)
+   {
+      threads.create_thread(boost::bind(
+               &DependencyRunner::RunWorker, &runner));
+   }
+   threads.join_all();
+
+   durationsMs = runner.GetDurationsMs();
+   boost::shared_ptr<CMMError> error = runner.GetError();
+   if (error)
+      throw CMMError(*error);
+}
+
+} // namespace mm
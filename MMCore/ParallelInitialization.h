@@ -0,0 +1,55 @@
+#pragma once
+
+#include "Error.h"
+
+#include <boost/function.hpp>
+
+#include <string>
+#include <vector>
+
+namespace mm
+{
+
+/**
+ * What a device's initialization order depends on.
+ */
+struct DeviceInitInfo
+{
+   std::string label;
+   std::string module; // Name of the device adapter module
+   std::string parentHub; // Label of the parent hub; empty if none
+   std::vector<std::string> preInitPropertyValues;
+};
+
+/**
+ * Compute which devices must be initialized before each device.
+ *
+ * A device depends on the devices before it (in load order) that it may
+ * rely on: its parent hub, any device named by one of its pre-init
+ * properties (e.g. the serial port), and the previous device from the same
+ * adapter module (since adapters may assume that their devices are
+ * initialized in order). Later devices are never depended upon, matching
+ * the sequential order and ruling out cycles.
+ *
+ * Returns, for each device, the indices of its dependencies in ascending
+ * order.
+ */
+std::vector< std::vector<size_t> >
+ComputeInitDependencies(const std::vector<DeviceInitInfo>& devices);
+
+/**
+ * Run task(i) for each i, on up to maxThreads threads, each after all of
+ * its dependencies have succeeded.
+ *
+ * Once a task has failed, no further tasks are started; the first error is
+ * thrown once the tasks already running have finished. Exceptions other
+ * than CMMError are rethrown as CMMError.
+ *
+ * durationsMs receives the duration of each task (0 for tasks not run).
+ */
+void RunWithDependencies(
+      const std::vector< std::vector<size_t> >& dependencies,
+      boost::function<void (size_t)> task, size_t maxThreads,
+      std::vector<long>& durationsMs) throw (CMMError);
+
+} // namespace mm
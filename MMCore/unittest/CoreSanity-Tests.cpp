@@ -24,6 +24,24 @@ TEST(CoreSanityTests, CreateAndReset)
    c.reset();
 }
 
+TEST(CoreSanityTests, PropertySnapshotOfCore)
+{
+   CMMCore c;
+   PropertySnapshot snapshot = c.getPropertySnapshot(false);
+   std::vector<std::string> names = c.getDevicePropertyNames("Core");
+   ASSERT_EQ(names.size(), snapshot.size());
+   for (size_t i = 0; i < names.size(); ++i)
+   {
+      ASSERT_TRUE(snapshot.isPropertyIncluded("Core", names[i].c_str()));
+      PropertyInfo info = snapshot.getInfo("Core", names[i].c_str());
+      EXPECT_EQ(MM::CoreDevice, info.getDeviceType());
+      EXPECT_TRUE(info.isValueAvailable());
+      EXPECT_EQ(c.getProperty("Core", names[i].c_str()), info.getValue());
+      EXPECT_EQ(c.getAllowedPropertyValues("Core", names[i].c_str()),
+            info.getAllowedValues());
+   }
+}
+
 int main(int argc, char **argv)
 {
    ::testing::InitGoogleTest(&argc, argv);
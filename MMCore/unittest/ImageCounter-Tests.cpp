@@ -0,0 +1,107 @@
+#include <gtest/gtest.h>
+
+#include "CircularBuffer.h"
+#include "MMCore.h"
+
+#include <boost/bind.hpp>
+#include <boost/thread.hpp>
+
+
+namespace {
+
+void IncrementAfter(ImageCounter* counter, long delayMs)
+{
+   boost::this_thread::sleep(boost::posix_time::milliseconds(delayMs));
+   counter->Increment();
+}
+
+void WakeAfter(ImageCounter* counter, long delayMs)
+{
+   boost::this_thread::sleep(boost::posix_time::milliseconds(delayMs));
+   counter->WakeWaiters();
+}
+
+void ClearAfter(CircularBuffer* buffer, long delayMs)
+{
+   boost::this_thread::sleep(boost::posix_time::milliseconds(delayMs));
+   buffer->Clear();
+}
+
+void WaitForNewImage(CMMCore* core, long lastCounter, long timeoutMs,
+      long* result)
+{
+   *result = core->waitForNewImage(lastCounter, timeoutMs);
+}
+
+} // anonymous namespace
+
+
+TEST(ImageCounterTests, WaitTimesOutWithoutChange)
+{
+   ImageCounter counter;
+   EXPECT_EQ(0, counter.WaitForChange(0, 20));
+}
+
+TEST(ImageCounterTests, WaitReturnsAtOnceIfAlreadyChanged)
+{
+   ImageCounter counter;
+   counter.Increment();
+   counter.Increment();
+   EXPECT_EQ(2, counter.Get());
+   EXPECT_EQ(2, counter.WaitForChange(0, 60000));
+}
+
+TEST(ImageCounterTests, IncrementWakesWaiter)
+{
+   ImageCounter counter;
+   boost::thread t(boost::bind(&IncrementAfter, &counter, 50));
+   EXPECT_EQ(1, counter.WaitForChange(0, 60000));
+   t.join();
+}
+
+// The waits below time out after a minute; returning much sooner shows that
+// the waiter was woken rather than timed out.
+
+TEST(ImageCounterTests, WakeWaitersReturnsUnchangedCount)
+{
+   ImageCounter counter;
+   counter.Increment();
+   boost::thread t(boost::bind(&WakeAfter, &counter, 50));
+   boost::system_time start = boost::get_system_time();
+   EXPECT_EQ(1, counter.WaitForChange(1, 60000));
+   EXPECT_LT((boost::get_system_time() - start).total_seconds(), 30);
+   t.join();
+}
+
+TEST(ImageCounterTests, BufferClearWakesWaiter)
+{
+   ImageCounter counter;
+   CircularBuffer buffer(1, &counter);
+   boost::thread t(boost::bind(&ClearAfter, &buffer, 50));
+   boost::system_time start = boost::get_system_time();
+   EXPECT_EQ(0, counter.WaitForChange(0, 60000));
+   EXPECT_LT((boost::get_system_time() - start).total_seconds(), 30);
+   t.join();
+}
+
+TEST(ImageCounterTests, CoreWaitSurvivesBufferReplacement)
+{
+   CMMCore core;
+   long lastCounter = core.getImageCounter();
+   long result = -1;
+   boost::system_time start = boost::get_system_time();
+   boost::thread t(boost::bind(&WaitForNewImage, &core, lastCounter, 60000,
+            &result));
+   boost::this_thread::sleep(boost::posix_time::milliseconds(50));
+   core.setCircularBufferMemoryFootprint(1);
+   t.join();
+   EXPECT_LT((boost::get_system_time() - start).total_seconds(), 30);
+   EXPECT_EQ(lastCounter, result);
+   EXPECT_EQ(lastCounter, core.getImageCounter());
+}
+
+int main(int argc, char **argv)
+{
+   ::testing::InitGoogleTest(&argc, argv);
+   return RUN_ALL_TESTS();
+}
@@ -0,0 +1,264 @@
+#include <gtest/gtest.h>
+
+#include "ParallelInitialization.h"
+
+#include <boost/bind.hpp>
+#include <boost/thread.hpp>
+
+#include <algorithm>
+#include <stdexcept>
+
+using mm::DeviceInitInfo;
+
+
+namespace {
+
+DeviceInitInfo Device(const std::string& label, const std::string& module,
+      const std::string& parentHub = "")
+{
+   DeviceInitInfo info;
+   info.label = label;
+   info.module = module;
+   info.parentHub = parentHub;
+   return info;
+}
+
+std::vector<size_t> Indices(size_t count = 0, size_t a = 0, size_t b = 0)
+{
+   std::vector<size_t> result;
+   if (count > 0)
+      result.push_back(a);
+   if (count > 1)
+      result.push_back(b);
+   return result;
+}
+
+// Records the tasks run, and how many ran at once
+class TaskRecorder
+{
+public:
+   TaskRecorder() : running_(0), maxRunning_(0) {}
+
+   void Run(size_t index, long sleepMs, size_t failingIndex)
+   {
+      {
+         boost::lock_guard<boost::mutex> lock(mutex_);
+         order_.push_back(index);
+         maxRunning_ = std::max(maxRunning_, ++running_);
+      }
+      boost::this_thread::sleep(boost::posix_time::milliseconds(sleepMs));
+      {
+         boost::lock_guard<boost::mutex> lock(mutex_);
+         --running_;
+      }
+      if (index == failingIndex)
+         throw CMMError("Task failed");
+   }
+
+   void RunThrowingStdException(size_t)
+   {
+      throw std::runtime_error("Not a CMMError");
+   }
+
+   std::vector<size_t> GetOrder() const { return order_; }
+   size_t GetMaxRunning() const { return maxRunning_; }
+
+private:
+   boost::mutex mutex_;
+   std::vector<size_t> order_;
+   size_t running_;
+   size_t maxRunning_;
+};
+
+const size_t NONE = static_cast<size_t>(-1);
+
+} // anonymous namespace
+
+
+TEST(ComputeInitDependenciesTests, UnrelatedDevicesAreIndependent)
+{
+   std::vector<DeviceInitInfo> devices;
+   devices.push_back(Device("Camera", "CameraAdapter"));
+   devices.push_back(Device("Stage", "StageAdapter"));
+   std::vector< std::vector<size_t> > deps =
+      mm::ComputeInitDependencies(devices);
+   ASSERT_EQ(2u, deps.size());
+   EXPECT_EQ(Indices(), deps[0]);
+   EXPECT_EQ(Indices(), deps[1]);
+}
+
+TEST(ComputeInitDependenciesTests, SameModuleIsChained)
+{
+   std::vector<DeviceInitInfo> devices;
+   devices.push_back(Device("A1", "A"));
+   devices.push_back(Device("B1", "B"));
+   devices.push_back(Device("A2", "A"));
+   devices.push_back(Device("A3", "A"));
+   std::vector< std::vector<size_t> > deps =
+      mm::ComputeInitDependencies(devices);
+   EXPECT_EQ(Indices(), deps[0]);
+   EXPECT_EQ(Indices(), deps[1]);
+   EXPECT_EQ(Indices(1, 0), deps[2]);
+   EXPECT_EQ(Indices(1, 2), deps[3]);
+}
+
+TEST(ComputeInitDependenciesTests, DependsOnHub)
+{
+   std::vector<DeviceInitInfo> devices;
+   devices.push_back(Device("Hub", "HubAdapter"));
+   devices.push_back(Device("Peripheral", "OtherAdapter", "Hub"));
+   std::vector< std::vector<size_t> > deps =
+      mm::ComputeInitDependencies(devices);
+   EXPECT_EQ(Indices(1, 0), deps[1]);
+}
+
+TEST(ComputeInitDependenciesTests, DependsOnDeviceNamedByPreInitProperty)
+{
+   std::vector<DeviceInitInfo> devices;
+   devices.push_back(Device("COM1", "SerialManager"));
+   devices.push_back(Device("Other", "OtherAdapter"));
+   devices.push_back(Device("Shutter", "ShutterAdapter"));
+   devices[2].preInitPropertyValues.push_back("COM1");
+   devices[2].preInitPropertyValues.push_back("9600");
+   std::vector< std::vector<size_t> > deps =
+      mm::ComputeInitDependencies(devices);
+   EXPECT_EQ(Indices(1, 0), deps[2]);
+}
+
+TEST(ComputeInitDependenciesTests, LaterDevicesAreIgnored)
+{
+   std::vector<DeviceInitInfo> devices;
+   devices.push_back(Device("Shutter", "ShutterAdapter", "Hub"));
+   devices[0].preInitPropertyValues.push_back("COM1");
+   devices.push_back(Device("COM1", "SerialManager"));
+   devices.push_back(Device("Hub", "HubAdapter"));
+   std::vector< std::vector<size_t> > deps =
+      mm::ComputeInitDependencies(devices);
+   EXPECT_EQ(Indices(), deps[0]);
+}
+
+TEST(ComputeInitDependenciesTests, DependenciesAreSortedAndUnique)
+{
+   std::vector<DeviceInitInfo> devices;
+   devices.push_back(Device("COM1", "SerialManager"));
+   devices.push_back(Device("Hub", "HubAdapter"));
+   devices.push_back(Device("Peripheral", "HubAdapter", "Hub"));
+   devices[2].preInitPropertyValues.push_back("Hub");
+   devices[2].preInitPropertyValues.push_back("COM1");
+   std::vector< std::vector<size_t> > deps =
+      mm::ComputeInitDependencies(devices);
+   EXPECT_EQ(Indices(2, 0, 1), deps[2]);
+}
+
+
+TEST(RunWithDependenciesTests, RunsInDependencyOrder)
+{
+   std::vector< std::vector<size_t> > deps;
+   deps.push_back(Indices(1, 1));
+   deps.push_back(Indices(1, 2));
+   deps.push_back(Indices());
+   TaskRecorder recorder;
+   std::vector<long> durationsMs;
+   mm::RunWithDependencies(deps,
+         boost::bind(&TaskRecorder::Run, &recorder, _1, 10, NONE),
+         4, durationsMs);
+   std::vector<size_t> expected;
+   expected.push_back(2);
+   expected.push_back(1);
+   expected.push_back(0);
+   EXPECT_EQ(expected, recorder.GetOrder());
+   ASSERT_EQ(3u, durationsMs.size());
+}
+
+TEST(RunWithDependenciesTests, RunsIndependentTasksConcurrently)
+{
+   std::vector< std::vector<size_t> > deps(4);
+   TaskRecorder recorder;
+   std::vector<long> durationsMs;
+   mm::RunWithDependencies(deps,
+         boost::bind(&TaskRecorder::Run, &recorder, _1, 100, NONE),
+         2, durationsMs);
+   EXPECT_EQ(4u, recorder.GetOrder().size());
+   EXPECT_EQ(2u, recorder.GetMaxRunning());
+}
+
+TEST(RunWithDependenciesTests, SingleThreadRunsOneAtATime)
+{
+   std::vector< std::vector<size_t> > deps(3);
+   TaskRecorder recorder;
+   std::vector<long> durationsMs;
+   mm::RunWithDependencies(deps,
+         boost::bind(&TaskRecorder::Run, &recorder, _1, 10, NONE),
+         1, durationsMs);
+   EXPECT_EQ(3u, recorder.GetOrder().size());
+   EXPECT_EQ(1u, recorder.GetMaxRunning());
+}
+
+TEST(RunWithDependenciesTests, ErrorStopsFurtherTasks)
+{
+   std::vector< std::vector<size_t> > deps;
+   deps.push_back(Indices());
+   deps.push_back(Indices(1, 0));
+   deps.push_back(Indices());
+   TaskRecorder recorder;
+   std::vector<long> durationsMs;
+   try
+   {
+      mm::RunWithDependencies(deps,
+            boost::bind(&TaskRecorder::Run, &recorder, _1, 10, 0),
+            1, durationsMs);
+      FAIL() << "Expected CMMError";
+   }
+   catch (const CMMError& e)
+   {
+      EXPECT_EQ("Task failed", e.getMsg());
+   }
+   EXPECT_EQ(Indices(1, 0), recorder.GetOrder());
+}
+
+TEST(RunWithDependenciesTests, ErrorSkipsDependents)
+{
+   std::vector< std::vector<size_t> > deps;
+   deps.push_back(Indices());
+   deps.push_back(Indices());
+   deps.push_back(Indices(1, 0));
+   TaskRecorder recorder;
+   std::vector<long> durationsMs;
+   EXPECT_THROW(mm::RunWithDependencies(deps,
+            boost::bind(&TaskRecorder::Run, &recorder, _1, 0, 0),
+            2, durationsMs), CMMError);
+   std::vector<size_t> order = recorder.GetOrder();
+   EXPECT_EQ(order.end(), std::find(order.begin(), order.end(), 2u));
+   ASSERT_EQ(3u, durationsMs.size());
+   EXPECT_EQ(0, durationsMs[2]);
+}
+
+TEST(RunWithDependenciesTests, StdExceptionBecomesCMMError)
+{
+   std::vector< std::vector<size_t> > deps(1);
+   TaskRecorder recorder;
+   std::vector<long> durationsMs;
+   try
+   {
+      mm::RunWithDependencies(deps,
+            boost::bind(&TaskRecorder::RunThrowingStdException, &recorder,
+               _1),
+            1, durationsMs);
+      FAIL() << "Expected CMMError";
+   }
+   catch (const CMMError& e)
+   {
+      EXPECT_EQ("Not a CMMError", e.getMsg());
+   }
+}
+
+TEST(RunWithDependenciesTests, NoTasks)
+{
+   std::vector< std::vector<size_t> > deps;
+   std::vector<long> durationsMs(1, 42);
+   mm::RunWithDependencies(deps,
+         boost::bind(&TaskRecorder::RunThrowingStdException,
+            static_cast<TaskRecorder*>(0), _1),
+         8, durationsMs);
+   EXPECT_TRUE(durationsMs.empty());
+}
@@ -44,6 +44,7 @@ import javax.swing.SwingUtilities;
 
 import mmcorej.CMMCore;
 import mmcorej.Configuration;
+import mmcorej.DoubleVector;
 import mmcorej.StrVector;
 import mmcorej.TaggedImage;
 
@@ -62,6 +63,7 @@ import org.micromanager.Studio;
 import org.micromanager.events.AutofocusPluginShouldInitializeEvent;
 
 import org.micromanager.internal.utils.AutofocusBase;
+import org.micromanager.internal.utils.imageanalysis.FocusScores;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
 import org.micromanager.internal.utils.MDUtils;
 import org.micromanager.internal.utils.MMException;
@@ -91,6 +93,15 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       "MedianEdges", "Tenengrad", "FFTBandpass"};
    private final static String FFT_UPPER_CUTOFF = "FFTUpperCutoff(%)";
    private final static String FFT_LOWER_CUTOFF = "FFTLowerCutoff(%)";
+   private final static String SEARCH_ALGORITHM = "SearchAlgorithm";
+   private final static String BRENT_SEARCH = "BrentSearch";
+   // Sweeps the search range in steps of the tolerance, using the focus
+   // stage's hardware sequencing triggered by the camera
+   private final static String SEQUENCED_Z_SCAN = "SequencedZScan";
+   private final static String[] SEARCHALGORITHMS = {BRENT_SEARCH,
+      SEQUENCED_Z_SCAN};
+   // Number of scan points around the maximum used for the peak fit
+   private static final int PEAK_FIT_POINTS = 5;
 
    // Note on the tolerance settings for the Brent optimizer:
    //
@@ -145,6 +156,7 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    private String scoringMethod = "Edges";
    private double fftUpperCutoff = 14;
    private double fftLowerCutoff = 2.5;
+   private String searchAlgorithm = BRENT_SEARCH;
    private int imageCount_;
    private long startTimeMs_;
    private double startZUm_;
@@ -160,6 +172,8 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       super.createProperty(SHOW_IMAGES, show, SHOWVALUES);
       super.createProperty(SCORING_METHOD, scoringMethod, SCORINGMETHODS);
       super.createProperty(CHANNEL, "");
+      super.createProperty(SEARCH_ALGORITHM, searchAlgorithm,
+            SEARCHALGORITHMS);
    }
 
    @Override
@@ -177,6 +191,7 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
          fftUpperCutoff = clip(0.0, fftUpperCutoff, 100.0);
          show = getPropertyValue(SHOW_IMAGES);
          scoringMethod = getPropertyValue(SCORING_METHOD);
+         searchAlgorithm = getPropertyValue(SEARCH_ALGORITHM);
 
       } catch (MMException | ParseException ex) {
          studio_.logs().logError(ex);
@@ -213,7 +228,13 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       double oldExposure = core.getExposure();
       core.setExposure(exposure);
 
-      double z = runAutofocusAlgorithm();
+      double z;
+      if (searchAlgorithm.contentEquals(SEQUENCED_Z_SCAN) &&
+            canRunSequencedZScan()) {
+         z = runSequencedZScan();
+      } else {
+         z = runAutofocusAlgorithm();
+      }
 
       if (cropFactor < 1.0) {
          studio_.app().setROI(oldROI);
@@ -277,6 +298,169 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
       return result.getPoint();
    }
 
+   private boolean canRunSequencedZScan() throws Exception {
+      CMMCore core = studio_.getCMMCore();
+      String focusDevice = core.getFocusDevice();
+      if (liveModeOn_) {
+         studio_.logs().logMessage(
+               "OughtaFocus: live mode is on; using Brent search");
+         return false;
+      }
+      if (!core.isStageSequenceable(focusDevice)) {
+         studio_.logs().logMessage("OughtaFocus: focus device " + focusDevice
+               + " is not sequenceable; using Brent search");
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Acquire a Z sweep over the search range in a single sequence
+    * acquisition, with the focus stage stepping through a loaded sequence on
+    * each camera trigger. Images are scored as they arrive, and the best
+    * focus is located by fitting a peak to the scores around the maximum.
+    *
+    * This requires the camera to trigger the focus stage (as for
+    * hardware-sequenced Z stacks in the MDA).
+    */
+   private double runSequencedZScan() throws Exception {
+      CMMCore core = studio_.getCMMCore();
+      String focusDevice = core.getFocusDevice();
+      double z = core.getPosition(focusDevice);
+      startZUm_ = z;
+      imageCount_ = 0;
+
+      int nrSteps = (int) Math.floor(searchRange / absTolerance) + 1;
+      int maxLength = core.getStageSequenceMaxLength(focusDevice);
+      if (nrSteps > maxLength) {
+         nrSteps = maxLength;
+      }
+      if (nrSteps < 3) {
+         studio_.logs().logMessage("OughtaFocus: sequence too short ("
+               + nrSteps + "); using Brent search");
+         return runAutofocusAlgorithm();
+      }
+      double stepSize = searchRange / (nrSteps - 1);
+      double[] positions = new double[nrSteps];
+      DoubleVector sequence = new DoubleVector();
+      for (int i = 0; i < nrSteps; ++i) {
+         positions[i] = z - searchRange / 2 + i * stepSize;
+         sequence.add(positions[i]);
+      }
+      double[] scores = new double[nrSteps];
+
+      setZPosition(positions[0]);
+      core.loadStageSequence(focusDevice, sequence);
+      core.startStageSequence(focusDevice);
+      try {
+         core.startSequenceAcquisition(nrSteps, 0, true);
+         // Generous timeout, in case triggers are missing
+         long timeoutMs = System.currentTimeMillis() + 5000 +
+               (long) (nrSteps * (exposure + 100));
+         while (imageCount_ < nrSteps) {
+            if (core.getRemainingImageCount() > 0) {
+               TaggedImage img = core.popNextTaggedImage();
+               ImageProcessor proc = makeMonochromeProcessor(core,
+                     getMonochromePixels(img));
+               scores[imageCount_] = computeScore(proc);
+               studio_.logs().logMessage("OughtaFocus: image=" + imageCount_
+                     + ", t=" + (System.currentTimeMillis() - startTimeMs_)
+                     + ", z=" + TextUtils.FMT2.format(positions[imageCount_])
+                     + ", score=" + TextUtils.FMT2.format(scores[imageCount_]));
+               imageCount_++;
+               if (show.contentEquals("Yes") && imageCount_ == nrSteps) {
+                  studio_.live().displayImage(
+                        studio_.data().convertTaggedImage(img));
+               }
+            } else if (core.isBufferOverflowed()) {
+               throw new MMException("OughtaFocus: circular buffer overflowed");
+            } else if (!core.isSequenceRunning() &&
+                  core.getRemainingImageCount() == 0) {
+               throw new MMException("OughtaFocus: sequence stopped after "
+                     + imageCount_ + " of " + nrSteps + " images");
+            } else if (System.currentTimeMillis() > timeoutMs) {
+               throw new MMException("OughtaFocus: timed out after "
+                     + imageCount_ + " of " + nrSteps + " images");
+            } else {
+               Thread.sleep(1);
+            }
+         }
+      } finally {
+         core.stopSequenceAcquisition();
+         core.stopStageSequence(focusDevice);
+      }
+
+      double best = fitPeak(positions, scores);
+      studio_.logs().logMessage("OughtaFocus sequenced scan: images="
+              + nrSteps + ", z=" + TextUtils.FMT2.format(best)
+              + ", dz=" + TextUtils.FMT2.format(best - startZUm_)
+              + ", t=" + (System.currentTimeMillis() - startTimeMs_));
+      return best;
+   }
+
+   /**
+    * Locate the peak of the scores by least-squares fitting a parabola to
+    * the points around the maximum. If all those scores are positive, the
+    * parabola is fitted to their logarithm, i.e. a Gaussian is fitted.
+    * The result is restricted to the fitted interval; if the fit does not
+    * have a maximum there, the position of the highest score is returned.
+    */
+   private static double fitPeak(double[] positions, double[] scores) {
+      int maxIndex = 0;
+      for (int i = 1; i < scores.length; ++i) {
+         if (scores[i] > scores[maxIndex]) {
+            maxIndex = i;
+         }
+      }
+      int first = Math.max(0, maxIndex - PEAK_FIT_POINTS / 2);
+      int last = Math.min(scores.length - 1, first + PEAK_FIT_POINTS - 1);
+      first = Math.max(0, last - PEAK_FIT_POINTS + 1);
+
+      boolean gaussian = true;
+      for (int i = first; i <= last; ++i) {
+         if (!(scores[i] > 0.0)) {
+            gaussian = false;
+         }
+      }
+
+      // Normal equations for y = a + b x + c x^2, with x centered on the
+      // maximum for numerical stability
+      double x0 = positions[maxIndex];
+      double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+      double t0 = 0, t1 = 0, t2 = 0;
+      for (int i = first; i <= last; ++i) {
+         double x = positions[i] - x0;
+         double y = gaussian ? Math.log(scores[i]) : scores[i];
+         double x2 = x * x;
+         s0 += 1;
+         s1 += x;
+         s2 += x2;
+         s3 += x2 * x;
+         s4 += x2 * x2;
+         t0 += y;
+         t1 += x * y;
+         t2 += x2 * y;
+      }
+      // Solve by Cramer's rule
+      double det = s0 * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2)
+            + s2 * (s1 * s3 - s2 * s2);
+      if (det == 0.0) {
+         return x0;
+      }
+      double b = (s0 * (t1 * s4 - s3 * t2) - t0 * (s1 * s4 - s3 * s2)
+            + s2 * (s1 * t2 - t1 * s2)) / det;
+      double c = (s0 * (s2 * t2 - t1 * s3) - s1 * (s1 * t2 - t1 * s2)
+            + t0 * (s1 * s3 - s2 * s2)) / det;
+      if (!(c < 0.0)) {
+         return x0;
+      }
+      double peak = x0 - b / (2 * c);
+      if (peak < positions[first] || peak > positions[last]) {
+         return x0;
+      }
+      return peak;
+   }
+
    private void setZPosition(double z) throws Exception {
       CMMCore core = studio_.getCMMCore();
       String focusDevice = core.getFocusDevice();
@@ -605,6 +789,16 @@ public class OughtaFocus extends AutofocusBase implements AutofocusPlugin, SciJa
    
    @Override
    public double computeScore(final ImageProcessor proc) {
+      // 8- and 16-bit images are scored with the fused, multi-threaded
+      // kernels, which also restrict scoring to the processor's ROI.
+      // The ImageJ-based implementations below remain for other pixel types
+      // and for FFTBandpass.
+      Object pixels = proc.getPixels();
+      if (FocusScores.isSupported(scoringMethod) &&
+            (pixels instanceof byte[] || pixels instanceof short[])) {
+         return FocusScores.computeScore(scoringMethod, pixels,
+               proc.getWidth(), proc.getHeight(), proc.getRoi());
+      }
       if (scoringMethod.contentEquals("Mean")) {
          return computeMean(proc);
       } else if (scoringMethod.contentEquals("StdDev")) {
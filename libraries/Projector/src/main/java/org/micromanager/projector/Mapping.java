@@ -23,6 +23,8 @@ public class Mapping {
     private final Rectangle cameraROI_;
     // Binning of the camera when the mapping was generated
     private final int cameraBinning_;
+    // Compiled on first use, see getIndex()
+    private MappingIndex index_;
     
     private Mapping(Map<Polygon, AffineTransform> transformMap, 
             AffineTransform approximateTransform, Rectangle cameraROI,
@@ -74,5 +76,16 @@ public class Mapping {
     public int getBinning() {
         return cameraBinning_;
     }
+    
+    /**
+     * Spatial index of the transform map, built on first use.  Assumes that
+     * the map is not modified after the Mapping has been built.
+     */
+    synchronized MappingIndex getIndex() {
+        if (index_ == null) {
+            index_ = MappingIndex.create(transformMap_);
+        }
+        return index_;
+    }
 
 }
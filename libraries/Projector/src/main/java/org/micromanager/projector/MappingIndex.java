@@ -0,0 +1,301 @@
+package org.micromanager.projector;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Precompiled form of a Mapping, for fast camera to projector transforms.
+ *
+ * The cells of the mapping are put in a uniform grid over their bounding
+ * boxes, so that finding the cell containing a point only tests the few
+ * cells overlapping its grid square, rather than all of them.  Cell centers
+ * and transform matrices are kept in arrays, so that transforming a point
+ * does not allocate.
+ *
+ * For masks, a dense lookup table from camera pixel to projector pixel is
+ * computed once for a given camera ROI/binning and projector size, and cached.
+ *
+ * Cells are searched in the iteration order of the mapping's map, so results
+ * are identical to testing every cell in turn.
+ */
+final class MappingIndex {
+   private static final int MIN_PARALLEL_PIXELS = 64 * 1024;
+   private static final int STRIPE_ROWS = 32;
+
+   private final Polygon[] cells_;
+   // Affine transform of each cell: m00, m10, m01, m11, m02, m12
+   private final double[][] matrices_;
+   private final double[] centerX_;
+   private final double[] centerY_;
+
+   // Grid over the bounding box of all cells.  Each square lists the indices
+   // (in increasing order) of the cells whose bounds overlap the square
+   private final int gridX_;
+   private final int gridY_;
+   private final int gridColumns_;
+   private final int gridRows_;
+   private final double squareWidth_;
+   private final double squareHeight_;
+   private final int[][] squares_;
+
+   private volatile MaskLookupTable maskLut_;
+
+   /**
+    * Lookup table from camera pixel index to projector pixel index,
+    * for one camera ROI/binning and projector size.
+    */
+   private static final class MaskLookupTable {
+      private final Rectangle cameraROI_;
+      private final int cameraBinning_;
+      private final int width_;
+      private final int height_;
+      private final int projectorWidth_;
+      private final int projectorHeight_;
+      // -1 for camera pixels that map outside the projector
+      private final int[] targets_;
+
+      private MaskLookupTable(Rectangle cameraROI, int cameraBinning,
+              int width, int height, int projectorWidth, int projectorHeight,
+              int[] targets) {
+         cameraROI_ = cameraROI == null ? null : new Rectangle(cameraROI);
+         cameraBinning_ = cameraBinning;
+         width_ = width;
+         height_ = height;
+         projectorWidth_ = projectorWidth;
+         projectorHeight_ = projectorHeight;
+         targets_ = targets;
+      }
+
+      private boolean matches(Rectangle cameraROI, int cameraBinning,
+              int width, int height, int projectorWidth, int projectorHeight) {
+         return (cameraROI == null ? cameraROI_ == null : cameraROI.equals(cameraROI_))
+                 && cameraBinning == cameraBinning_
+                 && width == width_ && height == height_
+                 && projectorWidth == projectorWidth_
+                 && projectorHeight == projectorHeight_;
+      }
+   }
+
+   static MappingIndex create(Map<Polygon, AffineTransform> map) {
+      return new MappingIndex(map);
+   }
+
+   private MappingIndex(Map<Polygon, AffineTransform> map) {
+      int n = map.size();
+      cells_ = new Polygon[n];
+      matrices_ = new double[n][6];
+      centerX_ = new double[n];
+      centerY_ = new double[n];
+      Rectangle allBounds = null;
+      int i = 0;
+      for (Map.Entry<Polygon, AffineTransform> entry : map.entrySet()) {
+         Polygon cell = entry.getKey();
+         cells_[i] = cell;
+         entry.getValue().getMatrix(matrices_[i]);
+         double xSum = 0.0;
+         double ySum = 0.0;
+         for (int v = 0; v < cell.npoints; v++) {
+            xSum += cell.xpoints[v];
+            ySum += cell.ypoints[v];
+         }
+         centerX_[i] = xSum / cell.npoints;
+         centerY_[i] = ySum / cell.npoints;
+         if (allBounds == null) {
+            allBounds = new Rectangle(cell.getBounds());
+         } else {
+            allBounds.add(cell.getBounds());
+         }
+         i++;
+      }
+
+      if (allBounds == null) {
+         allBounds = new Rectangle();
+      }
+      // About one cell per grid square; calibration cells are a regular grid
+      int side = Math.max(1, (int) Math.ceil(Math.sqrt(n)));
+      gridX_ = allBounds.x;
+      gridY_ = allBounds.y;
+      gridColumns_ = side;
+      gridRows_ = side;
+      squareWidth_ = Math.max(1, allBounds.width) / (double) side;
+      squareHeight_ = Math.max(1, allBounds.height) / (double) side;
+      int[] counts = new int[side * side];
+      for (Polygon cell : cells_) {
+         forEachSquare(cell.getBounds(), (int square) -> counts[square]++);
+      }
+      squares_ = new int[side * side][];
+      for (int s = 0; s < squares_.length; s++) {
+         squares_[s] = new int[counts[s]];
+         counts[s] = 0;
+      }
+      for (int c = 0; c < n; c++) {
+         final int cell = c;
+         forEachSquare(cells_[c].getBounds(),
+                 (int square) -> squares_[square][counts[square]++] = cell);
+      }
+   }
+
+   private interface SquareVisitor {
+      void visit(int square);
+   }
+
+   private void forEachSquare(Rectangle bounds, SquareVisitor visitor) {
+      // Polygon.contains is exclusive of the right and bottom edges, but
+      // err on the side of including a square
+      int firstColumn = squareColumn(bounds.x);
+      int lastColumn = squareColumn(bounds.x + bounds.width);
+      int firstRow = squareRow(bounds.y);
+      int lastRow = squareRow(bounds.y + bounds.height);
+      for (int row = firstRow; row <= lastRow; row++) {
+         for (int column = firstColumn; column <= lastColumn; column++) {
+            visitor.visit(row * gridColumns_ + column);
+         }
+      }
+   }
+
+   private int squareColumn(double x) {
+      int column = (int) Math.floor((x - gridX_) / squareWidth_);
+      return Math.min(gridColumns_ - 1, Math.max(0, column));
+   }
+
+   private int squareRow(double y) {
+      int row = (int) Math.floor((y - gridY_) / squareHeight_);
+      return Math.min(gridRows_ - 1, Math.max(0, row));
+   }
+
+   /**
+    * Finds the cell whose transform applies to the given point: the cell
+    * containing it or, if there is none, the cell with the closest center.
+    * @param x in mapping (camera) coordinates
+    * @param y in mapping (camera) coordinates
+    * @return index of the cell
+    */
+   int findCell(double x, double y) {
+      if (cells_.length == 0) {
+         throw new RuntimeException("Unable to map point to device.");
+      }
+      if (x >= gridX_ && y >= gridY_
+              && x <= gridX_ + squareWidth_ * gridColumns_
+              && y <= gridY_ + squareHeight_ * gridRows_) {
+         for (int cell : squares_[squareRow(y) * gridColumns_ + squareColumn(x)]) {
+            if (cells_[cell].contains(x, y)) {
+               return cell;
+            }
+         }
+      }
+      int best = 0;
+      double minDistance = Double.MAX_VALUE;
+      for (int cell = 0; cell < cells_.length; cell++) {
+         double dx = centerX_[cell] - x;
+         double dy = centerY_[cell] - y;
+         double distance = dx * dx + dy * dy;
+         if (distance < minDistance) {
+            minDistance = distance;
+            best = cell;
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Transforms a point from mapping (camera) to projector coordinates.
+    * @param x in mapping (camera) coordinates
+    * @param y in mapping (camera) coordinates
+    * @param result receives the projector x and y coordinates
+    */
+   void transform(double x, double y, double[] result) {
+      double[] m = matrices_[findCell(x, y)];
+      result[0] = m[0] * x + m[2] * y + m[4];
+      result[1] = m[1] * x + m[3] * y + m[5];
+   }
+
+   /**
+    * Returns, for each pixel of the camera image, the index of the projector
+    * pixel it maps to, or -1 if it maps outside the projector.
+    * The table is cached; it is only recomputed when one of the parameters
+    * changes.
+    * @param width camera image width
+    * @param height camera image height
+    * @param cameraROI current ROI of the camera.  Will be ignored when null
+    * @param cameraBinning current binning of the camera.  Assumed to be 1 when null
+    * @param mappingBinning binning of the camera during calibration
+    * @param projectorWidth projector width in pixels
+    * @param projectorHeight projector height in pixels
+    * @return projector pixel indices, one per camera pixel
+    */
+   int[] getMaskLookupTable(final int width, final int height,
+           final Rectangle cameraROI, Integer cameraBinning,
+           final int mappingBinning, final int projectorWidth,
+           final int projectorHeight) {
+      final int binning = cameraBinning == null ? 1 : cameraBinning;
+      MaskLookupTable lut = maskLut_;
+      if (lut != null && lut.matches(cameraROI, binning, width, height,
+              projectorWidth, projectorHeight)) {
+         return lut.targets_;
+      }
+
+      final int[] targets = new int[width * height];
+      final double factor = (double) binning / (double) mappingBinning;
+      forEachStripe(width, height, (int firstRow, int lastRow) -> {
+         double[] projected = new double[2];
+         for (int y = firstRow; y < lastRow; y++) {
+            for (int x = 0; x < width; x++) {
+               double mx = x;
+               double my = y;
+               if (cameraROI != null) {
+                  mx = (x + cameraROI.x) * factor;
+                  my = (y + cameraROI.y) * factor;
+               }
+               transform(mx, my, projected);
+               int xt = (int) projected[0];
+               int yt = (int) projected[1];
+               targets[x + y * width] =
+                       (0 <= xt && xt < projectorWidth && 0 <= yt && yt < projectorHeight)
+                       ? xt + yt * projectorWidth : -1;
+            }
+         }
+      });
+      maskLut_ = new MaskLookupTable(cameraROI, binning, width, height,
+              projectorWidth, projectorHeight, targets);
+      return targets;
+   }
+
+   /**
+    * Transforms a camera mask into a projector mask: every projector pixel
+    * that a non-zero camera pixel maps to is set to -1 (255).
+    * @param lut table obtained from getMaskLookupTable
+    * @param mask camera mask
+    * @param width camera image width
+    * @param height camera image height
+    * @param output projector mask, should be cleared by the caller
+    */
+   static void applyMaskLookupTable(final int[] lut, final byte[] mask,
+           final int width, int height, final byte[] output) {
+      // Different camera pixels may set the same projector pixel, but always
+      // to the same value, so the stripes need no synchronization
+      forEachStripe(width, height, (int firstRow, int lastRow) -> {
+         for (int i = firstRow * width; i < lastRow * width; i++) {
+            if (mask[i] != 0 && lut[i] >= 0) {
+               output[lut[i]] = -1;
+            }
+         }
+      });
+   }
+
+   private interface StripeTask {
+      void run(int firstRow, int lastRow);
+   }
+
+   private static void forEachStripe(int width, int height, StripeTask task) {
+      int nrStripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+      IntStream stripes = IntStream.range(0, nrStripes);
+      if (width * height >= MIN_PARALLEL_PIXELS) {
+         stripes = stripes.parallel();
+      }
+      stripes.forEach((int stripe) -> task.run(stripe * STRIPE_ROWS,
+              Math.min(height, (stripe + 1) * STRIPE_ROWS)));
+   }
+}
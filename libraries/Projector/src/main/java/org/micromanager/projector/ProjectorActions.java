@@ -11,14 +11,12 @@ import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import mmcorej.CMMCore;
 import org.micromanager.Studio;
 import org.micromanager.propertymap.MutablePropertyMapView;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.projector.internal.MappingStorage;
 import org.micromanager.projector.internal.ProjectorControlForm;
-import org.micromanager.projector.internal.Utils;
 import org.micromanager.projector.internal.devices.Galvo;
 import org.micromanager.projector.internal.devices.SLM;
 
@@ -187,29 +185,44 @@ public abstract class ProjectorActions {
          pt.x = (pt.x + cameraROI.x) * factor; 
          pt.y = (pt.y + cameraROI.y) * factor;
       }
-      Set<Polygon> set = mapping.getMap().keySet();
-      // First find out if the given point is inside a cell, and if so,
-      // transform it with that cell's AffineTransform.
-      for (Polygon poly : set) {
-         if (poly.contains(pt)) {
-            return (Point2D.Double) mapping.getMap().get(poly).transform(pt, null);
-         }
-      }
-      // The point isn't inside any cell, so search for the closest cell
-      // and use the AffineTransform from that.
-      double minDistance = Double.MAX_VALUE;
-      Polygon bestPoly = null;
-      for (Polygon poly : set) {
-         double distance = Utils.meanPosition2D(Utils.getVertices(poly)).distance(pt.x, pt.y);
-         if (minDistance > distance) {
-            bestPoly = poly;
-            minDistance = distance;
-         }
-      }
-      if (bestPoly == null) {
-         throw new RuntimeException("Unable to map point to device.");
+      // Find the cell containing the point (or else the closest cell), and 
+      // transform the point with that cell's AffineTransform.
+      double[] projected = new double[2];
+      mapping.getIndex().transform(pt.x, pt.y, projected);
+      return new Point2D.Double(projected[0], projected[1]);
+   }
+   
+   /**
+    * Transforms a mask in camera coordinates to a mask in projector 
+    * coordinates.  Every projector pixel that a non-zero camera pixel maps to
+    * is set to 255.  Uses a camera to projector lookup table that is computed
+    * on first use and cached for the given ROI, binning and sizes, so that
+    * this is fast enough to be called for every frame.
+    * @param mapping camera to projector mapping
+    * @param inputImage camera mask
+    * @param width width of the camera mask
+    * @param height height of the camera mask
+    * @param cameraROI current ROI of the camera.  Will be ignored when null
+    * @param cameraBinning current binning of the camera.  Assumed to be 1 when null
+    * @param projectorWidth width of the projector in pixels
+    * @param projectorHeight height of the projector in pixels
+    * @return mask in projector coordinates
+    */
+   public static byte[] transformMask(Mapping mapping, byte[] inputImage, 
+           int width, int height, Rectangle cameraROI, Integer cameraBinning,
+           int projectorWidth, int projectorHeight) {
+      if (inputImage.length != width * height) {
+         throw new IllegalArgumentException(
+                 "Mask size does not match the given width and height");
       }
-      return (Point2D.Double) mapping.getMap().get(bestPoly).transform(pt, null);
+      MappingIndex index = mapping.getIndex();
+      int[] lut = index.getMaskLookupTable(width, height, cameraROI, 
+              cameraBinning, mapping.getBinning(), projectorWidth, 
+              projectorHeight);
+      byte[] outputImage = new byte[projectorWidth * projectorHeight];
+      MappingIndex.applyMaskLookupTable(lut, inputImage, width, height, 
+              outputImage);
+      return outputImage;
    }
    
    public static void transformAndSetMask(Mapping mapping, 
@@ -226,20 +239,8 @@ public abstract class ProjectorActions {
       SLM slm = (SLM) dev;
       int slmWidth = (int) slm.getXRange();
       int slmHeight = (int) slm.getYRange();
-      byte[] outputImage = new byte[slmWidth * slmHeight];
-      for (int x = 0; x < width; x++) {
-         for (int y = 0; y < height; y++) {
-            if (inputImage[x + y * width] != 0) {
-               Point2D.Double rp = transformPoint(mapping, 
-                       new Point2D.Double(x, y), cameraROI, cameraBinning);
-               int xt = (int) rp.x;
-               int yt = (int) rp.y;
-               if (0 <= xt && xt < slmWidth && 0 <= yt && yt < slmHeight) {
-                  outputImage[xt + yt * slmWidth] = -1;
-               }
-            }
-         }
-      }
+      byte[] outputImage = transformMask(mapping, inputImage, width, height, 
+              cameraROI, cameraBinning, slmWidth, slmHeight);
       slm.displaySLMImage(outputImage);
    }
    
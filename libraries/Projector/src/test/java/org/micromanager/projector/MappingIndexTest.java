@@ -0,0 +1,235 @@
+package org.micromanager.projector;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class MappingIndexTest {
+   private static final int CELL_SIZE = 40;
+   private static final int NR_CELLS = 8;
+
+   /**
+    * Calibration-like mapping: a mesh of slightly distorted quadrilaterals
+    * (neighbours share vertices), each with its own affine transform.
+    */
+   private static Map<Polygon, AffineTransform> makeMap(long seed) {
+      Random random = new Random(seed);
+      int[][] vx = new int[NR_CELLS + 1][NR_CELLS + 1];
+      int[][] vy = new int[NR_CELLS + 1][NR_CELLS + 1];
+      for (int i = 0; i <= NR_CELLS; i++) {
+         for (int j = 0; j <= NR_CELLS; j++) {
+            vx[i][j] = 10 + i * CELL_SIZE + random.nextInt(9) - 4;
+            vy[i][j] = 20 + j * CELL_SIZE + random.nextInt(9) - 4;
+         }
+      }
+      Map<Polygon, AffineTransform> map = new LinkedHashMap<>();
+      for (int i = 0; i < NR_CELLS; i++) {
+         for (int j = 0; j < NR_CELLS; j++) {
+            Polygon cell = new Polygon(
+                    new int[] {vx[i][j], vx[i + 1][j], vx[i + 1][j + 1], vx[i][j + 1]},
+                    new int[] {vy[i][j], vy[i + 1][j], vy[i + 1][j + 1], vy[i][j + 1]},
+                    4);
+            AffineTransform transform = new AffineTransform(
+                    1.5 + 0.1 * random.nextDouble(), 0.05 * random.nextDouble(),
+                    0.05 * random.nextDouble(), 1.5 + 0.1 * random.nextDouble(),
+                    -20 + 5 * random.nextDouble(), -30 + 5 * random.nextDouble());
+            map.put(cell, transform);
+         }
+      }
+      return map;
+   }
+
+   /**
+    * The linear scan that transformPoint did before the index: the first
+    * cell containing the point, or else the cell with the closest center.
+    */
+   private static Point2D.Double bruteForceTransform(
+           Map<Polygon, AffineTransform> map, double x, double y) {
+      Point2D.Double pt = new Point2D.Double(x, y);
+      for (Map.Entry<Polygon, AffineTransform> entry : map.entrySet()) {
+         if (entry.getKey().contains(pt)) {
+            return (Point2D.Double) entry.getValue().transform(pt, null);
+         }
+      }
+      double minDistance = Double.MAX_VALUE;
+      AffineTransform best = null;
+      for (Map.Entry<Polygon, AffineTransform> entry : map.entrySet()) {
+         Polygon cell = entry.getKey();
+         double xSum = 0.0;
+         double ySum = 0.0;
+         for (int v = 0; v < cell.npoints; v++) {
+            xSum += cell.xpoints[v];
+            ySum += cell.ypoints[v];
+         }
+         double distance = pt.distance(xSum / cell.npoints, ySum / cell.npoints);
+         if (minDistance > distance) {
+            best = entry.getValue();
+            minDistance = distance;
+         }
+      }
+      return (Point2D.Double) best.transform(pt, null);
+   }
+
+   private static List<Point2D.Double> makeTestPoints(
+           Map<Polygon, AffineTransform> map, long seed) {
+      Random random = new Random(seed);
+      List<Point2D.Double> points = new ArrayList<>();
+      // Random points, including outside of all cells
+      for (int i = 0; i < 20000; i++) {
+         points.add(new Point2D.Double(-50 + 450 * random.nextDouble(),
+                 -50 + 450 * random.nextDouble()));
+      }
+      // Vertices, edge midpoints, and points just beside the edges
+      for (Polygon cell : map.keySet()) {
+         for (int v = 0; v < cell.npoints; v++) {
+            int x0 = cell.xpoints[v];
+            int y0 = cell.ypoints[v];
+            int x1 = cell.xpoints[(v + 1) % cell.npoints];
+            int y1 = cell.ypoints[(v + 1) % cell.npoints];
+            points.add(new Point2D.Double(x0, y0));
+            for (double d : new double[] {-1e-9, 0.0, 1e-9}) {
+               points.add(new Point2D.Double((x0 + x1) / 2.0 + d, (y0 + y1) / 2.0));
+               points.add(new Point2D.Double((x0 + x1) / 2.0, (y0 + y1) / 2.0 + d));
+            }
+         }
+      }
+      // Integer points, as for the pixels of a mask
+      for (int x = -5; x < 360; x += 3) {
+         for (int y = -5; y < 360; y += 3) {
+            points.add(new Point2D.Double(x, y));
+         }
+      }
+      return points;
+   }
+
+   @Test
+   public void transformMatchesBruteForce() {
+      for (long seed = 1; seed <= 3; seed++) {
+         Map<Polygon, AffineTransform> map = makeMap(seed);
+         MappingIndex index = MappingIndex.create(map);
+         double[] result = new double[2];
+         for (Point2D.Double pt : makeTestPoints(map, seed)) {
+            Point2D.Double expected = bruteForceTransform(map, pt.x, pt.y);
+            index.transform(pt.x, pt.y, result);
+            assertEquals("x at " + pt, expected.x, result[0], 1e-9);
+            assertEquals("y at " + pt, expected.y, result[1], 1e-9);
+         }
+      }
+   }
+
+   @Test
+   public void overlappingCellsUseMapOrder() {
+      Map<Polygon, AffineTransform> map = new LinkedHashMap<>();
+      map.put(new Polygon(new int[] {0, 100, 100, 0}, new int[] {0, 0, 100, 100}, 4),
+              AffineTransform.getTranslateInstance(1, 0));
+      map.put(new Polygon(new int[] {50, 150, 150, 50}, new int[] {0, 0, 100, 100}, 4),
+              AffineTransform.getTranslateInstance(2, 0));
+      MappingIndex index = MappingIndex.create(map);
+      double[] result = new double[2];
+      for (double x : new double[] {10, 50, 75, 99.5, 100, 120}) {
+         index.transform(x, 50, result);
+         assertEquals(bruteForceTransform(map, x, 50).x, result[0], 0.0);
+      }
+   }
+
+   @Test(expected = RuntimeException.class)
+   public void emptyMappingThrows() {
+      MappingIndex.create(new LinkedHashMap<>()).transform(1, 1, new double[2]);
+   }
+
+   private static int[] bruteForceLookupTable(Map<Polygon, AffineTransform> map,
+           int width, int height, Rectangle cameraROI, int cameraBinning,
+           int mappingBinning, int projectorWidth, int projectorHeight) {
+      int[] expected = new int[width * height];
+      double factor = (double) cameraBinning / (double) mappingBinning;
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            double mx = x;
+            double my = y;
+            if (cameraROI != null) {
+               mx = (x + cameraROI.x) * factor;
+               my = (y + cameraROI.y) * factor;
+            }
+            Point2D.Double p = bruteForceTransform(map, mx, my);
+            int xt = (int) p.x;
+            int yt = (int) p.y;
+            expected[x + y * width] =
+                    (0 <= xt && xt < projectorWidth && 0 <= yt && yt < projectorHeight)
+                    ? xt + yt * projectorWidth : -1;
+         }
+      }
+      return expected;
+   }
+
+   @Test
+   public void maskLookupTableMatchesBruteForce() {
+      Map<Polygon, AffineTransform> map = makeMap(4);
+      MappingIndex index = MappingIndex.create(map);
+      // Large enough to be computed in parallel
+      int width = 320;
+      int height = 240;
+      int projectorWidth = 400;
+      int projectorHeight = 350;
+      assertArrayEquals(bruteForceLookupTable(map, width, height, null, 1, 1,
+              projectorWidth, projectorHeight),
+              index.getMaskLookupTable(width, height, null, null, 1,
+                      projectorWidth, projectorHeight));
+
+      Rectangle roi = new Rectangle(30, 12, 100, 80);
+      assertArrayEquals(bruteForceLookupTable(map, 100, 80, roi, 2, 1,
+              projectorWidth, projectorHeight),
+              index.getMaskLookupTable(100, 80, roi, 2, 1,
+                      projectorWidth, projectorHeight));
+   }
+
+   @Test
+   public void maskLookupTableIsCachedPerParameters() {
+      MappingIndex index = MappingIndex.create(makeMap(5));
+      Rectangle roi = new Rectangle(10, 10, 50, 40);
+      int[] lut = index.getMaskLookupTable(50, 40, roi, 1, 1, 400, 350);
+      assertSame(lut, index.getMaskLookupTable(50, 40, new Rectangle(roi), 1, 1, 400, 350));
+      int[] moved = index.getMaskLookupTable(50, 40, new Rectangle(20, 10, 50, 40), 1, 1, 400, 350);
+      assertNotSame(lut, moved);
+      assertNotSame(moved, index.getMaskLookupTable(50, 40, new Rectangle(20, 10, 50, 40), 2, 1, 400, 350));
+   }
+
+   @Test
+   public void transformMaskMatchesPerPixelTransform() {
+      Map<Polygon, AffineTransform> map = makeMap(6);
+      Mapping mapping = new Mapping.Builder().setMap(map).setBinning(1).build();
+      int width = 300;
+      int height = 260;
+      int projectorWidth = 420;
+      int projectorHeight = 380;
+      Random random = new Random(7);
+      byte[] mask = new byte[width * height];
+      for (int i = 0; i < mask.length; i++) {
+         mask[i] = random.nextInt(4) == 0 ? (byte) 255 : 0;
+      }
+      Rectangle roi = new Rectangle(5, 8, width, height);
+
+      byte[] expected = new byte[projectorWidth * projectorHeight];
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            if (mask[x + y * width] != 0) {
+               Point2D.Double p = bruteForceTransform(map, x + roi.x, y + roi.y);
+               int xt = (int) p.x;
+               int yt = (int) p.y;
+               if (0 <= xt && xt < projectorWidth && 0 <= yt && yt < projectorHeight) {
+                  expected[xt + yt * projectorWidth] = -1;
+               }
+            }
+         }
+      }
+      assertArrayEquals(expected, ProjectorActions.transformMask(mapping, mask,
+              width, height, roi, 1, projectorWidth, projectorHeight));
+   }
+}
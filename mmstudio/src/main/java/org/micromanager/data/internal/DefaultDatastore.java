@@ -46,6 +46,7 @@ import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.PrioritizedEventBus;
 import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 
 public class DefaultDatastore implements Datastore {
@@ -160,6 +161,21 @@ public class DefaultDatastore implements Datastore {
       bus_.register(obj, priority);
    }
 
+   /**
+    * Registers an object that may receive events on a background thread, so
+    * that it does not hold up the thread calling putImage().
+    * @param obj object to be registered
+    * @param priority lower numbers are notified (or queued) first
+    * @param delivery how events are handed to obj
+    * @param perfMon if not null, receives event queue statistics
+    * @see PrioritizedEventBus#register(Object, int,
+    * PrioritizedEventBus.Delivery, PerformanceMonitor)
+    */
+   public void registerForEvents(Object obj, int priority,
+         PrioritizedEventBus.Delivery delivery, PerformanceMonitor perfMon) {
+      bus_.register(obj, priority, delivery, perfMon);
+   }
+
    @Override
    public void unregisterForEvents(Object obj) {
       bus_.unregister(obj);
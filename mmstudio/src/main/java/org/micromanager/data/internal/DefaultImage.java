@@ -98,8 +98,7 @@ public final class DefaultImage implements Image {
 
       if (metadata == null) {
          try {
-            metadata = DefaultMetadata.fromPropertyMap(
-                    NonPropertyMapJSONFormats.metadata().fromGson(je));
+            metadata = DefaultMetadata.fromFlatTags(je);
          }
          catch (Exception e) {
             throw new IllegalArgumentException("Failed to convert TaggedImage tags to metadata", e);
@@ -20,12 +20,14 @@
 
 package org.micromanager.data.internal;
 
+import com.google.gson.JsonElement;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.util.UUID;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.data.Metadata;
+import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import static org.micromanager.data.internal.PropertyKey.*;
 
 /**
@@ -245,6 +247,17 @@ public final class DefaultMetadata implements Metadata {
       return new DefaultMetadata(map);
    }
 
+   /**
+    * Convert flat metadata tags, as found in the tags of a TaggedImage or the
+    * Core's image metadata, into a Metadata. Tags that are not standard
+    * metadata fields (e.g. camera-specific tags) become user data.
+    * @param tags JSON object with one entry per tag
+    * @return the converted metadata
+    */
+   public static Metadata fromFlatTags(JsonElement tags) {
+      return fromPropertyMap(NonPropertyMapJSONFormats.metadata().fromGson(tags));
+   }
+
    public PropertyMap toPropertyMap() {
       return pmap_;
    }
@@ -8,14 +8,18 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.html.HtmlEscapers;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -1270,6 +1274,19 @@ public enum PropertyKey {
          }
          return true;
       }
+
+      @Override
+      public boolean storeInJsonWriter(PropertyMap pmap, JsonWriter dest)
+            throws IOException {
+         if (!pmap.containsKey(key())) {
+            return false;
+         }
+         PropertyMap scopeData = pmap.getPropertyMap(key(), null);
+         for (String key : scopeData.keySet()) {
+            dest.name(key).value(scopeData.getValueAsString(key, null));
+         }
+         return true;
+      }
    },
 
    SCOPE_DATA_KEYS("ScopeDataKeys", "scopeDataKeys", "StateCache-keys",
@@ -1302,6 +1319,20 @@ public enum PropertyKey {
          }
          return ja;
       }
+
+      @Override
+      public boolean storeInJsonWriter(PropertyMap pmap, JsonWriter dest)
+            throws IOException {
+         if (!pmap.containsKey(SCOPE_DATA.key())) {
+            return false;
+         }
+         dest.name(key()).beginArray();
+         for (String key : pmap.getPropertyMap(SCOPE_DATA.key(), null).keySet()) {
+            dest.value(key);
+         }
+         dest.endArray();
+         return true;
+      }
    },
    
    SNAP_LIVE_DISPLAY_SETTINGS("SnapLiveDisplaySettings", SnapLiveManager.class),
@@ -1556,6 +1587,15 @@ public enum PropertyKey {
       public JsonElement convertToGson(PropertyMap pmap) {
          return PropertyMapJSONSerializer.toGson(pmap.getPropertyMap(key(), PropertyMaps.emptyPropertyMap()));
       }
+
+      @Override
+      public boolean storeInJsonWriter(PropertyMap pmap, JsonWriter dest)
+            throws IOException {
+         dest.name(key());
+         PropertyMapJSONSerializer.write(pmap.getPropertyMap(key(),
+               PropertyMaps.emptyPropertyMap()), dest);
+         return true;
+      }
    },
 
    USER_NAME("UserName", SummaryMetadata.class) {
@@ -1704,6 +1744,10 @@ public enum PropertyKey {
       ALL_SPELLINGS = builder.build();
    }
 
+   // Writes single values for the default storeInJsonWriter()
+   private static final Gson ELEMENT_WRITER =
+         new GsonBuilder().disableHtmlEscaping().create();
+
    private static final Map<String, String> UNITS = ImmutableMap.of(
          "um", "\u00B5m",
          "ms", "ms"
@@ -1850,6 +1894,36 @@ public enum PropertyKey {
       return false;
    }
 
+   /**
+    * Writes the key and its value to a JSON stream.
+    * <p>
+    * Writes the same members that {@link #storeInGsonObject} adds, so that
+    * a record can be serialized without first building a JSON object for
+    * it. Keys whose values are large (device properties, user data) write
+    * them directly; others write the element from
+    * {@link #convertToGson}.
+    *
+    * @param source property map in which to find the value for this key
+    * @param destination JSON stream, positioned inside an object
+    * @return true if the key was found in {@code source} and was written;
+    * false otherwise
+    * @throws IOException if writing to the stream fails
+    */
+   public boolean storeInJsonWriter(PropertyMap source,
+         JsonWriter destination) throws IOException {
+      JsonElement e = convertToGson(source);
+      if (e != null) {
+         destination.name(key());
+         ELEMENT_WRITER.toJson(e, destination);
+         for (String additionalKey : additionalKeysToStoreForCompatibility()) {
+            destination.name(additionalKey);
+            ELEMENT_WRITER.toJson(e, destination);
+         }
+         return true;
+      }
+      return false;
+   }
+
    public static boolean isKnownKey(String key) {
       return ALL_SPELLINGS.contains(key);
    }
@@ -21,13 +21,16 @@
 //
 package org.micromanager.data.internal.multipagetiff;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
@@ -408,9 +411,11 @@ public final class MultipageTiffReader {
       fileChannel_.read(pixelBuffer, data.pixelOffset);
       fileChannel_.read(mdBuffer, data.mdOffset);
 
-      String mdJSON = getString(mdBuffer);
+      // Decode while parsing; the three formats below share the one tree,
+      // since MM1-style keys are looked up under several spellings.
       JsonParser parser = new JsonParser();
-      JsonReader reader = new JsonReader(new StringReader(mdJSON));
+      JsonReader reader = new JsonReader(new InputStreamReader(
+            new ByteArrayInputStream(mdBuffer.array()), Charsets.UTF_8));
       reader.setLenient(true);
       JsonElement mdGson = parser.parse(reader);
 
@@ -22,16 +22,18 @@
 package org.micromanager.data.internal.multipagetiff;
 
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
 import ij.io.TiffDecoder;
 import ij.process.LUT;
 import java.awt.Color;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
@@ -123,6 +125,13 @@ public final class MultipageTiffWriter {
    private long ijMetadataTagPosition_;
    //Reader associated with this file
    private MultipageTiffReader reader_;
+   // Per-image metadata encoding; see getIFDMetadataBytes()
+   private final ByteArrayOutputStream mdByteStream_ =
+         new ByteArrayOutputStream(8192);
+   private final Writer mdCharWriter_ =
+         new OutputStreamWriter(mdByteStream_, Charsets.UTF_8);
+   private Image encodedMDImage_;
+   private byte[] encodedMDBytes_;
    private long blankPixelsOffset_ = -1;
    
    public MultipageTiffWriter(
@@ -449,8 +458,7 @@ public final class MultipageTiffWriter {
    }
    
    public boolean hasSpaceToWrite(Image img, int omeMDLength) {
-      PropertyMap mdPmap = ((DefaultMetadata) img.getMetadata()).toPropertyMap();
-      int mdLength = NonPropertyMapJSONFormats.metadata().toJSON(mdPmap).length();
+      int mdLength = getIFDMetadataBytes(img).length;
       int IFDSize = ENTRIES_PER_IFD*12 + 4 + 16;
       //5 MB extra padding...just to be safe...
       int extraPadding = 5000000; 
@@ -535,19 +543,9 @@ public final class MultipageTiffWriter {
    private void writeIFD(Image img) throws IOException {
       char numEntries = ((firstIFD_  ? ENTRIES_PER_IFD + 4 : ENTRIES_PER_IFD));
 
-      JsonObject jo = new JsonObject();
-      NonPropertyMapJSONFormats.imageFormat().addToGson(jo,
-            ((DefaultImage) img).formatToPropertyMap());
-      NonPropertyMapJSONFormats.coords().addToGson(jo,
-            ((DefaultCoords) img.getCoords()).toPropertyMap());
-      NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            ((DefaultMetadata) img.getMetadata()).toPropertyMap());
-      Gson gson = new GsonBuilder().disableHtmlEscaping().create();
-      String mdJSON = gson.toJson(jo);
-
-      byte[] mdBytes = getBytesFromString(mdJSON + " "); // Space for null
-      // Null-terminate buffer.
-      mdBytes[mdBytes.length - 1] = 0;
+      byte[] mdBytes = getIFDMetadataBytes(img);
+      encodedMDImage_ = null;
+      encodedMDBytes_ = null;
 
       //2 bytes for number of directory entries, 12 bytes per directory entry, 4 byte offset of next IFD
      //6 bytes for bits per sample if RGB, 16 bytes for x and y resolution, 1 byte per character of MD string
@@ -616,6 +614,43 @@ public final class MultipageTiffWriter {
       firstIFD_ = false;
    }
 
+   /**
+    * Return the null-terminated UTF-8 JSON stored in the MM_METADATA tag.
+    *
+    * The image format, coords and metadata are streamed into one JSON object
+    * in a reused buffer. The result is kept until writeIFD() for the same
+    * image, so that hasSpaceToWrite() followed by writeImage() encodes once.
+    */
+   private byte[] getIFDMetadataBytes(Image img) {
+      if (img == encodedMDImage_) {
+         return encodedMDBytes_;
+      }
+      try {
+         // Discard anything left over from a failed encoding
+         mdCharWriter_.flush();
+         mdByteStream_.reset();
+
+         JsonWriter out = new JsonWriter(mdCharWriter_);
+         out.setLenient(true);
+         out.beginObject();
+         NonPropertyMapJSONFormats.imageFormat().addToJsonWriter(out,
+               ((DefaultImage) img).formatToPropertyMap());
+         NonPropertyMapJSONFormats.coords().addToJsonWriter(out,
+               ((DefaultCoords) img.getCoords()).toPropertyMap());
+         NonPropertyMapJSONFormats.metadata().addToJsonWriter(out,
+               ((DefaultMetadata) img.getMetadata()).toPropertyMap());
+         out.endObject();
+         out.flush();
+      }
+      catch (IOException e) {
+         throw new AssertionError(e); // ByteArrayOutputStream does not throw
+      }
+      mdByteStream_.write(0); // Null-terminate
+      encodedMDImage_ = img;
+      encodedMDBytes_ = mdByteStream_.toByteArray();
+      return encodedMDBytes_;
+   }
+
    private void writeIFDEntry(ByteBuffer buffer, CharBuffer cBuffer, char tag, char type, long count, long value) throws IOException {
       cBuffer.put(bufferPosition_ / 2, tag);
       cBuffer.put(bufferPosition_ / 2 + 1, type);
@@ -30,14 +30,20 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.SwingUtilities;
 import org.micromanager.Studio;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.display.DataViewerListener;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.DisplayWindow;
@@ -64,7 +70,11 @@ import org.micromanager.events.DatastoreClosingEvent;
 import org.micromanager.internal.utils.CoalescentEDTRunnablePool;
 import org.micromanager.internal.utils.CoalescentEDTRunnablePool.CoalescentRunnable;
 import org.micromanager.internal.utils.MustCallOnEDT;
+import org.micromanager.internal.utils.PrioritizedEventBus;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.RunningQuantile;
+import org.micromanager.internal.utils.performance.SimpleRunningQuantile;
 import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
 import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.data.DataProviderHasNewNameEvent;
@@ -139,6 +149,28 @@ public final class DisplayController extends DisplayWindowAPIAdapter
    private final PerformanceMonitorUI perfMonUI_ =
          PerformanceMonitorUI.create(perfMon_, "Display Performance");
 
+   // Latest-frame-wins mode. When enabled, new images bypass the animation
+   // controller and are handed to the display through a single-slot mailbox,
+   // so that at most one frame is in flight between the datastore and the
+   // screen; frames arriving while one is in flight replace each other and
+   // are dropped.
+   private volatile boolean latestFrameOnly_;
+   private final LatestFrameMailbox latestFrameMailbox_ =
+         LatestFrameMailbox.create();
+   // True while a frame taken from the mailbox has not yet been painted
+   private final AtomicBoolean latestFrameInFlight_ = new AtomicBoolean();
+   private volatile LatestFrameMailbox.Entry latestFrameInFlightEntry_;
+   private final ExecutorService latestFrameExecutor_ =
+         Executors.newSingleThreadExecutor(ThreadFactoryFactory.
+               createThreadFactory("DisplayController Latest Frame"));
+   // If a frame in flight is not painted within this time (e.g. because its
+   // stats request was superseded), stop waiting for it.
+   private static final long LATEST_FRAME_STALL_NS = 250000000L;
+   private static final int DISPLAY_LATENCY_SMOOTH_N_SAMPLES = 50;
+   private final AtomicReference<RunningQuantile> displayLatencyEstimator_ =
+         new AtomicReference<>(SimpleRunningQuantile.create(
+               DISPLAY_LATENCY_SMOOTH_N_SAMPLES));
+
    @Override
    public void addListener(DataViewerListener listener, int priority) {
       int tmpPriority = priority;
@@ -165,6 +197,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       private LinkManager linkManager_ = DefaultLinkManager.create();;
       private boolean shouldShow_;
       private DisplayWindowControlsFactory controlsFactory_;
+      private boolean latestFrameOnly_;
 
       public Builder(DataProvider dataProvider)
       {
@@ -200,6 +233,18 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          return this;
       }
 
+      /**
+       * Display only the newest image, dropping intermediate ones.
+       *
+       * @param flag whether to start in latest-frame-wins mode
+       * @return this builder
+       * @see DisplayController#setLatestFrameOnly
+       */
+      public Builder latestFrameOnly(boolean flag) {
+         latestFrameOnly_ = flag;
+         return this;
+      }
+
       @MustCallOnEDT
       public DisplayController build(Studio studio) {
          return DisplayController.create(studio, this);
@@ -222,7 +267,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       final DisplayController instance =
             new DisplayController(studio, builder.dataProvider_,
                   initialDisplaySettings, builder.controlsFactory_,
-                  builder.linkManager_);
+                  builder.linkManager_, builder.latestFrameOnly_);
       instance.initialize();
 
       instance.computeQueue_.addListener(instance);
@@ -254,13 +299,16 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          DataProvider dataProvider,
          DisplaySettings initialDisplaySettings,
          DisplayWindowControlsFactory controlsFactory,
-         LinkManager linkManager)
+         LinkManager linkManager,
+         boolean latestFrameOnly)
    {
       super(initialDisplaySettings);
       studio_ = studio;
       dataProvider_ = dataProvider;
       controlsFactory_ = controlsFactory;
       linkManager_ = linkManager;
+      // Must be set before initialize() registers for data provider events
+      latestFrameOnly_ = latestFrameOnly;
 
       computeQueue_.setPerformanceMonitor(perfMon_);
       
@@ -285,7 +333,29 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
       // Start receiving events
       studio_.events().registerForEvents(this);
-      dataProvider_.registerForEvents(this);
+      registerForDataEvents(dataProvider_, this, latestFrameOnly_, perfMon_);
+   }
+
+   /**
+    * Register a display for events from its data provider.
+    * <p>
+    * Image events from a DefaultDatastore are received on a background thread
+    * so that a busy display never holds up the thread putting images. In
+    * latest-frame-only mode intermediate frames would be dropped anyway, so
+    * they are dropped before they reach the display.
+    */
+   static void registerForDataEvents(DataProvider provider, Object display,
+         boolean latestFrameOnly, PerformanceMonitor perfMon) {
+      if (provider instanceof DefaultDatastore) {
+         ((DefaultDatastore) provider).registerForEvents(display,
+               PrioritizedEventBus.DEFAULT_PRIORITY,
+               latestFrameOnly ? PrioritizedEventBus.Delivery.LATEST_ONLY :
+                     PrioritizedEventBus.Delivery.QUEUED,
+               perfMon);
+      }
+      else {
+         provider.registerForEvents(display);
+      }
    }
 
    // Allow internal objects (in particular, UI controller) to post events
@@ -423,6 +493,10 @@ public final class DisplayController extends DisplayWindowAPIAdapter
                   images.getRequest().getImages(),
                   primaryImage));
 
+            if (latestFrameOnly_) {
+               latestFrameMaybeDidShow(images);
+            }
+
             if (images.getStatsSequenceNumber() > latestStatsSeqNr_) {
                postEvent(ImageStatsChangedEvent.create(images));
                latestStatsSeqNr_ = images.getStatsSequenceNumber();
@@ -454,6 +528,154 @@ public final class DisplayController extends DisplayWindowAPIAdapter
    }
 
 
+   //
+   // Latest-frame-wins display
+   //
+
+   /**
+    * Enable or disable latest-frame-wins display of new images.
+    * <p>
+    * In this mode, new images from the data provider are not queued through
+    * the animation controller. Instead, only the most recent image is kept
+    * and shown as soon as the previous one has been painted; images arriving
+    * in the meantime are dropped. This keeps the display latency bounded
+    * during live mode and fast acquisitions, at the cost of not showing every
+    * frame. Playback animation is unaffected.
+    *
+    * @param flag true to enable latest-frame-wins display
+    */
+   public void setLatestFrameOnly(boolean flag) {
+      boolean changed = flag != latestFrameOnly_;
+      latestFrameOnly_ = flag;
+      if (changed && !closeCompleted_ &&
+            dataProvider_ instanceof DefaultDatastore) {
+         // Switch the delivery mode of image events
+         dataProvider_.unregisterForEvents(this);
+         registerForDataEvents(dataProvider_, this, flag, perfMon_);
+      }
+      if (!flag) {
+         latestFrameMailbox_.clear();
+         latestFrameInFlightEntry_ = null;
+         latestFrameInFlight_.set(false);
+      }
+      resetLatestFrameStatistics();
+   }
+
+   public boolean isLatestFrameOnly() {
+      return latestFrameOnly_;
+   }
+
+   /**
+    * Return the number of new images that were not displayed because a newer
+    * image arrived first, since latest-frame-wins mode was last enabled or
+    * the statistics were reset.
+    *
+    * @return number of dropped images
+    */
+   public long getDroppedFrameCount() {
+      return latestFrameMailbox_.getDroppedCount();
+   }
+
+   /**
+    * Return the number of new images received in latest-frame-wins mode,
+    * since the mode was last enabled or the statistics were reset.
+    *
+    * @return number of received images
+    */
+   public long getReceivedFrameCount() {
+      return latestFrameMailbox_.getPostedCount();
+   }
+
+   /**
+    * Return a quantile of the recent display latency, measured from the
+    * arrival of the new-image event to the scheduling of the repaint on the
+    * EDT, in latest-frame-wins mode.
+    *
+    * @param q the quantile (0.0-1.0)
+    * @return the latency in milliseconds
+    */
+   public double getDisplayLatencyQuantileMs(double q) {
+      return displayLatencyEstimator_.get().getQuantile(q);
+   }
+
+   public void resetLatestFrameStatistics() {
+      latestFrameMailbox_.resetCounts();
+      displayLatencyEstimator_.set(SimpleRunningQuantile.create(
+            DISPLAY_LATENCY_SMOOTH_N_SAMPLES));
+   }
+
+   private void postLatestFrame(Image image) {
+      if (latestFrameMailbox_.post(image)) {
+         perfMon_.sample("Latest frame dropped (%)", 100.0);
+      }
+      else {
+         perfMon_.sample("Latest frame dropped (%)", 0.0);
+      }
+      pumpLatestFrame();
+   }
+
+   // Called on any thread, whenever a frame may be taken from the mailbox
+   private void pumpLatestFrame() {
+      for (;;) {
+         if (!latestFrameInFlight_.compareAndSet(false, true)) {
+            LatestFrameMailbox.Entry stalled = latestFrameInFlightEntry_;
+            if (stalled == null || System.nanoTime() -
+                  stalled.getPostedNs() < LATEST_FRAME_STALL_NS) {
+               return; // Will be pumped when the in-flight frame is painted
+            }
+            perfMon_.sampleTimeInterval("Latest frame stalled");
+            latestFrameInFlightEntry_ = null;
+            latestFrameInFlight_.set(false);
+            continue;
+         }
+
+         final LatestFrameMailbox.Entry entry = latestFrameMailbox_.take();
+         if (entry != null) {
+            latestFrameInFlightEntry_ = entry;
+            latestFrameExecutor_.execute(() -> {
+               if (closeCompleted_ || !latestFrameOnly_) {
+                  return;
+               }
+               perfMon_.sample("Latest frame queue delay (ms)",
+                     (System.nanoTime() - entry.getPostedNs()) / 1e6);
+               setDisplayPosition(entry.getImage().getCoords(), true);
+            });
+            return;
+         }
+
+         latestFrameInFlight_.set(false);
+         // A frame may have been posted after our take() but before we
+         // cleared the flag, in which case its poster saw us busy
+         if (latestFrameMailbox_.isEmpty()) {
+            return;
+         }
+      }
+   }
+
+   @MustCallOnEDT
+   private void latestFrameMaybeDidShow(ImagesAndStats images) {
+      LatestFrameMailbox.Entry entry = latestFrameInFlightEntry_;
+      if (entry == null) {
+         return;
+      }
+      boolean shown = entry.isShownBy(
+            images.getRequest().getFrameSequenceNumber(),
+            images.getRequest().getImages());
+      long latencyNs = System.nanoTime() - entry.getPostedNs();
+      if (!shown && latencyNs < LATEST_FRAME_STALL_NS) {
+         return; // Some other repaint; ours is still on the way
+      }
+      if (shown) {
+         double latencyMs = latencyNs / 1e6;
+         displayLatencyEstimator_.get().sample(latencyMs);
+         perfMon_.sample("Latest frame display latency (ms)", latencyMs);
+      }
+      latestFrameInFlightEntry_ = null;
+      latestFrameInFlight_.set(false);
+      pumpLatestFrame();
+   }
+
+
    //
    // Implementation of DataCoordsAnimationState.CoordsProvider
    //
@@ -537,6 +759,9 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       Coords channellessPos = position.hasAxis(Coords.CHANNEL) ?
             position.copyBuilder().removeAxis(Coords.CHANNEL).build() :
             position;
+      // Read before fetching, so that the fetched images are at least this new
+      long frameSeqNr = latestFrameOnly_ ?
+            latestFrameMailbox_.getLastSequenceNumber() : -1;
       List<Image> images;
       try {
          images = dataProvider_.getImagesMatching(channellessPos);
@@ -580,7 +805,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
       perfMon_.sampleTimeInterval("Submitting compute request");
       computeQueue_.submitRequest(ImageStatsRequest.create(position, images,
-            selection));
+            selection, frameSeqNr));
 
       return position;
    }
@@ -825,6 +1050,14 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          }
       }
 
+      if (latestFrameOnly_) {
+         // Make sure the display range includes positions of images that
+         // end up being dropped
+         animationAcknowledgeDataPosition(event.getImage().getCoords());
+         postLatestFrame(event.getImage());
+         return;
+      }
+
       // Generally we want to display new images (if not instructed otherwise
       // by the user), but we let the animation controller coordinate that with
       // any ongoing playback animation. Actual display of new images happens
@@ -1034,6 +1267,13 @@ public final class DisplayController extends DisplayWindowAPIAdapter
          // TODO: report exception
       }
       animationController_.shutdown();
+      latestFrameMailbox_.clear();
+      latestFrameExecutor_.shutdownNow();
+      try {
+         latestFrameExecutor_.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
       
       studio_.events().unregisterForEvents(this);
       dataProvider_.unregisterForEvents(this);
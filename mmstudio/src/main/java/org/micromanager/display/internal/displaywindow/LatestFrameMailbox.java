@@ -0,0 +1,162 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.displaywindow;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+
+/**
+ * Lock-free single-slot mailbox holding the most recent new image.
+ *
+ * The producer (datastore event handler) overwrites the slot unconditionally;
+ * the consumer (display pump) takes whatever is there when it is ready for
+ * the next frame. Any image that is overwritten before being taken is counted
+ * as dropped. This bounds the display latency to (roughly) one render cycle
+ * regardless of the camera frame rate.
+ */
+final class LatestFrameMailbox {
+   /**
+    * An image together with its sequence number and the time at which it
+    * was posted.
+    */
+   static final class Entry {
+      private final Image image_;
+      private final long sequenceNumber_;
+      private final long postedNs_;
+
+      private Entry(Image image, long sequenceNumber, long postedNs) {
+         image_ = image;
+         sequenceNumber_ = sequenceNumber;
+         postedNs_ = postedNs;
+      }
+
+      Image getImage() {
+         return image_;
+      }
+
+      long getSequenceNumber() {
+         return sequenceNumber_;
+      }
+
+      long getPostedNs() {
+         return postedNs_;
+      }
+
+      /**
+       * Return whether images fetched for display show this entry's frame.
+       *
+       * The datastore may hold a different Image object for the same frame
+       * (e.g. the live mode datastore replaces images at the same coords),
+       * so this matches on coords, and on the sequence number at the time
+       * the images were fetched.
+       *
+       * @param frameSequenceNumber {@link #getLastSequenceNumber} of the
+       * mailbox, read before the images were fetched
+       * @param images the fetched images
+       * @return true if the images include this entry's frame
+       */
+      boolean isShownBy(long frameSequenceNumber, List<Image> images) {
+         if (frameSequenceNumber < sequenceNumber_) {
+            return false;
+         }
+         Coords coords = image_.getCoords();
+         for (Image image : images) {
+            if (image.getCoords().equals(coords)) {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+
+   private final AtomicReference<Entry> slot_ = new AtomicReference<Entry>();
+   // Not reset along with the counts, so that it keeps increasing
+   private final AtomicLong sequenceNumber_ = new AtomicLong();
+   private final AtomicLong postedCount_ = new AtomicLong();
+   private final AtomicLong droppedCount_ = new AtomicLong();
+
+   static LatestFrameMailbox create() {
+      return new LatestFrameMailbox();
+   }
+
+   private LatestFrameMailbox() {
+   }
+
+   /**
+    * Place an image in the mailbox, replacing any image not yet taken.
+    *
+    * @param image the new image
+    * @return true if an untaken image was replaced (i.e. dropped)
+    */
+   boolean post(Image image) {
+      postedCount_.incrementAndGet();
+      Entry previous = slot_.getAndSet(new Entry(image,
+            sequenceNumber_.incrementAndGet(), System.nanoTime()));
+      if (previous != null) {
+         droppedCount_.incrementAndGet();
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Remove and return the latest image.
+    *
+    * @return the latest entry, or null if the mailbox is empty
+    */
+   Entry take() {
+      return slot_.getAndSet(null);
+   }
+
+   boolean isEmpty() {
+      return slot_.get() == null;
+   }
+
+   /**
+    * Discard any image in the mailbox without counting it as dropped.
+    */
+   void clear() {
+      slot_.set(null);
+   }
+
+   /**
+    * Return the sequence number of the most recently posted image.
+    *
+    * Sequence numbers start at 1 and increase with every post. Because an
+    * image is posted only after it has been added to the datastore, images
+    * read from the datastore after this call are at least as new as the
+    * returned sequence number.
+    *
+    * @return the last sequence number, or 0 if nothing was posted yet
+    */
+   long getLastSequenceNumber() {
+      return sequenceNumber_.get();
+   }
+
+   long getPostedCount() {
+      return postedCount_.get();
+   }
+
+   long getDroppedCount() {
+      return droppedCount_.get();
+   }
+
+   void resetCounts() {
+      postedCount_.set(0);
+      droppedCount_.set(0);
+   }
+}
@@ -29,23 +29,42 @@ public final class ImageStatsRequest {
    private final Coords nominalCoords_;
    private final List<Image> images_ = new ArrayList<Image>();
    private final BoundsRectAndMask roi_;
+   private final long frameSequenceNumber_;
 
    public static ImageStatsRequest create(Coords nominalCoords,
          List<Image> images,
          BoundsRectAndMask roi)
    {
-      return new ImageStatsRequest(nominalCoords, images, roi);
+      return new ImageStatsRequest(nominalCoords, images, roi, -1);
+   }
+
+   /**
+    * Create a request for images read after a given new frame was announced.
+    *
+    * @param frameSequenceNumber sequence number of the latest new frame at
+    * the time the images were read, used by the display to tell whether the
+    * frame has been shown
+    */
+   public static ImageStatsRequest create(Coords nominalCoords,
+         List<Image> images,
+         BoundsRectAndMask roi,
+         long frameSequenceNumber)
+   {
+      return new ImageStatsRequest(nominalCoords, images, roi,
+            frameSequenceNumber);
    }
 
    private ImageStatsRequest(Coords nominalCoords,
          List<Image> images,
-         BoundsRectAndMask roi)
+         BoundsRectAndMask roi,
+         long frameSequenceNumber)
    {
       Preconditions.checkNotNull(nominalCoords);
       Preconditions.checkNotNull(images);
       nominalCoords_ = nominalCoords;
       images_.addAll(images);
       roi_ = roi;
+      frameSequenceNumber_ = frameSequenceNumber;
    }
 
    public Coords getNominalCoords() {
@@ -64,6 +83,13 @@ public final class ImageStatsRequest {
       return Collections.unmodifiableList(images_);
    }
 
+   /**
+    * @return the frame sequence number given on creation, or -1 if none
+    */
+   public long getFrameSequenceNumber() {
+      return frameSequenceNumber_;
+   }
+
    public int getMaxBinCountPowerOf2() {
       return 16; // TODO Should be configurable
    }
@@ -25,6 +25,7 @@ package org.micromanager.internal;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ListSelectionModel;
@@ -32,6 +33,8 @@ import javax.swing.table.AbstractTableModel;
 import javax.swing.table.TableColumn;
 import mmcorej.CMMCore;
 import mmcorej.Configuration;
+import mmcorej.PropertyInfo;
+import mmcorej.PropertySnapshot;
 import mmcorej.StrVector;
 import org.micromanager.Studio;
 import org.micromanager.internal.dialogs.PresetEditor;
@@ -273,6 +276,8 @@ public final class ConfigGroupPad extends JScrollPane {
                oldGroupHash.put(group.group, group.config);
             }
             groupList_.clear();
+            // Property metadata, fetched once per device as needed
+            Map<String, PropertySnapshot> snapshots = new HashMap<>();
 
             for (String group : groups) {
                StateItem item = new StateItem();
@@ -297,20 +302,26 @@ public final class ConfigGroupPad extends JScrollPane {
                   if (cfg.size() == 1) {
                      item.device = cfg.getSetting(0).getDeviceLabel();
                      item.name = cfg.getSetting(0).getPropertyName();
-                     item.hasLimits = core_.hasPropertyLimits(item.device, item.name);
-                     boolean itemHasAllowedValues = (0 < core_.getAllowedPropertyValues(item.device, item.name).size());
-                     if (item.hasLimits || !itemHasAllowedValues) {
+                     PropertySnapshot snapshot = snapshots.get(item.device);
+                     if (snapshot == null) {
+                        snapshot = core_.getDevicePropertySnapshot(item.device, true);
+                        snapshots.put(item.device, snapshot);
+                     }
+                     PropertyInfo info = snapshot.getInfo(item.device, item.name);
+                     item.hasLimits = info.hasLimits();
+                     StrVector allowed = info.getAllowedValues();
+                     if (item.hasLimits || allowed.size() == 0) {
                         item.singleProp = true;
-                        item.type = core_.getPropertyType(item.device, item.name);
-                        if (fromCache) {
-                           item.setValueFromCoreString(core_.getPropertyFromCache(item.device, item.name));
+                        item.type = info.getType();
+                        if (fromCache && info.isValueAvailable()) {
+                           item.setValueFromCoreString(info.getValue());
                         } else {
                            item.setValueFromCoreString(core_.getProperty(item.device, item.name));
                         }
                         item.config = item.value;
-                        item.lowerLimit = core_.getPropertyLowerLimit(item.device, item.name);
-                        item.upperLimit = core_.getPropertyUpperLimit(item.device, item.name);
-                        item.singlePropAllowed = core_.getAllowedPropertyValues(item.device, item.name).toArray();
+                        item.lowerLimit = info.getLowerLimit();
+                        item.upperLimit = info.getUpperLimit();
+                        item.singlePropAllowed = allowed.toArray();
                      }
 
                   }
@@ -182,7 +182,11 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
    // Lock invoked while shutting down
    private final Object shutdownLock_ = new Object();
 
-   private Thread acquisitionEngine2010LoadingThread_ = null;
+   // Startup steps, some run concurrently; see the constructor
+   private final StartupTaskGraph startupTasks_ = new StartupTaskGraph();
+   private static final String STARTUP_PLUGINS = "Plugin loading";
+   private static final String STARTUP_ACQ_ENGINE = "Acquisition engine classes";
+   private static final String STARTUP_HARDWARE = "Hardware configuration";
    private Class<?> acquisitionEngine2010Class_ = null;
    private IAcquisitionEngine2010 acquisitionEngine2010_ = null;
    private StaticInfo staticInfo_;
@@ -289,6 +293,18 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
       // Start loading plugins in the background
       // Note: plugin constructors should not expect a fully constructed Studio!
       pluginManager_ = new DefaultPluginManager(studio_);
+      // Only to record the time taken in the startup report
+      startupTasks_.startInBackground(STARTUP_PLUGINS, new Runnable() {
+         @Override
+         public void run() {
+            try {
+               pluginManager_.waitForInitialization(0);
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         }
+      });
       
       // Lots of places use this. instantiate it first.
       eventManager_ = new DefaultEventManager();
@@ -409,6 +425,8 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
 
       // Profile may have been switched in Intro Dialog, so reflect its setting
       core_.enableDebugLog(OptionsDlg.getIsDebugLogEnabled(studio_));
+      core_.enableParallelDeviceInitialization(
+            OptionsDlg.getShouldInitializeDevicesInParallel(studio_));
 
       IJVersionCheckDlg.execute(studio_);
 
@@ -417,33 +435,31 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
       // This entity is a class property to avoid garbage collection.
       coreCallback_ = new CoreEventCallback(studio_, acqEngine_);
 
-      // Load hardware configuration
+      // Load hardware configuration in the background while we set up GUI
+      // elements that do not depend on it.
       // Note that this also initializes Autofocus plugins.
-      // TODO: This should probably be run on a background thread, while we set
-      // up GUI elements (but various managers will need to be aware of this)
-      if (sysConfigFile_ != null) {  // we do allow running Micro-Manager without 
-         // a config file!
-         if (!loadSystemConfiguration()) {
-            // TODO Do we still need to turn errors off to prevent spurious error messages?
-            ReportingUtils.showErrorOn(false);
+      Runnable loadHardware = new Runnable() {
+         @Override
+         public void run() {
+            if (sysConfigFile_ != null) {  // we do allow running Micro-Manager without
+               // a config file!
+               if (!loadSystemConfiguration()) {
+                  // TODO Do we still need to turn errors off to prevent spurious error messages?
+                  ReportingUtils.showErrorOn(false);
+               }
+            }
          }
+      };
+      if (SwingUtilities.isEventDispatchThread()) {
+         // Started as an ImageJ plugin. Device adapters and autofocus
+         // plugins may wait on the EDT, which we are about to block on the
+         // Multi-D dialog step, so load here instead.
+         startupTasks_.run(STARTUP_HARDWARE, loadHardware);
       }
-      
-      // Create Multi-D window here but do not show it.
-      // This window needs to be created in order to properly set the 
-      // "ChannelGroup" based on the Multi-D parameters
-      acqControlWin_ = new AcqControlDlg(acqEngine_, studio_);
-
-      acquisitionManager_ = new DefaultAcquisitionManager(this, acqEngine_,
-            acqControlWin_);
-
-      try {
-         core_.setCircularBufferMemoryFootprint(getCircularBufferSize());
-      } catch (Exception ex) {
-         ReportingUtils.showError(ex);
+      else {
+         startupTasks_.startInBackground(STARTUP_HARDWARE, loadHardware);
       }
-      
-      
+
       // Arrange to log stack traces when the EDT hangs.
       // Use parameters that ensure a stack trace dump within 10 seconds of an
       // EDT hang (and _no_ dump on hangs under 5.5 seconds)
@@ -458,18 +474,47 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
             IJ.getInstance().setLocation(150, 150);
          }
       }
-      
+
       // Load (but do no show) the scriptPanel
-      createScriptPanel();
-      
+      startupTasks_.run("Script panel", new Runnable() {
+         @Override
+         public void run() {
+            createScriptPanel();
+         }
+      });
+
+      startupTasks_.run("Multi-D dialog", new Runnable() {
+         @Override
+         public void run() {
+            // Create Multi-D window here but do not show it.
+            // This window needs to be created in order to properly set the
+            // "ChannelGroup" based on the Multi-D parameters
+            acqControlWin_ = new AcqControlDlg(acqEngine_, studio_);
+
+            acquisitionManager_ = new DefaultAcquisitionManager(studio_,
+                  acqEngine_, acqControlWin_);
+
+            try {
+               core_.setCircularBufferMemoryFootprint(getCircularBufferSize());
+            } catch (Exception ex) {
+               ReportingUtils.showError(ex);
+            }
+         }
+      }, STARTUP_HARDWARE);
+
       // Now create and show the main window
-      mmMenuBar_ = MMMenuBar.createMenuBar(studio_);
-      frame_ = new MainFrame(this, core_);
-      staticInfo_ = new StaticInfo(studio_, frame_);
-      frame_.toFront();
-      frame_.setVisible(true);
-      ReportingUtils.SetContainingFrame(frame_);
-      frame_.initializeConfigPad();
+      startupTasks_.run("Main window", new Runnable() {
+         @Override
+         public void run() {
+            mmMenuBar_ = MMMenuBar.createMenuBar(studio_);
+            frame_ = new MainFrame(studio_, core_);
+            staticInfo_ = new StaticInfo(studio_, frame_);
+            frame_.toFront();
+            frame_.setVisible(true);
+            ReportingUtils.SetContainingFrame(frame_);
+            frame_.initializeConfigPad();
+         }
+      }, STARTUP_HARDWARE);
 
       // We wait until after showing the main window to enable hot keys
       hotKeys_ = new org.micromanager.internal.utils.HotKeys();
@@ -477,7 +522,7 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
       // zWheelListener_ = new ZWheelListener(core_, studio_);
       // getEventManager().registerForEvents(zWheelListener_);
       // TODO snapLiveManager_.addLiveModeListener(zWheelListener_);
-      // xyzKeyListener_ = new XYZKeyListener(core_, studio_);
+      // xyzKeyListener_ = uiMovesStageManager.createKeyListener();
       // TODO snapLiveManager_.addLiveModeListener(xyzKeyListener_);
 
       // Switch error reporting back on TODO See above where it's turned off
@@ -489,12 +534,20 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
       // loaded before creating the GUI, so we need to reissue the event.)
       events().post(new SystemConfigurationLoadedEvent());
 
-      executeStartupScript();
+      startupTasks_.run("Startup script", new Runnable() {
+         @Override
+         public void run() {
+            executeStartupScript();
+         }
+      });
 
       updateGUI(true);
       
       // Give plugins a chance to initialize their state
       events().post(new StartupCompleteEvent());
+
+      ReportingUtils.logMessage(startupTasks_.getReport());
+      startupTasks_.shutdown();
    }
 
    private void initializeLogging(CMMCore core) {
@@ -545,9 +598,11 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
     * AOT-compiled?).
     */
    private void prepAcquisitionEngine() {
-      acquisitionEngine2010LoadingThread_ = new Thread("Pipeline Class loading thread") {
+      startupTasks_.startInBackground(STARTUP_ACQ_ENGINE, new Runnable() {
          @Override
          public void run() {
+            Thread.currentThread().setContextClassLoader(
+                  MMStudio.class.getClassLoader());
             try {
                acquisitionEngine2010Class_  = Class.forName("org.micromanager.internal.AcquisitionEngine2010");
             } catch (ClassNotFoundException ex) {
@@ -555,9 +610,7 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
                acquisitionEngine2010Class_ = null;
             }
          }
-      };
-      acquisitionEngine2010LoadingThread_.setContextClassLoader(getClass().getClassLoader());
-      acquisitionEngine2010LoadingThread_.start();
+      });
    }
 
    @Override
@@ -1563,7 +1616,7 @@ public final class MMStudio implements Studio, CompatibilityInterface, PositionL
 
    public IAcquisitionEngine2010 getAcquisitionEngine2010() {
       try {
-         acquisitionEngine2010LoadingThread_.join();
+         startupTasks_.await(STARTUP_ACQ_ENGINE);
          if (acquisitionEngine2010_ == null) {
             acquisitionEngine2010_ = 
                     (IAcquisitionEngine2010) 
@@ -33,6 +33,8 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -41,7 +43,7 @@ import javax.swing.JTable;
 import javax.swing.border.BevelBorder;
 import javax.swing.table.TableColumn;
 import mmcorej.CMMCore;
-import mmcorej.StrVector;
+import mmcorej.PropertyInfo;
 import net.miginfocom.swing.MigLayout;
 import org.micromanager.Studio;
 import org.micromanager.events.PropertiesChangedEvent;
@@ -211,43 +213,26 @@ public final class PropertyEditor extends MMFrame {
          fireTableCellUpdated(row, col);
       }
 
-      public void update (String device, String propName, String newValue) {
-         PropertyItem item = getItem(device, propName);
-         if (item != null) {
-            item.value = newValue;
-            Integer row = propToRow_.get(item);
-            if (row != null) {
-               fireTableCellUpdated(row, propertyValueColumn_);
-            }
-         }
-      }
-
       @Override
       public void update(ShowFlags flags, String groupName, String presetName, boolean fromCache) {
+         boolean rebuilt = false;
          try {
-            StrVector devices = core_.getLoadedDevices();
-            propList_.clear();
-
             if (!fromCache) {
                // Some properties may not be readable if we are
                // mid-acquisition.
                studio_.live().setSuspended(true);
             }
-            for (int i = 0; i < devices.size(); i++) {
-               if (data_.showDevice(flags, devices.get(i))) {
-                  StrVector properties = core_.getDevicePropertyNames(devices.get(i));
-                  for (int j = 0; j < properties.size(); j++){
-                     PropertyItem item = new PropertyItem();
-                     item.readFromCore(core_, devices.get(i), properties.get(j), fromCache);
-
-                     if ((!item.readOnly || showReadOnly_) && !item.preInit) {
-                        propList_.add(item);
-                     }
-                  }
+            List<PropertyItem> items = new ArrayList<>();
+            for (PropertyInfo info : getShownProperties(flags, null, fromCache)) {
+               PropertyItem item = new PropertyItem();
+               item.readFromInfo(info);
+
+               if ((!item.readOnly || showReadOnly_) && !item.preInit) {
+                  items.add(item);
                }
             }
 
-            updateRowVisibility(flags);
+            rebuilt = mergeItems(items, flags);
 
             if (!fromCache) {
                studio_.live().setSuspended(false);
@@ -255,7 +240,9 @@ public final class PropertyEditor extends MMFrame {
          } catch (Exception e) {
             ReportingUtils.showError(e, "Error updating Device Property Browser");
          }
-         this.fireTableStructureChanged();
+         if (rebuilt) {
+            this.fireTableStructureChanged();
+         }
 
       }
    }
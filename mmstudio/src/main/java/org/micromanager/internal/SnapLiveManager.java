@@ -16,30 +16,21 @@ package org.micromanager.internal;
 
 import com.bulenkov.iconloader.IconLoader;
 import com.google.common.eventbus.Subscribe;
+import com.google.gson.JsonObject;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
 import mmcorej.CMMCore;
-import mmcorej.TaggedImage;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DatastoreFrozenException;
@@ -50,6 +41,7 @@ import org.micromanager.data.NewPipelineEvent;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultRewritableDatastore;
 import org.micromanager.data.internal.PropertyKey;
 import org.micromanager.data.internal.StorageRAM;
@@ -85,7 +77,10 @@ public final class SnapLiveManager extends DataViewerListener
    private static final String TITLE = "Preview";
 
    private static final double MIN_GRAB_DELAY_MS = 1000.0 / 60.0;
-   private static final double MAX_GRAB_DELAY_MS = 300.0;
+
+   // How long the grabber thread blocks waiting for a new frame before
+   // checking whether live mode is still on.
+   private static final int NEW_IMAGE_WAIT_MS = 100;
 
    // What quantile of actual paint interval to use as the interval for image
    // retrieval. Too high will cause display rate to take a long time to climb
@@ -108,11 +103,8 @@ public final class SnapLiveManager extends DataViewerListener
 
    private final List<DefaultImage> lastImageForEachChannel_ = new ArrayList<>();
 
-   private final ScheduledExecutorService scheduler_ =
-         Executors.newSingleThreadScheduledExecutor(
-               ThreadFactoryFactory.createThreadFactory("SnapLiveManager"));
    // Guarded by monitor on this
-   private ScheduledFuture<?> scheduledGrab_;
+   private Thread grabber_;
    // Counter for live acquisitions started, needed to synchronize across
    // a stopped and rapidly restarted run of live mode.
    // Guarded by monitor on this
@@ -130,6 +122,26 @@ public final class SnapLiveManager extends DataViewerListener
          PerformanceMonitorUI.create(perfMon_, "SnapLiveManager Performance");
    private DisplayInfo displayInfo_;
    private final Object displayInfoLock_;
+
+   // Newest live image for each channel that has not been handed to the EDT
+   // yet. Images replaced here before the EDT gets to them are never
+   // displayed, so a slow display cannot make the grabber fall behind.
+   // Guarded by monitor on itself
+   private final Map<Integer, PendingImage> pendingLiveImages_ =
+         new HashMap<>();
+   private boolean isLiveImagePublishScheduled_ = false;
+
+   private static class PendingImage {
+      final DefaultImage image_;
+      final long liveModeCount_;
+      final long arrivalNs_;
+
+      PendingImage(DefaultImage image, long liveModeCount, long arrivalNs) {
+         image_ = image;
+         liveModeCount_ = liveModeCount;
+         arrivalNs_ = arrivalNs;
+      }
+   }
    
    private class DisplayInfo {
       private int width_;
@@ -231,6 +243,9 @@ public final class SnapLiveManager extends DataViewerListener
 
       stopLiveMode(); // Make sure
 
+      // Remember the counter before starting, so that the grabber does not
+      // miss the first frame.
+      final int startImageCounter = core_.getImageCounter();
       try {
          amStartingSequenceAcquisition_ = true;
          core_.startContinuousSequenceAcquisition(0);
@@ -250,15 +265,6 @@ public final class SnapLiveManager extends DataViewerListener
          shouldForceReset_ = true;
       }
       numCameraChannels_ = (int) coreCameras;
-      final double exposureMs;
-      try {
-         exposureMs = core_.getExposure();
-      }
-      catch (Exception e) {
-         mmStudio_.logs().showError(e, "Unable to determine exposure time");
-         return;
-      }
-      final String camName = core_.getCameraDevice();
       
       synchronized (displayInfoLock_) {
          if (displayInfo_ != null) {
@@ -274,50 +280,9 @@ public final class SnapLiveManager extends DataViewerListener
 
       synchronized (this) {
          final long liveModeCount = ++liveModeStartCount_;
-         final Runnable grab;
-         grab = new Runnable() {
-            @Override
-            public void run() {
-               // We are started from within the monitor. Wait until that
-               // monitor is released before starting.
-               synchronized (SnapLiveManager.this) {
-                  if (scheduledGrab_ == null ||
-                        liveModeStartCount_ != liveModeCount) {
-                     return;
-                  }
-               }
-               grabAndAddImages(camName, liveModeCount);
-
-               // Choose an interval within the absolute bounds, and at least as
-               // long as the exposure. Within that range, try to match the
-               // actual frequency at which the images are getting displayed.
-
-               double displayIntervalLowQuantileMs;
-               if (display_ != null) {
-                  displayIntervalLowQuantileMs =
-                        display_.getDisplayIntervalQuantile(
-                              DISPLAY_INTERVAL_ESTIMATE_Q);
-               }
-               else {
-                  displayIntervalLowQuantileMs = 0.0;
-               }
-
-               long delayMs;
-               synchronized (SnapLiveManager.this) {
-                  if (scheduledGrab_ == null ||
-                        liveModeStartCount_ != liveModeCount) {
-                     return;
-                  }
-                  delayMs = computeGrabDelayMs(exposureMs,
-                        displayIntervalLowQuantileMs,
-                        -scheduledGrab_.getDelay(TimeUnit.MILLISECONDS));
-                  scheduledGrab_ = scheduler_.schedule(this,
-                        delayMs, TimeUnit.MILLISECONDS);
-               }
-               perfMon_.sample("Grab schedule delay (ms)", delayMs);
-            }
-         };
-         scheduledGrab_ = scheduler_.schedule(grab, 0, TimeUnit.MILLISECONDS);
+         grabber_ = ThreadFactoryFactory.createThreadFactory("SnapLiveManager")
+               .newThread(() -> runGrabber(liveModeCount, startImageCounter));
+         grabber_.start();
       }
 
       if (display_ != null) {
@@ -325,23 +290,6 @@ public final class SnapLiveManager extends DataViewerListener
       }
    }
 
-   private static long computeGrabDelayMs(double exposureMs,
-         double displayIntervalMs, double alreadyElapsedMs)
-   {
-      double delayMs = Math.max(exposureMs, displayIntervalMs);
-      delayMs -= alreadyElapsedMs;
-
-      // Clip to allowed range
-      delayMs = Math.max(MIN_GRAB_DELAY_MS, delayMs);
-      if (delayMs > MAX_GRAB_DELAY_MS) {
-         // A trick to get an interval that is less likely to frequently (and
-         // noticeable) skip frames when the frame rate is low.
-         delayMs /= Math.ceil(delayMs / MAX_GRAB_DELAY_MS);
-      }
-
-      return Math.round(delayMs);
-   }
-
    private void stopLiveMode() {
       if (amStartingSequenceAcquisition_) {
          // HACK: if startContinuousSequenceAcquisition results in a core
@@ -353,10 +301,10 @@ public final class SnapLiveManager extends DataViewerListener
       }
 
       synchronized (this) {
-         if (scheduledGrab_ != null) {
-            scheduledGrab_.cancel(false);
-            scheduledGrab_ = null;
-         }
+         // The grabber notices within NEW_IMAGE_WAIT_MS and exits. Do not
+         // join it: it may be waiting for the Core, which we may be holding
+         // up (see startLiveMode()).
+         grabber_ = null;
       }
 
       try {
@@ -372,80 +320,174 @@ public final class SnapLiveManager extends DataViewerListener
       }
    }
 
+   private synchronized boolean isCurrentLiveMode(long liveModeCount) {
+      return grabber_ != null && liveModeStartCount_ == liveModeCount;
+   }
+
    /**
-    * This method takes images out of the Core and inserts them into our
-    * pipeline.
+    * Body of the grabber thread. Sleeps in the Core until the camera inserts
+    * a new frame into the sequence buffer, then fetches the newest frame of
+    * each camera channel and hands it to the EDT. Fetching is paced to the
+    * rate at which the display actually paints; frames arriving faster than
+    * that are skipped in the Core without being copied.
     */
-   private void grabAndAddImages(String camName, final long liveModeCount) {
-      try {
-         // We scan over 2*numCameraChannels here because, in multi-camera
-         // setups, one camera could be generating images faster than the
-         // other(s). Of course, 2x isn't guaranteed to be enough here, either,
-         // but it's what we've historically used.
-         HashSet<Integer> channelsSet = new HashSet<>();
-         for (int c = 0; c < 6 * numCameraChannels_; ++c) {
-            TaggedImage tagged;
+   private void runGrabber(final long liveModeCount, int imageCounter) {
+      while (isCurrentLiveMode(liveModeCount)) {
+         final int newCounter;
+         try {
+            newCounter = core_.waitForNewImage(imageCounter, NEW_IMAGE_WAIT_MS);
+         }
+         catch (Exception e) {
+            ReportingUtils.logError(e, "Exception in image grabber thread.");
+            return;
+         }
+         if (newCounter == imageCounter) {
+            continue; // Timed out; check whether we are still live
+         }
+         imageCounter = newCounter;
+         final long arrivalNs = System.nanoTime();
+         grabAndAddImages(liveModeCount, arrivalNs);
+
+         // Try to match the actual frequency at which the images are
+         // getting displayed.
+         double displayIntervalLowQuantileMs = 0.0;
+         if (display_ != null) {
+            displayIntervalLowQuantileMs =
+                  display_.getDisplayIntervalQuantile(
+                        DISPLAY_INTERVAL_ESTIMATE_Q);
+         }
+         double delayMs = Math.max(MIN_GRAB_DELAY_MS,
+               displayIntervalLowQuantileMs) -
+               (System.nanoTime() - arrivalNs) / 1e6;
+         perfMon_.sample("Grab pacing delay (ms)", Math.max(0.0, delayMs));
+         if (delayMs > 0.0) {
             try {
-               tagged = core_.getNBeforeLastTaggedImage(c);
-               perfMon_.sampleTimeInterval("getNBeforeLastTaggedImage");
-               perfMon_.sample("No image in sequence buffer (%)", 0.0);
+               Thread.sleep(Math.round(delayMs));
             }
-            catch (Exception e) {
-               // No image in the sequence buffer.
-               perfMon_.sample("No image in sequence buffer (%)", 100.0);
-               continue;
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               return;
             }
-            JSONObject tags = tagged.tags;
-            int imageChannel = c;
-            if (tags.has(camName + "-CameraChannelIndex")) {
-               imageChannel = tags.getInt(camName + "-CameraChannelIndex");
+         }
+      }
+   }
+
+   /**
+    * This method takes the newest image of each camera channel out of the
+    * Core and queues it for insertion into our pipeline.
+    */
+   private void grabAndAddImages(final long liveModeCount, long arrivalNs) {
+      final int width = (int) core_.getImageWidth();
+      final int height = (int) core_.getImageHeight();
+      final int bytesPerPixel = (int) core_.getBytesPerPixel();
+      final int numComponents = (int) core_.getNumberOfComponents();
+      final String roiTag = getROITag();
+      for (int c = 0; c < numCameraChannels_; ++c) {
+         mmcorej.Metadata md = new mmcorej.Metadata();
+         Object pixels;
+         try {
+            pixels = fetchLastImage(c, md);
+            perfMon_.sampleTimeInterval("Image fetched from sequence buffer");
+            perfMon_.sample("No image in sequence buffer (%)", 0.0);
+         }
+         catch (Exception e) {
+            // No image for this channel in the sequence buffer (yet).
+            perfMon_.sample("No image in sequence buffer (%)", 100.0);
+            continue;
+         }
+         try {
+            // Convert all of the Core's tags, as the TaggedImage path does
+            JsonObject tags = new JsonObject();
+            for (String key : md.GetKeys()) {
+               tags.addProperty(key, md.GetSingleTag(key).GetValue());
             }
-            if (channelsSet.contains(imageChannel)) {
-               // Already provided a more recent version of this channel.
-               continue;
+            if (roiTag != null && !tags.has(PropertyKey.ROI.key())) {
+               tags.addProperty(PropertyKey.ROI.key(), roiTag);
             }
-            DefaultImage image = new DefaultImage(tagged);
-            final Long seqNr = image.getMetadata().getImageNumber();
+            Metadata metadata = DefaultMetadata.fromFlatTags(tags);
             perfMon_.sample("Image missing ImageNumber (%)",
-                  seqNr == null ? 100.0 : 0.0);
-            Coords newCoords = image.getCoords().copyBuilder()
-               .t(0)
-               .c(imageChannel).build();
-              // Generate a new UUID for the image, so that our histogram
-              // update code realizes this is a new image.
-              Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
-                      .build();
-              final Image newImage = image.copyWith(newCoords, newMetadata);
-
-              try {
-                  SwingUtilities.invokeAndWait(() -> {
-                     synchronized (SnapLiveManager.this) {
-                        if (scheduledGrab_ == null
-                                || liveModeStartCount_ != liveModeCount) {
-                           throw new CancellationException();
-                        }
-                     }
-                     displayImage(newImage);
-                  });
-
-              } catch (InterruptedException unexpected) {
-                  Thread.currentThread().interrupt();
-              } catch (InvocationTargetException e) {
-                  if (e.getCause() instanceof CancellationException) {
-                      return;
-                  }
-                  throw new RuntimeException(e.getCause());
-              }
-              channelsSet.add(imageChannel);
-              if (channelsSet.size() == numCameraChannels_) {
-                  // Got every channel.
-                  break;
-              }
-          }
-      }
-      catch (JSONException e) {
-         ReportingUtils.logError(e, "Exception in image grabber thread.");
+                  metadata.getImageNumber() == null ? 100.0 : 0.0);
+            Coords coords = Coordinates.builder().t(0).c(c).build();
+            DefaultImage image = new DefaultImage(pixels, width, height,
+                  bytesPerPixel, numComponents, coords, metadata);
+            // Done here rather than on the EDT, which only has to insert the
+            // image. This also gives the image a new UUID, so that our
+            // histogram update code realizes this is a new image.
+            image = new DefaultImage(image, coords,
+                  mmStudio_.acquisitions().generateMetadata(image, true));
+            publishLiveImage(new PendingImage(image, liveModeCount, arrivalNs));
+         }
+         catch (Exception e) {
+            ReportingUtils.logError(e, "Exception in image grabber thread.");
+         }
+      }
+   }
+
+   // ROI in the format of the "ROI" tag of TaggedImages, or null
+   private String getROITag() {
+      int[] x = new int[1];
+      int[] y = new int[1];
+      int[] width = new int[1];
+      int[] height = new int[1];
+      try {
+         core_.getROI(x, y, width, height);
+      }
+      catch (Exception e) {
+         return null;
+      }
+      return x[0] + "-" + y[0] + "-" + width[0] + "-" + height[0];
+   }
+
+   /**
+    * Copy the newest image of the given camera channel out of the sequence
+    * buffer. With multiple cameras the Core is asked for the last frame of
+    * that particular camera, so that a fast camera cannot push the frames of
+    * a slow one out of reach.
+    */
+   private Object fetchLastImage(int channel, mmcorej.Metadata md)
+         throws Exception {
+      String channelName = core_.getCameraChannelName(channel);
+      if (numCameraChannels_ > 1
+            && !channelName.equals(core_.getCameraDevice())) {
+         try {
+            return core_.getLastImageFromCameraMD(channelName, 0, md);
+         }
+         catch (Exception e) {
+            // Not a physical camera (a single multi-channel camera), or that
+            // camera has not produced a frame yet.
+         }
       }
+      return core_.getLastImageMD(channel, 0, md);
+   }
+
+   private void publishLiveImage(PendingImage pending) {
+      synchronized (pendingLiveImages_) {
+         PendingImage replaced = pendingLiveImages_.put(
+               pending.image_.getCoords().getChannel(), pending);
+         perfMon_.sample("Frames replaced before display (%)",
+               replaced == null ? 0.0 : 100.0);
+         if (isLiveImagePublishScheduled_) {
+            return;
+         }
+         isLiveImagePublishScheduled_ = true;
+      }
+      SwingUtilities.invokeLater(() -> {
+         List<PendingImage> images;
+         synchronized (pendingLiveImages_) {
+            images = new ArrayList<>(pendingLiveImages_.values());
+            pendingLiveImages_.clear();
+            isLiveImagePublishScheduled_ = false;
+         }
+         for (PendingImage image : images) {
+            if (!isCurrentLiveMode(image.liveModeCount_)) {
+               continue;
+            }
+            if (addImageToDisplay(image.image_)) {
+               perfMon_.sample("Camera to display latency (ms)",
+                     (System.nanoTime() - image.arrivalNs_) / 1e6);
+            }
+         }
+      });
    }
 
    @Override
@@ -475,8 +517,10 @@ public final class SnapLiveManager extends DataViewerListener
    private void createDisplay() {
       DisplayWindowControlsFactory controlsFactory = 
               (DisplayWindow display) -> createControls();
+      // Live mode only ever needs to show the newest frame
       display_ = new DisplayController.Builder(store_).
             controlsFactory(controlsFactory).
+            latestFrameOnly(true).
             shouldShow(true).build(mmStudio_);
       DisplaySettings ds = DefaultDisplaySettings.restoreFromProfile(
               mmStudio_.profile(), 
@@ -602,6 +646,26 @@ public final class SnapLiveManager extends DataViewerListener
          return;
       }
 
+      DefaultImage newImage;
+      try {
+         newImage = new DefaultImage(image, image.getCoords(),
+               mmStudio_.acquisitions().generateMetadata(image, true));
+      }
+      catch (Exception e) {
+         // Error getting metadata from the system state cache.
+         mmStudio_.logs().logError(e, "Error drawing image in snap/live view");
+         return;
+      }
+      addImageToDisplay(newImage);
+   }
+
+   /**
+    * Insert an image that already carries its full metadata into our
+    * pipeline, recreating the datastore and display where needed.
+    * @return false if the image was not inserted
+    */
+   @MustCallOnEDT
+   private boolean addImageToDisplay(DefaultImage newImage) {
       boolean shouldReset = shouldForceReset_;
       if (store_ != null) {
          List<String> channelNames = store_.getSummaryMetadata().getChannelNameList();
@@ -639,9 +703,6 @@ public final class SnapLiveManager extends DataViewerListener
       }
 
       try {
-         DefaultImage newImage = new DefaultImage(image, image.getCoords(),
-               mmStudio_.acquisitions().generateMetadata(image, true));
-
          int newImageChannel = newImage.getCoords().getChannel();
 
          if ( (displayInfo_ != null) &&
@@ -664,7 +725,7 @@ public final class SnapLiveManager extends DataViewerListener
                if (Objects.equals(prevSeqNr, newSeqNr)) {
                   perfMon_.sample(
                           "Image rejected based on ImageNumber (%)", 100.0);
-                  return; // Already displayed this image
+                  return false; // Already displayed this image
                }
                perfMon_.sample("Frames dropped at sequence buffer exit (%)",
                        100.0 * (newSeqNr - prevSeqNr - 1) / (newSeqNr - prevSeqNr));
@@ -677,7 +738,7 @@ public final class SnapLiveManager extends DataViewerListener
          } // Check for display having been closed on us by the user.
          else if (display_ == null || display_.isClosed()) {
             createDisplay();
-            int numComponents = image.getNumComponents();
+            int numComponents = newImage.getNumComponents();
             if (numComponents > 1) {
                DisplaySettings ds = display_.getDisplaySettings();
                ChannelDisplaySettings.Builder cb = ds.getChannelSettings(0).copyBuilder();
@@ -720,18 +781,20 @@ public final class SnapLiveManager extends DataViewerListener
                        "An error occurred while processing images.");
                stopLiveMode();
                pipeline_.clearExceptions();
+               return false;
             }
          }
+         return true;
       }
       catch (DatastoreFrozenException e) {
          // Datastore has been frozen (presumably the user saved a snapped
          // image); replace it.
          createOrResetDatastoreAndDisplay();
-         displayImage(image);
+         return addImageToDisplay(newImage);
       }
       catch (Exception e) {
-         // Error getting metadata from the system state cache.
          mmStudio_.logs().logError(e, "Error drawing image in snap/live view");
+         return false;
       }
    }
 
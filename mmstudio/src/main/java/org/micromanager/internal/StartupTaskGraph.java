@@ -0,0 +1,213 @@
+package org.micromanager.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Named startup steps with declared dependencies, and their timing.
+ * <p>
+ * Background steps start on their own thread as soon as the steps they
+ * depend on have finished; foreground steps run on the calling thread after
+ * waiting for theirs. Dependencies must be added before their dependents,
+ * which rules out cycles. The report lists each step's start, wait, and run
+ * times, and the chain of steps that determined when startup finished.
+ */
+final class StartupTaskGraph {
+   private final long originNanos_ = System.nanoTime();
+   private final ExecutorService executor_ = Executors.newCachedThreadPool(
+         ThreadFactoryFactory.createThreadFactory("Startup"));
+
+   // Guarded by this
+   private final Map<String, Task> tasks_ = new LinkedHashMap<>();
+   private Task lastForegroundTask_ = null;
+
+   private static final class Task {
+      final String name_;
+      final List<Task> dependencies_;
+      final CountDownLatch done_ = new CountDownLatch(1);
+      volatile String threadName_;
+      volatile long queuedNanos_;
+      volatile long startNanos_;
+      volatile long endNanos_;
+
+      Task(String name, List<Task> dependencies) {
+         name_ = name;
+         dependencies_ = dependencies;
+      }
+   }
+
+   /**
+    * Start a step on a background thread.
+    * <p>
+    * Exceptions thrown by the step are logged; steps depending on it still
+    * run.
+    *
+    * @param name unique name of the step
+    * @param runnable the step
+    * @param dependencies names of steps that must finish first
+    */
+   void startInBackground(String name, final Runnable runnable,
+         String... dependencies) {
+      final Task task = addTask(name, dependencies, false);
+      executor_.execute(new Runnable() {
+         @Override
+         public void run() {
+            awaitDependencies(task);
+            task.threadName_ = Thread.currentThread().getName();
+            task.startNanos_ = System.nanoTime();
+            try {
+               runnable.run();
+            }
+            catch (RuntimeException | Error e) {
+               ReportingUtils.logError(e, "Startup step failed: " + task.name_);
+            }
+            finally {
+               task.endNanos_ = System.nanoTime();
+               task.done_.countDown();
+            }
+         }
+      });
+   }
+
+   /**
+    * Run a step on the calling thread, after waiting for its dependencies.
+    *
+    * @param name unique name of the step
+    * @param runnable the step; exceptions propagate to the caller
+    * @param dependencies names of steps that must finish first
+    */
+   void run(String name, Runnable runnable, String... dependencies) {
+      Task task = addTask(name, dependencies, true);
+      awaitDependencies(task);
+      task.threadName_ = Thread.currentThread().getName();
+      task.startNanos_ = System.nanoTime();
+      try {
+         runnable.run();
+      }
+      finally {
+         task.endNanos_ = System.nanoTime();
+         task.done_.countDown();
+      }
+   }
+
+   /**
+    * Wait for a step to finish.
+    *
+    * @param name name of the step
+    * @throws InterruptedException if interrupted while waiting
+    * @throws IllegalArgumentException if no such step was added
+    */
+   void await(String name) throws InterruptedException {
+      Task task;
+      synchronized (this) {
+         task = tasks_.get(name);
+      }
+      if (task == null) {
+         throw new IllegalArgumentException("No startup step named " + name);
+      }
+      task.done_.await();
+   }
+
+   private synchronized Task addTask(String name, String[] dependencies,
+         boolean foreground) {
+      if (tasks_.containsKey(name)) {
+         throw new IllegalArgumentException("Duplicate startup step " + name);
+      }
+      List<Task> deps = new ArrayList<>();
+      for (String dep : dependencies) {
+         Task depTask = tasks_.get(dep);
+         if (depTask == null) {
+            throw new IllegalArgumentException("Startup step " + name +
+                  " depends on unknown step " + dep);
+         }
+         deps.add(depTask);
+      }
+      if (foreground && lastForegroundTask_ != null) {
+         // Foreground steps are implicitly sequential
+         deps.add(lastForegroundTask_);
+      }
+      Task task = new Task(name, deps);
+      task.queuedNanos_ = System.nanoTime();
+      tasks_.put(name, task);
+      if (foreground) {
+         lastForegroundTask_ = task;
+      }
+      return task;
+   }
+
+   private static void awaitDependencies(Task task) {
+      for (Task dep : task.dependencies_) {
+         try {
+            dep.done_.await();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+
+   /**
+    * Return a human-readable report of the steps that have finished.
+    * @return the report
+    */
+   synchronized String getReport() {
+      List<Task> finished = new ArrayList<>();
+      for (Task task : tasks_.values()) {
+         if (task.done_.getCount() == 0) {
+            finished.add(task);
+         }
+      }
+
+      StringBuilder sb = new StringBuilder("Startup steps (ms since start):");
+      Task last = null;
+      for (Task task : finished) {
+         sb.append(String.format("%n   %-28s start %6d  waited %6d  ran %6d  [%s]",
+               task.name_, toMs(task.startNanos_ - originNanos_),
+               toMs(task.startNanos_ - task.queuedNanos_),
+               toMs(task.endNanos_ - task.startNanos_), task.threadName_));
+         if (last == null || task.endNanos_ > last.endNanos_) {
+            last = task;
+         }
+      }
+
+      // Walk back from the step that finished last, each time to the
+      // dependency that finished last
+      List<String> path = new ArrayList<>();
+      for (Task task = last; task != null; ) {
+         path.add(task.name_ + " (" +
+               toMs(task.endNanos_ - task.startNanos_) + ")");
+         Task next = null;
+         for (Task dep : task.dependencies_) {
+            if (dep.done_.getCount() == 0 &&
+                  (next == null || dep.endNanos_ > next.endNanos_)) {
+               next = dep;
+            }
+         }
+         task = next;
+      }
+      Collections.reverse(path);
+      sb.append(String.format("%nCritical path: ")).append(
+            path.isEmpty() ? "none" : String.join(" -> ", path));
+      return sb.toString();
+   }
+
+   /**
+    * Stop accepting steps. Running background steps are not interrupted.
+    */
+   void shutdown() {
+      executor_.shutdown();
+   }
+
+   private static long toMs(long nanos) {
+      return nanos / 1000000;
+   }
+}
@@ -350,7 +350,9 @@ public abstract class ConfigDialog extends MMDialog {
       // avoid re-executing a refresh because of callbacks while we are
       // updating
       if (!data_.updating()) {
-        data_.update(true);
+         // Only the one row can have changed
+         data_.update(event.getDevice(), event.getProperty(),
+               event.getValue());
       }
    }
 
@@ -54,6 +54,7 @@ import org.micromanager.internal.utils.UIMonitor;
 public final class OptionsDlg extends MMDialog {
    private static final long serialVersionUID = 1L;
    private static final String IS_DEBUG_LOG_ENABLED = "is debug logging enabled";
+   private static final String SHOULD_INITIALIZE_DEVICES_IN_PARALLEL = "should initialize devices in parallel";
    private static final String SHOULD_CLOSE_ON_EXIT = "should close the entire program when the Micro-Manager plugin is closed";
 
    private final JTextField startupScriptFile_;
@@ -223,6 +224,16 @@ public final class OptionsDlg extends MMDialog {
          MMStudio.getFrame().setExitStrategy(shouldClose);
       });
 
+      final JCheckBox parallelInitCheckBox = new JCheckBox();
+      parallelInitCheckBox.setText("Initialize devices in parallel");
+      parallelInitCheckBox.setToolTipText("<html>Initialize devices from different device adapters at the same time when loading a configuration.<br>Some device adapters (e.g. those using COM-based camera SDKs) only work when<br>used from the thread that initialized them, and may fail with this option.<br>Takes effect the next time a configuration is loaded.</html>");
+      parallelInitCheckBox.setSelected(getShouldInitializeDevicesInParallel(mmStudio_));
+      parallelInitCheckBox.addActionListener((ActionEvent arg0) -> {
+         boolean isEnabled = parallelInitCheckBox.isSelected();
+         setShouldInitializeDevicesInParallel(mmStudio_, isEnabled);
+         core_.enableParallelDeviceInitialization(isEnabled);
+      });
+
       final JCheckBox metadataFileWithMultipageTiffCheckBox = new JCheckBox();
       metadataFileWithMultipageTiffCheckBox.setText("Create metadata.txt file with Image Stack Files");
       metadataFileWithMultipageTiffCheckBox.setSelected(
@@ -292,6 +303,7 @@ public final class OptionsDlg extends MMDialog {
       super.add(startupScriptFile_, "wrap");
 
       super.add(closeOnExitCheckBox, "wrap");
+      super.add(parallelInitCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
@@ -356,6 +368,17 @@ public final class OptionsDlg extends MMDialog {
             IS_DEBUG_LOG_ENABLED, isEnabled);
    }
 
+   public static boolean getShouldInitializeDevicesInParallel(Studio studio) {
+      return studio.profile().getBoolean(OptionsDlg.class,
+            SHOULD_INITIALIZE_DEVICES_IN_PARALLEL, false);
+   }
+
+   public static void setShouldInitializeDevicesInParallel(Studio studio,
+         boolean shouldInitialize) {
+      studio.profile().setBoolean(OptionsDlg.class,
+            SHOULD_INITIALIZE_DEVICES_IN_PARALLEL, shouldInitialize);
+   }
+
    public static boolean getShouldCloseOnExit(Studio studio) {
       return studio.profile().getBoolean(OptionsDlg.class,
             SHOULD_CLOSE_ON_EXIT, true);
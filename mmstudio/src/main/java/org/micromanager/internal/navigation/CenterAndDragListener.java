@@ -26,12 +26,10 @@ import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
-import java.util.concurrent.ExecutorService;
 import javax.swing.JOptionPane;
 import org.micromanager.Studio;
 import mmcorej.MMCoreJ;
 import org.micromanager.display.internal.event.DisplayMouseEvent;
-import org.micromanager.events.XYStagePositionChangedEvent;
 import org.micromanager.events.internal.DefaultEventManager;
 import org.micromanager.internal.utils.AffineUtils;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -43,8 +41,7 @@ import org.micromanager.internal.utils.ReportingUtils;
 public final class CenterAndDragListener {
 
    private final Studio studio_;
-   private final ExecutorService executorService_;
-   private final StageMover stageMover_;
+   private final StageNavigationExecutor navigator_;
    private boolean mirrorX_;
    private boolean mirrorY_;
    private boolean transposeXY_;
@@ -54,51 +51,13 @@ public final class CenterAndDragListener {
    private int lastX_, lastY_;
 
    public CenterAndDragListener(final Studio studio, 
-         final ExecutorService executorService) {
+         final StageNavigationExecutor navigator) {
       studio_ = studio;
-      executorService_ = executorService;
-      stageMover_ = new StageMover();
+      navigator_ = navigator;
 
       getOrientation();
    }
    
-   private class StageMover implements Runnable {
-
-      private String xyStage_;
-      private double xRel_;                                   
-      private double yRel_;
-
-      /**
-       * Always call this function first before executing the Runnable
-       * Otherwise, the previous movement will be repeated...
-       * @param xyStage - Stage to move
-       * @param xRel - relative movement in X in microns
-       * @param yRel - relative movement in Y in microns
-       */
-      public void setPosition(String xyStage, double xRel, double yRel) {
-         xyStage_ = xyStage;
-         xRel_ = xRel;
-         yRel_ = yRel;
-      }
-
-      @Override
-      public void run() {
-
-         // Move the stage
-         try {
-            studio_.core().setRelativeXYPosition(xyStage_, xRel_, yRel_);
-            double[] xs = new double[1];
-            double[] ys = new double[1];
-            studio_.core().getXYPosition(xyStage_, xs, ys);
-            studio_.events().post(
-                    new XYStagePositionChangedEvent(xyStage_, xs[0], ys[0]));
-         } catch (Exception ex) {
-            ReportingUtils.showError(ex);
-         }
-      }
-   }
-
-
    /*
     * Ensures that the stage moves in the expected direction
     */
@@ -214,14 +173,8 @@ public final class CenterAndDragListener {
             if (xyStage == null || xyStage.equals("")) {
                return;
             }
-            try {
-               if (studio_.core().deviceBusy(xyStage)) {
-                  return;
-               }
-            } catch (Exception ex) {
-               ReportingUtils.showError(ex);
-               return;
-            }
+            // No need to skip events while the stage is busy: moves made
+            // meanwhile are combined into one by the navigator
 
             double pixSizeUm = studio_.core().getPixelSizeUm();
             if (!(pixSizeUm > 0.0)) {
@@ -249,8 +202,7 @@ public final class CenterAndDragListener {
    }
 
    private void moveStage(String xyStage, double xRel, double yRel) {
-      stageMover_.setPosition(xyStage, xRel, yRel);
-      executorService_.submit(stageMover_);
+      navigator_.moveXYRelative(xyStage, xRel, yRel);
    }
 
    /**
@@ -0,0 +1,189 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    Regents of the University of California, 2018
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.internal.navigation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.Studio;
+import org.micromanager.events.StagePositionChangedEvent;
+import org.micromanager.events.XYStagePositionChangedEvent;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
+
+/**
+ * Carries out relative stage moves requested from the UI (mouse drags, wheel
+ * scrolling, key presses) without blocking the caller.
+ * <p>
+ * Each stage has at most one move in flight. Moves requested while a stage
+ * is moving are added up and issued as a single move once the stage has
+ * finished, so that a slow (e.g. serial) stage never falls behind the user
+ * by more than one move.
+ */
+public final class StageNavigationExecutor {
+   private final Studio studio_;
+   private final ExecutorService executor_ = Executors.newCachedThreadPool(
+         ThreadFactoryFactory.createThreadFactory("Stage Navigation"));
+
+   // Guarded by this
+   private final Map<String, PendingMove> xyMoves_ = new HashMap<>();
+   private final Map<String, PendingMove> zMoves_ = new HashMap<>();
+
+   private final PerformanceMonitor perfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+   private final PerformanceMonitorUI pmUI_ =
+         PerformanceMonitorUI.create(perfMon_, "Stage Navigation Performance");
+
+   /**
+    * Relative move accumulated for one stage.
+    */
+   private static final class PendingMove {
+      final String stage_;
+      final boolean isXY_;
+      double dx_;
+      double dy_;
+      int requestCount_ = 0;
+      long firstRequestNanos_;
+      boolean inFlight_ = false;
+
+      PendingMove(String stage, boolean isXY) {
+         stage_ = stage;
+         isXY_ = isXY;
+      }
+   }
+
+   public StageNavigationExecutor(Studio studio) {
+      studio_ = studio;
+   }
+
+   /**
+    * Request a relative move of an XY stage.
+    * @param xyStage label of the XY stage
+    * @param dxUm relative movement in X, in microns
+    * @param dyUm relative movement in Y, in microns
+    */
+   public void moveXYRelative(String xyStage, double dxUm, double dyUm) {
+      request(xyMoves_, xyStage, true, dxUm, dyUm);
+   }
+
+   /**
+    * Request a relative move of a focus (Z) stage.
+    * @param zStage label of the stage
+    * @param dzUm relative movement, in microns
+    */
+   public void moveZRelative(String zStage, double dzUm) {
+      request(zMoves_, zStage, false, dzUm, 0.0);
+   }
+
+   private void request(Map<String, PendingMove> moves, String stage,
+         boolean isXY, double dx, double dy) {
+      final PendingMove move;
+      synchronized (this) {
+         PendingMove existing = moves.get(stage);
+         if (existing == null) {
+            existing = new PendingMove(stage, isXY);
+            moves.put(stage, existing);
+         }
+         move = existing;
+         if (move.requestCount_ == 0) {
+            move.firstRequestNanos_ = System.nanoTime();
+         }
+         move.dx_ += dx;
+         move.dy_ += dy;
+         ++move.requestCount_;
+         if (move.inFlight_) {
+            return;
+         }
+         move.inFlight_ = true;
+      }
+      executor_.execute(new Runnable() {
+         @Override
+         public void run() {
+            runMoves(move);
+         }
+      });
+   }
+
+   // Issue moves for one stage until no more have been requested
+   private void runMoves(PendingMove move) {
+      for (;;) {
+         double dx;
+         double dy;
+         int requestCount;
+         long firstRequestNanos;
+         synchronized (this) {
+            if (move.requestCount_ == 0) {
+               move.inFlight_ = false;
+               return;
+            }
+            dx = move.dx_;
+            dy = move.dy_;
+            requestCount = move.requestCount_;
+            firstRequestNanos = move.firstRequestNanos_;
+            move.dx_ = 0.0;
+            move.dy_ = 0.0;
+            move.requestCount_ = 0;
+         }
+
+         long startNanos = System.nanoTime();
+         try {
+            if (move.isXY_) {
+               studio_.core().setRelativeXYPosition(move.stage_, dx, dy);
+               studio_.core().waitForDevice(move.stage_);
+               double[] xs = new double[1];
+               double[] ys = new double[1];
+               studio_.core().getXYPosition(move.stage_, xs, ys);
+               studio_.events().post(new XYStagePositionChangedEvent(
+                     move.stage_, xs[0], ys[0]));
+            }
+            else {
+               studio_.core().setRelativePosition(move.stage_, dx);
+               studio_.core().waitForDevice(move.stage_);
+               double z = studio_.core().getPosition(move.stage_);
+               studio_.events().post(
+                     new StagePositionChangedEvent(move.stage_, z));
+            }
+         }
+         catch (Exception ex) {
+            // Drop whatever accumulated meanwhile, rather than repeat the
+            // error for each of them
+            synchronized (this) {
+               move.dx_ = 0.0;
+               move.dy_ = 0.0;
+               move.requestCount_ = 0;
+               move.inFlight_ = false;
+            }
+            ReportingUtils.showError(ex);
+            return;
+         }
+         long endNanos = System.nanoTime();
+
+         String kind = move.isXY_ ? "XY" : "Z";
+         perfMon_.sample(kind + " move duration (ms)",
+               (endNanos - startNanos) / 1000000.0);
+         perfMon_.sample(kind + " move latency from first request (ms)",
+               (endNanos - firstRequestNanos) / 1000000.0);
+         perfMon_.sample(kind + " requests per move", requestCount);
+         perfMon_.sampleTimeInterval(kind + " move completed");
+      }
+   }
+}
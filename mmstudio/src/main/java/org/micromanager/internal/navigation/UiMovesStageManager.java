@@ -21,8 +21,6 @@ package org.micromanager.internal.navigation;
 
 import com.google.common.eventbus.Subscribe;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import org.micromanager.Studio;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.internal.displaywindow.DisplayController;
@@ -38,12 +36,12 @@ public final class UiMovesStageManager {
    private final HashMap<DisplayController, ZWheelListener> displayToWheelListener_;
    //private final HashMap<DisplayController, KeyAdapter> displayToKeyListener_;
    private final Studio studio_;
-   private final ExecutorService executorService_; // all stage movements will
-             // go through this thread
+   private final StageNavigationExecutor navigator_; // all stage movements
+             // go through here
 
    public UiMovesStageManager(Studio studio) {
       studio_ = studio;
-      executorService_ = Executors.newSingleThreadExecutor();
+      navigator_ = new StageNavigationExecutor(studio_);
       displayToDragListener_ = new HashMap<>();
       displayToWheelListener_ = new HashMap<>();
       //displayToKeyListener_ = new HashMap<DisplayController, KeyAdapter>();
@@ -59,9 +57,9 @@ public final class UiMovesStageManager {
       ZWheelListener wheelListener = null;
       //KeyAdapter keyListener = null;
       if (((MMStudio) studio_).getMMMenubar().getToolsMenu().getMouseMovesStage()) {
-         dragListener = new CenterAndDragListener(studio_, executorService_);
+         dragListener = new CenterAndDragListener(studio_, navigator_);
          display.registerForEvents(dragListener);
-         wheelListener = new ZWheelListener(studio_, executorService_);
+         wheelListener = new ZWheelListener(studio_, navigator_);
          display.registerForEvents(wheelListener);
          //keyListener = new StageShortcutListener();
       }
@@ -70,6 +68,15 @@ public final class UiMovesStageManager {
       //displayToKeyListener_.put(display, keyListener);
    }
 
+   /**
+    * Create a keyboard listener for stage moves that shares our navigator, so
+    * that key presses and mouse moves of the same stage are combined.
+    * @return new key listener, not yet attached to anything
+    */
+   public XYZKeyListener createKeyListener() {
+      return new XYZKeyListener(studio_.core(), (MMStudio) studio_, navigator_);
+   }
+
    public void deActivate(final DataViewer displayToDeActivate) {
       synchronized (displayToDragListener_) {
          for (DisplayController display : displayToDragListener_.keySet()) {
@@ -39,6 +39,7 @@ import org.micromanager.internal.utils.ReportingUtils;
 public final class XYZKeyListener implements KeyListener {
 	private final CMMCore core_;
    private final MMStudio studio_;
+   private final StageNavigationExecutor navigator_;
 	private ImageCanvas canvas_;
 	private static boolean isRunning_ = false;
 	private boolean mirrorX_;
@@ -55,9 +56,11 @@ public final class XYZKeyListener implements KeyListener {
 	private double stepX;
 	private double stepY;
 
-	public XYZKeyListener(CMMCore core, MMStudio gui) {
+	public XYZKeyListener(CMMCore core, MMStudio gui,
+         StageNavigationExecutor navigator) {
 		core_ = core;
       studio_ = gui;
+      navigator_ = navigator;
       studio_.events().registerForEvents(this);
 	}
 
@@ -173,13 +176,6 @@ public final class XYZKeyListener implements KeyListener {
 		String xyStage = core_.getXYStageDevice();
 		if (xyStage == null)
 			return;
-		try {
-			if (core_.deviceBusy(xyStage))
-				return;
-		} catch (Exception ex) {
-			ReportingUtils.showError(ex);
-			return;
-		}
 
 		double pixSizeUm = core_.getPixelSizeUm();
 		if (!(pixSizeUm > 0.0)) {
@@ -210,16 +206,9 @@ public final class XYZKeyListener implements KeyListener {
 			}
 		}
 
-		// Move the stage
-		try {
-			core_.setRelativeXYPosition(xyStage, mXUm, mYUm);
-		} catch (Exception ex) {
-			ReportingUtils.showError(ex);
-			return;
-		}
-
-      // Cheap way to update XY position in GUI
-      studio_.updateXYPosRelative(mXUm, mYUm);
+		// Move the stage; key repeats while it moves are combined into one
+		// move, and the GUI is updated from the resulting position event
+		navigator_.moveXYRelative(xyStage, mXUm, mYUm);
 	}
 
 	public void IncrementZ(int step) {
@@ -235,11 +224,7 @@ public final class XYZKeyListener implements KeyListener {
 		}
 
 		// Move the stage
-		try {
-			core_.setRelativePosition(zStage, moveIncrement * step);
-		} catch (Exception ex) {
-			ReportingUtils.showError(ex);
-		}
+		navigator_.moveZRelative(zStage, moveIncrement * step);
 	}
 
 	public void getOrientation() {
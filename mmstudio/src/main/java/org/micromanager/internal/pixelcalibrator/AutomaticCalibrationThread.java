@@ -48,6 +48,7 @@ import org.micromanager.internal.utils.MathFunctions;
 import org.micromanager.internal.utils.NumberUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.imageanalysis.AnalysisWindows2D;
+import org.micromanager.internal.utils.imageanalysis.PhaseCorrelator;
 
 /**
  *
@@ -61,6 +62,7 @@ public class AutomaticCalibrationThread extends CalibrationThread {
    
    private DisplayWindow liveWin_;
    private ImageProcessor referenceImage_;
+   private PhaseCorrelator correlator_; // holds the FFT of referenceImage_
    private GrayF32 windowImage_; // normalized window used for apodization
    private final boolean useWindow_ = false;
    
@@ -72,6 +74,9 @@ public class AutomaticCalibrationThread extends CalibrationThread {
    private int h;
    private int side_small;
    private static int index_;
+   // Largest displacement (in pixels) between the reference and a new image
+   // that we look for
+   private static final int MAX_SHIFT = 32;
    
    private class PointPair {
       private final Point2D.Double p1_;
@@ -126,35 +131,34 @@ public class AutomaticCalibrationThread extends CalibrationThread {
    private ImageProcessor theSlide = null;
 
    
-   // Measures the displacement between two images by cross-correlating, 
-   // and then finding the maximum value.
-   // Accurate to one pixel only.  ???  Seems accurate to 0.1 pixel...
-
+   /**
+    * Measures the displacement between two images by phase correlation.
+    * The result has the sign convention of the cross-correlation of proc1
+    * with proc2 that was used before, i.e. it is minus the shift of the
+    * contents of proc2 relative to proc1.
+    * @param proc1 reference image
+    * @param proc2 image to compare with the reference
+    * @param display show the correlation landscape
+    * @return displacement in pixels, with sub-pixel precision
+    */
    public static Point2D.Double measureDisplacement(ImageProcessor proc1, 
            ImageProcessor proc2, boolean display) {
-      final int boxSize = 64;  // increasing the box size will make finding the 
-                              // procedure more robust with respect to errors
-      final int halfBoxSize = boxSize / 2;
-      ImageProcessor result = ImageUtils.crossCorrelate(proc1, proc2);
-      ImageProcessor resultCenter = getSubImage(result, 
-              result.getWidth() / 2 - halfBoxSize, 
-              result.getHeight() / 2 - halfBoxSize, 
-              boxSize, 
-              boxSize);
-      resultCenter.setInterpolationMethod(ImageProcessor.BICUBIC);
-      ImageProcessor resultCenterScaled = resultCenter.resize(
-              resultCenter.getWidth() * 10);
-      ImagePlus img = new ImagePlus("Cal" + index_, resultCenterScaled);
-      index_++;
-      // TODO: use a (Gaussian?) fit rather than finding the maximum
-      // doing so may even make it unnecessary to blow up the box 10 fold
-      Point p = ImageUtils.findMaxPixel(img);
-      Point d = new Point(p.x - img.getWidth() / 2, p.y - img.getHeight() / 2);
-      Point2D.Double d2 = new Point2D.Double(d.x / 10., d.y / 10.);
+      PhaseCorrelator correlator = new PhaseCorrelator(proc1.getWidth(),
+            proc1.getHeight(), false);
+      correlator.setMaxShift(MAX_SHIFT);
+      correlator.setReference(proc1);
+      return measureDisplacement(correlator, proc2, display);
+   }
+
+   private static Point2D.Double measureDisplacement(
+           PhaseCorrelator correlator, ImageProcessor proc, boolean display) {
+      Point2D.Double shift = correlator.measureShift(proc);
       if (display) {
-         img.show();
+         new ImagePlus("Cal" + index_, 
+                 correlator.getCorrelationImage()).show();
+         index_++;
       }
-      return d2;
+      return new Point2D.Double(-shift.x, -shift.y);
    }
 
    public static ImageProcessor getSubImage(ImageProcessor proc, int x, int y, int w, int h) {
@@ -231,7 +235,7 @@ public class AutomaticCalibrationThread extends CalibrationThread {
       ImagePlus tmp2 = new ImagePlus("found", foundImage);
       tmp2.show();
       */
-      Point2D.Double dChange = measureDisplacement(referenceImage_,
+      Point2D.Double dChange = measureDisplacement(correlator_,
               foundImage, display);
       return new Point2D.Double(d.x + dChange.x, d.y + dChange.y);
    }
@@ -297,6 +301,17 @@ public class AutomaticCalibrationThread extends CalibrationThread {
       return BoofCVImageConverter.convert(resultAsBoofCV, false);
    }
 
+   /**
+    * Transforms the reference image once, so that each new image only needs
+    * to be transformed itself.
+    */
+   private void setReference() {
+      correlator_ = new PhaseCorrelator(referenceImage_.getWidth(),
+            referenceImage_.getHeight(), !useWindow_);
+      correlator_.setMaxShift(MAX_SHIFT);
+      correlator_.setReference(referenceImage_);
+   }
+
    private int smallestPowerOf2LessThanOrEqualTo(int x) {
       return 1 << ((int) Math.floor(Math.log(x)/Math.log(2)));
    }
@@ -344,6 +359,7 @@ public class AutomaticCalibrationThread extends CalibrationThread {
          windowImage_.reshape(side_small, side_small);
          referenceImage_ = multiply(referenceImage_, windowImage_);
       }
+      setReference();
 
 
       Map<Point2D.Double, Point2D.Double> pointPairs = new HashMap<>();
@@ -360,6 +376,7 @@ public class AutomaticCalibrationThread extends CalibrationThread {
       if (useWindow_) {  
          referenceImage_ = multiply(referenceImage_, windowImage_);
       }
+      setReference();
 
       pp = runSearch(0,0.1,simulate);
       pointPairs.put(pp.getFirst(), pp.getSecond());
@@ -21,6 +21,8 @@ package org.micromanager.internal.pluginmanagement;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -110,32 +112,66 @@ public final class DefaultPluginManager implements PluginManager {
     */
    private void loadPlugins() {
       long startTime = System.currentTimeMillis();
+      PluginJarIndex index = PluginJarIndex.load();
+      Map<String, Long> jarTimesMs = new HashMap<>();
+      Map<String, Long> instantiationTimesMs = new HashMap<>();
+
       String dir = System.getProperty("org.micromanager.plugin.path",
                System.getProperty("user.dir") + "/mmplugins");
       ReportingUtils.logMessage("Searching for plugins in " + dir);
-      loadPlugins(PluginFinder.findPlugins(dir));
+      loadPlugins(PluginFinder.findPlugins(dir, index, jarTimesMs),
+            instantiationTimesMs);
 
       dir = System.getProperty("org.micromanager.autofocus.path",
                System.getProperty("user.dir") + "/mmautofocus");
       ReportingUtils.logMessage("Searching for plugins in " + dir);
-      loadPlugins(PluginFinder.findPlugins(dir));
+      loadPlugins(PluginFinder.findPlugins(dir, index, jarTimesMs),
+            instantiationTimesMs);
+      long jarsDoneTime = System.currentTimeMillis();
+      index.save();
 
       ReportingUtils.logMessage("Searching for plugins in class loader");
       // We need to use our normal class loader to load stuff from the MMJ_.jar
       // file, since otherwise we won't be able to cast the new plugin to
       // MMPlugin in loadPlugins(), below.
       loadPlugins(PluginFinder.findPluginsWithLoader(
-            ((MMStudio) studio_).getClass().getClassLoader()));
+            ((MMStudio) studio_).getClass().getClassLoader()),
+            instantiationTimesMs);
 
+      long endTime = System.currentTimeMillis();
       ReportingUtils.logMessage("Plugin loading took " +
-            (System.currentTimeMillis() - startTime) + "ms");
+            (endTime - startTime) + "ms (plugin JARs " +
+            (jarsDoneTime - startTime) + "ms, class loader " +
+            (endTime - jarsDoneTime) + "ms)");
+      logSlowest("Slowest plugin JARs to search (ms)", jarTimesMs);
+      logSlowest("Slowest plugins to instantiate (ms)", instantiationTimesMs);
+   }
+
+   private static void logSlowest(String title, Map<String, Long> timesMs) {
+      List<Map.Entry<String, Long>> entries =
+            new ArrayList<>(timesMs.entrySet());
+      Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+         @Override
+         public int compare(Map.Entry<String, Long> e1,
+               Map.Entry<String, Long> e2) {
+            return e2.getValue().compareTo(e1.getValue());
+         }
+      });
+      StringBuilder sb = new StringBuilder(title).append(":");
+      for (Map.Entry<String, Long> e : entries.subList(0,
+            Math.min(5, entries.size()))) {
+         sb.append("\n   ").append(e.getValue()).append(" ").
+               append(e.getKey());
+      }
+      ReportingUtils.logMessage(sb.toString());
    }
 
    /**
     * Insert the provided plugins into the pluginTypeToPlugins_ structure,
     * instantiate them, add them to menus, etc.
     */
-   private void loadPlugins(List<Class> pluginClasses) {
+   private void loadPlugins(List<Class> pluginClasses,
+         Map<String, Long> instantiationTimesMs) {
       for (Class pluginClass : pluginClasses) {
          try {
             // HACK: We can load a bunch of scijava stuff from the MMJ_.jar
@@ -144,7 +180,10 @@ public final class DefaultPluginManager implements PluginManager {
             if (!MMGenericPlugin.class.isAssignableFrom(pluginClass)) {
                continue;
             }
+            long startTime = System.currentTimeMillis();
             MMGenericPlugin plugin = (MMGenericPlugin) pluginClass.newInstance();
+            instantiationTimesMs.put(pluginClass.getName(),
+                  System.currentTimeMillis() - startTime);
             ReportingUtils.logMessage("Found plugin " + plugin);
             addPlugin(plugin);
          }
@@ -25,10 +25,19 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
-import org.micromanager.internal.MMStudio;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.micromanager.MMGenericPlugin;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.scijava.InstantiableException;
 import org.scijava.plugin.DefaultPluginFinder;
 import org.scijava.plugin.PluginIndex;
@@ -72,38 +81,127 @@ public final class PluginFinder {
     * a list of the corresponding annotated classes.
     */
    public static List<Class> findPlugins(String root) {
+      return findPlugins(root, null, null);
+   }
+
+   /**
+    * Find plugins as in {@link #findPlugins(String)}, searching the jars in
+    * parallel and skipping the search for jars recorded in the index.
+    *
+    * @param root directory to search
+    * @param index if not null, consulted for and updated with the plugin
+    * classes of each jar
+    * @param jarTimesMs if not null, receives the time taken for each jar
+    * @return the plugin classes, in the order of the jars' paths
+    */
+   static List<Class> findPlugins(String root, final PluginJarIndex index,
+         Map<String, Long> jarTimesMs) {
+      List<String> jarPaths = findPaths(root, ".jar");
       ArrayList<Class> result = new ArrayList<>();
-      for (String jarPath : findPaths(root, ".jar")) {
-         URL jarURL;
-         try {
-            jarURL = new File(jarPath).toURI().toURL();
+      if (jarPaths.isEmpty()) {
+         return result;
+      }
+
+      int numThreads = Math.min(jarPaths.size(),
+            Runtime.getRuntime().availableProcessors());
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+            ThreadFactoryFactory.createThreadFactory("Plugin Discovery"));
+      List<Future<List<Class>>> futures = new ArrayList<>();
+      final Map<String, Long> times = new ConcurrentHashMap<>();
+      try {
+         for (final String jarPath : jarPaths) {
+            futures.add(executor.submit(new Callable<List<Class>>() {
+               @Override
+               public List<Class> call() {
+                  long startTime = System.currentTimeMillis();
+                  List<Class> classes = findPluginsInJar(new File(jarPath),
+                        index);
+                  times.put(jarPath, System.currentTimeMillis() - startTime);
+                  return classes;
+               }
+            }));
          }
-         catch (MalformedURLException e) {
-            ReportingUtils.logError("Unable to generate URL from path " + jarPath + "; skipping");
-            continue;
+         for (Future<List<Class>> future : futures) {
+            try {
+               result.addAll(future.get());
+            }
+            catch (ExecutionException e) {
+               // findPluginsInJar() catches everything
+               ReportingUtils.logError(e.getCause(), "Error searching for plugins");
+            }
          }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      finally {
+         executor.shutdownNow();
+      }
+      if (jarTimesMs != null) {
+         jarTimesMs.putAll(times);
+      }
+      return result;
+   }
 
-         // The class loader used by the plugin should find classes and
-         // resources within the plugin JAR first, then fall back to the
-         // default class loader.
-         // However, when SciJava is discovering plugin classes, we do NOT
-         // want to search all JARs on the class path.
-         // So we temporarily set the class loader to look only at the given
-         // URL for resources.
-         // try/catch ensures that any failure to load a single jar won't
-         // cause the entire process of loading plugins to fail.
-         try {
-            PluginClassLoader loader = new PluginClassLoader(jarURL,
-                   MMStudio.getInstance().getClass().getClassLoader());
-            loader.setBlockInheritedResources(true);
-            result.addAll(findPluginsWithLoader(loader));
-            loader.setBlockInheritedResources(false);
+   private static List<Class> findPluginsInJar(File jar, PluginJarIndex index) {
+      URL jarURL;
+      try {
+         jarURL = jar.toURI().toURL();
+      }
+      catch (MalformedURLException e) {
+         ReportingUtils.logError("Unable to generate URL from path " + jar + "; skipping");
+         return Collections.emptyList();
+      }
+
+      // The class loader used by the plugin should find classes and
+      // resources within the plugin JAR first, then fall back to the
+      // default class loader.
+      // However, when SciJava is discovering plugin classes, we do NOT
+      // want to search all JARs on the class path.
+      // So we temporarily set the class loader to look only at the given
+      // URL for resources.
+      // try/catch ensures that any failure to load a single jar won't
+      // cause the entire process of loading plugins to fail.
+      try {
+         PluginClassLoader loader = new PluginClassLoader(jarURL,
+                PluginFinder.class.getClassLoader());
+
+         List<String> indexed = index == null ? null :
+               index.getPluginClassNames(jar);
+         if (indexed != null) {
+            List<Class> result = new ArrayList<>();
+            for (String className : indexed) {
+               try {
+                  result.add(loader.loadClass(className));
+               }
+               catch (ClassNotFoundException | LinkageError e) {
+                  ReportingUtils.logError(e, "Unable to load indexed plugin class " +
+                        className + " from " + jarURL);
+                  index.remove(jar); // Search the jar next time
+               }
+            }
+            return result;
          }
-         catch (Throwable e) {
-            ReportingUtils.logError(e, "Unable to load JAR at " + jarURL);
+
+         loader.setBlockInheritedResources(true);
+         List<Class> result = findPluginsWithLoader(loader);
+         loader.setBlockInheritedResources(false);
+         if (index != null) {
+            List<String> classNames = new ArrayList<>();
+            for (Class pluginClass : result) {
+               // Only these are of interest to DefaultPluginManager
+               if (MMGenericPlugin.class.isAssignableFrom(pluginClass)) {
+                  classNames.add(pluginClass.getName());
+               }
+            }
+            index.put(jar, classNames);
          }
+         return result;
+      }
+      catch (Throwable e) {
+         ReportingUtils.logError(e, "Unable to load JAR at " + jarURL);
+         return Collections.emptyList();
       }
-      return result;
    }
 
    public static List<Class> findPluginsWithLoader(ClassLoader loader) {
@@ -0,0 +1,131 @@
+package org.micromanager.internal.pluginmanagement;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.internal.utils.JavaUtils;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Persistent record of the plugin classes found in each plugin JAR.
+ * <p>
+ * An entry is used only if the JAR's size and modification time are
+ * unchanged, in which case the JAR need not be searched again. Entries for
+ * JARs not seen during the current run are dropped on {@link #save}.
+ */
+final class PluginJarIndex {
+   private static final String FILENAME = "PluginIndex.json";
+   private static final String KEY_JARS = "Jars";
+   private static final String KEY_SIZE = "Size";
+   private static final String KEY_LAST_MODIFIED = "LastModified";
+   private static final String KEY_CLASSES = "PluginClasses";
+
+   private final File file_;
+   private final PropertyMap loaded_;
+   private final Map<String, PropertyMap> current_ =
+         new ConcurrentHashMap<String, PropertyMap>();
+
+   private PluginJarIndex(File file, PropertyMap loaded) {
+      file_ = file;
+      loaded_ = loaded;
+   }
+
+   /**
+    * Load the index from the application data directory.
+    * @return the index, empty if it did not exist or could not be read
+    */
+   static PluginJarIndex load() {
+      String dir = JavaUtils.getApplicationDataPath();
+      return load(dir == null ? null : new File(dir, FILENAME));
+   }
+
+   /**
+    * Load the index from the given file.
+    * @param file the index file, or null for an index that is not saved
+    * @return the index, empty if it did not exist or could not be read
+    */
+   static PluginJarIndex load(File file) {
+      PropertyMap loaded = PropertyMaps.emptyPropertyMap();
+      if (file != null) {
+         try {
+            loaded = PropertyMaps.loadJSON(file).getPropertyMap(KEY_JARS,
+                  PropertyMaps.emptyPropertyMap());
+         }
+         catch (FileNotFoundException e) {
+            // First run
+         }
+         catch (IOException e) {
+            ReportingUtils.logError(e, "Ignoring unreadable plugin index " + file);
+         }
+      }
+      return new PluginJarIndex(file, loaded);
+   }
+
+   /**
+    * Return the plugin class names previously found in a JAR.
+    * @param jar the JAR file
+    * @return the class names, or null if the JAR is not in the index or has
+    * changed since it was indexed
+    */
+   List<String> getPluginClassNames(File jar) {
+      PropertyMap entry = loaded_.getPropertyMap(jar.getAbsolutePath(), null);
+      if (entry == null ||
+            entry.getLong(KEY_SIZE, -1L) != jar.length() ||
+            entry.getLong(KEY_LAST_MODIFIED, -1L) != jar.lastModified() ||
+            !entry.containsStringList(KEY_CLASSES)) {
+         return null;
+      }
+      current_.put(jar.getAbsolutePath(), entry);
+      return entry.getStringList(KEY_CLASSES);
+   }
+
+   /**
+    * Record the plugin classes found in a JAR.
+    * @param jar the JAR file
+    * @param classNames names of the plugin classes in the JAR
+    */
+   void put(File jar, List<String> classNames) {
+      current_.put(jar.getAbsolutePath(), PropertyMaps.builder().
+            putLong(KEY_SIZE, jar.length()).
+            putLong(KEY_LAST_MODIFIED, jar.lastModified()).
+            putStringList(KEY_CLASSES, classNames).
+            build());
+   }
+
+   /**
+    * Forget a JAR, so that it is searched again next time.
+    * @param jar the JAR file
+    */
+   void remove(File jar) {
+      current_.remove(jar.getAbsolutePath());
+   }
+
+   /**
+    * Write the entries for the JARs seen since loading.
+    */
+   void save() {
+      if (file_ == null) {
+         return;
+      }
+      PropertyMap.Builder jars = PropertyMaps.builder();
+      for (Map.Entry<String, PropertyMap> e : current_.entrySet()) {
+         jars.putPropertyMap(e.getKey(), e.getValue());
+      }
+      try {
+         File dir = file_.getParentFile();
+         if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+         }
+         PropertyMaps.builder().putPropertyMap(KEY_JARS, jars.build()).
+               build().saveJSON(file_, true, false);
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to save plugin index " + file_);
+      }
+   }
+}
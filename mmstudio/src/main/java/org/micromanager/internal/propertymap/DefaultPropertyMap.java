@@ -21,7 +21,6 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,8 +40,9 @@ public final class DefaultPropertyMap implements PropertyMap {
       if (!(builder instanceof Builder)) {
          throw new UnsupportedOperationException();
       }
-      map_ = Collections.unmodifiableMap(
-            new LinkedHashMap<String, Object>(((Builder) builder).map_));
+      // Shares structure with the builder and with the map it was copied
+      // from, so copyBuilder().put...().build() costs O(log n).
+      map_ = ((Builder) builder).map_.snapshot();
    }
 
    private DefaultPropertyMap(Map<String, Object> map) {
@@ -698,7 +698,8 @@ public final class DefaultPropertyMap implements PropertyMap {
       // Map keys and values are never null. Collections are stored as arrays,
       // so that the type is preserved even if empty. Arrays of primitive types
       // are used when aplicable rather than arrays of boxed types.
-      Map<String, Object> map_ = new LinkedHashMap<String, Object>();
+      final HashTrieMap.Transient<String, Object> map_ =
+            HashTrieMap.<String, Object>empty().asTransient();
 
       //
       // Primitives
@@ -942,13 +943,13 @@ public final class DefaultPropertyMap implements PropertyMap {
 
       @Override
       public Builder removeAll(Collection<?> keys) {
-         map_.keySet().removeAll(keys);
+         map_.removeAll(keys);
          return this;
       }
 
       @Override
       public Builder retainAll(Collection<?> keys) {
-         map_.keySet().retainAll(keys);
+         map_.retainAll(keys);
          return this;
       }
 
@@ -0,0 +1,584 @@
+package org.micromanager.internal.propertymap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map backed by a hash array mapped trie.
+ *
+ * Maps are modified through a {@link Transient}. A modification copies only
+ * the nodes on the path from the root to the changed entry (at most 7), and
+ * the resulting map shares every other node with the map it was derived
+ * from. Nodes created by a transient since its last snapshot are updated in
+ * place, so building a map key by key does not copy a path per key.
+ *
+ * Iteration order is the order in which keys were first inserted, as with
+ * {@code LinkedHashMap}; replacing the value of a key keeps its position.
+ * The order is computed on the first iteration and then cached.
+ *
+ * Keys and values must not be null.
+ */
+final class HashTrieMap<K, V> extends AbstractMap<K, V> {
+   private static final int BITS = 5;
+   private static final int MASK = (1 << BITS) - 1;
+
+   private static final HashTrieMap<?, ?> EMPTY =
+         new HashTrieMap<Object, Object>(null, 0, 0L);
+
+   private final Node root_; // null if empty
+   private final int size_;
+   private final long nextSeq_;
+
+   private volatile Leaf[] ordered_;
+
+   @SuppressWarnings("unchecked")
+   static <K, V> HashTrieMap<K, V> empty() {
+      return (HashTrieMap<K, V>) EMPTY;
+   }
+
+   private HashTrieMap(Node root, int size, long nextSeq) {
+      root_ = root;
+      size_ = size;
+      nextSeq_ = nextSeq;
+   }
+
+   Transient<K, V> asTransient() {
+      Transient<K, V> ret = new Transient<K, V>();
+      ret.putAll(this);
+      return ret;
+   }
+
+   @Override
+   public int size() {
+      return size_;
+   }
+
+   @Override
+   public boolean isEmpty() {
+      return size_ == 0;
+   }
+
+   @Override
+   public boolean containsKey(Object key) {
+      return find(root_, key) != null;
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public V get(Object key) {
+      Leaf leaf = find(root_, key);
+      return leaf == null ? null : (V) leaf.value;
+   }
+
+   @Override
+   public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<Map.Entry<K, V>>() {
+         @Override
+         public Iterator<Map.Entry<K, V>> iterator() {
+            final Leaf[] leaves = getOrderedLeaves();
+            return new Iterator<Map.Entry<K, V>>() {
+               private int i_ = 0;
+
+               @Override
+               public boolean hasNext() {
+                  return i_ < leaves.length;
+               }
+
+               @Override
+               @SuppressWarnings("unchecked")
+               public Map.Entry<K, V> next() {
+                  if (i_ >= leaves.length) {
+                     throw new NoSuchElementException();
+                  }
+                  return leaves[i_++];
+               }
+
+               @Override
+               public void remove() {
+                  throw new UnsupportedOperationException();
+               }
+            };
+         }
+
+         @Override
+         public int size() {
+            return size_;
+         }
+      };
+   }
+
+   private Leaf[] getOrderedLeaves() {
+      Leaf[] ret = ordered_;
+      if (ret == null) {
+         ret = new Leaf[size_];
+         if (root_ != null) {
+            root_.collect(ret, 0);
+         }
+         Arrays.sort(ret, SEQ_ORDER);
+         ordered_ = ret;
+      }
+      return ret;
+   }
+
+   private static Leaf find(Node root, Object key) {
+      if (root == null || key == null) {
+         return null;
+      }
+      return root.find(hash(key), key, 0);
+   }
+
+   private static int hash(Object key) {
+      int h = key.hashCode();
+      return h ^ (h >>> 16);
+   }
+
+
+   /**
+    * Mutable builder for {@code HashTrieMap}.
+    *
+    * {@link #snapshot()} is O(1). Nodes reachable from a snapshot are never
+    * modified again; later edits copy them as needed.
+    */
+   static final class Transient<K, V> {
+      private Object edit_ = new Object();
+      private Node root_;
+      private int size_;
+      private long nextSeq_;
+      private HashTrieMap<K, V> snapshot_ = empty();
+
+      private Transient() {
+      }
+
+      int size() {
+         return size_;
+      }
+
+      boolean containsKey(Object key) {
+         return find(root_, key) != null;
+      }
+
+      @SuppressWarnings("unchecked")
+      V get(Object key) {
+         Leaf leaf = find(root_, key);
+         return leaf == null ? null : (V) leaf.value;
+      }
+
+      void put(K key, V value) {
+         if (key == null || value == null) {
+            throw new NullPointerException();
+         }
+         Leaf[] replaced = new Leaf[1];
+         Node root = root_ == null ? new BitmapNode(edit_, 0, new Object[0]) :
+               root_;
+         Node newRoot = root.put(edit_, 0, hash(key), key, value, nextSeq_,
+               replaced);
+         if (replaced[0] != null && replaced[0].value == value) {
+            return; // Same value already present
+         }
+         root_ = newRoot;
+         if (replaced[0] == null) {
+            ++size_;
+            ++nextSeq_;
+         }
+         snapshot_ = null;
+      }
+
+      void putAll(Map<? extends K, ? extends V> map) {
+         if (size_ == 0 && map instanceof HashTrieMap) {
+            // Share the whole trie; our edit token does not own its nodes
+            @SuppressWarnings("unchecked")
+            HashTrieMap<K, V> other = (HashTrieMap<K, V>) map;
+            root_ = other.root_;
+            size_ = other.size_;
+            nextSeq_ = other.nextSeq_;
+            snapshot_ = other;
+            return;
+         }
+         for (Map.Entry<? extends K, ? extends V> e : map.entrySet()) {
+            put(e.getKey(), e.getValue());
+         }
+      }
+
+      void remove(Object key) {
+         if (root_ == null || key == null) {
+            return;
+         }
+         Leaf[] removed = new Leaf[1];
+         Object result = root_.remove(edit_, 0, hash(key), key, removed);
+         if (removed[0] == null) {
+            return;
+         }
+         // The root never collapses into a Leaf (only nodes below it do)
+         root_ = (Node) result;
+         --size_;
+         snapshot_ = null;
+      }
+
+      void removeAll(Collection<?> keys) {
+         for (Object key : keys) {
+            remove(key);
+         }
+      }
+
+      void retainAll(Collection<?> keys) {
+         List<K> toRemove = new ArrayList<K>();
+         for (K key : snapshot().keySet()) {
+            if (!keys.contains(key)) {
+               toRemove.add(key);
+            }
+         }
+         removeAll(toRemove);
+      }
+
+      void clear() {
+         root_ = null;
+         size_ = 0;
+         nextSeq_ = 0;
+         snapshot_ = empty();
+      }
+
+      HashTrieMap<K, V> snapshot() {
+         if (snapshot_ == null) {
+            snapshot_ = new HashTrieMap<K, V>(root_, size_, nextSeq_);
+            // Freeze the nodes now shared with the snapshot
+            edit_ = new Object();
+         }
+         return snapshot_;
+      }
+   }
+
+
+   //
+   // Trie nodes
+   //
+
+   private static final Comparator<Leaf> SEQ_ORDER = new Comparator<Leaf>() {
+      @Override
+      public int compare(Leaf a, Leaf b) {
+         return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+      }
+   };
+
+   private static int bitFor(int hash, int shift) {
+      return 1 << ((hash >>> shift) & MASK);
+   }
+
+   private static final class Leaf implements Map.Entry {
+      private final Object key;
+      private final Object value;
+      private final int hash;
+      private final long seq; // insertion order
+
+      Leaf(Object key, Object value, int hash, long seq) {
+         this.key = key;
+         this.value = value;
+         this.hash = hash;
+         this.seq = seq;
+      }
+
+      boolean matches(int hash, Object key) {
+         return this.hash == hash && this.key.equals(key);
+      }
+
+      @Override
+      public Object getKey() {
+         return key;
+      }
+
+      @Override
+      public Object getValue() {
+         return value;
+      }
+
+      @Override
+      public Object setValue(Object value) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Map.Entry)) {
+            return false;
+         }
+         Map.Entry<?, ?> e = (Map.Entry<?, ?>) other;
+         return key.equals(e.getKey()) && value.equals(e.getValue());
+      }
+
+      @Override
+      public int hashCode() {
+         return key.hashCode() ^ value.hashCode();
+      }
+
+      @Override
+      public String toString() {
+         return key + "=" + value;
+      }
+   }
+
+   private abstract static class Node {
+      // Token of the transient allowed to modify this node in place
+      final Object edit;
+
+      Node(Object edit) {
+         this.edit = edit;
+      }
+
+      abstract Leaf find(int hash, Object key, int shift);
+
+      // Returns this node if nothing changed. If the key was present, its
+      // leaf is stored in replaced[0] and the new leaf inherits its seq.
+      abstract Node put(Object edit, int shift, int hash, Object key,
+            Object value, long seq, Leaf[] replaced);
+
+      // Returns this node if the key is absent, otherwise the new node, a
+      // single remaining Leaf to be inlined by the parent, or null if empty.
+      abstract Object remove(Object edit, int shift, int hash, Object key,
+            Leaf[] removed);
+
+      // Stores the leaves at out[start...]; returns the index after the last
+      abstract int collect(Leaf[] out, int start);
+   }
+
+   private static Node pair(Object edit, int shift, Leaf a, Leaf b) {
+      if (a.hash == b.hash) {
+         return new CollisionNode(edit, a.hash, new Leaf[] { a, b });
+      }
+      int ia = (a.hash >>> shift) & MASK;
+      int ib = (b.hash >>> shift) & MASK;
+      if (ia == ib) {
+         return new BitmapNode(edit, 1 << ia,
+               new Object[] { pair(edit, shift + BITS, a, b) });
+      }
+      return new BitmapNode(edit, (1 << ia) | (1 << ib),
+            ia < ib ? new Object[] { a, b } : new Object[] { b, a });
+   }
+
+   private static final class BitmapNode extends Node {
+      // Modified in place only by the transient that owns this node
+      private int bitmap_;
+      private Object[] array_; // Leaf or Node, in bit order
+
+      BitmapNode(Object edit, int bitmap, Object[] array) {
+         super(edit);
+         bitmap_ = bitmap;
+         array_ = array;
+      }
+
+      private int index(int bit) {
+         return Integer.bitCount(bitmap_ & (bit - 1));
+      }
+
+      @Override
+      Leaf find(int hash, Object key, int shift) {
+         int bit = bitFor(hash, shift);
+         if ((bitmap_ & bit) == 0) {
+            return null;
+         }
+         Object o = array_[index(bit)];
+         if (o instanceof Leaf) {
+            Leaf leaf = (Leaf) o;
+            return leaf.matches(hash, key) ? leaf : null;
+         }
+         return ((Node) o).find(hash, key, shift + BITS);
+      }
+
+      @Override
+      Node put(Object edit, int shift, int hash, Object key, Object value,
+            long seq, Leaf[] replaced) {
+         int bit = bitFor(hash, shift);
+         int idx = index(bit);
+         if ((bitmap_ & bit) == 0) {
+            Object[] array = new Object[array_.length + 1];
+            System.arraycopy(array_, 0, array, 0, idx);
+            array[idx] = new Leaf(key, value, hash, seq);
+            System.arraycopy(array_, idx, array, idx + 1, array_.length - idx);
+            return withArray(edit, bitmap_ | bit, array);
+         }
+         Object o = array_[idx];
+         if (o instanceof Leaf) {
+            Leaf leaf = (Leaf) o;
+            if (leaf.matches(hash, key)) {
+               replaced[0] = leaf;
+               if (leaf.value == value) {
+                  return this;
+               }
+               return withSlot(edit, idx,
+                     new Leaf(leaf.key, value, hash, leaf.seq));
+            }
+            return withSlot(edit, idx, pair(edit, shift + BITS, leaf,
+                  new Leaf(key, value, hash, seq)));
+         }
+         Node child = (Node) o;
+         Node newChild = child.put(edit, shift + BITS, hash, key, value, seq,
+               replaced);
+         return newChild == child ? this : withSlot(edit, idx, newChild);
+      }
+
+      @Override
+      Object remove(Object edit, int shift, int hash, Object key,
+            Leaf[] removed) {
+         int bit = bitFor(hash, shift);
+         if ((bitmap_ & bit) == 0) {
+            return this;
+         }
+         int idx = index(bit);
+         Object o = array_[idx];
+         Object newChild;
+         if (o instanceof Leaf) {
+            if (!((Leaf) o).matches(hash, key)) {
+               return this;
+            }
+            removed[0] = (Leaf) o;
+            newChild = null;
+         }
+         else {
+            newChild = ((Node) o).remove(edit, shift + BITS, hash, key,
+                  removed);
+            if (newChild == o) {
+               return this;
+            }
+         }
+         if (newChild != null) {
+            return withSlot(edit, idx, newChild);
+         }
+         if (array_.length == 1) {
+            return null;
+         }
+         if (array_.length == 2 && shift > 0 && array_[1 - idx] instanceof Leaf) {
+            return array_[1 - idx];
+         }
+         Object[] array = new Object[array_.length - 1];
+         System.arraycopy(array_, 0, array, 0, idx);
+         System.arraycopy(array_, idx + 1, array, idx, array.length - idx);
+         return withArray(edit, bitmap_ & ~bit, array);
+      }
+
+      @Override
+      int collect(Leaf[] out, int start) {
+         for (Object o : array_) {
+            if (o instanceof Leaf) {
+               out[start++] = (Leaf) o;
+            }
+            else {
+               start = ((Node) o).collect(out, start);
+            }
+         }
+         return start;
+      }
+
+      private BitmapNode withSlot(Object edit, int idx, Object value) {
+         if (edit == this.edit) {
+            array_[idx] = value;
+            return this;
+         }
+         Object[] array = array_.clone();
+         array[idx] = value;
+         return new BitmapNode(edit, bitmap_, array);
+      }
+
+      private BitmapNode withArray(Object edit, int bitmap, Object[] array) {
+         if (edit == this.edit) {
+            bitmap_ = bitmap;
+            array_ = array;
+            return this;
+         }
+         return new BitmapNode(edit, bitmap, array);
+      }
+   }
+
+   // Leaves whose keys have identical (spread) hashes
+   private static final class CollisionNode extends Node {
+      private final int hash_;
+      private Leaf[] leaves_;
+
+      CollisionNode(Object edit, int hash, Leaf[] leaves) {
+         super(edit);
+         hash_ = hash;
+         leaves_ = leaves;
+      }
+
+      private int indexOf(Object key) {
+         for (int i = 0; i < leaves_.length; ++i) {
+            if (leaves_[i].key.equals(key)) {
+               return i;
+            }
+         }
+         return -1;
+      }
+
+      @Override
+      Leaf find(int hash, Object key, int shift) {
+         if (hash != hash_) {
+            return null;
+         }
+         int i = indexOf(key);
+         return i < 0 ? null : leaves_[i];
+      }
+
+      @Override
+      Node put(Object edit, int shift, int hash, Object key, Object value,
+            long seq, Leaf[] replaced) {
+         if (hash != hash_) {
+            BitmapNode parent = new BitmapNode(edit, bitFor(hash_, shift),
+                  new Object[] { this });
+            return parent.put(edit, shift, hash, key, value, seq, replaced);
+         }
+         int i = indexOf(key);
+         Leaf[] leaves;
+         if (i >= 0) {
+            Leaf leaf = leaves_[i];
+            replaced[0] = leaf;
+            if (leaf.value == value) {
+               return this;
+            }
+            leaves = edit == this.edit ? leaves_ : leaves_.clone();
+            leaves[i] = new Leaf(leaf.key, value, hash, leaf.seq);
+         }
+         else {
+            leaves = Arrays.copyOf(leaves_, leaves_.length + 1);
+            leaves[leaves_.length] = new Leaf(key, value, hash, seq);
+         }
+         if (edit == this.edit) {
+            leaves_ = leaves;
+            return this;
+         }
+         return new CollisionNode(edit, hash_, leaves);
+      }
+
+      @Override
+      Object remove(Object edit, int shift, int hash, Object key,
+            Leaf[] removed) {
+         int i = hash == hash_ ? indexOf(key) : -1;
+         if (i < 0) {
+            return this;
+         }
+         removed[0] = leaves_[i];
+         if (leaves_.length == 2) {
+            return leaves_[1 - i];
+         }
+         Leaf[] leaves = new Leaf[leaves_.length - 1];
+         System.arraycopy(leaves_, 0, leaves, 0, i);
+         System.arraycopy(leaves_, i + 1, leaves, i, leaves.length - i);
+         if (edit == this.edit) {
+            leaves_ = leaves;
+            return this;
+         }
+         return new CollisionNode(edit, hash_, leaves);
+      }
+
+      @Override
+      int collect(Leaf[] out, int start) {
+         System.arraycopy(leaves_, 0, out, start, leaves_.length);
+         return start + leaves_.length;
+      }
+   }
+}
@@ -8,8 +8,12 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.data.internal.PropertyKey;
@@ -84,12 +88,25 @@ public abstract class NonPropertyMapJSONFormats {
       }
    }
 
+   private static final Gson ELEMENT_WRITER =
+         new GsonBuilder().disableHtmlEscaping().create();
+
    public final String toJSON(PropertyMap canonical) {
-      Gson gson = new GsonBuilder().
-            disableHtmlEscaping().
-            setPrettyPrinting().
-            create();
-      return gson.toJson(toGson(canonical));
+      // Same output as pretty-printing toGson(canonical) with Gson
+      StringWriter sw = new StringWriter();
+      JsonWriter out = new JsonWriter(sw);
+      out.setIndent("  ");
+      out.setLenient(true);
+      try {
+         out.beginObject();
+         addToJsonWriter(out, canonical);
+         out.endObject();
+         out.close();
+      }
+      catch (IOException e) {
+         throw new AssertionError(e); // StringWriter does not throw
+      }
+      return sw.toString();
    }
 
    public abstract PropertyMap fromGson(JsonElement je);
@@ -105,6 +122,26 @@ public abstract class NonPropertyMapJSONFormats {
             "should be written as standard PropertyMap JSON, not MM1-style JSON");
    }
 
+   /**
+    * Write the members that {@link #addToGson} would add to a JSON stream.
+    * <p>
+    * The per-image formats (metadata, coords, image format) write directly
+    * to the stream; others build the Gson object and write it out.
+    *
+    * @param out the JSON stream, positioned inside an object
+    * @param pmap the property map to serialize
+    * @throws IOException if writing to the stream fails
+    */
+   public void addToJsonWriter(JsonWriter out, PropertyMap pmap)
+         throws IOException {
+      JsonObject jo = new JsonObject();
+      addToGson(jo, pmap);
+      for (Map.Entry<String, JsonElement> e : jo.entrySet()) {
+         out.name(e.getKey());
+         ELEMENT_WRITER.toJson(e.getValue(), out);
+      }
+   }
+
    private static final class MetadataFormat extends NonPropertyMapJSONFormats {
       @Override
       public PropertyMap fromGson(JsonElement je) {
@@ -136,30 +173,31 @@ public abstract class NonPropertyMapJSONFormats {
          return builder.build();
       }
 
+      private static final List<PropertyKey> KEYS_TO_STORE = ImmutableList.of(
+            PropertyKey.UUID,
+            CAMERA,
+            BINNING,
+            ROI,
+            BIT_DEPTH,
+            EXPOSURE_MS,
+            ELAPSED_TIME_MS,
+            IMAGE_NUMBER,
+            RECEIVED_TIME,
+            PIXEL_SIZE_UM,
+            PIXEL_SIZE_AFFINE,
+            PIXEL_ASPECT,
+            POSITION_NAME,
+            X_POSITION_UM,
+            Y_POSITION_UM,
+            Z_POSITION_UM,
+            SCOPE_DATA,
+            SCOPE_DATA_KEYS,
+            USER_DATA,
+            FILE_NAME);
+
       @Override
       public void addToGson(JsonObject jo, PropertyMap pmap) {
-         for (PropertyKey key : ImmutableList.of(
-               PropertyKey.UUID,
-               CAMERA,
-               BINNING,
-               ROI,
-               BIT_DEPTH,
-               EXPOSURE_MS,
-               ELAPSED_TIME_MS,
-               IMAGE_NUMBER,
-               RECEIVED_TIME,
-               PIXEL_SIZE_UM,
-               PIXEL_SIZE_AFFINE,
-               PIXEL_ASPECT,
-               POSITION_NAME,
-               X_POSITION_UM,
-               Y_POSITION_UM,
-               Z_POSITION_UM,
-               SCOPE_DATA,
-               SCOPE_DATA_KEYS,
-               USER_DATA,
-               FILE_NAME))
-         {
+         for (PropertyKey key : KEYS_TO_STORE) {
             try {
             key.storeInGsonObject(pmap, jo);
             } catch (NullPointerException npe) {
@@ -167,6 +205,18 @@ public abstract class NonPropertyMapJSONFormats {
             }
          }
       }
+
+      @Override
+      public void addToJsonWriter(JsonWriter out, PropertyMap pmap)
+            throws IOException {
+         for (PropertyKey key : KEYS_TO_STORE) {
+            try {
+               key.storeInJsonWriter(pmap, out);
+            } catch (NullPointerException npe) {
+               MMStudio.getInstance().logs().logError(npe, "Key: " + key);
+            }
+         }
+      }
    }
 
    private static final class SummaryFormat extends NonPropertyMapJSONFormats {
@@ -358,18 +408,27 @@ public abstract class NonPropertyMapJSONFormats {
          return builder.build();
       }
 
+      private static final List<PropertyKey> KEYS_TO_STORE = ImmutableList.of(
+            COMPLETE_COORDS,
+            FRAME_INDEX,
+            POSITION_INDEX,
+            SLICE_INDEX,
+            CHANNEL_INDEX);
+
       @Override
       public void addToGson(JsonObject jo, PropertyMap pmap) {
-         for (PropertyKey key : ImmutableList.of(
-               COMPLETE_COORDS,
-               FRAME_INDEX,
-               POSITION_INDEX,
-               SLICE_INDEX,
-               CHANNEL_INDEX))
-         {
+         for (PropertyKey key : KEYS_TO_STORE) {
             key.storeInGsonObject(pmap, jo);
          }
       }
+
+      @Override
+      public void addToJsonWriter(JsonWriter out, PropertyMap pmap)
+            throws IOException {
+         for (PropertyKey key : KEYS_TO_STORE) {
+            key.storeInJsonWriter(pmap, out);
+         }
+      }
    }
 
    private static final class ImageFormat extends NonPropertyMapJSONFormats {
@@ -386,16 +445,25 @@ public abstract class NonPropertyMapJSONFormats {
          return builder.build();
       }
 
+      private static final List<PropertyKey> KEYS_TO_STORE = ImmutableList.of(
+            WIDTH,
+            HEIGHT,
+            PIXEL_TYPE);
+
       @Override
       public void addToGson(JsonObject jo, PropertyMap pmap) {
-         for (PropertyKey key : ImmutableList.of(
-               WIDTH,
-               HEIGHT,
-               PIXEL_TYPE))
-         {
+         for (PropertyKey key : KEYS_TO_STORE) {
             key.storeInGsonObject(pmap, jo);
          }
       }
+
+      @Override
+      public void addToJsonWriter(JsonWriter out, PropertyMap pmap)
+            throws IOException {
+         for (PropertyKey key : KEYS_TO_STORE) {
+            key.storeInJsonWriter(pmap, out);
+         }
+      }
    }
 
    private static final class Annotation extends NonPropertyMapJSONFormats {
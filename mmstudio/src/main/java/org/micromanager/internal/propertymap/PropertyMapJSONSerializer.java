@@ -16,12 +16,14 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonWriter;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.util.AbstractMap;
@@ -125,6 +127,10 @@ public final class PropertyMapJSONSerializer {
             return je.getAsBoolean();
          }
          @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            out.value((Boolean) value);
+         }
+         @Override
          Class<Boolean> getScalarClass() {
             return boolean.class;
          }
@@ -342,6 +348,10 @@ public final class PropertyMapJSONSerializer {
             return je.getAsString();
          }
          @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            out.value((String) value);
+         }
+         @Override
          Class<String> getScalarClass() {
             return String.class;
          }
@@ -373,6 +383,10 @@ public final class PropertyMapJSONSerializer {
             return java.util.UUID.fromString(je.getAsString());
          }
          @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            out.value(((java.util.UUID) value).toString());
+         }
+         @Override
          Class<?> getScalarClass() {
             return java.util.UUID.class;
          }
@@ -424,6 +438,19 @@ public final class PropertyMapJSONSerializer {
                   jo.get("Alpha").getAsFloat());
          }
          @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("ColorSpace").value("sRGB");
+            out.name("Components").beginArray();
+            for (float c : ((Color) value).getRGBColorComponents(null)) {
+               out.value(Float.valueOf(c));
+            }
+            out.endArray();
+            out.name("Alpha").value(Float.valueOf(
+                  ((Color) value).getRGBComponents(null)[3]));
+            out.endObject();
+         }
+         @Override
          Class<?> getScalarClass() {
             return Color.class;
          }
@@ -467,6 +494,17 @@ public final class PropertyMapJSONSerializer {
             return new AffineTransform(matrix);
          }
 
+         @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            double[] matrix = new double[6];
+            ((AffineTransform) value).getMatrix(matrix);
+            out.beginArray();
+            for (double a : matrix) {
+               out.value(a);
+            }
+            out.endArray();
+         }
+
          @Override
          Class<?> getScalarClass() {
             return AffineTransform.class;
@@ -504,6 +542,10 @@ public final class PropertyMapJSONSerializer {
             return context.deserialize(je, PropertyMap.class);
          }
          @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            PropertyMapJSONSerializer.write((PropertyMap) value, out);
+         }
+         @Override
          Class<?> getScalarClass() {
             return PropertyMap.class;
          }
@@ -547,6 +589,17 @@ public final class PropertyMapJSONSerializer {
                   jo.get("height").getAsInt());
          }
 
+         @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            Rectangle rect = (Rectangle) value;
+            out.beginObject();
+            out.name("x").value(rect.x);
+            out.name("y").value(rect.y);
+            out.name("width").value(rect.width);
+            out.name("height").value(rect.height);
+            out.endObject();
+         }
+
          @Override
          Class<?> getScalarClass() {
             return Rectangle.class;
@@ -591,6 +644,15 @@ public final class PropertyMapJSONSerializer {
                   jo.get("height").getAsInt());
          }
 
+         @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            Dimension dim = (Dimension) value;
+            out.beginObject();
+            out.name("width").value(dim.width);
+            out.name("height").value(dim.height);
+            out.endObject();
+         }
+
          @Override
          Class<?> getScalarClass() {
             return Dimension.class;
@@ -635,6 +697,15 @@ public final class PropertyMapJSONSerializer {
                   jo.get("y").getAsInt());
          }
 
+         @Override
+         void write(Object value, JsonWriter out) throws IOException {
+            Point point = (Point) value;
+            out.beginObject();
+            out.name("x").value(point.x);
+            out.name("y").value(point.y);
+            out.endObject();
+         }
+
          @Override
          Class<?> getScalarClass() {
             return Point.class;
@@ -666,6 +737,13 @@ public final class PropertyMapJSONSerializer {
       abstract JsonElement serialize(Object value, JsonSerializationContext context);
       abstract Object deserialize(JsonElement je, JsonDeserializationContext context);
 
+      // Streaming equivalent of serialize(); must produce identical JSON.
+      // This default is for the numeric types, which Gson writes with
+      // Number.toString() (so floats are not widened to double).
+      void write(Object value, JsonWriter out) throws IOException {
+         out.value((Number) value);
+      }
+
       abstract Class<?> getScalarClass();
       Class<?> getArrayClass() {
          return Array.newInstance(getScalarClass(), 0).getClass();
@@ -876,8 +954,65 @@ public final class PropertyMapJSONSerializer {
       return makeGson().toJsonTree(map);
    }
 
+   /**
+    * Serialize to a JSON stream.
+    *
+    * Writes the same JSON object as {@link #toGson}, without building a Gson
+    * tree. This is the method to use when a property map is embedded in a
+    * larger JSON document that is being written with a {@code JsonWriter}.
+    * The writer should be lenient if the map may contain NaN or infinite
+    * values.
+    *
+    * @param map the property map to serialize
+    * @param out the JSON stream, positioned where a value may be written
+    * @throws IOException if writing to the stream fails
+    */
+   public static void write(PropertyMap map, JsonWriter out)
+         throws IOException
+   {
+      out.beginObject();
+      for (Map.Entry<String, TypeAndValue> e : extractValuesAndTypes(map)) {
+         TypeAndValue tv = e.getValue();
+         out.name(e.getKey());
+         out.beginObject();
+         out.name(Keys.TYPE).value(tv.type.name());
+         if (tv.array != null) {
+            out.name(Keys.ARRAY).beginArray();
+            for (Object value : tv.array) {
+               tv.type.write(value, out);
+            }
+            out.endArray();
+         }
+         else {
+            out.name(Keys.SCALAR);
+            tv.type.write(tv.scalar, out);
+         }
+         out.endObject();
+      }
+      out.endObject();
+   }
+
    public static String toJSON(PropertyMap map) {
+      // Same output as makeGson().toJson(new VersionedMap(map)), streamed
       VersionedMap vmap = new VersionedMap(map);
-      return makeGson().toJson(vmap);
+      StringWriter sw = new StringWriter();
+      JsonWriter out = new JsonWriter(sw);
+      out.setIndent("  ");
+      out.setLenient(true); // serializeSpecialFloatingPointValues()
+      try {
+         out.beginObject();
+         out.name("encoding").value(vmap.encoding);
+         out.name("format").value(vmap.format);
+         out.name("major_version").value(vmap.major_version);
+         out.name("minor_version").value(vmap.minor_version);
+         out.name("map");
+         write(vmap.map, out);
+         out.endObject();
+         out.close();
+      }
+      catch (IOException e) {
+         throw new AssertionError(e); // StringWriter does not throw
+      }
+      return sw.toString();
    }
 }
\ No newline at end of file
@@ -1,46 +1,118 @@
 package org.micromanager.internal.utils;
 
 import com.google.common.eventbus.EventBus;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
  * notified first.
+ * <p>
+ * Registrants may also ask for asynchronous delivery, in which case posting
+ * only queues the event and the registrant is notified on a background
+ * thread. Each asynchronous registrant has its own queue and receives events
+ * in the order they were posted, but is not ordered with respect to other
+ * registrants. This keeps slow (for example, UI) registrants from holding up
+ * the thread that posts.
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
    public static final int DEFAULT_PRIORITY = 100;
+
    /**
-    * Each priority level corresponds to a different EventBus instance.
+    * How events are handed to a registrant.
     */
-   private HashMap<Integer, EventBus> prioritizedBuses_;
+   public enum Delivery {
+      /**
+       * Notify on the posting thread, before {@code post()} returns.
+       */
+      SYNCHRONOUS,
+
+      /**
+       * Queue events and notify on a background thread. If a registrant falls
+       * {@link PrioritizedEventBus#QUEUE_CAPACITY} events of one class behind, the oldest
+       * pending event of that class is dropped.
+       */
+      QUEUED,
 
-   public PrioritizedEventBus() {
-      prioritizedBuses_ = new HashMap<Integer, EventBus>();
+      /**
+       * Queue events and notify on a background thread, keeping only the
+       * newest pending event of each class.
+       */
+      LATEST_ONLY
    }
 
+   /**
+    * Maximum number of pending events of each class for
+    * {@link Delivery#QUEUED} registrants.
+    */
+   public static final int QUEUE_CAPACITY = 1000;
+
+   private static final ExecutorService DELIVERY_EXECUTOR =
+         Executors.newCachedThreadPool(
+               ThreadFactoryFactory.createThreadFactory("Event Delivery"));
+
+   /**
+    * Each priority level of synchronous registrants corresponds to a
+    * different EventBus instance. Guarded by this.
+    */
+   private final HashMap<Integer, EventBus> prioritizedBuses_ =
+         new HashMap<Integer, EventBus>();
+
+   /**
+    * Everything to dispatch to, in order of priority. Replaced (never
+    * modified) under the monitor, so that post() need not lock, allocate,
+    * or sort.
+    */
+   private volatile Target[] targets_ = new Target[0];
+
    public void register(Object o) {
       register(o, DEFAULT_PRIORITY);
    }
 
    public void register(Object o, Integer priority) {
-      EventBus subBus;
-      if (!prioritizedBuses_.containsKey(priority)) {
-         subBus = new EventBus(EventBusExceptionLogger.getInstance());
-         prioritizedBuses_.put(priority, subBus);
+      register(o, priority, Delivery.SYNCHRONOUS, null);
+   }
+
+   /**
+    * Register an object, choosing how events are delivered to it.
+    *
+    * @param o the registrant
+    * @param priority lower numbers are notified (or, for asynchronous
+    * delivery, queued) first
+    * @param delivery how to deliver events
+    * @param perfMon if not null, receives queue length, delivery lag, and
+    * dropped event statistics for asynchronous delivery
+    */
+   public synchronized void register(Object o, int priority,
+         Delivery delivery, PerformanceMonitor perfMon) {
+      if (delivery == Delivery.SYNCHRONOUS) {
+         EventBus subBus = prioritizedBuses_.get(priority);
+         if (subBus == null) {
+            subBus = new EventBus(EventBusExceptionLogger.getInstance());
+            prioritizedBuses_.put(priority, subBus);
+            addTarget(new SynchronousTarget(priority, subBus));
+         }
+         subBus.register(o);
       }
       else {
-         subBus = prioritizedBuses_.get(priority);
+         AsynchronousTarget target = new AsynchronousTarget(priority, o,
+               delivery == Delivery.LATEST_ONLY ? 1 : QUEUE_CAPACITY, perfMon);
+         addTarget(target);
       }
-      subBus.register(o);
    }
 
-   public void unregister(Object o) {
-      for (Integer priority : prioritizedBuses_.keySet()) {
-         EventBus subBus = prioritizedBuses_.get(priority);
+   public synchronized void unregister(Object o) {
+      for (EventBus subBus : prioritizedBuses_.values()) {
          // TODO: I can't find any way to test if a given EventBus has a given
          // object subscribed to it, hence the try/catch logic here, which is
          // unpleasant. However, objects should not be frequently unregistering
@@ -53,14 +125,193 @@ public final class PrioritizedEventBus {
          catch (IllegalArgumentException e) {
          }
       }
+
+      List<Target> remaining = new ArrayList<Target>(Arrays.asList(targets_));
+      for (Iterator<Target> it = remaining.iterator(); it.hasNext(); ) {
+         Target target = it.next();
+         if (target.isFor(o)) {
+            target.close();
+            it.remove();
+         }
+      }
+      targets_ = remaining.toArray(new Target[remaining.size()]);
    }
 
    public void post(Object event) {
-      ArrayList<Integer> priorities = new ArrayList<Integer>(prioritizedBuses_.keySet());
-      Collections.sort(priorities);
-      for (Integer priority : priorities) {
-         EventBus subBus = prioritizedBuses_.get(priority);
-         subBus.post(event);
+      for (Target target : targets_) {
+         target.dispatch(event);
+      }
+   }
+
+   // Caller must hold monitor
+   private void addTarget(Target target) {
+      Target[] targets = targets_;
+      int i = 0;
+      while (i < targets.length && targets[i].priority_ <= target.priority_) {
+         ++i;
+      }
+      Target[] newTargets = new Target[targets.length + 1];
+      System.arraycopy(targets, 0, newTargets, 0, i);
+      newTargets[i] = target;
+      System.arraycopy(targets, i, newTargets, i + 1, targets.length - i);
+      targets_ = newTargets;
+   }
+
+   private static abstract class Target {
+      final int priority_;
+
+      Target(int priority) {
+         priority_ = priority;
+      }
+
+      abstract void dispatch(Object event);
+
+      boolean isFor(Object registrant) {
+         return false;
+      }
+
+      void close() {
+      }
+   }
+
+   private static final class SynchronousTarget extends Target {
+      private final EventBus bus_;
+
+      SynchronousTarget(int priority, EventBus bus) {
+         super(priority);
+         bus_ = bus;
+      }
+
+      @Override
+      void dispatch(Object event) {
+         bus_.post(event);
+      }
+   }
+
+   /**
+    * A single registrant with its own queue. At most one delivery task is
+    * scheduled at a time, so events arrive in posting order.
+    */
+   private static final class AsynchronousTarget extends Target
+         implements Runnable {
+      private final Object registrant_;
+      private final EventBus bus_;
+      private final int capacityPerClass_;
+      private final PerformanceMonitor perfMon_;
+
+      // Guarded by this
+      private final ArrayDeque<PendingEvent> pending_ =
+            new ArrayDeque<PendingEvent>();
+      private final Map<Class<?>, Integer> pendingCounts_ =
+            new HashMap<Class<?>, Integer>();
+      private boolean deliveryScheduled_ = false;
+      private boolean closed_ = false;
+      private boolean loggedDrop_ = false;
+
+      AsynchronousTarget(int priority, Object registrant,
+            int capacityPerClass, PerformanceMonitor perfMon) {
+         super(priority);
+         registrant_ = registrant;
+         bus_ = new EventBus(EventBusExceptionLogger.getInstance());
+         bus_.register(registrant);
+         capacityPerClass_ = capacityPerClass;
+         perfMon_ = perfMon;
+      }
+
+      @Override
+      boolean isFor(Object registrant) {
+         return registrant == registrant_;
+      }
+
+      @Override
+      void dispatch(Object event) {
+         boolean dropped;
+         boolean schedule;
+         int queueLength;
+         synchronized (this) {
+            if (closed_) {
+               return;
+            }
+            Class<?> eventClass = event.getClass();
+            Integer count = pendingCounts_.get(eventClass);
+            dropped = count != null && count >= capacityPerClass_;
+            if (dropped) {
+               removeOldestPending(eventClass);
+            }
+            else {
+               pendingCounts_.put(eventClass, count == null ? 1 : count + 1);
+            }
+            pending_.addLast(new PendingEvent(event, System.nanoTime()));
+            queueLength = pending_.size();
+            schedule = !deliveryScheduled_;
+            deliveryScheduled_ = true;
+            if (dropped && capacityPerClass_ > 1 && !loggedDrop_) {
+               loggedDrop_ = true;
+               ReportingUtils.logMessage("Event delivery to " + registrant_ +
+                     " is falling behind; dropping " + eventClass.getName());
+            }
+         }
+         if (schedule) {
+            DELIVERY_EXECUTOR.execute(this);
+         }
+         if (perfMon_ != null) {
+            perfMon_.sample("Event queue length", queueLength);
+            perfMon_.sample("Event dropped (%)", dropped ? 100.0 : 0.0);
+         }
+      }
+
+      // Caller must hold monitor
+      private void removeOldestPending(Class<?> eventClass) {
+         for (Iterator<PendingEvent> it = pending_.iterator(); it.hasNext(); ) {
+            if (it.next().event_.getClass() == eventClass) {
+               it.remove();
+               return;
+            }
+         }
+      }
+
+      @Override
+      public void run() {
+         for (;;) {
+            PendingEvent next;
+            synchronized (this) {
+               next = pending_.pollFirst();
+               if (next == null || closed_) {
+                  deliveryScheduled_ = false;
+                  return;
+               }
+               Class<?> eventClass = next.event_.getClass();
+               int count = pendingCounts_.get(eventClass);
+               if (count == 1) {
+                  pendingCounts_.remove(eventClass);
+               }
+               else {
+                  pendingCounts_.put(eventClass, count - 1);
+               }
+            }
+            if (perfMon_ != null) {
+               perfMon_.sample("Event delivery lag (ms)",
+                     (System.nanoTime() - next.postNanos_) / 1000000.0);
+            }
+            bus_.post(next.event_);
+         }
+      }
+
+      @Override
+      synchronized void close() {
+         closed_ = true;
+         pending_.clear();
+         pendingCounts_.clear();
+      }
+   }
+
+   private static final class PendingEvent {
+      final Object event_;
+      final long postNanos_;
+
+      PendingEvent(Object event, long postNanos) {
+         event_ = event;
+         postNanos_ = postNanos;
       }
    }
 }
@@ -2,6 +2,7 @@ package org.micromanager.internal.utils;
 
 import java.util.Arrays;
 import mmcorej.CMMCore;
+import mmcorej.PropertyInfo;
 import mmcorej.PropertyType;
 import mmcorej.StrVector;
 
@@ -111,6 +112,63 @@ public class PropertyItem {
 		 }
 	}
 
+   /**
+    * Fill in this item from an entry of a Core property snapshot, avoiding
+    * separate calls to the Core for each attribute.
+    * @param info entry from CMMCore.getPropertySnapshot()
+    */
+   public void readFromInfo(PropertyInfo info) {
+      device = info.getDeviceLabel();
+      name = info.getPropertyName();
+      readOnly = info.isReadOnly();
+      preInit = info.isPreInit();
+      hasRange = info.hasLimits();
+      lowerLimit = info.getLowerLimit();
+      upperLimit = info.getUpperLimit();
+      type = info.getType();
+      StrVector values = info.getAllowedValues();
+      allowed = new String[(int) values.size()];
+      for (int k = 0; k < values.size(); k++) {
+         allowed[k] = values.get(k);
+      }
+
+      sort();
+
+      if (info.isValueAvailable()) {
+         setValueFromCoreString(info.getValue());
+      }
+      else {
+         ReportingUtils.logError("Value of " + device + "-" + name +
+               " is not available");
+      }
+   }
+
+   /**
+    * Copy the state of another item for the same property into this one.
+    * @param other item holding newer state
+    * @return true if anything shown in a property table changed
+    */
+   public boolean updateFrom(PropertyItem other) {
+      boolean changed = !value.equals(other.value) ||
+            readOnly != other.readOnly ||
+            confInclude != other.confInclude ||
+            hasRange != other.hasRange ||
+            lowerLimit != other.lowerLimit ||
+            upperLimit != other.upperLimit ||
+            type != other.type ||
+            !Arrays.equals(allowed, other.allowed);
+      value = other.value;
+      readOnly = other.readOnly;
+      preInit = other.preInit;
+      confInclude = other.confInclude;
+      hasRange = other.hasRange;
+      lowerLimit = other.lowerLimit;
+      upperLimit = other.upperLimit;
+      type = other.type;
+      allowed = other.allowed;
+      return changed;
+   }
+
    public void sort() {
       try {
          if (allowed.length > 0) {
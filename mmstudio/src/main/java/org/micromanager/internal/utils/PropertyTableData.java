@@ -2,13 +2,17 @@ package org.micromanager.internal.utils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.swing.table.AbstractTableModel;
 import mmcorej.CMMCore;
 import mmcorej.Configuration;
 import mmcorej.DeviceType;
+import mmcorej.PropertyInfo;
 import mmcorej.PropertySetting;
+import mmcorej.PropertySnapshot;
 import mmcorej.StrVector;
 import org.micromanager.Studio;
 
@@ -34,6 +38,8 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
    public List<PropertyItem> propListVisible_ = new ArrayList<>(); 
       // The table data is stored in here.
    protected Map<PropertyItem, Integer> propToRow_ = new HashMap<>();
+   // Items in propList_, by device and property name
+   private final Map<String, PropertyItem> propIndex_ = new HashMap<>();
    protected CMMCore core_ = null;
    Configuration groupData_[];
    PropertySetting groupSignature_[];
@@ -164,12 +170,87 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
    }
 
    public PropertyItem getItem(String device, String propName) {
-      for (PropertyItem item : propList_) {
-         if ((item.device.contentEquals(device)) && (item.name.contentEquals(propName))) {
-            return item;
+      return propIndex_.get(itemKey(device, propName));
+   }
+
+   private static String itemKey(String device, String propName) {
+      return device + "-" + propName;
+   }
+
+   /**
+    * Update a single property value, as reported by the Core's property
+    * changed callback, without reading anything from the Core.
+    * @param device device label
+    * @param propName property name
+    * @param coreValue new value, in Core format
+    */
+   public void update(String device, String propName, String coreValue) {
+      PropertyItem item = getItem(device, propName);
+      if (item == null) {
+         return;
+      }
+      String oldValue = item.value;
+      item.setValueFromCoreString(coreValue);
+      if (!item.value.equals(oldValue)) {
+         Integer row = propToRow_.get(item);
+         if (row != null) {
+            fireTableCellUpdated(row, propertyValueColumn_);
          }
       }
-      return null; // Failed to find the item.
+   }
+
+   /**
+    * Replace the table contents with freshly read items.
+    * <p>
+    * If the same properties are present, in the same order, as before, the
+    * existing items are updated in place and only the rows that changed are
+    * reported to listeners; otherwise the rows are rebuilt.
+    *
+    * @param items the new items
+    * @param flags flags determining which rows are visible
+    * @return true if the rows were rebuilt
+    */
+   protected boolean mergeItems(List<PropertyItem> items, ShowFlags flags) {
+      boolean sameProperties = items.size() == propList_.size();
+      for (int i = 0; sameProperties && i < items.size(); i++) {
+         PropertyItem item = items.get(i);
+         PropertyItem oldItem = propList_.get(i);
+         sameProperties = item.device.equals(oldItem.device) &&
+               item.name.equals(oldItem.name);
+      }
+
+      if (!sameProperties) {
+         propList_.clear();
+         propList_.addAll(items);
+         propIndex_.clear();
+         for (PropertyItem item : propList_) {
+            propIndex_.put(itemKey(item.device, item.name), item);
+         }
+         updateRowVisibility(flags);
+         return true;
+      }
+
+      boolean visibilityChanged = false;
+      List<Integer> changedRows = new ArrayList<>();
+      for (int i = 0; i < items.size(); i++) {
+         PropertyItem oldItem = propList_.get(i);
+         boolean wasIncluded = oldItem.confInclude;
+         if (oldItem.updateFrom(items.get(i))) {
+            visibilityChanged |= wasIncluded != oldItem.confInclude;
+            Integer row = propToRow_.get(oldItem);
+            if (row != null) {
+               changedRows.add(row);
+            }
+         }
+      }
+      if (visibilityChanged) {
+         updateRowVisibility(flags);
+         return true;
+      }
+      for (int row : changedRows) {
+         fireTableRowsUpdated(row, row);
+      }
+      return false;
    }
 
    public boolean verifyPresetSignature() {
@@ -286,8 +367,8 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
 
    public void refresh(boolean fromCache) {
       try {
+         // Listeners are notified of the rows that changed by update()
          update(fromCache);
-         this.fireTableDataChanged();
       } catch (Exception e) {
          handleException(e);
       }
@@ -314,11 +395,9 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
          }
       }
 
-      StrVector devices = core_.getLoadedDevices();
-      propList_.clear();
-
       Configuration cfg;
 
+      boolean rebuilt = false;
       studio_.live().setSuspended(true);
       try {
          if (isPixelSizeConfig_) {
@@ -343,37 +422,39 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
 
          setUpdating(true);
 
-         for (int i = 0; i < devices.size(); i++) {
-
-            if (showDevice(flags, devices.get(i))) {
-
-               StrVector properties = core_.getDevicePropertyNames(devices.get(i));
-               for (int j = 0; j < properties.size(); j++) {
-                  PropertyItem item = new PropertyItem();
-                  if (!groupOnly_ || cfg.isPropertyIncluded(devices.get(i), properties.get(j))) {
-                     item.readFromCore(core_, devices.get(i), properties.get(j), fromCache);
-                     if ((!item.readOnly || showReadOnly_) && !item.preInit) {
-
-                        item.confInclude = cfg.isPropertyIncluded(item.device, item.name);
+         Set<String> devices = null;
+         if (groupOnly_) {
+            devices = new HashSet<>();
+            for (int i = 0; i < cfg.size(); i++) {
+               devices.add(cfg.getSetting(i).getDeviceLabel());
+            }
+         }
+         List<PropertyItem> items = new ArrayList<>();
+         for (PropertyInfo info : getShownProperties(flags, devices, fromCache)) {
+            if (groupOnly_ && !cfg.isPropertyIncluded(
+                  info.getDeviceLabel(), info.getPropertyName())) {
+               continue;
+            }
+            PropertyItem item = new PropertyItem();
+            item.readFromInfo(info);
+            if ((!item.readOnly || showReadOnly_) && !item.preInit) {
 
-                        for (PropertyItem usedItem : usedItems) {
-                           if (item.device.equals(usedItem.device)
-                                   && item.name.equals(usedItem.name)) {
-                              item.confInclude = true;
-                           }
-                        }
+               item.confInclude = cfg.isPropertyIncluded(item.device, item.name);
 
-                        propList_.add(item);
-                     }
+               for (PropertyItem usedItem : usedItems) {
+                  if (item.device.equals(usedItem.device)
+                          && item.name.equals(usedItem.name)) {
+                     item.confInclude = true;
                   }
                }
 
+               items.add(item);
             }
          }
 
          setUpdating(false);
 
-         updateRowVisibility(flags);
+         rebuilt = mergeItems(items, flags);
 
       } catch (Exception e) {
          handleException(e);
@@ -381,10 +462,41 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
          studio_.live().setSuspended(false);
       }
 
-      this.fireTableStructureChanged();
+      if (rebuilt) {
+         this.fireTableStructureChanged();
+      }
 
    }
 
+   /**
+    * Get the properties of the devices shown with the given flags, in load
+    * order. Makes one call into the Core per device, rather than several per
+    * property, and none for devices that are not shown.
+    * @param flags which types of devices to include
+    * @param devices if not null, only include these devices
+    * @param fromCache whether to read property values from the cache
+    * @return properties of the shown devices
+    * @throws Exception if the Core fails to provide a device's properties
+    */
+   protected List<PropertyInfo> getShownProperties(ShowFlags flags,
+         Set<String> devices, boolean fromCache) throws Exception {
+      List<PropertyInfo> infos = new ArrayList<>();
+      StrVector loaded = core_.getLoadedDevices();
+      for (int i = 0; i < loaded.size(); i++) {
+         String label = loaded.get(i);
+         if ((devices != null && !devices.contains(label)) ||
+               !showDevice(flags, label)) {
+            continue;
+         }
+         PropertySnapshot snapshot =
+               core_.getDevicePropertySnapshot(label, fromCache);
+         for (int j = 0; j < snapshot.size(); j++) {
+            infos.add(snapshot.getInfo(j));
+         }
+      }
+      return infos;
+   }
+
    public void updateRowVisibility(ShowFlags flags) {
       propListVisible_.clear();
 
@@ -427,7 +539,10 @@ public class PropertyTableData extends AbstractTableModel implements MMPropertyT
       } catch (Exception e) {
          handleException(e);
       }
+      return showDevice(flags, dType);
+   }
 
+   public Boolean showDevice(ShowFlags flags, DeviceType dType) {
       Boolean showDevice;
       if (dType == DeviceType.SerialDevice) {
          showDevice = false;
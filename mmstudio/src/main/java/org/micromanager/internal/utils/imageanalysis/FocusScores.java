@@ -0,0 +1,612 @@
+package org.micromanager.internal.utils.imageanalysis;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Fused focus score kernels working directly on 8- and 16-bit pixel arrays.
+ *
+ * Each score is computed in a single row-major pass over the (optional) ROI,
+ * without duplicating the image or going through ImageProcessor.getPixel().
+ * Large images are split into horizontal stripes that are scored in parallel
+ * and reduced in stripe order, so results do not depend on the number of
+ * threads.
+ *
+ * Method names are the ones used by OughtaFocus. Results are identical to
+ * OughtaFocus's ImageJ-based implementation for the full image, except for
+ * MedianEdges, which here uses a true 3x3 median with edge replication for
+ * both 8- and 16-bit images. When a ROI is given, scores are computed over
+ * the ROI only, using pixels outside the ROI as neighbors where needed.
+ */
+public final class FocusScores {
+   public static final String EDGES = "Edges";
+   public static final String STD_DEV = "StdDev";
+   public static final String MEAN = "Mean";
+   public static final String NORMALIZED_VARIANCE = "NormalizedVariance";
+   public static final String SHARP_EDGES = "SharpEdges";
+   public static final String REDONDO = "Redondo";
+   public static final String VOLATH = "Volath";
+   public static final String VOLATH5 = "Volath5";
+   public static final String MEDIAN_EDGES = "MedianEdges";
+   public static final String TENENGRAD = "Tenengrad";
+
+   private static final String[] SUPPORTED = {EDGES, STD_DEV, MEAN,
+      NORMALIZED_VARIANCE, SHARP_EDGES, REDONDO, VOLATH, VOLATH5,
+      MEDIAN_EDGES, TENENGRAD};
+
+   // Images smaller than this are scored on the calling thread
+   private static final int MIN_PIXELS_FOR_PARALLEL = 256 * 1024;
+   // Fixed stripe height, so that the reduction order is reproducible
+   private static final int STRIPE_ROWS = 64;
+   // Row buffers have this many replicated pixels on either side
+   private static final int PAD = 2;
+
+   private FocusScores() {
+   }
+
+   /**
+    * @param method name of the scoring method
+    * @return true if the method is implemented by this class
+    */
+   public static boolean isSupported(String method) {
+      for (String m : SUPPORTED) {
+         if (m.equals(method)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * @return names of all scoring methods implemented by this class
+    */
+   public static String[] getSupportedMethods() {
+      return SUPPORTED.clone();
+   }
+
+   /**
+    * Compute a focus score.
+    *
+    * @param method name of the scoring method (see {@link #isSupported})
+    * @param pixels byte[] or short[] pixel array (unsigned, row-major)
+    * @param width image width
+    * @param height image height
+    * @param roi region to score, or null for the whole image
+    * @return the focus score
+    * @throws IllegalArgumentException if the method or pixel type is not
+    * supported
+    */
+   public static double computeScore(String method, Object pixels,
+         int width, int height, Rectangle roi) {
+      if (!(pixels instanceof byte[]) && !(pixels instanceof short[])) {
+         throw new IllegalArgumentException(
+               "Only 8- and 16-bit grayscale images are supported");
+      }
+      int length = pixels instanceof byte[] ?
+            ((byte[]) pixels).length : ((short[]) pixels).length;
+      if (length < width * height) {
+         throw new IllegalArgumentException("Pixel array too small");
+      }
+      Rectangle r = new Rectangle(0, 0, width, height);
+      if (roi != null) {
+         r = r.intersection(roi);
+         if (r.isEmpty()) {
+            r = new Rectangle(0, 0, width, height);
+         }
+      }
+      Image img = new Image(pixels, width, height, r);
+      switch (method) {
+         case MEAN:
+            return mean(img);
+         case STD_DEV:
+            return normalizedStdDev(img);
+         case NORMALIZED_VARIANCE:
+            return normalizedVariance(img);
+         case EDGES:
+            return edges(img);
+         case SHARP_EDGES:
+            return sharpEdges(img);
+         case REDONDO:
+            return redondo(img);
+         case VOLATH:
+            return volath(img);
+         case VOLATH5:
+            return volath5(img);
+         case MEDIAN_EDGES:
+            return medianEdges(img);
+         case TENENGRAD:
+            return tenengrad(img);
+         default:
+            throw new IllegalArgumentException(
+                  "Unsupported scoring method: " + method);
+      }
+   }
+
+   private static double mean(Image img) {
+      double[] sums = run(img, 1, (ws, y0, y1, out) -> {
+         long sum = 0;
+         for (int y = y0; y < y1; ++y) {
+            int[] b = ws.input.get(y);
+            for (int k = PAD; k < img.rw + PAD; ++k) {
+               sum += b[k];
+            }
+         }
+         out[0] = sum;
+      });
+      return sums[0] / img.numPixels();
+   }
+
+   // Returns {n, sum, sum of squares}
+   private static double[] moments(Image img) {
+      double[] sums = run(img, 2, (ws, y0, y1, out) -> {
+         long sum = 0;
+         long sum2 = 0;
+         for (int y = y0; y < y1; ++y) {
+            int[] b = ws.input.get(y);
+            for (int k = PAD; k < img.rw + PAD; ++k) {
+               long v = b[k];
+               sum += v;
+               sum2 += v * v;
+            }
+         }
+         out[0] = sum;
+         out[1] = sum2;
+      });
+      return new double[] {img.numPixels(), sums[0], sums[1]};
+   }
+
+   // Sample standard deviation, as computed by ImageJ's ImageStatistics
+   private static double stdDev(double n, double sum, double sum2) {
+      if (n < 2) {
+         return 0.0;
+      }
+      double var = (n * sum2 - sum * sum) / n / (n - 1.0);
+      return var > 0.0 ? Math.sqrt(var) : 0.0;
+   }
+
+   private static double normalizedStdDev(Image img) {
+      double[] m = moments(img);
+      return stdDev(m[0], m[1], m[2]) / (m[1] / m[0]);
+   }
+
+   private static double normalizedVariance(Image img) {
+      double[] m = moments(img);
+      double sd = stdDev(m[0], m[1], m[2]);
+      return sd * sd / (m[1] / m[0]);
+   }
+
+   // Mean of the Sobel edge magnitude (as in ImageProcessor.findEdges())
+   // divided by the mean intensity
+   private static double edges(Image img) {
+      final int max = img.maxValue();
+      double[] sums = run(img, 2, (ws, y0, y1, out) -> {
+         long sumEdge = 0;
+         long sumIntensity = 0;
+         for (int y = y0; y < y1; ++y) {
+            int[] a = ws.input.get(y - 1);
+            int[] b = ws.input.get(y);
+            int[] c = ws.input.get(y + 1);
+            for (int k = PAD; k < img.rw + PAD; ++k) {
+               sumEdge += sobel(a, b, c, k, max);
+               sumIntensity += b[k];
+            }
+         }
+         out[0] = sumEdge;
+         out[1] = sumIntensity;
+      });
+      return sums[0] / sums[1];
+   }
+
+   // As edges(), but on the image sharpened as by ImageProcessor.sharpen()
+   private static double sharpEdges(Image img) {
+      final int max = img.maxValue();
+      double[] sums = run(img, 2, (ws, y0, y1, out) -> {
+         long sumEdge = 0;
+         long sumIntensity = 0;
+         for (int y = y0; y < y1; ++y) {
+            int[] a = ws.sharpened.get(y - 1);
+            int[] b = ws.sharpened.get(y);
+            int[] c = ws.sharpened.get(y + 1);
+            int[] orig = ws.input.get(y);
+            for (int k = PAD; k < img.rw + PAD; ++k) {
+               sumEdge += sobel(a, b, c, k, max);
+               sumIntensity += orig[k];
+            }
+         }
+         out[0] = sumEdge;
+         out[1] = sumIntensity;
+      });
+      return sums[0] / sums[1];
+   }
+
+   private static int sobel(int[] a, int[] b, int[] c, int k, int max) {
+      long s1 = a[k - 1] + 2 * a[k] + a[k + 1]
+            - c[k - 1] - 2 * c[k] - c[k + 1];
+      long s2 = a[k - 1] + 2 * b[k - 1] + c[k - 1]
+            - a[k + 1] - 2 * b[k + 1] - c[k + 1];
+      int v = (int) Math.sqrt((double) (s1 * s1 + s2 * s2));
+      return Math.min(v, max);
+   }
+
+   // See OughtaFocus for the (intentional) choice of the "center" pixel
+   private static double redondo(Image img) {
+      final int xStart = Math.max(img.roi.x, 1);
+      final int xEnd = Math.min(img.roi.x + img.rw, img.width - 1);
+      final int yStart = Math.max(img.roi.y, 1);
+      final int yEnd = Math.min(img.roi.y + img.rh, img.height - 1);
+      if (xStart >= xEnd || yStart >= yEnd) {
+         return 0.0;
+      }
+      double[] sums = run(img, 1, (ws, y0, y1, out) -> {
+         long sum = 0;
+         final int kStart = xStart - img.roi.x + PAD;
+         final int kEnd = xEnd - img.roi.x + PAD;
+         for (int y = Math.max(y0, yStart); y < Math.min(y1, yEnd); ++y) {
+            int[] a = ws.input.get(y - 1);
+            int[] b = ws.input.get(y);
+            int[] c = ws.input.get(y + 1);
+            for (int k = kStart; k < kEnd; ++k) {
+               long p = b[k + 1] + a[k] + c[k] - 3L * b[k - 1];
+               sum += p * p;
+            }
+         }
+         out[0] = sum;
+      });
+      return sums[0];
+   }
+
+   private static double volath(Image img) {
+      double[] sums = run(img, 1, (ws, y0, y1, out) -> {
+         long sum1 = 0;
+         long sum2 = 0;
+         final int end = img.rw + PAD;
+         for (int y = y0; y < y1; ++y) {
+            int[] b = ws.input.get(y);
+            for (int k = PAD + 1; k < end - 1; ++k) {
+               sum1 += (long) b[k] * b[k + 1];
+            }
+            for (int k = PAD; k < end - 2; ++k) {
+               sum2 += (long) b[k] * b[k + 2];
+            }
+         }
+         out[0] = sum1 - sum2;
+      });
+      return sums[0];
+   }
+
+   private static double volath5(Image img) {
+      double[] sums = run(img, 2, (ws, y0, y1, out) -> {
+         long sum = 0;
+         long sumIntensity = 0;
+         final int end = img.rw + PAD;
+         for (int y = y0; y < y1; ++y) {
+            int[] b = ws.input.get(y);
+            for (int k = PAD; k < end - 1; ++k) {
+               sum += (long) b[k] * b[k + 1];
+            }
+            for (int k = PAD; k < end; ++k) {
+               sumIntensity += b[k];
+            }
+         }
+         out[0] = sum;
+         out[1] = sumIntensity;
+      });
+      double mean = sums[1] / img.numPixels();
+      return sums[0] - ((img.rw - 1) * (double) img.rh * mean * mean);
+   }
+
+   // Sum of squares of the two Sobel derivatives, each clipped to the pixel
+   // range as by ImageProcessor.convolve3x3()
+   private static double tenengrad(Image img) {
+      final int max = img.maxValue();
+      double[] sums = run(img, 1, (ws, y0, y1, out) -> {
+         long sum = 0;
+         for (int y = y0; y < y1; ++y) {
+            int[] a = ws.input.get(y - 1);
+            int[] b = ws.input.get(y);
+            int[] c = ws.input.get(y + 1);
+            for (int k = PAD; k < img.rw + PAD; ++k) {
+               long gx = clip(-a[k - 1] + a[k + 1] - 2 * b[k - 1]
+                     + 2 * b[k + 1] - c[k - 1] + c[k + 1], max);
+               long gy = clip(a[k - 1] + 2 * a[k] + a[k + 1]
+                     - c[k - 1] - 2 * c[k] - c[k + 1], max);
+               sum += gx * gx + gy * gy;
+            }
+         }
+         out[0] = sum;
+      });
+      return sums[0];
+   }
+
+   // Diagonal gradient magnitude of the 3x3 median-filtered image
+   private static double medianEdges(Image img) {
+      final int max = img.maxValue();
+      double[] sums = run(img, 1, (ws, y0, y1, out) -> {
+         double sum = 0.0;
+         for (int y = y0; y < y1; ++y) {
+            int[] a = ws.median.get(y - 1);
+            int[] b = ws.median.get(y);
+            int[] c = ws.median.get(y + 1);
+            for (int k = PAD; k < img.rw + PAD; ++k) {
+               long g1 = clip(2 * a[k - 1] + a[k] + b[k - 1]
+                     - b[k + 1] - c[k] - 2 * c[k + 1], max);
+               long g2 = clip(a[k] + 2 * a[k + 1] - b[k - 1]
+                     + b[k + 1] - 2 * c[k - 1] - c[k], max);
+               sum += Math.sqrt((double) (g1 * g1 + g2 * g2));
+            }
+         }
+         out[0] = sum;
+      });
+      return sums[0];
+   }
+
+   // Written with min/max so that it compiles to branch-free code
+   private static int clip(int v, int max) {
+      return Math.max(0, Math.min(v, max));
+   }
+
+
+   //
+   // Stripe execution
+   //
+
+   private interface StripeKernel {
+      void score(Workspace ws, int y0, int y1, double[] out);
+   }
+
+   private static double[] run(final Image img, final int nOut,
+         final StripeKernel kernel) {
+      final int yBegin = img.roi.y;
+      final int yEnd = img.roi.y + img.rh;
+      final int nStripes = (img.rh + STRIPE_ROWS - 1) / STRIPE_ROWS;
+      final double[][] partials = new double[nStripes][nOut];
+      IntStream stripes = IntStream.range(0, nStripes);
+      if (img.numPixels() >= MIN_PIXELS_FOR_PARALLEL) {
+         stripes = stripes.parallel();
+      }
+      stripes.forEach((int s) -> {
+         Workspace ws = Workspace.get(img);
+         int y0 = yBegin + s * STRIPE_ROWS;
+         int y1 = Math.min(yEnd, y0 + STRIPE_ROWS);
+         kernel.score(ws, y0, y1, partials[s]);
+      });
+      double[] result = new double[nOut];
+      for (double[] partial : partials) {
+         for (int i = 0; i < nOut; ++i) {
+            result[i] += partial[i];
+         }
+      }
+      return result;
+   }
+
+   private static final class Image {
+      final Object pixels;
+      final int width;
+      final int height;
+      final Rectangle roi;
+      final int rw;
+      final int rh;
+
+      Image(Object pixels, int width, int height, Rectangle roi) {
+         this.pixels = pixels;
+         this.width = width;
+         this.height = height;
+         this.roi = roi;
+         this.rw = roi.width;
+         this.rh = roi.height;
+      }
+
+      double numPixels() {
+         return (double) rw * rh;
+      }
+
+      int maxValue() {
+         return pixels instanceof byte[] ? 0xff : 0xffff;
+      }
+
+      // Row buffer index k corresponds to image column
+      // clamp(roi.x - PAD + k), and row y is clamped to the image
+      void loadRow(int y, int[] dst) {
+         int yy = y < 0 ? 0 : (y >= height ? height - 1 : y);
+         int offset = yy * width;
+         int x0 = roi.x - PAD;
+         int n = rw + 2 * PAD;
+         int kStart = Math.max(0, -x0);
+         int kEnd = Math.min(n, width - x0);
+         if (pixels instanceof short[]) {
+            short[] p = (short[]) pixels;
+            for (int k = kStart; k < kEnd; ++k) {
+               dst[k] = p[offset + x0 + k] & 0xffff;
+            }
+         }
+         else {
+            byte[] p = (byte[]) pixels;
+            for (int k = kStart; k < kEnd; ++k) {
+               dst[k] = p[offset + x0 + k] & 0xff;
+            }
+         }
+         for (int k = 0; k < kStart; ++k) {
+            dst[k] = dst[kStart];
+         }
+         for (int k = kEnd; k < n; ++k) {
+            dst[k] = dst[kEnd - 1];
+         }
+      }
+   }
+
+   /**
+    * A small cache of row buffers, indexed by (clamped) row number. Rows are
+    * requested in nondecreasing order, so round-robin replacement suffices.
+    */
+   private abstract static class RowCache {
+      private final int[][] rows_;
+      private final int[] tags_;
+      private int next_;
+      protected Image img_;
+
+      RowCache(int nRows, int length) {
+         rows_ = new int[nRows][length];
+         tags_ = new int[nRows];
+      }
+
+      void reset(Image img) {
+         img_ = img;
+         Arrays.fill(tags_, Integer.MIN_VALUE);
+         next_ = 0;
+      }
+
+      int[] get(int y) {
+         int yy = y < 0 ? 0 : (y >= img_.height ? img_.height - 1 : y);
+         for (int i = 0; i < tags_.length; ++i) {
+            if (tags_[i] == yy) {
+               return rows_[i];
+            }
+         }
+         int slot = next_;
+         next_ = (next_ + 1) % tags_.length;
+         tags_[slot] = Integer.MIN_VALUE; // In case fill() throws
+         fill(yy, rows_[slot]);
+         tags_[slot] = yy;
+         return rows_[slot];
+      }
+
+      int length() {
+         return rows_[0].length;
+      }
+
+      abstract void fill(int y, int[] dst);
+   }
+
+   private static final class InputRows extends RowCache {
+      InputRows(int length) {
+         super(4, length);
+      }
+
+      @Override
+      void fill(int y, int[] dst) {
+         img_.loadRow(y, dst);
+      }
+   }
+
+   /**
+    * Rows of an image derived by a 3x3 filter with edge replication. Values
+    * are computed for in-image columns and replicated beyond the image edges,
+    * so that the derived image behaves as if it had been computed in full.
+    */
+   private abstract static class FilteredRows extends RowCache {
+      private final InputRows input_;
+
+      FilteredRows(InputRows input, int length) {
+         super(3, length);
+         input_ = input;
+      }
+
+      @Override
+      void fill(int y, int[] dst) {
+         int[] a = input_.get(y - 1);
+         int[] b = input_.get(y);
+         int[] c = input_.get(y + 1);
+         int n = img_.rw + 2 * PAD;
+         int x0 = img_.roi.x - PAD;
+         int kStart = Math.max(1, -x0);
+         int kEnd = Math.min(n - 1, img_.width - x0);
+         for (int k = kStart; k < kEnd; ++k) {
+            dst[k] = filter(a, b, c, k);
+         }
+         for (int k = 0; k < kStart; ++k) {
+            dst[k] = dst[kStart];
+         }
+         for (int k = kEnd; k < n; ++k) {
+            dst[k] = dst[kEnd - 1];
+         }
+      }
+
+      abstract int filter(int[] a, int[] b, int[] c, int k);
+   }
+
+   // ImageProcessor.sharpen(): kernel {-1 -1 -1, -1 12 -1, -1 -1 -1} / 4
+   private static final class SharpenedRows extends FilteredRows {
+      SharpenedRows(InputRows input, int length) {
+         super(input, length);
+      }
+
+      @Override
+      int filter(int[] a, int[] b, int[] c, int k) {
+         int sum = 12 * b[k] - a[k - 1] - a[k] - a[k + 1]
+               - b[k - 1] - b[k + 1] - c[k - 1] - c[k] - c[k + 1];
+         return clip((sum + 2) / 4, img_.maxValue());
+      }
+   }
+
+   private static final class MedianRows extends FilteredRows {
+      MedianRows(InputRows input, int length) {
+         super(input, length);
+      }
+
+      @Override
+      int filter(int[] a, int[] b, int[] c, int k) {
+         return median9(a[k - 1], a[k], a[k + 1], b[k - 1], b[k], b[k + 1],
+               c[k - 1], c[k], c[k + 1]);
+      }
+   }
+
+   // Median of 9 values using a fixed 19-exchange network (Paeth), with
+   // branch-free exchanges
+   static int median9(int p0, int p1, int p2, int p3, int p4, int p5,
+         int p6, int p7, int p8) {
+      int t;
+      t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+      t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+      t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+      t = Math.min(p0, p1); p1 = Math.max(p0, p1); p0 = t;
+      t = Math.min(p3, p4); p4 = Math.max(p3, p4); p3 = t;
+      t = Math.min(p6, p7); p7 = Math.max(p6, p7); p6 = t;
+      t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+      t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+      t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+      t = Math.min(p0, p3); p3 = Math.max(p0, p3); p0 = t;
+      t = Math.min(p5, p8); p8 = Math.max(p5, p8); p5 = t;
+      t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+      t = Math.min(p3, p6); p6 = Math.max(p3, p6); p3 = t;
+      t = Math.min(p1, p4); p4 = Math.max(p1, p4); p1 = t;
+      t = Math.min(p2, p5); p5 = Math.max(p2, p5); p2 = t;
+      t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+      t = Math.min(p4, p2); p2 = Math.max(p4, p2); p4 = t;
+      t = Math.min(p6, p4); p4 = Math.max(p6, p4); p6 = t;
+      t = Math.min(p4, p2); p2 = Math.max(p4, p2); p4 = t;
+      return p4;
+   }
+
+   /**
+    * Per-thread row buffers, reused across calls to avoid per-frame
+    * allocation.
+    */
+   private static final class Workspace {
+      private static final ThreadLocal<Workspace> CACHE =
+            new ThreadLocal<Workspace>();
+
+      final InputRows input;
+      final SharpenedRows sharpened;
+      final MedianRows median;
+
+      private Workspace(int length) {
+         input = new InputRows(length);
+         sharpened = new SharpenedRows(input, length);
+         median = new MedianRows(input, length);
+      }
+
+      static Workspace get(Image img) {
+         int length = img.rw + 2 * PAD;
+         Workspace ws = CACHE.get();
+         if (ws == null || ws.input.length() < length) {
+            ws = new Workspace(length);
+            CACHE.set(ws);
+         }
+         ws.input.reset(img);
+         ws.sharpened.reset(img);
+         ws.median.reset(img);
+         return ws;
+      }
+   }
+}
@@ -0,0 +1,413 @@
+package org.micromanager.internal.utils.imageanalysis;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the translation between images by phase correlation.
+ *
+ * The reference image is transformed once and its spectrum is kept, so
+ * every call to measureShift() costs one forward and one inverse FFT.
+ * Images are padded to the next power of two in each direction, the mean is
+ * subtracted and (optionally) a Hann window is applied to suppress edge
+ * artefacts. The integer peak of the correlation landscape is refined to
+ * sub-pixel precision from the ratio of the peak to its largest neighbor in
+ * x and in y, which is exact for the sinc-shaped peak of phase correlation
+ * (Foroosh et al., IEEE Trans. Image Process. 11:188, 2002).
+ *
+ * FFT plans (bit reversal and twiddle tables) are cached per size and shared
+ * between instances. Since the images are real, two rows are transformed
+ * with one complex FFT and only half of the spectrum is kept. Large images
+ * are transformed on all cores.
+ *
+ * Instances are not thread safe; use one instance per thread.
+ */
+public final class PhaseCorrelator {
+   // Images smaller than this are transformed on the calling thread
+   private static final int MIN_PIXELS_FOR_PARALLEL = 256 * 1024;
+   // Number of columns transformed together by one task
+   private static final int COLUMN_BLOCK = 16;
+
+   private static final ConcurrentHashMap<Integer, FFTPlan> PLANS =
+         new ConcurrentHashMap<>();
+
+   private final int width_;
+   private final int height_;
+   private final int nx_;
+   private final int ny_;
+   // Number of columns of the (Hermitian) half spectrum
+   private final int hx_;
+   private final FFTPlan planX_;
+   private final FFTPlan planY_;
+   private final float[] windowX_;
+   private final float[] windowY_;
+   private final boolean parallel_;
+
+   private double[] refRe_;
+   private double[] refIm_;
+   // Padded real image, or correlation landscape after measureShift()
+   private final double[] real_;
+   // Half spectrum, ny_ rows of hx_ columns
+   private final double[] re_;
+   private final double[] im_;
+   private int maxShift_;
+   private boolean haveCorrelation_ = false;
+
+   /**
+    * Creates a correlator for images of the given size that applies a Hann
+    * window.
+    * @param width width of the images that will be compared
+    * @param height height of the images that will be compared
+    */
+   public PhaseCorrelator(int width, int height) {
+      this(width, height, true);
+   }
+
+   /**
+    * @param width width of the images that will be compared
+    * @param height height of the images that will be compared
+    * @param useWindow whether to apply a Hann window to the images. Turn off
+    *                  when the images are already apodized.
+    */
+   public PhaseCorrelator(int width, int height, boolean useWindow) {
+      if (width < 2 || height < 2) {
+         throw new IllegalArgumentException("Images must be at least 2x2");
+      }
+      width_ = width;
+      height_ = height;
+      nx_ = nextPowerOf2(width);
+      ny_ = nextPowerOf2(height);
+      planX_ = PLANS.computeIfAbsent(nx_, FFTPlan::new);
+      planY_ = PLANS.computeIfAbsent(ny_, FFTPlan::new);
+      windowX_ = useWindow ? hann(width) : null;
+      windowY_ = useWindow ? hann(height) : null;
+      parallel_ = nx_ * ny_ >= MIN_PIXELS_FOR_PARALLEL;
+      hx_ = nx_ / 2 + 1;
+      real_ = new double[nx_ * ny_];
+      re_ = new double[ny_ * hx_];
+      im_ = new double[ny_ * hx_];
+      maxShift_ = Math.min(nx_, ny_) / 2 - 1;
+   }
+
+   /**
+    * Limits the search for the correlation peak to shifts of at most the
+    * given number of pixels in x and y. Defaults to (almost) half the
+    * (padded) image size, which is the largest shift that can be measured.
+    * @param maxShift largest shift (in pixels) that will be reported
+    */
+   public void setMaxShift(int maxShift) {
+      maxShift_ = Math.max(1, Math.min(maxShift, Math.min(nx_, ny_) / 2 - 1));
+   }
+
+   /**
+    * Sets the image that subsequent images will be compared with.
+    * @param reference image with the size given in the constructor
+    */
+   public void setReference(ImageProcessor reference) {
+      load(reference);
+      forward();
+      refRe_ = re_.clone();
+      refIm_ = im_.clone();
+      haveCorrelation_ = false;
+   }
+
+   /**
+    * Measures how far the content of the given image moved relative to the
+    * reference, i.e. image(x, y) ~ reference(x - shift.x, y - shift.y).
+    * @param image image with the size given in the constructor
+    * @return shift in pixels
+    */
+   public Point2D.Double measureShift(ImageProcessor image) {
+      if (refRe_ == null) {
+         throw new IllegalStateException("No reference image set");
+      }
+      load(image);
+      forward();
+      // Normalized cross-power spectrum; the inverse transform of
+      // F(image) * conj(F(reference)) peaks at the shift.
+      final int n = re_.length;
+      for (int i = 0; i < n; i++) {
+         final double r = re_[i] * refRe_[i] + im_[i] * refIm_[i];
+         final double m = im_[i] * refRe_[i] - re_[i] * refIm_[i];
+         final double mag = Math.sqrt(r * r + m * m);
+         if (mag > 0.0) {
+            re_[i] = r / mag;
+            im_[i] = m / mag;
+         }
+         else {
+            re_[i] = 0.0;
+            im_[i] = 0.0;
+         }
+      }
+      inverse();
+      haveCorrelation_ = true;
+      return findPeak();
+   }
+
+   /**
+    * Returns the correlation landscape of the last call to measureShift(),
+    * with zero shift in the center of the image. Meant for debugging.
+    * @return correlation landscape, or null when no shift was measured yet
+    */
+   public FloatProcessor getCorrelationImage() {
+      if (!haveCorrelation_) {
+         return null;
+      }
+      float[] pixels = new float[nx_ * ny_];
+      for (int y = 0; y < ny_; y++) {
+         final int sy = (y + ny_ / 2) % ny_;
+         for (int x = 0; x < nx_; x++) {
+            pixels[sy * nx_ + (x + nx_ / 2) % nx_] = (float) real_[y * nx_ + x];
+         }
+      }
+      return new FloatProcessor(nx_, ny_, pixels);
+   }
+
+   private void load(ImageProcessor image) {
+      if (image.getWidth() != width_ || image.getHeight() != height_) {
+         throw new IllegalArgumentException("Expected a " + width_ + "x" +
+               height_ + " image, got " + image.getWidth() + "x" +
+               image.getHeight());
+      }
+      double sum = 0.0;
+      for (int i = 0; i < width_ * height_; i++) {
+         sum += image.getf(i);
+      }
+      final double mean = sum / (width_ * height_);
+      Arrays.fill(real_, 0.0);
+      for (int y = 0; y < height_; y++) {
+         final double wy = windowY_ == null ? 1.0 : windowY_[y];
+         for (int x = 0; x < width_; x++) {
+            final double wx = windowX_ == null ? 1.0 : windowX_[x];
+            real_[y * nx_ + x] = (image.getf(y * width_ + x) - mean) * wx * wy;
+         }
+      }
+   }
+
+   /**
+    * Transforms real_ into the half spectrum in re_ and im_.
+    */
+   private void forward() {
+      rowPairs().forEach((int p) -> {
+         // Row 2p goes in the real part, row 2p + 1 in the imaginary part.
+         // The spectra of the two rows are then separated using their
+         // Hermitian symmetry.
+         final double[] zr = new double[nx_];
+         final double[] zi = new double[nx_];
+         System.arraycopy(real_, 2 * p * nx_, zr, 0, nx_);
+         System.arraycopy(real_, (2 * p + 1) * nx_, zi, 0, nx_);
+         planX_.transform(zr, zi, false);
+         final int a = 2 * p * hx_;
+         final int b = a + hx_;
+         for (int k = 0; k < hx_; k++) {
+            final int j = (nx_ - k) & (nx_ - 1);
+            re_[a + k] = 0.5 * (zr[k] + zr[j]);
+            im_[a + k] = 0.5 * (zi[k] - zi[j]);
+            re_[b + k] = 0.5 * (zi[k] + zi[j]);
+            im_[b + k] = -0.5 * (zr[k] - zr[j]);
+         }
+      });
+      transformColumns(false);
+   }
+
+   /**
+    * Transforms the half spectrum in re_ and im_ back into real_.
+    */
+   private void inverse() {
+      transformColumns(true);
+      rowPairs().forEach((int p) -> {
+         // Inverse of forward(): combine the (Hermitian extended) spectra of
+         // two rows into one, so that the rows come out as the real and
+         // imaginary parts.
+         final double[] zr = new double[nx_];
+         final double[] zi = new double[nx_];
+         final int a = 2 * p * hx_;
+         final int b = a + hx_;
+         for (int k = 0; k < nx_; k++) {
+            final double ar;
+            final double ai;
+            final double br;
+            final double bi;
+            if (k < hx_) {
+               ar = re_[a + k];
+               ai = im_[a + k];
+               br = re_[b + k];
+               bi = im_[b + k];
+            }
+            else {
+               ar = re_[a + nx_ - k];
+               ai = -im_[a + nx_ - k];
+               br = re_[b + nx_ - k];
+               bi = -im_[b + nx_ - k];
+            }
+            zr[k] = ar - bi;
+            zi[k] = ai + br;
+         }
+         planX_.transform(zr, zi, true);
+         System.arraycopy(zr, 0, real_, 2 * p * nx_, nx_);
+         System.arraycopy(zi, 0, real_, (2 * p + 1) * nx_, nx_);
+      });
+   }
+
+   private IntStream rowPairs() {
+      IntStream pairs = IntStream.range(0, ny_ / 2);
+      return parallel_ ? pairs.parallel() : pairs;
+   }
+
+   private void transformColumns(final boolean inverse) {
+      IntStream blocks = IntStream.range(0,
+            (hx_ + COLUMN_BLOCK - 1) / COLUMN_BLOCK);
+      if (parallel_) {
+         blocks = blocks.parallel();
+      }
+      blocks.forEach((int b) -> {
+         // Copy columns into contiguous buffers, which is much faster than
+         // transforming them in place with a large stride
+         final double[] colRe = new double[ny_];
+         final double[] colIm = new double[ny_];
+         final int end = Math.min(hx_, (b + 1) * COLUMN_BLOCK);
+         for (int x = b * COLUMN_BLOCK; x < end; x++) {
+            for (int y = 0; y < ny_; y++) {
+               colRe[y] = re_[y * hx_ + x];
+               colIm[y] = im_[y * hx_ + x];
+            }
+            planY_.transform(colRe, colIm, inverse);
+            for (int y = 0; y < ny_; y++) {
+               re_[y * hx_ + x] = colRe[y];
+               im_[y * hx_ + x] = colIm[y];
+            }
+         }
+      });
+   }
+
+   private Point2D.Double findPeak() {
+      double max = Double.NEGATIVE_INFINITY;
+      int peakX = 0;
+      int peakY = 0;
+      for (int dy = -maxShift_; dy <= maxShift_; dy++) {
+         final int row = ((dy + ny_) % ny_) * nx_;
+         for (int dx = -maxShift_; dx <= maxShift_; dx++) {
+            final double v = real_[row + (dx + nx_) % nx_];
+            if (v > max) {
+               max = v;
+               peakX = dx;
+               peakY = dy;
+            }
+         }
+      }
+      final double xOffset = subPixelOffset(
+            correlationAt(peakX - 1, peakY), max,
+            correlationAt(peakX + 1, peakY));
+      final double yOffset = subPixelOffset(
+            correlationAt(peakX, peakY - 1), max,
+            correlationAt(peakX, peakY + 1));
+      return new Point2D.Double(peakX + xOffset, peakY + yOffset);
+   }
+
+   private double correlationAt(int dx, int dy) {
+      return real_[((dy + ny_) % ny_) * nx_ + (dx + nx_) % nx_];
+   }
+
+   /**
+    * Sub-pixel position of the peak, given the correlation at the peak and
+    * its two neighbors. For a sinc-shaped peak, the ratio of the larger
+    * neighbor to the peak determines the offset (Foroosh et al.).
+    */
+   private static double subPixelOffset(double left, double center,
+         double right) {
+      final double offset;
+      if (right > left) {
+         offset = right > 0.0 ? right / (right + center) : 0.0;
+      }
+      else {
+         offset = left > 0.0 ? -left / (left + center) : 0.0;
+      }
+      return Math.max(-0.5, Math.min(0.5, offset));
+   }
+
+   private static float[] hann(int size) {
+      float[] window = new float[size];
+      for (int i = 0; i < size; i++) {
+         window[i] = (float) (0.5 * (1 - Math.cos(2 * Math.PI * i / size)));
+      }
+      return window;
+   }
+
+   private static int nextPowerOf2(int n) {
+      return Integer.highestOneBit(n - 1) << 1;
+   }
+
+   /**
+    * Iterative radix-2 complex FFT of one fixed (power of two) length.
+    * Immutable, so it can be shared between threads.
+    */
+   private static final class FFTPlan {
+      private final int n_;
+      private final int[] bitReversed_;
+      private final double[] cos_;
+      private final double[] sin_;
+
+      FFTPlan(int n) {
+         n_ = n;
+         final int bits = Integer.numberOfTrailingZeros(n);
+         bitReversed_ = new int[n];
+         for (int i = 0; i < n; i++) {
+            bitReversed_[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+         }
+         cos_ = new double[n / 2];
+         sin_ = new double[n / 2];
+         for (int i = 0; i < n / 2; i++) {
+            cos_[i] = Math.cos(2 * Math.PI * i / n);
+            sin_[i] = Math.sin(2 * Math.PI * i / n);
+         }
+      }
+
+      /**
+       * Transforms re and im (of length n) in place. The inverse transform
+       * is scaled by 1/n.
+       */
+      void transform(double[] re, double[] im, boolean inverse) {
+         for (int i = 0; i < n_; i++) {
+            final int j = bitReversed_[i];
+            if (j > i) {
+               double t = re[i];
+               re[i] = re[j];
+               re[j] = t;
+               t = im[i];
+               im[i] = im[j];
+               im[j] = t;
+            }
+         }
+         final double sign = inverse ? 1.0 : -1.0;
+         for (int size = 2; size <= n_; size <<= 1) {
+            final int half = size >> 1;
+            final int tableStep = n_ / size;
+            for (int start = 0; start < n_; start += size) {
+               for (int k = 0; k < half; k++) {
+                  final double wr = cos_[k * tableStep];
+                  final double wi = sign * sin_[k * tableStep];
+                  final int a = start + k;
+                  final int b = a + half;
+                  final double tr = re[b] * wr - im[b] * wi;
+                  final double ti = re[b] * wi + im[b] * wr;
+                  re[b] = re[a] - tr;
+                  im[b] = im[a] - ti;
+                  re[a] += tr;
+                  im[a] += ti;
+               }
+            }
+         }
+         if (inverse) {
+            final double scale = 1.0 / n_;
+            for (int i = 0; i < n_; i++) {
+               re[i] *= scale;
+               im[i] *= scale;
+            }
+         }
+      }
+   }
+}
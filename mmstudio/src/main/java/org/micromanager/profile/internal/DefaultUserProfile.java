@@ -26,14 +26,9 @@ import org.micromanager.internal.utils.EventBusExceptionLogger;
 public class DefaultUserProfile implements UserProfile, EventPublisher {
 
    /*
-    * TODO [Performance]
-    *
-    * It should be determined whether it is worth optimizing by using a mutable
-    * internal map. However, note that although we currently "copy" the entire
-    * map, each of the per-owner property maps are not copied unless modified.
-    * Let's see how many owners we end up seeing. If we do need to optimize,
-    * the mutable property map should also be thread safe, perhaps by using
-    * ConcurrentHashMap.
+    * Performance note: edits replace ownersAndProperties_ with a modified
+    * copy, but DefaultPropertyMap shares structure between a map and its
+    * copies, so an edit costs O(log n) in the number of owners and keys.
     */
 
    // TODO currently we store admin and uuid for the sole purpose of getting
@@ -46,6 +41,10 @@ public class DefaultUserProfile implements UserProfile, EventPublisher {
 
    private ProfileSaver saver_;
 
+   // True after posting UserProfileChangedEvent until the change is
+   // acknowledged; edits in between do not post again.
+   private boolean changeEventPending_ = false;
+
    private final EventBus bus_ =
          new EventBus(EventBusExceptionLogger.getInstance());
 
@@ -92,6 +91,13 @@ public class DefaultUserProfile implements UserProfile, EventPublisher {
       fallbackProfile_ = (DefaultUserProfile) fallback;
    }
 
+   /**
+    * Register for UserProfileChangedEvent.
+    *
+    * Note that the event is not posted for every edit: after it is posted,
+    * further edits are silent until the changes are acknowledged by the
+    * autosaver. Subscribers that need to see each edit cannot rely on it.
+    */
    @Override
    public void registerForEvents(Object recipient) {
       bus_.register(recipient);
@@ -120,16 +126,43 @@ public class DefaultUserProfile implements UserProfile, EventPublisher {
 
    // ALL modifications are via this method.
    // Note we do NOT include the fallback items!
-   synchronized void editProperty(Class<?> owner, Editor editor) {
+   void editProperty(Class<?> owner, Editor editor) {
       String ownerKey = owner.getCanonicalName();
-      ownersAndProperties_ = ownersAndProperties_.copyBuilder().
-            putPropertyMap(ownerKey,
-                  editor.edit(ownersAndProperties_.getPropertyMap(ownerKey,
-                        emptyPropertyMap()))).
-            build();
+      synchronized (this) {
+         ownersAndProperties_ = ownersAndProperties_.copyBuilder().
+               putPropertyMap(ownerKey,
+                     editor.edit(ownersAndProperties_.getPropertyMap(ownerKey,
+                           emptyPropertyMap()))).
+               build();
+         if (changeEventPending_) {
+            return;
+         }
+         changeEventPending_ = true;
+      }
       bus_.post(UserProfileChangedEvent.create());
    }
 
+   /**
+    * Re-arm change notification.
+    *
+    * Called by the saver before it reads the profile; the next edit will post
+    * a new UserProfileChangedEvent.
+    */
+   synchronized void acknowledgeChanges() {
+      changeEventPending_ = false;
+   }
+
+   /**
+    * Whether an edit has been made since changes were last acknowledged.
+    *
+    * Edits made before anybody subscribed (e.g. while the profile is being
+    * set up) post an event that nobody receives, so a saver attaching to the
+    * profile must check this rather than wait for the next event.
+    */
+   synchronized boolean hasUnacknowledgedChanges() {
+      return changeEventPending_;
+   }
+
    // This does not include the fallback preferences. Anybody who needs the
    // combination will have to merge the property maps for each owner.
    public synchronized PropertyMap toPropertyMap() {
@@ -27,17 +27,26 @@ final class ProfileSaver {
 
    private long saveIntervalSeconds_ = 30;
 
+   private final DefaultUserProfile profile_;
    private final Runnable save_;
 
    public static ProfileSaver create(DefaultUserProfile profile,
          Runnable save, ScheduledExecutorService saverExecutor)
    {
-      ProfileSaver instance = new ProfileSaver(save, saverExecutor);
+      ProfileSaver instance = new ProfileSaver(profile, save, saverExecutor);
       profile.registerForEvents(instance);
+      // Edits made before we registered (such as adding missing keys when
+      // the profile is loaded) will not post another event until they are
+      // acknowledged, so schedule their save now
+      if (profile.hasUnacknowledgedChanges()) {
+         instance.scheduleSave();
+      }
       return instance;
    }
 
-   private ProfileSaver(Runnable save, ScheduledExecutorService saverExecutor) {
+   private ProfileSaver(DefaultUserProfile profile, Runnable save,
+         ScheduledExecutorService saverExecutor) {
+      profile_ = profile;
       save_ = save;
       saver_ = saverExecutor;
    }
@@ -56,6 +65,13 @@ final class ProfileSaver {
          // Save not scheduled, i.e. profile hasn't been modified.
          return;
       }
+      save();
+   }
+
+   private void save() {
+      // Acknowledge before reading, so that edits made during the save
+      // schedule another one
+      profile_.acknowledgeChanges();
       save_.run();
    }
 
@@ -64,13 +80,22 @@ final class ProfileSaver {
       scheduleSave();
    }
 
+   // The profile posts one event per batch of edits, so the save is
+   // scheduled relative to the first edit of the batch (rather than
+   // postponed on every edit). A save that has already started may have
+   // read the profile before this edit, so it does not count.
    private synchronized void scheduleSave() {
-      if (scheduledSave_ != null) {
-         scheduledSave_.cancel(false);
+      if (scheduledSave_ != null && !scheduledSave_.isDone() &&
+            scheduledSave_.getDelay(TimeUnit.NANOSECONDS) > 0) {
+         return;
       }
       try {
-         scheduledSave_ = saver_.schedule(save_,
-               saveIntervalSeconds_, TimeUnit.SECONDS);
+         scheduledSave_ = saver_.schedule(new Runnable() {
+            @Override
+            public void run() {
+               save();
+            }
+         }, saveIntervalSeconds_, TimeUnit.SECONDS);
       }
       catch (RejectedExecutionException e) {
          // Saving has been shut down; nothing to do
@@ -6,6 +6,13 @@
 package org.micromanager.profile.internal;
 
 /**
+ * Posted when a profile is modified.
+ *
+ * Changes are batched: after the event is posted, further modifications do
+ * not post again until the profile's changes have been acknowledged (which
+ * the autosaver does when it saves). Subscribers other than the autosaver
+ * therefore see at most one event per save interval, not one per edit, and
+ * see none at all for a profile without an autosaver after the first edit.
  *
  * @author mark
  */
@@ -0,0 +1,29 @@
+package org.micromanager.data.internal;
+
+import com.google.gson.JsonObject;
+import java.awt.Rectangle;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Metadata;
+
+public class DefaultMetadataTest {
+   @Test
+   public void flatCoreTagsAreConverted() {
+      JsonObject tags = new JsonObject();
+      tags.addProperty("Camera", "Cam");
+      tags.addProperty("ImageNumber", "42");
+      tags.addProperty("ElapsedTime-ms", "12.5");
+      tags.addProperty("Exposure-ms", "10.0");
+      tags.addProperty("ROI", "1-2-300-400");
+      tags.addProperty("Cam-Gain", "3");
+
+      Metadata metadata = DefaultMetadata.fromFlatTags(tags);
+      assertEquals("Cam", metadata.getCamera());
+      assertEquals(Long.valueOf(42), metadata.getImageNumber());
+      assertEquals(12.5, metadata.getElapsedTimeMs(0.0), 0.0);
+      assertEquals(10.0, metadata.getExposureMs(), 0.0);
+      assertEquals(new Rectangle(1, 2, 300, 400), metadata.getROI());
+      // Camera-specific tags are kept as user data
+      assertEquals("3", metadata.getUserData().getString("Cam-Gain", null));
+   }
+}
@@ -0,0 +1,66 @@
+package org.micromanager.display.internal.displaywindow;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.DataProviderHasNewNameEvent;
+import org.micromanager.data.internal.DefaultDatastore;
+
+public class DisplayControllerTest {
+   public static class Recorder {
+      final List<String> names_ =
+            Collections.synchronizedList(new ArrayList<String>());
+      final CountDownLatch entered_ = new CountDownLatch(1);
+      final CountDownLatch release_ = new CountDownLatch(1);
+      final CountDownLatch done_;
+
+      Recorder(int expectedEvents) {
+         done_ = new CountDownLatch(expectedEvents);
+      }
+
+      @Subscribe
+      public void onNewName(DataProviderHasNewNameEvent e)
+            throws InterruptedException {
+         entered_.countDown();
+         release_.await();
+         names_.add(e.getNewName());
+         done_.countDown();
+      }
+   }
+
+   // Post names while the display is busy with the first one
+   private static List<String> deliver(boolean latestFrameOnly,
+         int expectedEvents) throws Exception {
+      DefaultDatastore store = new DefaultDatastore(null);
+      Recorder display = new Recorder(expectedEvents);
+      DisplayController.registerForDataEvents(store, display,
+            latestFrameOnly, null);
+      store.setName("a");
+      assertTrue(display.entered_.await(5, TimeUnit.SECONDS));
+      for (String name : new String[] {"b", "c", "d", "e"}) {
+         store.setName(name);
+      }
+      display.release_.countDown();
+      assertTrue(display.done_.await(5, TimeUnit.SECONDS));
+      Thread.sleep(50); // Let any unexpected extra events arrive
+      store.unregisterForEvents(display);
+      return new ArrayList<>(display.names_);
+   }
+
+   @Test
+   public void latestFrameOnlyDisplayIsRegisteredLatestOnly()
+         throws Exception {
+      assertEquals(Arrays.asList("a", "e"), deliver(true, 2));
+   }
+
+   @Test
+   public void otherDisplayIsRegisteredQueued() throws Exception {
+      assertEquals(Arrays.asList("a", "b", "c", "d", "e"), deliver(false, 5));
+   }
+}
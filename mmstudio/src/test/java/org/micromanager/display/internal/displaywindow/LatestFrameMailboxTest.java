@@ -0,0 +1,139 @@
+package org.micromanager.display.internal.displaywindow;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class LatestFrameMailboxTest {
+   private static Image image(int t, int c) {
+      Coords coords = Coordinates.builder().t(t).c(c).build();
+      return new DefaultImage(new byte[4], 2, 2, 1, 1, coords,
+            new DefaultMetadata.Builder().build());
+   }
+
+   @Test
+   public void takeReturnsLatestAndCountsDropped() {
+      LatestFrameMailbox mailbox = LatestFrameMailbox.create();
+      assertTrue(mailbox.isEmpty());
+      assertNull(mailbox.take());
+      assertEquals(0, mailbox.getLastSequenceNumber());
+
+      Image first = image(0, 0);
+      Image second = image(1, 0);
+      Image third = image(2, 0);
+      assertFalse(mailbox.post(first));
+      assertFalse(mailbox.isEmpty());
+      assertTrue(mailbox.post(second)); // first is dropped
+      LatestFrameMailbox.Entry entry = mailbox.take();
+      assertSame(second, entry.getImage());
+      assertEquals(2, entry.getSequenceNumber());
+      assertTrue(mailbox.isEmpty());
+      assertNull(mailbox.take());
+
+      assertFalse(mailbox.post(third));
+      assertEquals(3, mailbox.take().getSequenceNumber());
+      assertEquals(3, mailbox.getLastSequenceNumber());
+      assertEquals(3, mailbox.getPostedCount());
+      assertEquals(1, mailbox.getDroppedCount());
+   }
+
+   @Test
+   public void clearIsNotCountedAsDropped() {
+      LatestFrameMailbox mailbox = LatestFrameMailbox.create();
+      mailbox.post(image(0, 0));
+      mailbox.clear();
+      assertTrue(mailbox.isEmpty());
+      assertFalse(mailbox.post(image(1, 0)));
+      assertEquals(2, mailbox.getPostedCount());
+      assertEquals(0, mailbox.getDroppedCount());
+   }
+
+   @Test
+   public void resetCountsKeepsSequenceNumbers() {
+      LatestFrameMailbox mailbox = LatestFrameMailbox.create();
+      mailbox.post(image(0, 0));
+      mailbox.post(image(1, 0));
+      mailbox.resetCounts();
+      assertEquals(0, mailbox.getPostedCount());
+      assertEquals(0, mailbox.getDroppedCount());
+      // the untaken image is still there, and still numbered
+      assertEquals(2, mailbox.getLastSequenceNumber());
+      assertTrue(mailbox.post(image(2, 0)));
+      assertEquals(3, mailbox.take().getSequenceNumber());
+      assertEquals(1, mailbox.getPostedCount());
+      assertEquals(1, mailbox.getDroppedCount());
+   }
+
+   @Test
+   public void everyPostIsTakenOrDropped() throws InterruptedException {
+      final LatestFrameMailbox mailbox = LatestFrameMailbox.create();
+      final int nrProducers = 4;
+      final int nrPosts = 20000;
+      final Image image = image(0, 0);
+      final CountDownLatch producersDone = new CountDownLatch(nrProducers);
+      final AtomicLong taken = new AtomicLong();
+      final AtomicBoolean increasing = new AtomicBoolean(true);
+      Thread consumer = new Thread(() -> {
+         long last = 0;
+         while (producersDone.getCount() > 0 || !mailbox.isEmpty()) {
+            LatestFrameMailbox.Entry entry = mailbox.take();
+            if (entry != null) {
+               if (entry.getSequenceNumber() <= last) {
+                  increasing.set(false);
+               }
+               last = entry.getSequenceNumber();
+               taken.incrementAndGet();
+            }
+         }
+      });
+      consumer.start();
+      for (int p = 0; p < nrProducers; p++) {
+         new Thread(() -> {
+            for (int i = 0; i < nrPosts; i++) {
+               mailbox.post(image);
+            }
+            producersDone.countDown();
+         }).start();
+      }
+      consumer.join(30000);
+      assertFalse(consumer.isAlive());
+
+      assertEquals(nrProducers * nrPosts, mailbox.getPostedCount());
+      assertEquals(nrProducers * nrPosts, mailbox.getLastSequenceNumber());
+      assertEquals(mailbox.getPostedCount(),
+            taken.get() + mailbox.getDroppedCount());
+      assertTrue("sequence numbers taken must increase", increasing.get());
+   }
+
+   @Test
+   public void shownMatchesCoordsOfImagesFetchedAfterPosting() {
+      LatestFrameMailbox mailbox = LatestFrameMailbox.create();
+      mailbox.post(image(0, 0));
+      mailbox.take();
+      // fetched before the frame was posted
+      long before = mailbox.getLastSequenceNumber();
+      mailbox.post(image(1, 0));
+      LatestFrameMailbox.Entry entry = mailbox.take();
+      long after = mailbox.getLastSequenceNumber();
+
+      // a different Image object at the same coords, e.g. from the live
+      // mode datastore
+      List<Image> fetched = Arrays.asList(image(1, 1), image(1, 0));
+      assertTrue(entry.isShownBy(after, fetched));
+      assertTrue(entry.isShownBy(after + 5, fetched));
+      assertFalse(entry.isShownBy(before, fetched));
+      assertFalse(entry.isShownBy(after,
+            Arrays.asList(image(0, 0), image(1, 1))));
+      assertFalse(entry.isShownBy(after, Collections.<Image>emptyList()));
+   }
+}
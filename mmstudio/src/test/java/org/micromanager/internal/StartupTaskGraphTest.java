@@ -0,0 +1,105 @@
+package org.micromanager.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StartupTaskGraphTest {
+   private StartupTaskGraph graph_;
+   private List<String> order_;
+
+   @Before
+   public void setUp() {
+      graph_ = new StartupTaskGraph();
+      order_ = Collections.synchronizedList(new ArrayList<String>());
+   }
+
+   @After
+   public void tearDown() {
+      graph_.shutdown();
+   }
+
+   private Runnable record(final String name, final long sleepMs) {
+      return () -> {
+         try {
+            Thread.sleep(sleepMs);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         order_.add(name);
+      };
+   }
+
+   private String criticalPath() {
+      String report = graph_.getReport();
+      return report.substring(report.indexOf("Critical path: "));
+   }
+
+   @Test
+   public void backgroundStepsWaitForDependencies() throws Exception {
+      graph_.startInBackground("a", record("a", 100));
+      graph_.startInBackground("b", record("b", 0), "a");
+      graph_.startInBackground("c", record("c", 0), "b");
+      graph_.await("c");
+      assertEquals(Arrays.asList("a", "b", "c"), order_);
+   }
+
+   @Test
+   public void foregroundStepWaitsForBackgroundDependency() throws Exception {
+      graph_.startInBackground("background", record("background", 100));
+      graph_.run("foreground", record("foreground", 0), "background");
+      assertEquals(Arrays.asList("background", "foreground"), order_);
+   }
+
+   @Test
+   public void foregroundStepsAreSequential() throws Exception {
+      graph_.run("first", record("first", 50));
+      graph_.run("second", record("second", 0));
+      assertEquals(Arrays.asList("first", "second"), order_);
+      // The second step depends on the first, although not declared
+      String path = criticalPath();
+      assertTrue(path, path.matches("Critical path: first \\(\\d+\\) -> second \\(\\d+\\)"));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void duplicateStepIsRejected() {
+      graph_.run("step", record("step", 0));
+      graph_.run("step", record("step", 0));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void unknownDependencyIsRejected() {
+      graph_.startInBackground("step", record("step", 0), "missing");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void awaitingUnknownStepIsRejected() throws Exception {
+      graph_.await("missing");
+   }
+
+   @Test
+   public void criticalPathFollowsLastFinishedDependency() throws Exception {
+      graph_.startInBackground("slow", record("slow", 200));
+      graph_.startInBackground("fast", record("fast", 0));
+      graph_.startInBackground("after fast", record("after fast", 0), "fast");
+      graph_.run("end", record("end", 0), "slow", "after fast");
+
+      String report = graph_.getReport();
+      for (String name : new String[] {"slow", "fast", "after fast", "end"}) {
+         assertTrue(report, report.contains("\n   " + name + " "));
+      }
+      String path = criticalPath();
+      assertTrue(path, path.matches("Critical path: slow \\(\\d+\\) -> end \\(\\d+\\)"));
+   }
+
+   @Test
+   public void reportWithoutStepsHasNoCriticalPath() {
+      assertEquals("Critical path: none", criticalPath());
+   }
+}
@@ -0,0 +1,158 @@
+package org.micromanager.internal.pluginmanagement;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PluginJarIndexTest {
+   @Rule
+   public TemporaryFolder folder_ = new TemporaryFolder();
+
+   private static final List<String> CLASSES =
+         Arrays.asList("org.example.APlugin", "org.example.BPlugin");
+
+   /**
+    * Write a JAR with the given number of (empty) entries.
+    */
+   private static void writeJar(File jar, int nrEntries) throws IOException {
+      try (JarOutputStream out = new JarOutputStream(
+            new FileOutputStream(jar), new Manifest())) {
+         for (int i = 0; i < nrEntries; i++) {
+            out.putNextEntry(new ZipEntry("entry" + i + ".txt"));
+            out.closeEntry();
+         }
+      }
+   }
+
+   private File newJar(String dir, String name) throws IOException {
+      File parent = new File(folder_.getRoot(), dir);
+      parent.mkdirs();
+      File jar = new File(parent, name);
+      writeJar(jar, 1);
+      return jar;
+   }
+
+   private File indexFile() {
+      return new File(folder_.getRoot(), "data/PluginIndex.json");
+   }
+
+   @Test
+   public void unchangedJarIsNotSearchedAgain() throws IOException {
+      File jar = newJar("plugins", "a.jar");
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      assertNull(index.getPluginClassNames(jar));
+      index.put(jar, CLASSES);
+      index.save();
+
+      assertTrue(indexFile().isFile());
+      assertEquals(CLASSES,
+            PluginJarIndex.load(indexFile()).getPluginClassNames(jar));
+   }
+
+   @Test
+   public void jarOfOtherSizeIsSearchedAgain() throws IOException {
+      File jar = newJar("plugins", "a.jar");
+      long lastModified = jar.lastModified();
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      index.put(jar, CLASSES);
+      index.save();
+
+      writeJar(jar, 3);
+      jar.setLastModified(lastModified);
+      assertNull(PluginJarIndex.load(indexFile()).getPluginClassNames(jar));
+   }
+
+   @Test
+   public void modifiedJarIsSearchedAgain() throws IOException {
+      File jar = newJar("plugins", "a.jar");
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      index.put(jar, CLASSES);
+      index.save();
+
+      assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+      assertNull(PluginJarIndex.load(indexFile()).getPluginClassNames(jar));
+   }
+
+   @Test
+   public void changedJarIsIndexedAgainByFinder() throws IOException {
+      File jar = newJar("plugins", "a.jar");
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      index.put(jar, CLASSES);
+      index.save();
+      writeJar(jar, 3);
+
+      index = PluginJarIndex.load(indexFile());
+      // searched, and without plugins
+      assertTrue(PluginFinder.findPlugins(jar.getParent(), index, null).isEmpty());
+      index.save();
+      assertEquals(Collections.emptyList(),
+            PluginJarIndex.load(indexFile()).getPluginClassNames(jar));
+   }
+
+   @Test
+   public void entryIsRemovedWhenClassFailsToLoad() throws IOException {
+      File jar = newJar("plugins", "a.jar");
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      // String is found through the parent class loader
+      index.put(jar, Arrays.asList("java.lang.String",
+            "org.example.NoSuchPlugin"));
+      index.save();
+
+      index = PluginJarIndex.load(indexFile());
+      List<Class> found = PluginFinder.findPlugins(jar.getParent(), index, null);
+      assertEquals(Collections.<Class>singletonList(String.class), found);
+      index.save();
+      assertNull(PluginJarIndex.load(indexFile()).getPluginClassNames(jar));
+   }
+
+   @Test
+   public void removedJarsArePrunedOnSave() throws IOException {
+      File kept = newJar("plugins", "kept.jar");
+      File removed = newJar("plugins", "removed.jar");
+      File added = newJar("plugins", "added.jar");
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      index.put(kept, CLASSES);
+      index.put(removed, CLASSES);
+      index.save();
+
+      // next run: only kept.jar is looked up, added.jar is new
+      long lastModified = removed.lastModified();
+      assertTrue(removed.delete());
+      index = PluginJarIndex.load(indexFile());
+      assertEquals(CLASSES, index.getPluginClassNames(kept));
+      index.put(added, CLASSES.subList(0, 1));
+      index.save();
+
+      // recreate the removed jar with identical size and time
+      writeJar(removed, 1);
+      assertTrue(removed.setLastModified(lastModified));
+      index = PluginJarIndex.load(indexFile());
+      assertNull(index.getPluginClassNames(removed));
+      assertEquals(CLASSES.subList(0, 1), index.getPluginClassNames(added));
+   }
+
+   @Test
+   public void unreadableIndexIsIgnored() throws IOException {
+      indexFile().getParentFile().mkdirs();
+      try (FileOutputStream out = new FileOutputStream(indexFile())) {
+         out.write("not JSON".getBytes("UTF-8"));
+      }
+      File jar = newJar("plugins", "a.jar");
+      PluginJarIndex index = PluginJarIndex.load(indexFile());
+      assertNull(index.getPluginClassNames(jar));
+      index.put(jar, CLASSES);
+      index.save();
+      assertEquals(CLASSES,
+            PluginJarIndex.load(indexFile()).getPluginClassNames(jar));
+   }
+}
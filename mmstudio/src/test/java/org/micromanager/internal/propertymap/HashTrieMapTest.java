@@ -0,0 +1,175 @@
+package org.micromanager.internal.propertymap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+
+public class HashTrieMapTest {
+   // "Aa" and "BB" have the same hashCode(), and so do any two strings
+   // with these prefixes and a common suffix.
+   private static String key(Random random, int n) {
+      return (random.nextBoolean() ? "Aa" : "BB") + random.nextInt(n);
+   }
+
+   @Test
+   public void testMatchesLinkedHashMap() {
+      Random random = new Random(17);
+      for (int keyCount : new int[] { 3, 50, 5000 }) {
+         Map<String, Integer> expected = new LinkedHashMap<String, Integer>();
+         HashTrieMap.Transient<String, Integer> actual =
+               HashTrieMap.<String, Integer>empty().asTransient();
+         List<Map<String, Integer>> expectedSnapshots =
+               new ArrayList<Map<String, Integer>>();
+         List<HashTrieMap<String, Integer>> snapshots =
+               new ArrayList<HashTrieMap<String, Integer>>();
+         for (int i = 0; i < 20000; ++i) {
+            String key = key(random, keyCount);
+            int op = random.nextInt(10);
+            if (op < 6) {
+               Integer value = random.nextInt(3);
+               expected.put(key, value);
+               actual.put(key, value);
+            }
+            else if (op < 9) {
+               expected.remove(key);
+               actual.remove(key);
+            }
+            else {
+               expectedSnapshots.add(
+                     new LinkedHashMap<String, Integer>(expected));
+               snapshots.add(actual.snapshot());
+            }
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.get(key), actual.get(key));
+         }
+         expectedSnapshots.add(expected);
+         snapshots.add(actual.snapshot());
+
+         // Earlier snapshots must be unaffected by later edits
+         for (int i = 0; i < snapshots.size(); ++i) {
+            Map<String, Integer> e = expectedSnapshots.get(i);
+            HashTrieMap<String, Integer> s = snapshots.get(i);
+            assertEquals(e, s);
+            assertEquals(e.hashCode(), s.hashCode());
+            assertEquals(new ArrayList<String>(e.keySet()),
+                  new ArrayList<String>(s.keySet()));
+         }
+      }
+   }
+
+   @Test
+   public void testInsertionOrder() {
+      HashTrieMap.Transient<String, Integer> t =
+            HashTrieMap.<String, Integer>empty().asTransient();
+      t.put("c", 1);
+      t.put("a", 2);
+      t.put("b", 3);
+      t.put("a", 4);
+      t.remove("c");
+      t.put("c", 5);
+      assertEquals(Arrays.asList("a", "b", "c"),
+            new ArrayList<String>(t.snapshot().keySet()));
+      assertEquals(Integer.valueOf(4), t.snapshot().get("a"));
+   }
+
+   @Test
+   public void testCopyDoesNotModifyOriginal() {
+      HashTrieMap.Transient<String, Integer> t =
+            HashTrieMap.<String, Integer>empty().asTransient();
+      for (int i = 0; i < 1000; ++i) {
+         t.put("key" + i, i);
+      }
+      HashTrieMap<String, Integer> original = t.snapshot();
+
+      HashTrieMap.Transient<String, Integer> copy = original.asTransient();
+      copy.put("key0", -1);
+      copy.put("extra", -2);
+      copy.retainAll(Arrays.asList("key0", "extra", "key999"));
+      assertEquals(3, copy.snapshot().size());
+      assertEquals(Integer.valueOf(-1), copy.get("key0"));
+
+      assertEquals(1000, original.size());
+      assertEquals(Integer.valueOf(0), original.get("key0"));
+      assertFalse(original.containsKey("extra"));
+   }
+
+   @Test
+   public void testPropertyMapEditSharesStructure() {
+      PropertyMap.Builder b = PropertyMaps.builder();
+      for (int i = 0; i < 100; ++i) {
+         b.putInteger("key" + i, i);
+      }
+      PropertyMap original = b.build();
+      PropertyMap edited = original.copyBuilder().putInteger("key5", -5).
+            putString("new", "x").remove("key7").build();
+      assertEquals(5, original.getInteger("key5", 0));
+      assertEquals(7, original.getInteger("key7", 0));
+      assertFalse(original.containsKey("new"));
+      assertEquals(-5, edited.getInteger("key5", 0));
+      assertFalse(edited.containsKey("key7"));
+      assertEquals(100, edited.size());
+      assertEquals("key0", edited.keySet().iterator().next());
+      assertEquals(original, original.copyBuilder().build());
+   }
+
+   /**
+    * Prints the cost of a profile-style edit (replace one owner's map within
+    * a map of owners) against the number of owners, comparing with copying
+    * a LinkedHashMap as DefaultPropertyMap used to. Run manually.
+    */
+   @Ignore("Benchmark")
+   @Test
+   public void benchmarkEditThroughput() {
+      final int keysPerOwner = 20;
+      final int edits = 200000;
+      for (int owners : new int[] { 10, 100, 1000, 10000 }) {
+         PropertyMap.Builder pb = PropertyMaps.builder();
+         Map<String, Object> linked = new LinkedHashMap<String, Object>();
+         for (int i = 0; i < owners; ++i) {
+            PropertyMap.Builder ob = PropertyMaps.builder();
+            Map<String, Object> lob = new LinkedHashMap<String, Object>();
+            for (int j = 0; j < keysPerOwner; ++j) {
+               ob.putInteger("key" + j, j);
+               lob.put("key" + j, j);
+            }
+            pb.putPropertyMap("org.example.Owner" + i, ob.build());
+            linked.put("org.example.Owner" + i, lob);
+         }
+         PropertyMap profile = pb.build();
+         Random random = new Random(1);
+
+         long start = System.nanoTime();
+         for (int i = 0; i < edits; ++i) {
+            String owner = "org.example.Owner" + random.nextInt(owners);
+            PropertyMap settings = profile.getPropertyMap(owner, null);
+            profile = profile.copyBuilder().putPropertyMap(owner,
+                  settings.copyBuilder().putInteger("key3", i).build()).
+                  build();
+         }
+         double trieNs = (System.nanoTime() - start) / (double) edits;
+
+         start = System.nanoTime();
+         for (int i = 0; i < edits; ++i) {
+            String owner = "org.example.Owner" + random.nextInt(owners);
+            Map<String, Object> settings = new LinkedHashMap<String, Object>(
+                  (Map<String, Object>) linked.get(owner));
+            settings.put("key3", i);
+            linked = new LinkedHashMap<String, Object>(linked);
+            linked.put(owner, settings);
+         }
+         double copyNs = (System.nanoTime() - start) / (double) edits;
+
+         System.out.println(String.format(
+               "%6d owners: hash trie %9.0f ns/edit  map copy %9.0f ns/edit",
+               owners, trieNs, copyNs));
+      }
+   }
+}
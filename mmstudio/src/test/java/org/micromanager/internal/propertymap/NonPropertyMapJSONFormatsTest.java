@@ -0,0 +1,195 @@
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.io.StringWriter;
+import static org.junit.Assert.*;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class NonPropertyMapJSONFormatsTest {
+   private static PropertyMap makeMetadata() {
+      PropertyMap scopeData = PropertyMaps.builder().
+            putString("Camera-Exposure", "10.0000").
+            putString("Core-Camera", "Camera").
+            putString("Stage-Position", "\u00B5m <&>").
+            build();
+      PropertyMap userData = PropertyMaps.builder().
+            putString("note", "tab\there").
+            putFloat("gain", 1.2f).
+            putDouble("nan", Double.NaN).
+            putIntegerList("ints", 1, -2, 3).
+            putColor("color", new Color(10, 20, 30, 40)).
+            putRectangle("rect", new Rectangle(1, 2, 3, 4)).
+            putPropertyMap("nested", PropertyMaps.builder().
+                  putLong("long", Long.MAX_VALUE).
+                  putBooleanList("flags", true, false).build()).
+            build();
+      return ((DefaultMetadata) new DefaultMetadata.Builder().
+            uuid().
+            camera("Camera").
+            binning(2).
+            roi(new Rectangle(0, -4, 512, 256)).
+            bitDepth(12).
+            exposureMs(10.0).
+            elapsedTimeMs(1234.5).
+            imageNumber(42L).
+            receivedTime("2017-01-01 12:00:00.000 -0800").
+            pixelSizeUm(0.65).
+            pixelSizeAffine(new AffineTransform(0.65, 0.0, 0.0, 0.65, 0.0, 0.0)).
+            positionName("Pos0").
+            xPositionUm(1.5).
+            yPositionUm(-2.5).
+            zPositionUm(Double.NaN).
+            scopeData(scopeData).
+            userData(userData).
+            fileName("img_MMStack.ome.tif").
+            build()).toPropertyMap();
+   }
+
+   private static PropertyMap makeCoords() {
+      return ((DefaultCoords) new DefaultCoords.Builder().
+            time(3).stagePosition(1).z(7).channel(2).build()).toPropertyMap();
+   }
+
+   private static String streamed(NonPropertyMapJSONFormats format,
+         PropertyMap pmap) throws Exception {
+      StringWriter sw = new StringWriter();
+      JsonWriter out = new JsonWriter(sw);
+      out.setLenient(true);
+      out.beginObject();
+      format.addToJsonWriter(out, pmap);
+      out.endObject();
+      out.close();
+      return sw.toString();
+   }
+
+   private static String tree(NonPropertyMapJSONFormats format,
+         PropertyMap pmap) {
+      JsonObject jo = new JsonObject();
+      format.addToGson(jo, pmap);
+      return new GsonBuilder().disableHtmlEscaping().create().toJson(jo);
+   }
+
+   @Test
+   public void testStreamedMetadataMatchesTree() throws Exception {
+      PropertyMap md = makeMetadata();
+      assertEquals(tree(NonPropertyMapJSONFormats.metadata(), md),
+            streamed(NonPropertyMapJSONFormats.metadata(), md));
+   }
+
+   @Test
+   public void testStreamedCoordsMatchesTree() throws Exception {
+      PropertyMap coords = makeCoords();
+      assertEquals(tree(NonPropertyMapJSONFormats.coords(), coords),
+            streamed(NonPropertyMapJSONFormats.coords(), coords));
+   }
+
+   @Test
+   public void testPrettyJSONMatchesTree() throws Exception {
+      PropertyMap md = makeMetadata();
+      Gson pretty = new GsonBuilder().disableHtmlEscaping().
+            setPrettyPrinting().create();
+      assertEquals(pretty.toJson(NonPropertyMapJSONFormats.metadata().toGson(md)),
+            NonPropertyMapJSONFormats.metadata().toJSON(md));
+   }
+
+   @Test
+   public void testStreamedPropertyMapMatchesTree() throws Exception {
+      PropertyMap userData = makeMetadata().getPropertyMap("UserData", null);
+      StringWriter sw = new StringWriter();
+      JsonWriter out = new JsonWriter(sw);
+      out.setLenient(true);
+      PropertyMapJSONSerializer.write(userData, out);
+      out.close();
+      assertEquals(new GsonBuilder().disableHtmlEscaping().
+            serializeSpecialFloatingPointValues().create().
+            toJson(PropertyMapJSONSerializer.toGson(userData)),
+            sw.toString());
+   }
+
+   @Test
+   public void testRoundTrip() throws Exception {
+      PropertyMap md = makeMetadata();
+      PropertyMap coords = makeCoords();
+      StringWriter sw = new StringWriter();
+      JsonWriter out = new JsonWriter(sw);
+      out.setLenient(true);
+      out.beginObject();
+      NonPropertyMapJSONFormats.coords().addToJsonWriter(out, coords);
+      NonPropertyMapJSONFormats.metadata().addToJsonWriter(out, md);
+      out.endObject();
+      out.close();
+
+      JsonElement je = new JsonParser().parse(sw.toString());
+      Coords readCoords = DefaultCoords.fromPropertyMap(
+            NonPropertyMapJSONFormats.coords().fromGson(je));
+      assertEquals(3, readCoords.getTime());
+      assertEquals(1, readCoords.getStagePosition());
+      assertEquals(7, readCoords.getZ());
+      assertEquals(2, readCoords.getChannel());
+      PropertyMap readMd = NonPropertyMapJSONFormats.metadata().fromGson(je);
+      assertEquals(md.getUUID("UUID", null), readMd.getUUID("UUID", null));
+      assertEquals(md.getPropertyMap("ScopeData", null),
+            readMd.getPropertyMap("ScopeData", null));
+      assertEquals(md.getPropertyMap("UserData", null),
+            readMd.getPropertyMap("UserData", null));
+   }
+
+   /**
+    * Prints per-image metadata serialization and readback rates for the
+    * Gson tree path and the streaming path. Run manually.
+    */
+   @Ignore("Benchmark")
+   @Test
+   public void benchmarkRoundTrip() throws Exception {
+      final PropertyMap md = makeMetadata();
+      final PropertyMap coords = makeCoords();
+      final int repeats = 20000;
+      for (int pass = 0; pass < 2; ++pass) { // First pass is warm-up
+         long start = System.nanoTime();
+         for (int i = 0; i < repeats; ++i) {
+            JsonObject jo = new JsonObject();
+            NonPropertyMapJSONFormats.coords().addToGson(jo, coords);
+            NonPropertyMapJSONFormats.metadata().addToGson(jo, md);
+            String json = new GsonBuilder().disableHtmlEscaping().create().
+                  toJson(jo);
+            NonPropertyMapJSONFormats.metadata().fromGson(
+                  new JsonParser().parse(json));
+         }
+         double treePerSec = repeats / ((System.nanoTime() - start) / 1e9);
+
+         start = System.nanoTime();
+         for (int i = 0; i < repeats; ++i) {
+            StringWriter sw = new StringWriter();
+            JsonWriter out = new JsonWriter(sw);
+            out.setLenient(true);
+            out.beginObject();
+            NonPropertyMapJSONFormats.coords().addToJsonWriter(out, coords);
+            NonPropertyMapJSONFormats.metadata().addToJsonWriter(out, md);
+            out.endObject();
+            NonPropertyMapJSONFormats.metadata().fromGson(
+                  new JsonParser().parse(sw.toString()));
+         }
+         double streamPerSec = repeats / ((System.nanoTime() - start) / 1e9);
+
+         if (pass > 0) {
+            System.out.println(String.format(
+                  "Gson tree %8.0f round trips/s  streaming %8.0f round trips/s",
+                  treePerSec, streamPerSec));
+         }
+      }
+   }
+}
@@ -0,0 +1,113 @@
+package org.micromanager.internal.utils;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PrioritizedEventBusTest {
+   public static class Recorder {
+      final String name_;
+      final List<Object> log_;
+      final CountDownLatch entered_ = new CountDownLatch(1);
+      final CountDownLatch release_;
+      final CountDownLatch done_;
+
+      Recorder(String name, List<Object> log, CountDownLatch release,
+            CountDownLatch done) {
+         name_ = name;
+         log_ = log;
+         release_ = release;
+         done_ = done;
+      }
+
+      @Subscribe
+      public void onInteger(Integer i) throws InterruptedException {
+         entered_.countDown();
+         if (release_ != null) {
+            release_.await();
+         }
+         log_.add(name_ + i);
+         if (done_ != null) {
+            done_.countDown();
+         }
+      }
+
+      @Subscribe
+      public void onString(String s) {
+         log_.add(name_ + s);
+         if (done_ != null) {
+            done_.countDown();
+         }
+      }
+   }
+
+   @Test
+   public void testSynchronousPriorityOrder() {
+      List<Object> log = new ArrayList<Object>();
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Recorder("c", log, null, null), 200);
+      bus.register(new Recorder("a", log, null, null), 0);
+      bus.register(new Recorder("b", log, null, null));
+      bus.post(1);
+      assertEquals(Arrays.<Object>asList("a1", "b1", "c1"), log);
+   }
+
+   @Test
+   public void testUnregister() {
+      List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      Recorder sync = new Recorder("s", log, null, null);
+      Recorder async = new Recorder("q", log, null, null);
+      bus.register(sync);
+      bus.register(async, 0, PrioritizedEventBus.Delivery.QUEUED, null);
+      bus.unregister(sync);
+      bus.unregister(async);
+      bus.post(1);
+      assertTrue(log.isEmpty());
+   }
+
+   @Test
+   public void testQueuedDoesNotBlockPoster() throws Exception {
+      List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(100);
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      bus.register(new Recorder("", log, release, done), 0,
+            PrioritizedEventBus.Delivery.QUEUED, null);
+      for (int i = 0; i < 100; ++i) {
+         bus.post(i); // Would hang here if delivery were synchronous
+      }
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      for (int i = 0; i < 100; ++i) {
+         assertEquals("" + i, log.get(i));
+      }
+   }
+
+   @Test
+   public void testLatestOnlyCoalescesPerClass() throws Exception {
+      List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+      CountDownLatch release = new CountDownLatch(1);
+      CountDownLatch done = new CountDownLatch(3);
+      PrioritizedEventBus bus = new PrioritizedEventBus();
+      Recorder recorder = new Recorder("", log, release, done);
+      bus.register(recorder, 0, PrioritizedEventBus.Delivery.LATEST_ONLY,
+            null);
+      bus.post(0);
+      // Wait until 0 is being delivered, so that later events queue up
+      assertTrue(recorder.entered_.await(10, TimeUnit.SECONDS));
+      for (int i = 1; i < 10; ++i) {
+         bus.post(i);
+         bus.post("x" + i);
+      }
+      release.countDown();
+      assertTrue(done.await(10, TimeUnit.SECONDS));
+      assertEquals(Arrays.<Object>asList("0", "9", "x9"), log);
+   }
+}
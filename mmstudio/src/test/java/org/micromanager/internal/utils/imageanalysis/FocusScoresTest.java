@@ -0,0 +1,279 @@
+package org.micromanager.internal.utils.imageanalysis;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ImageStatistics;
+import ij.process.ShortProcessor;
+import java.awt.Rectangle;
+import java.util.Random;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the fused focus score kernels to the ImageJ-based implementations
+ * that OughtaFocus used before (and still uses for other pixel types).
+ */
+public class FocusScoresTest {
+   private static final double RELATIVE_TOLERANCE = 1e-12;
+
+   // Methods for which the fused kernel exactly reproduces ImageJ
+   private static final String[] EXACT_METHODS = {
+      FocusScores.MEAN, FocusScores.STD_DEV, FocusScores.NORMALIZED_VARIANCE,
+      FocusScores.EDGES, FocusScores.SHARP_EDGES, FocusScores.REDONDO,
+      FocusScores.VOLATH, FocusScores.VOLATH5, FocusScores.TENENGRAD};
+
+   private static ImageProcessor makeTestImage(int width, int height,
+         boolean sixteenBit, long seed) {
+      Random random = new Random(seed);
+      double offset = sixteenBit ? 3000.0 : 100.0;
+      double amplitude = sixteenBit ? 2000.0 : 60.0;
+      double noise = sixteenBit ? 500.0 : 20.0;
+      int max = sixteenBit ? 65535 : 255;
+      ImageProcessor proc = sixteenBit ?
+            new ShortProcessor(width, height) :
+            new ByteProcessor(width, height);
+      for (int y = 0; y < height; ++y) {
+         for (int x = 0; x < width; ++x) {
+            double v = offset + amplitude * Math.sin(x * 0.1) *
+                  Math.cos(y * 0.07) + noise * random.nextGaussian();
+            proc.set(x, y, (int) Math.min(max, Math.max(0, v)));
+         }
+      }
+      return proc;
+   }
+
+   private static void assertRelativelyEqual(String message, double expected,
+         double actual) {
+      assertEquals(message, expected, actual,
+            Math.abs(expected) * RELATIVE_TOLERANCE);
+   }
+
+   private static void checkAgainstReference(int width, int height,
+         boolean sixteenBit) {
+      ImageProcessor proc = makeTestImage(width, height, sixteenBit, 42);
+      for (String method : EXACT_METHODS) {
+         double expected = referenceScore(method, proc.duplicate());
+         double actual = FocusScores.computeScore(method, proc.getPixels(),
+               width, height, null);
+         assertRelativelyEqual(method + " " + width + "x" + height,
+               expected, actual);
+      }
+   }
+
+   @Test
+   public void smallImagesMatchReference() {
+      checkAgainstReference(37, 23, false);
+      checkAgainstReference(37, 23, true);
+   }
+
+   @Test
+   public void largeImagesMatchReference() {
+      // Large enough to be scored in parallel stripes
+      checkAgainstReference(700, 501, false);
+      checkAgainstReference(700, 501, true);
+   }
+
+   @Test
+   public void roiScoreEqualsScoreOfCrop() {
+      ImageProcessor proc = makeTestImage(300, 200, true, 1);
+      Rectangle roi = new Rectangle(17, 9, 150, 120);
+      proc.setRoi(roi);
+      ImageProcessor crop = proc.crop();
+      proc.resetRoi();
+      // These methods only use pixels within the ROI
+      String[] methods = {FocusScores.MEAN, FocusScores.STD_DEV,
+         FocusScores.VOLATH, FocusScores.VOLATH5};
+      for (String method : methods) {
+         assertRelativelyEqual(method,
+               FocusScores.computeScore(method, crop.getPixels(),
+                     crop.getWidth(), crop.getHeight(), null),
+               FocusScores.computeScore(method, proc.getPixels(),
+                     300, 200, roi));
+      }
+   }
+
+   @Test
+   public void medianEdgesIsZeroForUniformImage() {
+      short[] pixels = new short[64 * 48];
+      java.util.Arrays.fill(pixels, (short) 1234);
+      assertEquals(0.0, FocusScores.computeScore(FocusScores.MEDIAN_EDGES,
+            pixels, 64, 48, null), 0.0);
+   }
+
+   @Test
+   public void median9IsMedian() {
+      Random random = new Random(3);
+      int[] p = new int[9];
+      for (int trial = 0; trial < 10000; ++trial) {
+         for (int i = 0; i < 9; ++i) {
+            p[i] = random.nextInt(8);
+         }
+         int actual = FocusScores.median9(p[0], p[1], p[2], p[3], p[4],
+               p[5], p[6], p[7], p[8]);
+         int[] sorted = p.clone();
+         java.util.Arrays.sort(sorted);
+         assertEquals(sorted[4], actual);
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void unsupportedMethodThrows() {
+      FocusScores.computeScore("FFTBandpass", new byte[4], 2, 2, null);
+   }
+
+   /**
+    * Prints the time per frame of the ImageJ-based and fused implementations
+    * for every score method. Run manually.
+    */
+   @Ignore("Benchmark")
+   @Test
+   public void benchmark() {
+      final int width = 2048;
+      final int height = 2048;
+      final int repeats = 5;
+      for (boolean sixteenBit : new boolean[] {false, true}) {
+         ImageProcessor proc = makeTestImage(width, height, sixteenBit, 7);
+         String[] methods = FocusScores.getSupportedMethods();
+         for (String method : methods) {
+            // Warm up
+            referenceScore(method, proc.duplicate());
+            FocusScores.computeScore(method, proc.getPixels(), width,
+                  height, null);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < repeats; ++i) {
+               referenceScore(method, proc.duplicate());
+            }
+            double imageJMs = (System.nanoTime() - start) / 1e6 / repeats;
+            start = System.nanoTime();
+            for (int i = 0; i < repeats; ++i) {
+               FocusScores.computeScore(method, proc.getPixels(), width,
+                     height, null);
+            }
+            double fusedMs = (System.nanoTime() - start) / 1e6 / repeats;
+            System.out.println(String.format(
+                  "%2d-bit %-18s ImageJ %8.2f ms  fused %8.2f ms  (%.1fx)",
+                  sixteenBit ? 16 : 8, method, imageJMs, fusedMs,
+                  imageJMs / fusedMs));
+         }
+      }
+   }
+
+
+   //
+   // Reference implementations (as in OughtaFocus)
+   //
+
+   private static double referenceScore(String method, ImageProcessor proc) {
+      ImageStatistics stats;
+      switch (method) {
+         case FocusScores.MEAN:
+            return proc.getStatistics().mean;
+         case FocusScores.STD_DEV:
+            stats = proc.getStatistics();
+            return stats.stdDev / stats.mean;
+         case FocusScores.NORMALIZED_VARIANCE:
+            stats = proc.getStatistics();
+            return (stats.stdDev * stats.stdDev) / stats.mean;
+         case FocusScores.EDGES:
+            return referenceEdges(proc, false);
+         case FocusScores.SHARP_EDGES:
+            return referenceEdges(proc, true);
+         case FocusScores.REDONDO:
+            return referenceRedondo(proc);
+         case FocusScores.VOLATH:
+            return referenceVolath(proc);
+         case FocusScores.VOLATH5:
+            return referenceVolath5(proc);
+         case FocusScores.MEDIAN_EDGES:
+            proc.medianFilter();
+            return referenceGradient(proc,
+                  new int[] {2, 1, 0, 1, 0, -1, 0, -1, -2},
+                  new int[] {0, 1, 2, -1, 0, 1, -2, -1, 0}, true);
+         case FocusScores.TENENGRAD:
+            return referenceGradient(proc,
+                  new int[] {-1, 0, 1, -2, 0, 2, -1, 0, 1},
+                  new int[] {1, 2, 1, 0, 0, 0, -1, -2, -1}, false);
+         default:
+            throw new IllegalArgumentException(method);
+      }
+   }
+
+   private static double referenceEdges(ImageProcessor proc, boolean sharpen) {
+      double meanIntensity = proc.getStatistics().mean;
+      ImageProcessor proc1 = proc.duplicate();
+      if (sharpen) {
+         proc1.sharpen();
+      }
+      proc1.findEdges();
+      return proc1.getStatistics().mean / meanIntensity;
+   }
+
+   private static double referenceRedondo(ImageProcessor proc) {
+      int h = proc.getHeight();
+      int w = proc.getWidth();
+      double sum = 0.0;
+      for (int i = 1; i < w - 1; ++i) {
+         for (int j = 1; j < h - 1; ++j) {
+            double p = proc.getPixel(i - 1, j)
+                    + proc.getPixel(i + 1, j)
+                    + proc.getPixel(i, j - 1)
+                    + proc.getPixel(i, j + 1)
+                    - 4 * (proc.getPixel(i - 1, j));
+            sum += (p * p);
+         }
+      }
+      return sum;
+   }
+
+   private static double referenceVolath(ImageProcessor proc) {
+      int h = proc.getHeight();
+      int w = proc.getWidth();
+      double sum1 = 0.0;
+      double sum2 = 0.0;
+      for (int i = 1; i < w - 1; ++i) {
+         for (int j = 0; j < h; ++j) {
+            sum1 += proc.getPixel(i, j) * proc.getPixel(i + 1, j);
+         }
+      }
+      for (int i = 0; i < w - 2; ++i) {
+         for (int j = 0; j < h; ++j) {
+            sum2 += proc.getPixel(i, j) * proc.getPixel(i + 2, j);
+         }
+      }
+      return (sum1 - sum2);
+   }
+
+   private static double referenceVolath5(ImageProcessor proc) {
+      int h = proc.getHeight();
+      int w = proc.getWidth();
+      double sum = 0.0;
+      for (int i = 0; i < w - 1; ++i) {
+         for (int j = 0; j < h; ++j) {
+            sum += proc.getPixel(i, j) * proc.getPixel(i + 1, j);
+         }
+      }
+      ImageStatistics stats = proc.getStatistics();
+      sum -= ((w - 1) * h * stats.mean * stats.mean);
+      return sum;
+   }
+
+   private static double referenceGradient(ImageProcessor proc, int[] ken1,
+         int[] ken2, boolean magnitude) {
+      int h = proc.getHeight();
+      int w = proc.getWidth();
+      double sum = 0.0;
+      ImageProcessor proc2 = proc.duplicate();
+      proc.convolve3x3(ken1);
+      proc2.convolve3x3(ken2);
+      for (int i = 0; i < w; i++) {
+         for (int j = 0; j < h; j++) {
+            double s = Math.pow(proc.getPixel(i, j), 2) +
+                  Math.pow(proc2.getPixel(i, j), 2);
+            sum += magnitude ? Math.sqrt(s) : s;
+         }
+      }
+      return sum;
+   }
+}
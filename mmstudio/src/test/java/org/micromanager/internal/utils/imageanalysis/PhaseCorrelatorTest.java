@@ -0,0 +1,120 @@
+package org.micromanager.internal.utils.imageanalysis;
+
+import ij.process.FloatProcessor;
+import ij.process.ShortProcessor;
+import java.awt.geom.Point2D;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PhaseCorrelatorTest {
+   private static final double TOLERANCE = 0.1;
+
+   /**
+    * Renders a field of Gaussian spots, displaced by (shiftX, shiftY).
+    * The same seed gives the same spots.
+    */
+   private static FloatProcessor makeSpots(int width, int height,
+         double shiftX, double shiftY, long seed) {
+      Random random = new Random(seed);
+      int nSpots = width * height / 80;
+      double[][] spots = new double[nSpots][];
+      for (int i = 0; i < nSpots; i++) {
+         spots[i] = new double[] {
+            (1.4 * random.nextDouble() - 0.2) * width,
+            (1.4 * random.nextDouble() - 0.2) * height,
+            1.0 + 2.0 * random.nextDouble(),
+            1000.0 * random.nextDouble()};
+      }
+      FloatProcessor proc = new FloatProcessor(width, height);
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            double value = 100.0;
+            for (double[] spot : spots) {
+               double dx = x - spot[0] - shiftX;
+               double dy = y - spot[1] - shiftY;
+               double r2 = dx * dx + dy * dy;
+               if (r2 < 50 * spot[2] * spot[2]) {
+                  value += spot[3] * Math.exp(-r2 / (2 * spot[2] * spot[2]));
+               }
+            }
+            proc.setf(x, y, (float) value);
+         }
+      }
+      return proc;
+   }
+
+   @Test
+   public void measuresSubPixelShifts() {
+      FloatProcessor reference = makeSpots(128, 128, 0.0, 0.0, 1);
+      PhaseCorrelator correlator = new PhaseCorrelator(128, 128);
+      correlator.setReference(reference);
+      double[][] shifts = {{0.0, 0.0}, {3.3, -1.7}, {-10.25, 4.6},
+         {0.5, 0.5}, {20.8, -15.1}};
+      for (double[] shift : shifts) {
+         Point2D.Double measured = correlator.measureShift(
+               makeSpots(128, 128, shift[0], shift[1], 1));
+         assertEquals(shift[0], measured.x, TOLERANCE);
+         assertEquals(shift[1], measured.y, TOLERANCE);
+      }
+   }
+
+   @Test
+   public void handlesSizesThatAreNoPowerOf2() {
+      FloatProcessor reference = makeSpots(100, 72, 0.0, 0.0, 2);
+      PhaseCorrelator correlator = new PhaseCorrelator(100, 72);
+      correlator.setReference(reference.convertToShortProcessor(false));
+      Point2D.Double measured = correlator.measureShift(
+            makeSpots(100, 72, -4.4, 2.2, 2).convertToShortProcessor(false));
+      assertEquals(-4.4, measured.x, TOLERANCE);
+      assertEquals(2.2, measured.y, TOLERANCE);
+   }
+
+   @Test
+   public void limitsSearchToMaxShift() {
+      FloatProcessor reference = makeSpots(64, 64, 0.0, 0.0, 3);
+      PhaseCorrelator correlator = new PhaseCorrelator(64, 64);
+      correlator.setMaxShift(4);
+      correlator.setReference(reference);
+      Point2D.Double measured = correlator.measureShift(
+            makeSpots(64, 64, 12.0, 0.0, 3));
+      assertTrue(Math.abs(measured.x) <= 4.5);
+      assertTrue(Math.abs(measured.y) <= 4.5);
+   }
+
+   @Test
+   public void correlationImageHasPeakAtShift() {
+      PhaseCorrelator correlator = new PhaseCorrelator(64, 64);
+      assertNull(correlator.getCorrelationImage());
+      correlator.setReference(makeSpots(64, 64, 0.0, 0.0, 4));
+      correlator.measureShift(makeSpots(64, 64, 5.0, -3.0, 4));
+      FloatProcessor correlation = correlator.getCorrelationImage();
+      assertEquals(64, correlation.getWidth());
+      float max = Float.NEGATIVE_INFINITY;
+      int maxX = -1;
+      int maxY = -1;
+      for (int y = 0; y < 64; y++) {
+         for (int x = 0; x < 64; x++) {
+            if (correlation.getf(x, y) > max) {
+               max = correlation.getf(x, y);
+               maxX = x;
+               maxY = y;
+            }
+         }
+      }
+      assertEquals(32 + 5, maxX);
+      assertEquals(32 - 3, maxY);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsImagesOfOtherSize() {
+      PhaseCorrelator correlator = new PhaseCorrelator(64, 64);
+      correlator.setReference(new ShortProcessor(64, 64));
+      correlator.measureShift(new ShortProcessor(32, 64));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void requiresReference() {
+      new PhaseCorrelator(64, 64).measureShift(new ShortProcessor(64, 64));
+   }
+}
@@ -0,0 +1,87 @@
+package org.micromanager.profile.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.profile.internal.UserProfileFileFormat.Profile;
+
+public class ProfileSaverTest {
+   private ScheduledExecutorService executor_;
+   private File file_;
+
+   @Before
+   public void setUp() throws IOException {
+      executor_ = Executors.newSingleThreadScheduledExecutor();
+      file_ = File.createTempFile("ProfileSaverTest", ".json");
+      file_.delete();
+   }
+
+   @After
+   public void tearDown() {
+      executor_.shutdownNow();
+      file_.delete();
+   }
+
+   // Like UserProfileAdmin, but saving to file_
+   private ProfileSaver attachSaver(final DefaultUserProfile profile) {
+      ProfileSaver saver = ProfileSaver.create(profile, () -> {
+         try {
+            Profile.fromSettings(profile.toPropertyMap()).toPropertyMap().
+                  saveJSON(file_, true, false);
+         }
+         catch (IOException e) {
+            throw new UncheckedIOException(e);
+         }
+      }, executor_);
+      profile.setSaver(saver);
+      return saver;
+   }
+
+   private PropertyMap readSettings() throws IOException {
+      return Profile.fromFilePmap(PropertyMaps.loadJSON(file_)).getSettings().
+            getPropertyMap(ProfileSaverTest.class.getCanonicalName(),
+                  PropertyMaps.emptyPropertyMap());
+   }
+
+   @Test
+   public void editsToFreshProfileReachDisk() throws Exception {
+      DefaultUserProfile profile = DefaultUserProfile.create(null, null,
+            PropertyMaps.emptyPropertyMap());
+      // As UserProfileAdmin does for profiles without a ReadOnly key, edit
+      // before the saver is attached
+      profile.getSettings(ProfileSaverTest.class).putBoolean(
+            UserProfileAdmin.READ_ONLY, false);
+      attachSaver(profile);
+
+      profile.getSettings(ProfileSaverTest.class).putString("key", "value");
+      profile.close();
+
+      assertTrue(file_.isFile());
+      PropertyMap saved = readSettings();
+      assertEquals("value", saved.getString("key", null));
+      assertFalse(saved.getBoolean(UserProfileAdmin.READ_ONLY, true));
+   }
+
+   @Test
+   public void editsAfterSaveAreSavedAgain() throws Exception {
+      DefaultUserProfile profile = DefaultUserProfile.create(null, null,
+            PropertyMaps.emptyPropertyMap());
+      ProfileSaver saver = attachSaver(profile);
+
+      profile.getSettings(ProfileSaverTest.class).putInteger("key", 1);
+      saver.syncToDisk();
+      assertEquals(1, readSettings().getInteger("key", 0));
+
+      profile.getSettings(ProfileSaverTest.class).putInteger("key", 2);
+      profile.close();
+      assertEquals(2, readSettings().getInteger("key", 0));
+   }
+}
@@ -97,7 +97,6 @@ import org.micromanager.PropertyMaps;
 import org.micromanager.acquisition.SequenceSettings;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
-import org.micromanager.data.Coords.CoordsBuilder;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
@@ -114,6 +113,7 @@ import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.NumberUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 
+import org.micromanager.asidispim.acquisition.ImageCollector;
 import org.micromanager.asidispim.api.ASIdiSPIMException;
 import org.micromanager.asidispim.data.AcquisitionSettings;
 import org.micromanager.asidispim.data.ChannelSpec;
@@ -2354,6 +2354,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             }
 
             Datastore store = null;
+            ImageCollector collector = null;
 
             long extraStageScanTimeout = 0;
             if (acqSettings.isStageScanning) {
@@ -2538,12 +2539,28 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                     ReportingUtils.logError("error waiting for system");
                 }
 
+                // images go from the circular buffer to the datastore through the collector
+                //   which converts them on separate threads, one lane per MM channel
+                //   (images are still put into the datastore one at a time)
+                final double zStepUm = PanelUtils.getSpinnerFloatValue(stepSize_);
+                collector = new ImageCollector(core_,
+                        twoSided ? new String[]{firstCamera, secondCamera} : new String[]{firstCamera},
+                        2 * acqSettings.numChannels, store,
+                        new ImageCollector.Converter() {
+                            @Override
+                            public Image convert(TaggedImage image, ImageCollector.Destination destination)
+                                    throws Exception {
+                                return createAcquisitionImage(destination.getCoords(), zStepUm, image);
+                            }
+                        },
+                        Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
                 // Loop over all the times we trigger the controller's acquisition
                 //  (although if multi-channel with volume switching is selected there
                 //   is inner loop to trigger once per channel)
                 // remember acquisition start time for software-timed timepoints
                 // For hardware-timed timepoints we only trigger the controller once
-                long acqStart = System.currentTimeMillis();
+                final long acqStart = System.currentTimeMillis();
                 for (int trigNum = 0; trigNum < nrFrames; trigNum++) {
                     // handle intervals between (software-timed) time points
                     // when we are within the same acquisition
@@ -2688,17 +2705,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
 
                                 // Wait for first image to create ImageWindow, so that we can be sure about image size
                                 // Do not actually grab first image here, just make sure it is there
-                                long start = System.currentTimeMillis();
-                                long now = start;
                                 final long timeout = Math.max(3000,
                                         Math.round(10 * sliceDuration + 2 * acqSettings.delayBeforeSide))
                                         + extraStageScanTimeout + extraMultiXYTimeout;
-                                while (core_.getRemainingImageCount() == 0 && (now - start < timeout)
+                                if (!collector.awaitFirstImage(timeout, cancelAcquisition_)
                                         && !cancelAcquisition_.get()) {
-                                    now = System.currentTimeMillis();
-                                    Thread.sleep(5);
-                                }
-                                if (now - start >= timeout) {
                                     String msg = "Camera did not send first image within a reasonable time.\n";
                                     if (acqSettings.isStageScanning) {
                                         msg += "Make sure jumpers are correct on XY card and also micro-micromirror card.";
@@ -2709,12 +2720,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                 }
 
                                 // grab all the images from the cameras, put them into the acquisition
-                                int[] frNumber = new int[2 * acqSettings.numChannels];  // keep track of how many frames we have received for each "channel" (MM channel is our channel * 2 for the 2 cameras)
-                                int[] cameraFrNumber = new int[2];       // keep track of how many frames we have received from the camera
-                                int[] tpNumber = new int[2 * acqSettings.numChannels];  // keep track of which timepoint we are on for hardware timepoints
-                                int imagesToSkip = 0; // hardware timepoints have to drop spurious images with overlap mode 
+                                final int[] frNumber = new int[2 * acqSettings.numChannels];  // keep track of how many frames we have received for each "channel" (MM channel is our channel * 2 for the 2 cameras)
+                                final int[] cameraFrNumber = new int[2];       // keep track of how many frames we have received from the camera
+                                final int[] tpNumber = new int[2 * acqSettings.numChannels];  // keep track of which timepoint we are on for hardware timepoints
+                                final int[] imagesToSkip = new int[1]; // hardware timepoints have to drop spurious images with overlap mode 
                                 final boolean checkForSkips = acqSettings.hardwareTimepoints && (acqSettings.cameraMode == CameraModes.Keys.OVERLAP);
-                                boolean done = false;
                                 long timeout2 = Math.max(1000, Math.round(5 * sliceDuration));
                                 if (acqSettings.isStageScanning) {  // for stage scanning have to allow extra time for turn-around 
                                     timeout2 += (2 * (long) Math.ceil(getStageRampDuration(acqSettings)));  // ramp up and then down 
@@ -2724,119 +2734,112 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                     }
                                 }
 
-                                start = System.currentTimeMillis();
-                                long last = start;
-                                try {
-                                    while ((core_.getRemainingImageCount() > 0
-                                            || core_.isSequenceRunning(firstCamera)
-                                            || (twoSided && core_.isSequenceRunning(secondCamera)))
-                                            && !done) {
-                                        now = System.currentTimeMillis();
-                                        if (core_.getRemainingImageCount() > 0) {  // we have an image to grab
-                                            TaggedImage timg = core_.popNextTaggedImage();
-
-                                            if (checkForSkips && imagesToSkip != 0) {
-                                                imagesToSkip--;
-                                                continue;  // goes to next iteration of this loop without doing anything else 
-                                            }
-
-                                            // figure out which channel index this frame belongs to 
-                                            // "channel index" is channel of MM acquisition 
-                                            // channel indexes will go from 0 to (nrSides * nrChannels - 1) 
-                                            // if double-sided then second camera gets odd channel indexes (1, 3, etc.) 
-                                            //    and adjacent pairs will be same color (e.g. 0 and 1 will be from first color, 2 and 3 from second, etc.) String camera = (String) timg.tags.get("Camera");
-                                            String camera = (String) timg.tags.get("Camera");
-                                            int cameraIndex = camera.equals(firstCamera) ? 0 : 1;
-                                            int channelIndex_tmp;
-                                            switch (acqSettings.channelMode) {
-                                                case NONE:
-                                                case VOLUME:
-                                                    channelIndex_tmp = channelNum;
-                                                    break;
-                                                case VOLUME_HW:
-                                                    channelIndex_tmp = cameraFrNumber[cameraIndex]
-                                                            / acqSettings.numSlices;  // want quotient only
-                                                    break;
-                                                case SLICE_HW:
-                                                    channelIndex_tmp = cameraFrNumber[cameraIndex]
-                                                            % acqSettings.numChannels;  // want modulo arithmetic
-                                                    break;
-                                                default:
-                                                    // should never get here
-                                                    throw new Exception("Undefined channel mode");
-                                            }
-
-                                            if (twoSided) {
-                                                channelIndex_tmp *= 2;
-                                            }
-                                            final int channelIndex = channelIndex_tmp + cameraIndex;
+                                final int timePointF = timePoint;
+                                final int channelNumF = channelNum;
+                                final int positionNumF = positionNum;
+                                ImageCollector.Router router = new ImageCollector.Router() {
+                                    @Override
+                                    public ImageCollector.Destination route(TaggedImage timg, int camera, long now)
+                                            throws Exception {
+                                        if (checkForSkips && imagesToSkip[0] != 0) {
+                                            imagesToSkip[0]--;
+                                            return null;  // drop the image without doing anything else 
+                                        }
 
-                                            int actualTimePoint = timePoint;
-                                            if (acqSettings.hardwareTimepoints) {
-                                                actualTimePoint = tpNumber[channelIndex];
-                                            }
-                                            if (acqSettings.separateTimepoints) {
-                                                // if we are doing separate timepoints then frame is always 0 
-                                                actualTimePoint = 0;
-                                            }
-                                            // note that hardwareTimepoints and separateTimepoints can never both be true
-
-                                            // add image to acquisition
-                                            if (spimMode == AcquisitionModes.Keys.NO_SCAN && !acqSettings.separateTimepoints) {
-                                                // create time series for no scan
-
-                                                addImageToAcquisition(store,
-                                                        frNumber[channelIndex], channelIndex, timePoint,
-                                                        positionNum, now - acqStart, timg);
-                                            } else { // standard, create Z-stacks
-                                                addImageToAcquisition(store, timePoint, channelIndex,
-                                                        frNumber[channelIndex], positionNum,
-                                                        now - acqStart, timg);
-                                            }
+                                        // figure out which channel index this frame belongs to 
+                                        // "channel index" is channel of MM acquisition 
+                                        // channel indexes will go from 0 to (nrSides * nrChannels - 1) 
+                                        // if double-sided then second camera gets odd channel indexes (1, 3, etc.) 
+                                        //    and adjacent pairs will be same color (e.g. 0 and 1 will be from first color, 2 and 3 from second, etc.)
+                                        // images from any camera other than the first go to the second camera index
+                                        int cameraIndex = camera == 0 ? 0 : 1;
+                                        int channelIndex_tmp;
+                                        switch (acqSettings.channelMode) {
+                                            case NONE:
+                                            case VOLUME:
+                                                channelIndex_tmp = channelNumF;
+                                                break;
+                                            case VOLUME_HW:
+                                                channelIndex_tmp = cameraFrNumber[cameraIndex]
+                                                        / acqSettings.numSlices;  // want quotient only
+                                                break;
+                                            case SLICE_HW:
+                                                channelIndex_tmp = cameraFrNumber[cameraIndex]
+                                                        % acqSettings.numChannels;  // want modulo arithmetic
+                                                break;
+                                            default:
+                                                // should never get here
+                                                throw new Exception("Undefined channel mode");
+                                        }
 
-                                            // update our counters to be ready for next image
-                                            frNumber[channelIndex]++;
-                                            cameraFrNumber[cameraIndex]++;
-                                            // if hardware timepoints then we only send one trigger
-                                            //   manually keep track of which channel/timepoint comes next
-                                            if (acqSettings.hardwareTimepoints
-                                                    && frNumber[channelIndex] >= acqSettings.numSlices) {   // only do this if we are done with the slices in this MM channel 
-                                                // we just finished filling one MM channel with all its slices so go to next timepoint for this channel          
-                                                frNumber[channelIndex] = 0;
-                                                tpNumber[channelIndex]++;
-
-                                                // see if we are supposed to skip next image 
-                                                if (checkForSkips) {
-                                                    // one extra image per MM channel, this includes case of only 1 color (either multi-channel disabled or else only 1 channel selected) 
-                                                    // if we are interleaving by slice then next nrChannel images will be from extra slice position 
-                                                    // any other configuration we will just drop the next image 
-                                                    if (acqSettings.useChannels && acqSettings.channelMode == MultichannelModes.Keys.SLICE_HW) {
-                                                        imagesToSkip = acqSettings.numChannels;
-                                                    } else {
-                                                        imagesToSkip = 1;
-                                                    }
-                                                }
+                                        if (twoSided) {
+                                            channelIndex_tmp *= 2;
+                                        }
+                                        final int channelIndex = channelIndex_tmp + cameraIndex;
 
-                                                // update acquisition status message if needed
-                                                //   (don't otherwise reach code that does this)
-                                                //   Arbitrarily choose one possible channel to do this on 
-                                                if (channelIndex == 0 && (numTimePointsDone_ < acqSettings.numTimepoints)) {
-                                                    numTimePointsDone_++;
-                                                    updateAcquisitionStatus(AcquisitionStatus.ACQUIRING);
+                                        int actualTimePoint = timePointF;
+                                        if (acqSettings.hardwareTimepoints) {
+                                            actualTimePoint = tpNumber[channelIndex];
+                                        }
+                                        if (acqSettings.separateTimepoints) {
+                                            // if we are doing separate timepoints then frame is always 0 
+                                            actualTimePoint = 0;
+                                        }
+                                        // note that hardwareTimepoints and separateTimepoints can never both be true
+
+                                        // coordinates of the image in the acquisition
+                                        Coords coords;
+                                        if (spimMode == AcquisitionModes.Keys.NO_SCAN && !acqSettings.separateTimepoints) {
+                                            // create time series for no scan
+                                            coords = Coordinates.builder().time(frNumber[channelIndex]).channel(channelIndex)
+                                                    .z(timePointF).stagePosition(positionNumF).build();
+                                        } else { // standard, create Z-stacks
+                                            coords = Coordinates.builder().time(timePointF).channel(channelIndex)
+                                                    .z(frNumber[channelIndex]).stagePosition(positionNumF).build();
+                                        }
+                                        ImageCollector.Destination destination = new ImageCollector.Destination(
+                                                channelIndex, coords, now - acqStart);
+
+                                        // update our counters to be ready for next image
+                                        frNumber[channelIndex]++;
+                                        cameraFrNumber[cameraIndex]++;
+                                        // if hardware timepoints then we only send one trigger
+                                        //   manually keep track of which channel/timepoint comes next
+                                        if (acqSettings.hardwareTimepoints
+                                                && frNumber[channelIndex] >= acqSettings.numSlices) {   // only do this if we are done with the slices in this MM channel 
+                                            // we just finished filling one MM channel with all its slices so go to next timepoint for this channel          
+                                            frNumber[channelIndex] = 0;
+                                            tpNumber[channelIndex]++;
+
+                                            // see if we are supposed to skip next image 
+                                            if (checkForSkips) {
+                                                // one extra image per MM channel, this includes case of only 1 color (either multi-channel disabled or else only 1 channel selected) 
+                                                // if we are interleaving by slice then next nrChannel images will be from extra slice position 
+                                                // any other configuration we will just drop the next image 
+                                                if (acqSettings.useChannels && acqSettings.channelMode == MultichannelModes.Keys.SLICE_HW) {
+                                                    imagesToSkip[0] = acqSettings.numChannels;
+                                                } else {
+                                                    imagesToSkip[0] = 1;
                                                 }
                                             }
-                                            last = now;  // keep track of last image timestamp
-
-                                        } else {  // no image ready yet
-                                            done = cancelAcquisition_.get();
-                                            Thread.sleep(1);
-                                            if (now - last >= timeout2) {
-                                                ReportingUtils.logError("Camera did not send all expected images within"
-                                                        + " a reasonable period for timepoint " + (timePoint + 1) + ".  Continuing anyway.");
-                                                nonfatalError = true;
-                                                done = true;
+
+                                            // update acquisition status message if needed
+                                            //   (don't otherwise reach code that does this)
+                                            //   Arbitrarily choose one possible channel to do this on 
+                                            if (channelIndex == 0 && (numTimePointsDone_ < acqSettings.numTimepoints)) {
+                                                numTimePointsDone_++;
+                                                updateAcquisitionStatus(AcquisitionStatus.ACQUIRING);
                                             }
                                         }
+                                        return destination;
+                                    }
+                                };
+
+                                try {
+                                    if (!collector.collect(router, cancelAcquisition_, timeout2)) {
+                                        ReportingUtils.logError("Camera did not send all expected images within"
+                                                + " a reasonable period for timepoint " + (timePoint + 1) + ".  Continuing anyway.");
+                                        nonfatalError = true;
                                     }
 
                                     // update count if we stopped in the middle
@@ -2943,6 +2946,17 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
             } finally {  // end of this acquisition (could be about to restart if separate viewers)
                 try {
 
+                    if (collector != null) {
+                        // wait for the collector to put all collected images in the store
+                        try {
+                            collector.finish();
+                        } catch (Exception ex) {
+                            MyDialogUtils.showError(ex, "Problem while storing acquired images");
+                        }
+                        collector.close();
+                        ReportingUtils.logMessage(collector.getLagReport());
+                    }
+
                     if (store != null) {
                         store.freeze();
                     }
@@ -3152,42 +3166,28 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
     }
 
     /**
-     * The basic method for adding images to an existing data set. If the
-     * acquisition was not previously initialized, it will attempt to initialize
-     * it from the available image data. This version uses a blocking queue and
-     * is much faster than the one currently implemented in the ScriptInterface
-     * Eventually, this function should be replaced by the ScriptInterface
-     * version of the same.
+     * Creates the image that goes into the data set from an image popped
+     * from the circular buffer.  Called from the threads of the
+     * ImageCollector, possibly for several channels at the same time.
      *
-     * @param store - Datastore in which the image will be inserted
-     * @param frame - frame nr at which to insert the image
-     * @param channel - channel at which to insert image
-     * @param slice - (z) slice at which to insert image
-     * @param position - position at which to insert image
-     * @param ms - Time stamp to be added to the image metadata
+     * @param coord - coordinates of the image in the data set
+     * @param zStepUm - step size between slices, added to the user data
      * @param taggedImg - image + metadata to be added
+     * @return image ready to be put in the data set
      * @throws org.json.JSONException
-     * @throws org.micromanager.data.DatastoreFrozenException
-     * @throws org.micromanager.data.DatastoreRewriteException
      */
-    private void addImageToAcquisition(Datastore store, int frame, int channel,
-            int slice, int position, long ms, TaggedImage taggedImg) throws
-            JSONException, DatastoreFrozenException,
-            DatastoreRewriteException, Exception {
-
-        CoordsBuilder cb = Coordinates.builder();
+    private Image createAcquisitionImage(Coords coord, double zStepUm,
+            TaggedImage taggedImg) throws JSONException {
 
-        Coords coord = cb.time(frame).channel(channel).z(slice).stagePosition(position).build();
         Image img = gui_.data().convertTaggedImage(taggedImg);
         Metadata md = img.getMetadata();
         Metadata.Builder mdb = md.copyBuilderWithNewUUID();
         PropertyMap ud = md.getUserData();
-        ud = ud.copyBuilder().putDouble("Z-Step-um",
-                (double) PanelUtils.getSpinnerFloatValue(stepSize_)).build();
+        ud = ud.copyBuilder().putDouble("Z-Step-um", zStepUm).build();
         String posName = "Pos-0";
         PositionList pl = gui_.positions().getPositionList();
         if (pl != null) {
-            MultiStagePosition pos = pl.getPosition(position);
+            MultiStagePosition pos = pl.getPosition(coord.getStagePosition());
             if (pos != null) {
                 posName = pos.getLabel();
                 mdb = mdb.xPositionUm(pos.getX()).yPositionUm(pos.getY());
@@ -3195,9 +3195,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
         }
 
         md = mdb.positionName(posName).userData(ud).build();
-        img = img.copyWith(coord, md);
-
-        store.putImage(img);
+        return img.copyWith(coord, md);
 
         /*
       // create required coordinate tags
@@ -31,6 +31,7 @@ import org.micromanager.PropertyMap;
 
 import org.micromanager.Studio;
 import org.micromanager.asidispim.data.AcquisitionModes;
+import org.micromanager.asidispim.deskew.Deskewer;
 import org.micromanager.internal.utils.FileDialogs;
 
 import org.micromanager.asidispim.data.Devices; 
@@ -349,10 +350,11 @@ public class DataAnalysisPanel extends ListeningJPanel {
             String windowTitle;
             final AcquisitionModes.Keys acqMode;
             double zStepPx = 0.0;
+            Datastore datastore = null;
             if (currentWindow != null) {
                ip = currentWindow.getImagePlus();
 
-               final Datastore datastore = currentWindow.getDatastore();
+               datastore = currentWindow.getDatastore();
                final SummaryMetadata summaryMetadata = datastore.getSummaryMetadata();
                PropertyMap metadata = summaryMetadata.getUserData();
 
@@ -413,6 +415,36 @@ public class DataAnalysisPanel extends ListeningJPanel {
             final String title = ip.getTitle() + "-deskewed";
             final int sx_new = sx + (int) Math.abs(Math.ceil(dx * ss));
 
+            if (datastore != null) {
+               // Micro-Manager data: deskew straight from the datastore
+               final int numChannels = Math.max(1, datastore.getAxisLength(Coords.CHANNEL));
+               int[] directions = new int[numChannels];
+               for (int c = 0; c < numChannels; c++) {
+                  directions[c] = Deskewer.getDirection(acqMode, twoSided, firstSideIsA,
+                          deskewInvert_.isSelected(), c);
+               }
+               Deskewer deskewer = new Deskewer(sx, 
+                       Math.max(1, datastore.getAxisLength(Coords.Z)), dx, directions,
+                       deskewInterpolate_.isSelected());
+               Datastore deskewed = gui_.data().createRAMDatastore();
+               deskewed.setSummaryMetadata(datastore.getSummaryMetadata().copyBuilder().
+                       prefix(title).build());
+               deskewer.deskew(datastore, deskewed, gui_.data(), 
+                       new Deskewer.ProgressListener() {
+                  @Override
+                  public void planesDone(int done, int total) {
+                     setProgress(100 * done / total);
+                  }
+               });
+               deskewed.freeze();
+               gui_.displays().createDisplay(deskewed);
+               gui_.displays().manage(deskewed);
+               ReportingUtils.logDebugMessage("Deskew operation took " 
+                       + (System.currentTimeMillis() - startTime)
+                       + " milliseconds with total of " + deskewed.getNumImages() + " images");
+               return null;
+            }
+
             if (sc > 1) {
                IJ.run("Duplicate...", "title=" + title + " duplicate");
                IJ.run("Split Channels");
@@ -423,31 +455,8 @@ public class DataAnalysisPanel extends ListeningJPanel {
             int dir;
             for (int c = 0; c < sc; c++) {    // loop over channels 
                IJ.selectWindow("C" + (c + 1) + "-" + title);
-               switch (acqMode) {
-                  case STAGE_SCAN:
-                     if (twoSided) {
-                        dir = (c % 2) * 2 - 1;  // -1 for path A which are odd channels, 1 for path B 
-                     } else {
-                        // single-sided is path A for all channels 
-                        dir = -1;
-                     }
-                     // invert direction if we started with path B, regardless of single- or double-sided 
-                     if (!firstSideIsA) {
-                        dir *= -1;
-                     }
-                     break;
-                  case STAGE_SCAN_INTERLEAVED:
-                  case STAGE_SCAN_UNIDIRECTIONAL:
-                     // always the same direction 
-                     dir = -1;
-                     break;
-                  default:
-                     // should never make it here 
-                     throw new Exception("Can only deskew stage scanning data");
-               }
-               if (deskewInvert_.isSelected()) {
-                  dir *= -1;
-               }
+               dir = Deskewer.getDirection(acqMode, twoSided, firstSideIsA,
+                       deskewInvert_.isSelected(), c);
                
                IJ.run("Canvas Size...", "width=" + sx_new + " height=" + sy + " position=Center-"
                        + (dir < 0 ? "Right" : "Left") + " zero");
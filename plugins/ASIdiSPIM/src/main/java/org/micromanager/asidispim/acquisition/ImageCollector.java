@@ -0,0 +1,601 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ImageCollector.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, & ASI, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.acquisition;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import mmcorej.CMMCore;
+import mmcorej.TaggedImage;
+
+import org.micromanager.data.Coords;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+
+/**
+ * Moves images from the core's circular buffer into a datastore during a
+ * diSPIM acquisition.
+ *
+ * The collecting thread (normally the acquisition thread) drains everything
+ * that is in the circular buffer at once, assigns each frame its coordinates
+ * through a Router (in buffer order, so the Router can keep counters), and
+ * hands the frame to the lane (queue) the Router picked, usually one per
+ * MM channel, i.e. per side and color.  Lanes are processed by a small pool
+ * of threads, with the images within a lane in order.  Only the conversion
+ * of frames into Images runs in parallel for different lanes: datastores
+ * are not thread-safe, so Datastore.putImage is called by one thread at a
+ * time, and writing the images is no faster than before.  What the
+ * collector gains is that neither conversion nor storage runs on the
+ * collecting thread, so the circular buffer is drained while images are
+ * being written.
+ *
+ * For each camera the collector keeps track of how far storage runs behind
+ * acquisition, see getLagReport().
+ */
+public class ImageCollector {
+
+   /**
+    * Decides where each frame goes.  Called on the collecting thread, once
+    * for every frame in the order in which frames left the circular buffer.
+    */
+   public interface Router {
+      /**
+       * @param image frame as popped from the circular buffer
+       * @param cameraIndex index of the camera that produced the frame in the
+       *          array of cameras handed to the ImageCollector, or the length
+       *          of that array for frames from any other camera
+       * @param now time (System.currentTimeMillis()) at which the frame
+       *          was popped
+       * @return where to store the frame, or null to drop it
+       * @throws Exception aborts collection
+       */
+      Destination route(TaggedImage image, int cameraIndex, long now)
+              throws Exception;
+   }
+
+   /**
+    * Turns a frame into the Image that will be put in the datastore.  Called
+    * on the threads of the collector, possibly for several lanes at the same
+    * time.
+    */
+   public interface Converter {
+      Image convert(TaggedImage image, Destination destination) throws Exception;
+   }
+
+   /**
+    * Lane, coordinates and extra information for a single frame.
+    */
+   public static class Destination {
+      private final int lane_;
+      private final Coords coords_;
+      private final long elapsedMs_;
+
+      /**
+       * @param lane frames with the same lane are stored in order
+       * @param coords coordinates of the frame in the datastore
+       * @param elapsedMs time since the start of the acquisition
+       */
+      public Destination(int lane, Coords coords, long elapsedMs) {
+         lane_ = lane;
+         coords_ = coords;
+         elapsedMs_ = elapsedMs;
+      }
+
+      public int getLane() {
+         return lane_;
+      }
+
+      public Coords getCoords() {
+         return coords_;
+      }
+
+      public long getElapsedMs() {
+         return elapsedMs_;
+      }
+   }
+
+   /**
+    * Where frames come from, normally the core's circular buffer.
+    */
+   interface FrameSource {
+      int getRemainingImageCount();
+
+      TaggedImage popNextTaggedImage() throws Exception;
+
+      boolean isSequenceRunning(String camera) throws Exception;
+   }
+
+   // tag with the time since the start of the sequence, set by the camera
+   // or else by the core when the frame entered the circular buffer
+   private static final String ELAPSED_TIME_TAG = "ElapsedTime-ms";
+
+   // polling backoff when the circular buffer is empty
+   private static final long MIN_WAIT_NS = 50000;      // 50 us
+   private static final long MAX_WAIT_NS = 2000000;    // 2 ms
+   // stop draining (and let the circular buffer absorb frames) when storage
+   // falls this far behind
+   private static final int MAX_PENDING = 512;
+
+   private final FrameSource source_;
+   private final String[] cameras_;
+   private final Datastore store_;
+   private final Converter converter_;
+   private final ExecutorService storageExecutor_;
+   private final Lane[] lanes_;
+   private final CameraStats[] stats_;
+   private final AtomicInteger pending_ = new AtomicInteger(0);
+   private final Object pendingLock_ = new Object();
+   private volatile Exception storageException_ = null;
+   private int maxBufferCount_ = 0;
+
+   /**
+    * @param core the Micro-Manager core
+    * @param cameras names of the cameras taking part in the acquisition;
+    *          the index in this array is the camera index given to the Router
+    * @param nrLanes number of lanes the Router uses
+    * @param store datastore that receives the images
+    * @param converter creates the images from the frames
+    * @param nrThreads number of threads converting (and, one at a time,
+    *          storing) images
+    */
+   public ImageCollector(final CMMCore core, String[] cameras, int nrLanes,
+           Datastore store, Converter converter, int nrThreads) {
+      this(new FrameSource() {
+         @Override
+         public int getRemainingImageCount() {
+            return core.getRemainingImageCount();
+         }
+
+         @Override
+         public TaggedImage popNextTaggedImage() throws Exception {
+            return core.popNextTaggedImage();
+         }
+
+         @Override
+         public boolean isSequenceRunning(String camera) throws Exception {
+            return core.isSequenceRunning(camera);
+         }
+      }, cameras, nrLanes, store, converter, nrThreads);
+   }
+
+   ImageCollector(FrameSource source, String[] cameras, int nrLanes,
+           Datastore store, Converter converter, int nrThreads) {
+      source_ = source;
+      cameras_ = cameras.clone();
+      store_ = store;
+      converter_ = converter;
+      lanes_ = new Lane[nrLanes];
+      for (int i = 0; i < nrLanes; i++) {
+         lanes_[i] = new Lane();
+      }
+      // last entry counts frames from cameras we were not told about
+      stats_ = new CameraStats[cameras_.length + 1];
+      for (int i = 0; i < stats_.length; i++) {
+         stats_[i] = new CameraStats();
+      }
+      storageExecutor_ = Executors.newFixedThreadPool(
+              Math.max(1, Math.min(nrThreads, nrLanes)),
+              new ThreadFactory() {
+                 private final AtomicInteger count_ = new AtomicInteger(0);
+
+                 @Override
+                 public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "diSPIM image collector thread "
+                            + count_.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                 }
+              });
+   }
+
+   /**
+    * Waits until the circular buffer holds at least one image.  Nothing is
+    * removed from the buffer.
+    * @param timeoutMs maximum time to wait
+    * @param cancel stops waiting when set
+    * @return true if an image is available
+    * @throws InterruptedException
+    */
+   public boolean awaitFirstImage(long timeoutMs, AtomicBoolean cancel)
+           throws InterruptedException {
+      final long start = System.currentTimeMillis();
+      long waitNs = MIN_WAIT_NS;
+      while (source_.getRemainingImageCount() == 0) {
+         if (cancel.get() || System.currentTimeMillis() - start >= timeoutMs) {
+            return false;
+         }
+         waitNs = backOff(waitNs);
+      }
+      return true;
+   }
+
+   /**
+    * Collects frames until the cameras have stopped and the circular buffer
+    * is empty, until cancel is set, or until no frame arrived for
+    * timeoutMs.  Frames are handed to the storage lanes; use finish() to
+    * wait for them to be stored.
+    * @param router assigns lane and coordinates to each frame
+    * @param cancel stops collection when set
+    * @param timeoutMs maximum time between two consecutive frames
+    * @return false if collection stopped because of the timeout
+    * @throws Exception from the Router, or when storage failed
+    */
+   public boolean collect(Router router, AtomicBoolean cancel, long timeoutMs)
+           throws Exception {
+      long last = System.currentTimeMillis();
+      long waitNs = MIN_WAIT_NS;
+      while (!cancel.get()) {
+         checkStorage();
+         int count = source_.getRemainingImageCount();
+         if (count > 0) {
+            maxBufferCount_ = Math.max(maxBufferCount_, count);
+            for (int i = 0; i < count && !cancel.get(); i++) {
+               waitForStorageCapacity(cancel);
+               TaggedImage timg = source_.popNextTaggedImage();
+               long now = System.currentTimeMillis();
+               int cameraIndex = cameraIndex(timg);
+               stats_[cameraIndex].received();
+               Destination destination = router.route(timg, cameraIndex, now);
+               if (destination == null) {
+                  stats_[cameraIndex].dropped();
+                  continue;
+               }
+               submit(timg, cameraIndex, destination, now);
+            }
+            last = System.currentTimeMillis();
+            waitNs = MIN_WAIT_NS;
+         } else if (!isAnySequenceRunning()) {
+            // a camera may have stopped right after we checked the buffer
+            if (source_.getRemainingImageCount() == 0) {
+               return true;
+            }
+         } else if (System.currentTimeMillis() - last >= timeoutMs) {
+            return false;
+         } else {
+            waitNs = backOff(waitNs);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Blocks until all collected frames are in the datastore.
+    * @throws Exception the first exception thrown while storing
+    */
+   public void finish() throws Exception {
+      synchronized (pendingLock_) {
+         while (pending_.get() > 0 && storageException_ == null) {
+            pendingLock_.wait(100);
+         }
+      }
+      checkStorage();
+   }
+
+   /**
+    * Stops the threads of the collector.  Frames that were not stored yet are
+    * discarded; call finish() first to avoid that.
+    */
+   public void close() {
+      storageExecutor_.shutdownNow();
+      try {
+         storageExecutor_.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * The storage lag of a frame is the time from its acquisition until its
+    * arrival in the datastore, including the time it spent in the circular
+    * buffer.  The time of acquisition comes from the ElapsedTime-ms tag,
+    * which counts from the start of the sequence on the camera's (or the
+    * core's) clock.  That clock is not the computer's clock, so for each
+    * sequence the frame that was popped soonest after its acquisition is
+    * taken to have been popped right away, and the lags of all frames of
+    * the sequence are relative to that frame, i.e. slightly too small.
+    * Frames without the tag are timed from the moment they were popped.
+    *
+    * @return one line per camera with the number of frames received and
+    *         stored, the largest number of frames waiting for storage,
+    *         and the mean and maximum storage lag
+    */
+   public String getLagReport() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("diSPIM image collection: largest circular buffer backlog ")
+              .append(maxBufferCount_).append(" images");
+      for (int i = 0; i < stats_.length; i++) {
+         if (i == cameras_.length && stats_[i].isEmpty()) {
+            break;
+         }
+         sb.append("\n   ").append(i < cameras_.length ? cameras_[i] : "other cameras")
+                 .append(": ").append(stats_[i].toString());
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @param cameraIndex index in the array of cameras, or its length for
+    *          frames from any other camera
+    * @return mean storage lag (ms) of the stored frames of the camera, see
+    *         getLagReport()
+    */
+   double getMeanLagMs(int cameraIndex) {
+      return stats_[cameraIndex].getMeanLagMs();
+   }
+
+   /**
+    * @param cameraIndex index in the array of cameras, or its length for
+    *          frames from any other camera
+    * @return maximum storage lag (ms) of the stored frames of the camera,
+    *         see getLagReport()
+    */
+   double getMaxLagMs(int cameraIndex) {
+      return stats_[cameraIndex].getMaxLagMs();
+   }
+
+   private int cameraIndex(TaggedImage timg) throws Exception {
+      String camera = (String) timg.tags.get("Camera");
+      for (int i = 0; i < cameras_.length; i++) {
+         if (cameras_[i].equals(camera)) {
+            return i;
+         }
+      }
+      return cameras_.length;
+   }
+
+   private boolean isAnySequenceRunning() throws Exception {
+      for (String camera : cameras_) {
+         if (source_.isSequenceRunning(camera)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static long backOff(long waitNs) throws InterruptedException {
+      LockSupport.parkNanos(waitNs);
+      if (Thread.interrupted()) {
+         throw new InterruptedException();
+      }
+      return Math.min(2 * waitNs, MAX_WAIT_NS);
+   }
+
+   private void checkStorage() throws Exception {
+      Exception ex = storageException_;
+      if (ex != null) {
+         throw ex;
+      }
+   }
+
+   private void waitForStorageCapacity(AtomicBoolean cancel)
+           throws Exception {
+      synchronized (pendingLock_) {
+         while (pending_.get() >= MAX_PENDING && !cancel.get()) {
+            pendingLock_.wait(10);
+            checkStorage();
+         }
+      }
+   }
+
+   private void submit(TaggedImage timg, int cameraIndex,
+           Destination destination, long poppedMs) {
+      if (destination.getLane() < 0 || destination.getLane() >= lanes_.length) {
+         throw new IllegalArgumentException("Invalid lane " + destination.getLane());
+      }
+      double acquiredMs = timg.tags.optDouble(ELAPSED_TIME_TAG);
+      if (Double.isNaN(acquiredMs)) {
+         acquiredMs = poppedMs;
+      }
+      pending_.incrementAndGet();
+      Sequence sequence = stats_[cameraIndex].queued(acquiredMs, poppedMs);
+      lanes_[destination.getLane()].add(
+              new Frame(timg, cameraIndex, destination, sequence, acquiredMs));
+   }
+
+   private void stored(Frame frame) {
+      stats_[frame.cameraIndex_].stored(frame.sequence_,
+              System.currentTimeMillis() - frame.acquiredMs_);
+      if (pending_.decrementAndGet() < MAX_PENDING) {
+         synchronized (pendingLock_) {
+            pendingLock_.notifyAll();
+         }
+      }
+   }
+
+   private static class Frame {
+      private final TaggedImage image_;
+      private final int cameraIndex_;
+      private final Destination destination_;
+      private final Sequence sequence_;
+      // time of acquisition on the clock of the sequence
+      private final double acquiredMs_;
+
+      private Frame(TaggedImage image, int cameraIndex,
+              Destination destination, Sequence sequence, double acquiredMs) {
+         image_ = image;
+         cameraIndex_ = cameraIndex;
+         destination_ = destination;
+         sequence_ = sequence;
+         acquiredMs_ = acquiredMs;
+      }
+   }
+
+   /**
+    * Queue of frames that is processed by at most one thread at a
+    * time, so frames in a lane are stored in the order in which they arrived.
+    */
+   private class Lane implements Runnable {
+      private final Queue<Frame> frames_ = new ArrayDeque<Frame>();
+      private boolean scheduled_ = false;
+
+      private void add(Frame frame) {
+         synchronized (this) {
+            frames_.add(frame);
+            if (scheduled_) {
+               return;
+            }
+            scheduled_ = true;
+         }
+         storageExecutor_.execute(this);
+      }
+
+      @Override
+      public void run() {
+         while (true) {
+            Frame frame;
+            synchronized (this) {
+               frame = frames_.poll();
+               if (frame == null) {
+                  scheduled_ = false;
+                  return;
+               }
+            }
+            try {
+               if (storageException_ == null) {
+                  Image image = converter_.convert(frame.image_, frame.destination_);
+                  synchronized (store_) {
+                     store_.putImage(image);
+                  }
+               }
+            } catch (Exception ex) {
+               if (storageException_ == null) {
+                  storageException_ = ex;
+               }
+            } finally {
+               stored(frame);
+            }
+         }
+      }
+   }
+
+   /**
+    * Frames of one camera whose acquisition times count from the same start.
+    * Lags are accumulated as the time of storage minus the time of
+    * acquisition, which are on different clocks; offsetMs_ converts between
+    * them.  Guarded by the CameraStats it belongs to.
+    */
+   private static class Sequence {
+      private double lastAcquiredMs_;
+      // smallest time of popping minus time of acquisition
+      private double offsetMs_ = Double.MAX_VALUE;
+      private long stored_ = 0;
+      private double totalMs_ = 0.0;
+      private double maxMs_ = -Double.MAX_VALUE;
+
+      private Sequence(double acquiredMs) {
+         lastAcquiredMs_ = acquiredMs;
+      }
+   }
+
+   /**
+    * Counters for one camera.  Updated by the collecting thread and by
+    * the threads of the collector.
+    */
+   private static class CameraStats {
+      private long received_ = 0;
+      private long dropped_ = 0;
+      private long stored_ = 0;
+      private int pending_ = 0;
+      private int maxPending_ = 0;
+      private final List<Sequence> sequences_ = new ArrayList<Sequence>();
+
+      private synchronized boolean isEmpty() {
+         return received_ == 0;
+      }
+
+      private synchronized void received() {
+         received_++;
+      }
+
+      private synchronized void dropped() {
+         dropped_++;
+      }
+
+      /**
+       * @param acquiredMs time of acquisition of the frame
+       * @param poppedMs time (System.currentTimeMillis()) at which the frame
+       *          was popped
+       * @return sequence the frame belongs to: a new one starts when the
+       *         time of acquisition goes back, i.e. when the camera was
+       *         restarted
+       */
+      private synchronized Sequence queued(double acquiredMs, long poppedMs) {
+         pending_++;
+         maxPending_ = Math.max(maxPending_, pending_);
+         Sequence sequence = sequences_.isEmpty() ? null
+                 : sequences_.get(sequences_.size() - 1);
+         if (sequence == null || acquiredMs < sequence.lastAcquiredMs_) {
+            sequence = new Sequence(acquiredMs);
+            sequences_.add(sequence);
+         }
+         sequence.lastAcquiredMs_ = acquiredMs;
+         sequence.offsetMs_ = Math.min(sequence.offsetMs_, poppedMs - acquiredMs);
+         return sequence;
+      }
+
+      /**
+       * @param sequence as returned by queued()
+       * @param lagMs time of storage minus time of acquisition of the frame
+       */
+      private synchronized void stored(Sequence sequence, double lagMs) {
+         pending_--;
+         stored_++;
+         sequence.stored_++;
+         sequence.totalMs_ += lagMs;
+         sequence.maxMs_ = Math.max(sequence.maxMs_, lagMs);
+      }
+
+      private synchronized double getMeanLagMs() {
+         double total = 0.0;
+         for (Sequence sequence : sequences_) {
+            total += sequence.totalMs_ - sequence.stored_ * sequence.offsetMs_;
+         }
+         return stored_ == 0 ? 0.0 : total / stored_;
+      }
+
+      private synchronized double getMaxLagMs() {
+         double max = 0.0;
+         for (Sequence sequence : sequences_) {
+            if (sequence.stored_ > 0) {
+               max = Math.max(max, sequence.maxMs_ - sequence.offsetMs_);
+            }
+         }
+         return max;
+      }
+
+      @Override
+      public synchronized String toString() {
+         return String.format("%d frames received, %d dropped, %d stored, "
+                 + "at most %d waiting for storage, "
+                 + "storage lag mean %.1f ms, max %.1f ms",
+                 received_, dropped_, stored_, maxPending_,
+                 getMeanLagMs(), getMaxLagMs());
+      }
+   }
+}
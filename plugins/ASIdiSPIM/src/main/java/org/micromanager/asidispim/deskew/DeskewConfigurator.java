@@ -0,0 +1,83 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          DeskewConfigurator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, & ASI, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.MMFrame;
+
+/**
+ * Settings of DeskewPlugin: the same options as in the deskew section of
+ * the Data Analysis tab
+ */
+public class DeskewConfigurator extends MMFrame implements ProcessorConfigurator {
+
+   private final JSpinner deskewFactor_;
+   private final JCheckBox invert_;
+   private final JCheckBox interpolate_;
+
+   public DeskewConfigurator(PropertyMap settings) {
+      setTitle(DeskewPlugin.MENU_NAME);
+      setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
+      setLayout(new MigLayout("", "[right]4[left]", "[]8[]"));
+
+      add(new JLabel("Deskew fudge factor:"));
+      deskewFactor_ = new JSpinner(new SpinnerNumberModel(
+            settings.getDouble(DeskewPlugin.DESKEW_FACTOR, 1.0), 0.0, 100.0, 0.01));
+      add(deskewFactor_, "wrap");
+
+      invert_ = new JCheckBox("Invert direction",
+            settings.getBoolean(DeskewPlugin.INVERT, false));
+      add(invert_, "left, span 2, wrap");
+
+      interpolate_ = new JCheckBox("Interpolate",
+            settings.getBoolean(DeskewPlugin.INTERPOLATE, false));
+      add(interpolate_, "left, span 2, wrap");
+
+      pack();
+      loadAndRestorePosition(300, 300);
+   }
+
+   @Override
+   public void showGUI() {
+      setVisible(true);
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      return PropertyMaps.builder().
+            putDouble(DeskewPlugin.DESKEW_FACTOR,
+                  ((Number) deskewFactor_.getValue()).doubleValue()).
+            putBoolean(DeskewPlugin.INVERT, invert_.isSelected()).
+            putBoolean(DeskewPlugin.INTERPOLATE, interpolate_.isSelected()).
+            build();
+   }
+}
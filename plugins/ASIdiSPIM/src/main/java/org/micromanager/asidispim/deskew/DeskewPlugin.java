@@ -0,0 +1,87 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          DeskewPlugin.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, & ASI, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.asidispim.data.Properties;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * Makes diSPIM deskewing available as an on-the-fly processor, so that it
+ * can be applied to existing stage scanning data sets from the "Process
+ * existing data" dialog
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class DeskewPlugin implements ProcessorPlugin, SciJavaPlugin {
+
+   public static final String MENU_NAME = "diSPIM Deskew";
+   public static final String TOOL_TIP_DESCRIPTION =
+         "Deskew stage scanning data acquired with the diSPIM plugin";
+
+   // settings keys, the same as used by the Data Analysis tab
+   public static final String DESKEW_FACTOR =
+         Properties.Keys.PLUGIN_DESKEW_FACTOR.toString();
+   public static final String INVERT =
+         Properties.Keys.PLUGIN_DESKEW_INVERT.toString();
+   public static final String INTERPOLATE =
+         Properties.Keys.PLUGIN_DESKEW_INTERPOLATE.toString();
+
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new DeskewConfigurator(settings);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new DeskewProcessor.Factory(studio_, settings);
+   }
+
+   @Override
+   public String getName() {
+      return MENU_NAME;
+   }
+
+   @Override
+   public String getHelpText() {
+      return TOOL_TIP_DESCRIPTION;
+   }
+
+   @Override
+   public String getVersion() {
+      return "0.4";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "University of California and Applied Scientific Precision(ASI), 2013-2017";
+   }
+}
@@ -0,0 +1,141 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          DeskewProcessor.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, & ASI, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.asidispim.api.ASIdiSPIMException;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Pipeline Processor that deskews images, either with a given Deskewer or
+ * with one set up from the diSPIM user data in the summary metadata (as
+ * when the processor is added through DeskewPlugin, e.g. to process an
+ * existing data set).  Images of data sets that can not be deskewed are
+ * passed on unchanged.
+ */
+public class DeskewProcessor extends Processor {
+
+   private final Studio studio_;
+   private final double deskewFactor_;
+   private final boolean invert_;
+   private final boolean interpolate_;
+   private Deskewer deskewer_;
+   private SummaryMetadata summary_;
+   private boolean failed_ = false;
+
+   public DeskewProcessor(Studio studio, Deskewer deskewer) {
+      studio_ = studio;
+      deskewer_ = deskewer;
+      deskewFactor_ = 1.0;
+      invert_ = false;
+      interpolate_ = false;
+   }
+
+   /**
+    * @param studio used to create images and log errors
+    * @param deskewFactor shift between slices relative to the z step
+    * @param invert whether to reverse the direction
+    * @param interpolate whether to interpolate sub-pixel shifts
+    */
+   public DeskewProcessor(Studio studio, double deskewFactor, boolean invert,
+         boolean interpolate) {
+      studio_ = studio;
+      deskewer_ = null;
+      deskewFactor_ = deskewFactor;
+      invert_ = invert;
+      interpolate_ = interpolate;
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata source) {
+      summary_ = source;
+      return source;
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      if (deskewer_ == null && !failed_) {
+         try {
+            deskewer_ = createDeskewer(image.getWidth());
+         } catch (ASIdiSPIMException ex) {
+            failed_ = true;
+            studio_.logs().logError(ex, "Images will not be deskewed");
+         }
+      }
+      if (deskewer_ == null) {
+         context.outputImage(image);
+         return;
+      }
+      context.outputImage(deskewer_.deskew(image, studio_.data()));
+   }
+
+   private Deskewer createDeskewer(int width) throws ASIdiSPIMException {
+      Coords dims = summary_ == null ? null : summary_.getIntendedDimensions();
+      if (dims == null) {
+         throw new ASIdiSPIMException("Number of slices of the data set is unknown");
+      }
+      return Deskewer.fromSummaryMetadata(summary_, width,
+            Math.max(1, dims.getZ()), Math.max(1, dims.getChannel()),
+            deskewFactor_, invert_, interpolate_);
+   }
+
+   /**
+    * Creates DeskewProcessors, e.g. for Studio.data().createPipeline()
+    */
+   public static class Factory implements ProcessorFactory {
+
+      private final Studio studio_;
+      private final Deskewer deskewer_;
+      private final PropertyMap settings_;
+
+      public Factory(Studio studio, Deskewer deskewer) {
+         studio_ = studio;
+         deskewer_ = deskewer;
+         settings_ = null;
+      }
+
+      /**
+       * @param studio used to create images and log errors
+       * @param settings as created by DeskewConfigurator
+       */
+      public Factory(Studio studio, PropertyMap settings) {
+         studio_ = studio;
+         deskewer_ = null;
+         settings_ = settings;
+      }
+
+      @Override
+      public Processor createProcessor() {
+         if (deskewer_ != null) {
+            return new DeskewProcessor(studio_, deskewer_);
+         }
+         return new DeskewProcessor(studio_,
+               settings_.getDouble(DeskewPlugin.DESKEW_FACTOR, 1.0),
+               settings_.getBoolean(DeskewPlugin.INVERT, false),
+               settings_.getBoolean(DeskewPlugin.INTERPOLATE, false));
+      }
+   }
+}
@@ -0,0 +1,335 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          Deskewer.java
+//PROJECT:       Micro-Manager 
+//SUBSYSTEM:     ASIdiSPIM plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, & ASI, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.asidispim.deskew;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.micromanager.PropertyMap;
+import org.micromanager.asidispim.api.ASIdiSPIMException;
+import org.micromanager.asidispim.data.AcquisitionModes;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataManager;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.NumberUtils;
+
+/**
+ * Deskews stage scanning data: every slice is shifted sideways in proportion
+ * to its z index, into an image that is wide enough to hold all shifted 
+ * slices.  This replaces the ImageJ "Canvas Size..." and "Translate..." 
+ * commands, with the same result, in a single pass over the pixels.
+ * 
+ * The shift of slice s is shiftPerSlice * s * direction, where direction 
+ * (-1 or 1) depends on the channel (i.e. the side that acquired it).  
+ * Slices shifted to the left start at the right edge of the output.  
+ * Without interpolation shifts are truncated to whole pixels, otherwise 
+ * pixels are linearly interpolated along x.
+ * 
+ * Instances are immutable and can be used from multiple threads.
+ */
+public final class Deskewer {
+   
+   /**
+    * Receives progress while deskewing a dataset
+    */
+   public interface ProgressListener {
+      void planesDone(int done, int total);
+   }
+   
+   // planes smaller than this are not split over threads
+   private static final int MIN_PARALLEL_PIXELS = 512 * 512;
+   
+   private final int width_;
+   private final int outputWidth_;
+   private final double shiftPerSlice_;
+   private final int[] directions_;
+   private final boolean interpolate_;
+   
+   /**
+    * @param width width of the input images
+    * @param numSlices number of slices in a stack
+    * @param shiftPerSlice shift between consecutive slices in pixels
+    * @param directions -1 or 1 for every channel
+    * @param interpolate whether to interpolate sub-pixel shifts
+    */
+   public Deskewer(int width, int numSlices, double shiftPerSlice, 
+         int[] directions, boolean interpolate) {
+      width_ = width;
+      outputWidth_ = width + (int) Math.abs(Math.ceil(shiftPerSlice * numSlices));
+      shiftPerSlice_ = shiftPerSlice;
+      directions_ = directions.clone();
+      interpolate_ = interpolate;
+   }
+   
+   /**
+    * Direction in which to shift the slices of a channel, as used by the 
+    * diSPIM: paths A and B alternate in two-sided stage scanning data
+    * 
+    * @param acqMode acquisition mode, must be stage scanning
+    * @param twoSided whether the data has two sides
+    * @param firstSideIsA whether the first channel is path A
+    * @param invert whether to reverse the direction
+    * @param channel channel index
+    * @return -1 or 1
+    * @throws ASIdiSPIMException if the mode is not stage scanning
+    */
+   public static int getDirection(AcquisitionModes.Keys acqMode, boolean twoSided,
+         boolean firstSideIsA, boolean invert, int channel) throws ASIdiSPIMException {
+      int dir;
+      switch (acqMode) {
+         case STAGE_SCAN:
+            if (twoSided) {
+               dir = (channel % 2) * 2 - 1;  // -1 for path A which are odd channels, 1 for path B 
+            } else {
+               // single-sided is path A for all channels 
+               dir = -1;
+            }
+            // invert direction if we started with path B, regardless of single- or double-sided 
+            if (!firstSideIsA) {
+               dir *= -1;
+            }
+            break;
+         case STAGE_SCAN_INTERLEAVED:
+         case STAGE_SCAN_UNIDIRECTIONAL:
+            // always the same direction 
+            dir = -1;
+            break;
+         default:
+            throw new ASIdiSPIMException("Can only deskew stage scanning data");
+      }
+      return invert ? -dir : dir;
+   }
+   
+   /**
+    * Create a Deskewer from the user data that the diSPIM plugin stores in
+    * the summary metadata of its acquisitions
+    * 
+    * @param summary summary metadata of the acquisition
+    * @param width width of the images
+    * @param numSlices number of slices per stack
+    * @param numChannels number of channels
+    * @param deskewFactor shift between slices relative to the z step 
+    *                     (1.0 for 45 degrees)
+    * @param invert whether to reverse the direction
+    * @param interpolate whether to interpolate sub-pixel shifts
+    * @return Deskewer for this acquisition
+    * @throws ASIdiSPIMException if the metadata is missing or does not 
+    *                            describe stage scanning data
+    */
+   public static Deskewer fromSummaryMetadata(SummaryMetadata summary, int width,
+         int numSlices, int numChannels, double deskewFactor, boolean invert,
+         boolean interpolate) throws ASIdiSPIMException {
+      PropertyMap metadata = summary.getUserData();
+      if (metadata == null || !metadata.containsKey("SPIMmode")) {
+         throw new ASIdiSPIMException("Data set was not acquired by the diSPIM plugin");
+      }
+      AcquisitionModes.Keys acqMode = AcquisitionModes.getKeyFromString(
+            metadata.getString("SPIMmode"));
+      boolean firstSideIsA = !"B".equals(metadata.getString("FirstSide"));
+      boolean twoSided = "2".equals(metadata.getString("NumberOfSides"));
+      double zStepPx;
+      try {
+         double pixelSize = NumberUtils.coreStringToDouble(metadata.getString("PixelSize_um"));
+         if (pixelSize < 1e-6) {
+            throw new ASIdiSPIMException("Cannot have pixel size of 0");
+         }
+         zStepPx = NumberUtils.coreStringToDouble(metadata.getString("z-step_um")) / pixelSize;
+      } catch (java.text.ParseException | NullPointerException ex) {
+         throw new ASIdiSPIMException(ex, "Pixel size or z step missing from metadata");
+      }
+      int[] directions = new int[numChannels];
+      for (int c = 0; c < numChannels; c++) {
+         directions[c] = getDirection(acqMode, twoSided, firstSideIsA, invert, c);
+      }
+      return new Deskewer(width, numSlices, zStepPx * deskewFactor, directions, interpolate);
+   }
+   
+   public int getOutputWidth() {
+      return outputWidth_;
+   }
+   
+   /**
+    * Deskew a single plane
+    * 
+    * @param pixels byte[] or short[] pixels of one plane, width as given in
+    *               the constructor
+    * @param height height of the plane
+    * @param channel channel index of the plane
+    * @param slice z index of the plane
+    * @return new pixel array of getOutputWidth() * height pixels
+    */
+   public Object deskewPlane(Object pixels, int height, int channel, int slice) {
+      int dir = directions_[channel % directions_.length];
+      double shift = shiftPerSlice_ * slice * dir;
+      // Canvas Size puts the original image at the right when shifting left
+      int offset = dir < 0 ? outputWidth_ - width_ : 0;
+      if (pixels instanceof short[]) {
+         short[] src = (short[]) pixels;
+         short[] dst = new short[outputWidth_ * height];
+         forEachRow(height, (int row) -> 
+               shiftRow(src, row * width_, dst, row * outputWidth_, offset, shift));
+         return dst;
+      } else if (pixels instanceof byte[]) {
+         byte[] src = (byte[]) pixels;
+         byte[] dst = new byte[outputWidth_ * height];
+         forEachRow(height, (int row) -> 
+               shiftRow(src, row * width_, dst, row * outputWidth_, offset, shift));
+         return dst;
+      }
+      throw new IllegalArgumentException("Can only deskew 8 and 16 bit images");
+   }
+   
+   private interface RowTask {
+      void run(int row);
+   }
+   
+   private void forEachRow(int height, RowTask task) {
+      IntStream rows = IntStream.range(0, height);
+      if (outputWidth_ * height >= MIN_PARALLEL_PIXELS) {
+         rows = rows.parallel();
+      }
+      rows.forEach(task::run);
+   }
+   
+   /**
+    * Output pixel x of the row takes input pixel x - offset - shift, 
+    * pixels outside the input are 0
+    */
+   private void shiftRow(short[] src, int srcStart, short[] dst, int dstStart,
+         int offset, double shift) {
+      if (!interpolate_ || shift == (int) shift) {
+         int start = offset + (int) shift;  // position of input pixel 0
+         int from = Math.max(0, -start);
+         int to = Math.min(width_, outputWidth_ - start);
+         if (to > from) {
+            System.arraycopy(src, srcStart + from, dst, dstStart + start + from, to - from);
+         }
+         return;
+      }
+      double position = offset + shift;  // position of input pixel 0
+      int first = (int) Math.floor(position);
+      double f = position - first;  // input pixel i covers outputs first + i and first + i + 1
+      // output x = first + i + 1 mixes input i (weight f) and i + 1 (weight 1 - f)
+      for (int x = Math.max(0, first); x <= Math.min(outputWidth_ - 1, first + width_); x++) {
+         int i = x - first - 1;
+         double v = 0.0;
+         if (i >= 0) {
+            v += f * (src[srcStart + i] & 0xffff);
+         }
+         if (i + 1 < width_) {
+            v += (1.0 - f) * (src[srcStart + i + 1] & 0xffff);
+         }
+         dst[dstStart + x] = (short) (int) (v + 0.5);
+      }
+   }
+   
+   private void shiftRow(byte[] src, int srcStart, byte[] dst, int dstStart,
+         int offset, double shift) {
+      if (!interpolate_ || shift == (int) shift) {
+         int start = offset + (int) shift;
+         int from = Math.max(0, -start);
+         int to = Math.min(width_, outputWidth_ - start);
+         if (to > from) {
+            System.arraycopy(src, srcStart + from, dst, dstStart + start + from, to - from);
+         }
+         return;
+      }
+      double position = offset + shift;
+      int first = (int) Math.floor(position);
+      double f = position - first;
+      for (int x = Math.max(0, first); x <= Math.min(outputWidth_ - 1, first + width_); x++) {
+         int i = x - first - 1;
+         double v = 0.0;
+         if (i >= 0) {
+            v += f * (src[srcStart + i] & 0xff);
+         }
+         if (i + 1 < width_) {
+            v += (1.0 - f) * (src[srcStart + i + 1] & 0xff);
+         }
+         dst[dstStart + x] = (byte) (int) (v + 0.5);
+      }
+   }
+   
+   /**
+    * Deskew a single image, using its channel and z coordinates
+    * 
+    * @param image 8 or 16 bit grayscale image
+    * @param data used to create the new image
+    * @return deskewed image with the same coordinates and metadata
+    */
+   public Image deskew(Image image, DataManager data) {
+      Coords coords = image.getCoords();
+      Object pixels = deskewPlane(image.getRawPixels(), image.getHeight(),
+            coords.getChannel(), coords.getZ());
+      return data.createImage(pixels, outputWidth_, image.getHeight(),
+            image.getBytesPerPixel(), 1, coords, image.getMetadata());
+   }
+   
+   /**
+    * Deskew all images of a data set into another Datastore, e.g. a RAM 
+    * datastore or a multipage TIFF datastore writing straight to disk.  
+    * Images are deskewed in parallel; reading from the source and writing to
+    * the destination happen one image at a time.  The destination is not
+    * frozen.
+    * 
+    * @param source data to deskew
+    * @param destination empty Datastore to receive the deskewed images
+    * @param data used to create the new images
+    * @param listener may be null
+    * @throws IOException when reading or writing fails
+    */
+   public void deskew(final DataProvider source, final Datastore destination,
+         final DataManager data, final ProgressListener listener) throws IOException {
+      final List<Coords> coordsList = new ArrayList<Coords>();
+      for (Coords coords : source.getUnorderedImageCoords()) {
+         coordsList.add(coords);
+      }
+      final AtomicInteger done = new AtomicInteger(0);
+      try {
+         coordsList.parallelStream().forEach((Coords coords) -> {
+            try {
+               Image image;
+               synchronized (source) {
+                  image = source.getImage(coords);
+               }
+               Image deskewed = deskew(image, data);
+               synchronized (destination) {
+                  destination.putImage(deskewed);
+               }
+               if (listener != null) {
+                  listener.planesDone(done.incrementAndGet(), coordsList.size());
+               }
+            } catch (IOException ex) {
+               throw new RuntimeException(ex);
+            }
+         });
+      } catch (RuntimeException ex) {
+         if (ex.getCause() instanceof IOException) {
+            throw (IOException) ex.getCause();
+         }
+         throw ex;
+      }
+   }
+}
@@ -0,0 +1,300 @@
+package org.micromanager.asidispim.acquisition;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import mmcorej.TaggedImage;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+
+public class ImageCollectorTest {
+   private static final String[] CAMERAS = {"HamCam1", "HamCam2"};
+
+   /**
+    * Circular buffer holding the given frames, with the cameras running
+    * while running_ is set.
+    */
+   private static class FakeSource implements ImageCollector.FrameSource {
+      private final Queue<TaggedImage> frames_ = new ArrayDeque<TaggedImage>();
+      private volatile boolean running_ = false;
+
+      @Override
+      public synchronized int getRemainingImageCount() {
+         return frames_.size();
+      }
+
+      @Override
+      public synchronized TaggedImage popNextTaggedImage() {
+         return frames_.poll();
+      }
+
+      @Override
+      public boolean isSequenceRunning(String camera) {
+         return running_;
+      }
+
+      private synchronized void add(TaggedImage frame) {
+         frames_.add(frame);
+      }
+   }
+
+   /**
+    * Datastore that records the names of the images put into it, and
+    * whether putImage was ever called by two threads at the same time.
+    */
+   private static class FakeStore {
+      private final List<String> names_ =
+              Collections.synchronizedList(new ArrayList<String>());
+      private final AtomicInteger busy_ = new AtomicInteger(0);
+      private volatile boolean concurrent_ = false;
+
+      private Datastore create() {
+         return (Datastore) Proxy.newProxyInstance(
+                 Datastore.class.getClassLoader(),
+                 new Class<?>[] {Datastore.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("putImage")) {
+                       throw new UnsupportedOperationException(method.getName());
+                    }
+                    if (busy_.incrementAndGet() > 1) {
+                       concurrent_ = true;
+                    }
+                    Thread.yield();
+                    names_.add(args[0].toString());
+                    busy_.decrementAndGet();
+                    return null;
+                 });
+      }
+   }
+
+   private static TaggedImage makeFrame(String camera, String name,
+           Double elapsedMs) throws JSONException {
+      JSONObject tags = new JSONObject();
+      tags.put("Camera", camera);
+      tags.put("Name", name);
+      if (elapsedMs != null) {
+         // the core puts all tags in as strings
+         tags.put("ElapsedTime-ms", elapsedMs.toString());
+      }
+      return new TaggedImage(null, tags);
+   }
+
+   private static Image makeImage(final String name) {
+      return (Image) Proxy.newProxyInstance(Image.class.getClassLoader(),
+              new Class<?>[] {Image.class}, (proxy, method, args) -> {
+                 if (method.getName().equals("toString")) {
+                    return name;
+                 }
+                 throw new UnsupportedOperationException(method.getName());
+              });
+   }
+
+   /**
+    * Converter naming each image after its frame, optionally taking some
+    * time.
+    */
+   private static ImageCollector.Converter makeConverter(final int sleepMs) {
+      return (TaggedImage image, ImageCollector.Destination destination) -> {
+         if (sleepMs > 0) {
+            Thread.sleep(sleepMs);
+         }
+         return makeImage(image.tags.getString("Name"));
+      };
+   }
+
+   /**
+    * Router sending the frames of each camera to their own lane, and
+    * recording the order in which it saw the frames.
+    */
+   private static class LaneRouter implements ImageCollector.Router {
+      private final List<String> seen_ = new ArrayList<String>();
+      private final List<Integer> cameras_ = new ArrayList<Integer>();
+
+      @Override
+      public ImageCollector.Destination route(TaggedImage image,
+              int cameraIndex, long now) throws Exception {
+         seen_.add(image.tags.getString("Name"));
+         cameras_.add(cameraIndex);
+         return new ImageCollector.Destination(cameraIndex, null, 0);
+      }
+   }
+
+   private static List<String> withPrefix(List<String> names, String prefix) {
+      List<String> result = new ArrayList<String>();
+      for (String name : names) {
+         if (name.startsWith(prefix)) {
+            result.add(name);
+         }
+      }
+      return result;
+   }
+
+   @Test
+   public void framesOfEachLaneAreStoredInOrder() throws Exception {
+      FakeSource source = new FakeSource();
+      List<String> expected = new ArrayList<String>();
+      List<Integer> expectedCameras = new ArrayList<Integer>();
+      Random random = new Random(1);
+      // more frames than may wait for storage
+      for (int i = 0; i < 2000; i++) {
+         int camera = random.nextInt(3);
+         String name = (camera == 0 ? "a" : camera == 1 ? "b" : "c") + i;
+         source.add(makeFrame(camera < 2 ? CAMERAS[camera] : "Other", name, null));
+         expected.add(name);
+         expectedCameras.add(camera);
+      }
+      FakeStore store = new FakeStore();
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 3,
+              store.create(), makeConverter(0), 3);
+      LaneRouter router = new LaneRouter();
+      Assert.assertTrue(collector.collect(router, new AtomicBoolean(false), 1000));
+      collector.finish();
+      collector.close();
+
+      // the Router sees the frames in buffer order, with the camera index
+      // of each frame (the number of cameras for unknown cameras)
+      Assert.assertEquals(expected, router.seen_);
+      Assert.assertEquals(expectedCameras, router.cameras_);
+      Assert.assertEquals(expected.size(), store.names_.size());
+      for (String prefix : new String[] {"a", "b", "c"}) {
+         Assert.assertEquals(withPrefix(expected, prefix),
+                 withPrefix(store.names_, prefix));
+      }
+      Assert.assertFalse("putImage was called concurrently", store.concurrent_);
+   }
+
+   @Test
+   public void droppedFramesAreCountedAndNotStored() throws Exception {
+      FakeSource source = new FakeSource();
+      for (int i = 0; i < 10; i++) {
+         source.add(makeFrame(CAMERAS[0], "a" + i, null));
+      }
+      source.add(makeFrame("Other", "c", null));
+      FakeStore store = new FakeStore();
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 1,
+              store.create(), makeConverter(0), 2);
+      ImageCollector.Router router = (TaggedImage image, int camera, long now) ->
+              image.tags.getString("Name").matches("a[0-2]") ? null
+              : new ImageCollector.Destination(0, null, 0);
+      Assert.assertTrue(collector.collect(router, new AtomicBoolean(false), 1000));
+      collector.finish();
+      collector.close();
+
+      Assert.assertEquals(8, store.names_.size());
+      Assert.assertFalse(store.names_.contains("a1"));
+      String report = collector.getLagReport();
+      Assert.assertTrue(report, report.contains(
+              "HamCam1: 10 frames received, 3 dropped, 7 stored"));
+      Assert.assertTrue(report, report.contains(
+              "HamCam2: 0 frames received, 0 dropped, 0 stored"));
+      Assert.assertTrue(report, report.contains(
+              "other cameras: 1 frames received, 0 dropped, 1 stored"));
+   }
+
+   @Test
+   public void storageErrorsAreReported() throws Exception {
+      FakeSource source = new FakeSource();
+      for (int i = 0; i < 5; i++) {
+         source.add(makeFrame(CAMERAS[0], "a" + i, null));
+      }
+      FakeStore store = new FakeStore();
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 1,
+              store.create(), (TaggedImage image, ImageCollector.Destination d) -> {
+                 if (image.tags.getString("Name").equals("a2")) {
+                    throw new IllegalStateException("conversion failed");
+                 }
+                 return makeImage(image.tags.getString("Name"));
+              }, 1);
+      try {
+         // thrown by whichever comes first
+         collector.collect(new LaneRouter(), new AtomicBoolean(false), 1000);
+         collector.finish();
+         Assert.fail("storage error was not reported");
+      } catch (IllegalStateException ex) {
+         Assert.assertEquals("conversion failed", ex.getMessage());
+      }
+      collector.close();
+      // nothing is stored after the error
+      Assert.assertEquals(2, store.names_.size());
+   }
+
+   @Test
+   public void collectStopsWithoutFrames() throws Exception {
+      FakeSource source = new FakeSource();
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 1,
+              new FakeStore().create(), makeConverter(0), 1);
+      // cameras stopped, nothing in the buffer
+      Assert.assertTrue(collector.collect(new LaneRouter(),
+              new AtomicBoolean(false), 1000));
+      // cameras running, but no frame arrives in time
+      source.running_ = true;
+      Assert.assertFalse(collector.collect(new LaneRouter(),
+              new AtomicBoolean(false), 50));
+      Assert.assertTrue(collector.collect(new LaneRouter(),
+              new AtomicBoolean(true), 50));
+      Assert.assertFalse(collector.awaitFirstImage(50, new AtomicBoolean(false)));
+      source.add(makeFrame(CAMERAS[0], "a", null));
+      Assert.assertTrue(collector.awaitFirstImage(50, new AtomicBoolean(false)));
+      Assert.assertEquals(1, source.getRemainingImageCount());
+      collector.close();
+   }
+
+   @Test
+   public void lagIsMeasuredFromAcquisition() throws Exception {
+      FakeSource source = new FakeSource();
+      // popped at about the same time, but acquired 100 ms apart
+      for (int i = 0; i < 5; i++) {
+         source.add(makeFrame(CAMERAS[0], "a" + i, 100.0 * i));
+      }
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 1,
+              new FakeStore().create(), makeConverter(0), 1);
+      collector.collect(new LaneRouter(), new AtomicBoolean(false), 1000);
+      collector.finish();
+      collector.close();
+      // the last frame is taken to have been popped right away
+      Assert.assertEquals(400.0, collector.getMaxLagMs(0), 100.0);
+      Assert.assertEquals(200.0, collector.getMeanLagMs(0), 100.0);
+   }
+
+   @Test
+   public void lagRestartsWithEachSequence() throws Exception {
+      FakeSource source = new FakeSource();
+      source.add(makeFrame(CAMERAS[0], "a0", 1000.0));
+      source.add(makeFrame(CAMERAS[0], "a1", 1100.0));
+      // the camera was restarted
+      source.add(makeFrame(CAMERAS[0], "a2", 0.0));
+      source.add(makeFrame(CAMERAS[0], "a3", 50.0));
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 1,
+              new FakeStore().create(), makeConverter(0), 1);
+      collector.collect(new LaneRouter(), new AtomicBoolean(false), 1000);
+      collector.finish();
+      collector.close();
+      Assert.assertEquals(100.0, collector.getMaxLagMs(0), 100.0);
+      Assert.assertEquals(37.5, collector.getMeanLagMs(0), 100.0);
+   }
+
+   @Test
+   public void framesWithoutTimeAreTimedFromPopping() throws Exception {
+      FakeSource source = new FakeSource();
+      for (int i = 0; i < 5; i++) {
+         source.add(makeFrame(CAMERAS[1], "b" + i, null));
+      }
+      ImageCollector collector = new ImageCollector(source, CAMERAS, 2,
+              new FakeStore().create(), makeConverter(20), 2);
+      collector.collect(new LaneRouter(), new AtomicBoolean(false), 1000);
+      collector.finish();
+      collector.close();
+      // one lane: the last frame waits for the conversion of all others
+      Assert.assertTrue(collector.getMaxLagMs(1) >= 99.0);
+      Assert.assertEquals(0.0, collector.getMaxLagMs(0), 0.0);
+   }
+}
@@ -0,0 +1,206 @@
+package org.micromanager.asidispim.deskew;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.asidispim.api.ASIdiSPIMException;
+import org.micromanager.asidispim.data.AcquisitionModes;
+
+public class DeskewerTest {
+
+   /**
+    * Value of the row at a (possibly fractional) input position, linearly
+    * interpolated, 0 outside of the row
+    */
+   private static double sample(int[] row, double position) {
+      int i = (int) Math.floor(position);
+      double frac = position - i;
+      double left = i >= 0 && i < row.length ? row[i] : 0.0;
+      if (frac == 0.0) {
+         return left;
+      }
+      double right = i + 1 >= 0 && i + 1 < row.length ? row[i + 1] : 0.0;
+      return left * (1.0 - frac) + right * frac;
+   }
+
+   /**
+    * What Canvas Size followed by Translate does to one row: output pixel x
+    * takes input position x - offset - shift, with the shift truncated
+    * unless interpolating
+    */
+   private static int[] referenceRow(int[] row, int outputWidth, double shift,
+         int dir, boolean interpolate) {
+      int offset = dir < 0 ? outputWidth - row.length : 0;
+      double s = interpolate ? shift : (int) shift;
+      int[] out = new int[outputWidth];
+      for (int x = 0; x < outputWidth; x++) {
+         out[x] = (int) (sample(row, x - offset - s) + 0.5);
+      }
+      return out;
+   }
+
+   private static short[] randomShorts(int n, long seed) {
+      Random random = new Random(seed);
+      short[] pixels = new short[n];
+      for (int i = 0; i < n; i++) {
+         pixels[i] = (short) random.nextInt(65536);
+      }
+      return pixels;
+   }
+
+   private static byte[] randomBytes(int n, long seed) {
+      byte[] pixels = new byte[n];
+      new Random(seed).nextBytes(pixels);
+      return pixels;
+   }
+
+   private static void checkPlane(Deskewer deskewer, Object input, int width,
+         int height, int channel, int slice, double shiftPerSlice, int dir,
+         boolean interpolate) {
+      int outputWidth = deskewer.getOutputWidth();
+      Object output = deskewer.deskewPlane(input, height, channel, slice);
+      for (int y = 0; y < height; y++) {
+         int[] row = new int[width];
+         for (int x = 0; x < width; x++) {
+            row[x] = input instanceof short[]
+                  ? ((short[]) input)[y * width + x] & 0xffff
+                  : ((byte[]) input)[y * width + x] & 0xff;
+         }
+         int[] expected = referenceRow(row, outputWidth,
+               shiftPerSlice * slice * dir, dir, interpolate);
+         for (int x = 0; x < outputWidth; x++) {
+            int actual = output instanceof short[]
+                  ? ((short[]) output)[y * outputWidth + x] & 0xffff
+                  : ((byte[]) output)[y * outputWidth + x] & 0xff;
+            // interpolated values may round differently at .5
+            Assert.assertEquals("slice " + slice + " row " + y + " x " + x,
+                  expected[x], actual, interpolate ? 1.0 : 0.0);
+         }
+      }
+   }
+
+   @Test
+   public void outputWidthHoldsAllShiftedSlices() {
+      Assert.assertEquals(100 + 25, new Deskewer(100, 10, 2.5,
+            new int[] {1}, false).getOutputWidth());
+      Assert.assertEquals(100 + 26, new Deskewer(100, 10, 2.51,
+            new int[] {1}, false).getOutputWidth());
+      Assert.assertEquals(100, new Deskewer(100, 10, 0.0,
+            new int[] {1}, false).getOutputWidth());
+   }
+
+   @Test
+   public void wholePixelShifts() {
+      int width = 37;
+      int height = 5;
+      Deskewer deskewer = new Deskewer(width, 6, 3.0, new int[] {-1, 1}, false);
+      short[] shorts = randomShorts(width * height, 1);
+      byte[] bytes = randomBytes(width * height, 2);
+      for (int slice = 0; slice < 6; slice++) {
+         checkPlane(deskewer, shorts, width, height, 0, slice, 3.0, -1, false);
+         checkPlane(deskewer, shorts, width, height, 1, slice, 3.0, 1, false);
+         checkPlane(deskewer, bytes, width, height, 0, slice, 3.0, -1, false);
+         checkPlane(deskewer, bytes, width, height, 1, slice, 3.0, 1, false);
+      }
+   }
+
+   @Test
+   public void fractionalShiftsAreTruncatedWithoutInterpolation() {
+      int width = 20;
+      int height = 3;
+      double shift = 1.7;
+      Deskewer deskewer = new Deskewer(width, 8, shift, new int[] {-1, 1}, false);
+      short[] shorts = randomShorts(width * height, 3);
+      for (int slice = 0; slice < 8; slice++) {
+         checkPlane(deskewer, shorts, width, height, 0, slice, shift, -1, false);
+         checkPlane(deskewer, shorts, width, height, 1, slice, shift, 1, false);
+      }
+   }
+
+   @Test
+   public void fractionalShiftsAreInterpolated() {
+      int width = 23;
+      int height = 4;
+      for (double shift : new double[] {0.25, 0.5, 1.3, 2.75}) {
+         Deskewer deskewer = new Deskewer(width, 7, shift, new int[] {-1, 1}, true);
+         short[] shorts = randomShorts(width * height, 4);
+         byte[] bytes = randomBytes(width * height, 5);
+         for (int slice = 0; slice < 7; slice++) {
+            checkPlane(deskewer, shorts, width, height, 0, slice, shift, -1, true);
+            checkPlane(deskewer, shorts, width, height, 1, slice, shift, 1, true);
+            checkPlane(deskewer, bytes, width, height, 0, slice, shift, -1, true);
+            checkPlane(deskewer, bytes, width, height, 1, slice, shift, 1, true);
+         }
+      }
+   }
+
+   @Test
+   public void interpolationOfConstantRowKeepsValue() {
+      int width = 10;
+      Deskewer deskewer = new Deskewer(width, 4, 0.4, new int[] {1}, true);
+      short[] row = new short[width];
+      java.util.Arrays.fill(row, (short) 50000);
+      short[] out = (short[]) deskewer.deskewPlane(row, 1, 0, 3);
+      // shifted by 1.2: output 2..10 lie fully within the input
+      for (int x = 2; x <= 10; x++) {
+         Assert.assertEquals(50000, out[x] & 0xffff);
+      }
+      Assert.assertEquals(0, out[0]);
+      Assert.assertEquals((int) (0.8 * 50000 + 0.5), out[1] & 0xffff);
+      Assert.assertEquals((int) (0.2 * 50000 + 0.5), out[11] & 0xffff);
+   }
+
+   @Test
+   public void channelsBeyondDirectionsWrapAround() {
+      int width = 8;
+      Deskewer deskewer = new Deskewer(width, 3, 2.0, new int[] {-1, 1}, false);
+      short[] pixels = randomShorts(width, 6);
+      checkPlane(deskewer, pixels, width, 1, 2, 2, 2.0, -1, false);
+      checkPlane(deskewer, pixels, width, 1, 3, 2, 2.0, 1, false);
+   }
+
+   @Test
+   public void largePlanesAreSplitOverThreadsWithSameResult() {
+      int width = 640;
+      int height = 480;
+      double shift = 0.6;
+      Deskewer deskewer = new Deskewer(width, 50, shift, new int[] {-1, 1}, true);
+      short[] shorts = randomShorts(width * height, 7);
+      checkPlane(deskewer, shorts, width, height, 0, 37, shift, -1, true);
+      checkPlane(deskewer, shorts, width, height, 1, 49, shift, 1, true);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void otherPixelTypesAreRejected() {
+      new Deskewer(4, 1, 1.0, new int[] {1}, false).deskewPlane(new int[4], 1, 0, 0);
+   }
+
+   @Test
+   public void directions() throws ASIdiSPIMException {
+      AcquisitionModes.Keys scan = AcquisitionModes.Keys.STAGE_SCAN;
+      // two-sided: path A (even channels) -1, path B 1
+      Assert.assertEquals(-1, Deskewer.getDirection(scan, true, true, false, 0));
+      Assert.assertEquals(1, Deskewer.getDirection(scan, true, true, false, 1));
+      Assert.assertEquals(-1, Deskewer.getDirection(scan, true, true, false, 2));
+      // starting with path B swaps them
+      Assert.assertEquals(1, Deskewer.getDirection(scan, true, false, false, 0));
+      Assert.assertEquals(-1, Deskewer.getDirection(scan, true, false, false, 1));
+      // single-sided is the same for all channels
+      Assert.assertEquals(-1, Deskewer.getDirection(scan, false, true, false, 1));
+      Assert.assertEquals(1, Deskewer.getDirection(scan, false, false, false, 1));
+      // invert
+      Assert.assertEquals(1, Deskewer.getDirection(scan, true, true, true, 0));
+      for (AcquisitionModes.Keys mode : new AcquisitionModes.Keys[] {
+            AcquisitionModes.Keys.STAGE_SCAN_INTERLEAVED,
+            AcquisitionModes.Keys.STAGE_SCAN_UNIDIRECTIONAL}) {
+         Assert.assertEquals(-1, Deskewer.getDirection(mode, true, false, false, 1));
+         Assert.assertEquals(1, Deskewer.getDirection(mode, true, false, true, 1));
+      }
+   }
+
+   @Test(expected = ASIdiSPIMException.class)
+   public void onlyStageScanningCanBeDeskewed() throws ASIdiSPIMException {
+      Deskewer.getDirection(AcquisitionModes.Keys.PIEZO_SLICE_SCAN, true, true,
+            false, 0);
+   }
+}
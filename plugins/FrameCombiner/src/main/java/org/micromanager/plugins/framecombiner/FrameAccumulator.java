@@ -0,0 +1,237 @@
+package org.micromanager.plugins.framecombiner;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.stream.IntStream;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+
+/**
+ * Folds frames into preallocated running accumulators as they arrive, so that
+ * combining a window of frames neither keeps the frames around nor causes
+ * a burst of work when the last frame of the window comes in.
+ *
+ * Sum and mean keep a running sum per pixel and min and max a running
+ * extremum, i.e. constant memory whatever the window size.  The median needs
+ * all values of the window: these are kept sorted per pixel (insertion of
+ * each new frame), so that the median is available without further work.
+ *
+ * Pixels are processed in stripes of rows, in parallel for large frames.
+ * An accumulator is meant to be used by a single thread at a time.
+ */
+final class FrameAccumulator {
+
+   private static final int STRIPE_ROWS = 64;
+   private static final int MIN_PARALLEL_PIXELS = 256 * 1024;
+
+   private final String algo_;
+   private final int windowSize_;
+   private final int width_;
+   private final int height_;
+   private final int bytesPerPixel_;
+   private final int nrPixels_;
+
+   // Copy of the pixels of the current frame as unsigned values
+   private final byte[] bytes_;
+   private final short[] shorts_;
+
+   // Running sums (sum, mean), extrema (min, max) or sorted values (median),
+   // only one of which is allocated
+   private final long[] sums_;
+   private final int[] extrema_;
+   // Pixel-major: values of pixel i are at [i * windowSize_, (i + 1) * windowSize_)
+   private final char[] sorted_;
+
+   private int count_;
+
+   /**
+    * @param algo one of the FrameCombinerPlugin.PROCESSOR_ALGO_* values
+    * @param windowSize number of frames that will be combined
+    * @param width frame width
+    * @param height frame height
+    * @param bytesPerPixel 1 or 2
+    */
+   FrameAccumulator(String algo, int windowSize, int width, int height,
+         int bytesPerPixel) {
+      if (bytesPerPixel != 1 && bytesPerPixel != 2) {
+         throw new IllegalArgumentException("FrameCombiner : Can not combine "
+               + bytesPerPixel + " bytes per pixel images");
+      }
+      algo_ = algo;
+      windowSize_ = windowSize;
+      width_ = width;
+      height_ = height;
+      bytesPerPixel_ = bytesPerPixel;
+      nrPixels_ = width * height;
+      bytes_ = bytesPerPixel == 1 ? new byte[nrPixels_] : null;
+      shorts_ = bytesPerPixel == 2 ? new short[nrPixels_] : null;
+
+      if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+         sums_ = new long[nrPixels_];
+         extrema_ = null;
+         sorted_ = null;
+      } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+         sums_ = null;
+         extrema_ = new int[nrPixels_];
+         sorted_ = null;
+      } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN)) {
+         sums_ = null;
+         extrema_ = null;
+         sorted_ = new char[nrPixels_ * windowSize];
+      } else {
+         throw new IllegalArgumentException("FrameCombiner : Algorithm called "
+               + algo + " is not implemented or not found.");
+      }
+      count_ = 0;
+   }
+
+   /**
+    * @return whether a frame of the given image fits this accumulator
+    */
+   boolean accepts(Image image) {
+      return image.getWidth() == width_ && image.getHeight() == height_
+            && image.getBytesPerPixel() == bytesPerPixel_;
+   }
+
+   int getCount() {
+      return count_;
+   }
+
+   /**
+    * Adds a frame.
+    *
+    * @param image frame of the same size and type as given in the constructor
+    */
+   void add(Image image) {
+      if (count_ >= windowSize_) {
+         throw new IllegalStateException("FrameCombiner : Accumulator is full");
+      }
+      readPixels(image);
+      final int k = count_;
+      if (sums_ != null) {
+         forEachStripe((int start, int end) -> {
+            for (int i = start; i < end; i++) {
+               sums_[i] += value(i);
+            }
+         });
+      } else if (extrema_ != null) {
+         final boolean max = algo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX);
+         forEachStripe((int start, int end) -> {
+            for (int i = start; i < end; i++) {
+               int value = value(i);
+               if (k == 0) {
+                  extrema_[i] = value;
+               } else {
+                  extrema_[i] = max ? Math.max(extrema_[i], value)
+                        : Math.min(extrema_[i], value);
+               }
+            }
+         });
+      } else {
+         forEachStripe((int start, int end) -> {
+            for (int i = start; i < end; i++) {
+               // Insertion into the k values already sorted for this pixel
+               int value = value(i);
+               int offset = i * windowSize_;
+               int j = offset + k;
+               while (j > offset && sorted_[j - 1] > value) {
+                  sorted_[j] = sorted_[j - 1];
+                  j--;
+               }
+               sorted_[j] = (char) value;
+            }
+         });
+      }
+      count_++;
+   }
+
+   private int value(int index) {
+      return bytes_ != null ? bytes_[index] & 0xff : shorts_[index] & 0xffff;
+   }
+
+   /**
+    * Computes the combined frame from the frames added so far.
+    *
+    * @return byte[] or short[] pixels of the combined frame
+    */
+   Object getResult() {
+      if (count_ == 0) {
+         throw new IllegalStateException("FrameCombiner : No frames added");
+      }
+      final int n = count_;
+      final boolean mean = algo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN);
+      final byte[] bytes = bytesPerPixel_ == 1 ? new byte[nrPixels_] : null;
+      final short[] shorts = bytesPerPixel_ == 2 ? new short[nrPixels_] : null;
+      forEachStripe((int start, int end) -> {
+         for (int i = start; i < end; i++) {
+            int result;
+            if (sums_ != null) {
+               result = (int) (mean ? sums_[i] / n : sums_[i]);
+            } else if (extrema_ != null) {
+               result = extrema_[i];
+            } else {
+               // Lower median for an even number of frames
+               result = sorted_[i * windowSize_ + (n - 1) / 2];
+            }
+            if (bytes != null) {
+               bytes[i] = (byte) result;
+            } else {
+               shorts[i] = (short) result;
+            }
+         }
+      });
+      return bytes != null ? bytes : shorts;
+   }
+
+   /**
+    * Discards all frames added so far, keeping the allocated memory.
+    */
+   void reset() {
+      if (sums_ != null) {
+         forEachStripe((int start, int end) -> {
+            for (int i = start; i < end; i++) {
+               sums_[i] = 0;
+            }
+         });
+      }
+      // Extrema and sorted values are overwritten by the next frames
+      count_ = 0;
+   }
+
+   private void readPixels(Image image) {
+      if (image instanceof DefaultImage) {
+         // Copy straight from the direct buffer without a temporary array
+         Buffer buffer = ((DefaultImage) image).getPixelBuffer();
+         if (bytes_ != null) {
+            ByteBuffer copy = ((ByteBuffer) buffer).duplicate();
+            copy.rewind();
+            copy.get(bytes_);
+         } else {
+            ShortBuffer copy = ((ShortBuffer) buffer).duplicate();
+            copy.rewind();
+            copy.get(shorts_);
+         }
+      } else {
+         System.arraycopy(image.getRawPixels(), 0,
+               bytes_ != null ? bytes_ : shorts_, 0, nrPixels_);
+      }
+   }
+
+   private interface StripeTask {
+      void run(int start, int end);
+   }
+
+   private void forEachStripe(final StripeTask task) {
+      int nrStripes = (height_ + STRIPE_ROWS - 1) / STRIPE_ROWS;
+      IntStream stripes = IntStream.range(0, nrStripes);
+      if (nrPixels_ >= MIN_PARALLEL_PIXELS) {
+         stripes = stripes.parallel();
+      }
+      stripes.forEach((int stripe) -> task.run(
+            stripe * STRIPE_ROWS * width_,
+            Math.min(height_, (stripe + 1) * STRIPE_ROWS) * width_));
+   }
+}
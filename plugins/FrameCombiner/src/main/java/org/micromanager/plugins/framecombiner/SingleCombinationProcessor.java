@@ -26,8 +26,10 @@ public class SingleCombinationProcessor {
 
    private int current_frame_index_;
    private int processed_frame_index_;
-   private Image[] bufferImages_;
-   private int currentBufferIndex_;
+   // Running combination of the frames received since the last output, and
+   // the first of these frames (which provides coords and metadata)
+   private FrameAccumulator accumulator_;
+   private Image firstImage_;
 
    public SingleCombinationProcessor(Coords coords, Studio studio, String processorAlgo, String processorDimension,
            int numerOfImagesToProcess, boolean processCombinations, boolean isAnyChannelToAvoid) {
@@ -45,11 +47,8 @@ public class SingleCombinationProcessor {
 
       current_frame_index_ = 0;
       processed_frame_index_ = 0;
-      bufferImages_ = new Image[numerOfImagesToProcess_];
-
-      for (int i = 0; i < numerOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
+      accumulator_ = null;
+      firstImage_ = null;
 
       processedImage_ = null;
 
@@ -68,21 +67,40 @@ public class SingleCombinationProcessor {
          return;
       }
 
-      currentBufferIndex_ = current_frame_index_ % numerOfImagesToProcess_;
-      bufferImages_[currentBufferIndex_] = image;
+      int currentBufferIndex = current_frame_index_ % numerOfImagesToProcess_;
+      if (currentBufferIndex == 0) {
+         firstImage_ = image;
+      }
 
-      if (currentBufferIndex_ == (numerOfImagesToProcess_ - 1)) {
+      try {
+         // Fold the image into the running combination
+         if (accumulator_ == null || !accumulator_.accepts(image)) {
+            accumulator_ = new FrameAccumulator(processorAlgo_,
+                    numerOfImagesToProcess_, image.getWidth(),
+                    image.getHeight(), image.getBytesPerPixel());
+         }
+         if (currentBufferIndex == 0) {
+            accumulator_.reset();
+         }
+         accumulator_.add(image);
+      } catch (Exception ex) {
+         log_.logError(ex);
+         accumulator_ = null;
+      }
+
+      if (currentBufferIndex == (numerOfImagesToProcess_ - 1)) {
 
          try {
-            // Process last `numerOfImagesToProcess_` images
+            // Combine last `numerOfImagesToProcess_` images
             processBufferImages();
          } catch (Exception ex) {
             log_.logError(ex);
          }
+         firstImage_ = null;
 
-         // Clean buffered images
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-            bufferImages_[i] = null;
+         if (processedImage_ == null) {
+            current_frame_index_ += 1;
+            return;
          }
 
          // Add metadata to the processed image
@@ -120,231 +138,25 @@ public class SingleCombinationProcessor {
    }
 
    public void clear() {
-      for (int i = 0; i < numerOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
-      bufferImages_ = null;
+      accumulator_ = null;
+      firstImage_ = null;
    }
 
    public void processBufferImages() throws Exception {
 
-      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)) {
-         meanProcessImages(false);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
-         meanProcessImages(true);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
-         extremaProcessImages("max");
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
-         extremaProcessImages("min");
-      } else {
-         throw new Exception("FrameCombiner : Algorithm called " + processorAlgo_ + " is not implemented or not found.");
+      if (accumulator_ == null
+              || accumulator_.getCount() != numerOfImagesToProcess_) {
+         throw new Exception("FrameCombiner : Not all images could be combined "
+                 + "(image size or type changed?)");
       }
 
-   }
-
-   public void meanProcessImages(boolean onlySum) {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int bitDepth = img.getMetadata().getBitDepth();
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            byte[] imgPixels = (byte[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index] / numerOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xffff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (short) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (short) (int) (newPixels[index] / numerOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
-      }
-
-      // Create the processed image
-      processedImage_ = studio_.data().createImage(resultPixels, width, height,
-              bytesPerPixel, numComponents, coords, metadata);
-
-   }
-
-   public void extremaProcessImages(String extremaType) throws Exception {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int bitDepth = img.getMetadata().getBitDepth();
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array
-         if (extremaType.equals("max")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = 0;
-            }
-         } else if (extremaType.equals("min")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = Byte.MAX_VALUE;
-            }
-         } else {
-            throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] = (float) Math.max(currentValue, actualValue);
-               } else if (extremaType.equals("min")) {
-                  newPixels[index] = (float) Math.min(currentValue, actualValue);
-               } else {
-                  throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (byte) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array
-         if (extremaType.equals("max")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = 0;
-            }
-         } else if (extremaType.equals("min")) {
-            for (int i = 0; i < newPixels.length; i++) {
-               newPixels[i] = Byte.MAX_VALUE;
-            }
-         } else {
-            throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numerOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] = (float) Math.max(currentValue, actualValue);
-               } else if (extremaType.equals("min")) {
-                  newPixels[index] = (float) Math.min(currentValue, actualValue);
-               } else {
-                  throw new Exception("FrameCombiner : Wrong extremaType " + extremaType);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (short) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
-
-      }
+      Image img = firstImage_;
+      Object resultPixels = accumulator_.getResult();
 
       // Create the processed image
-      processedImage_ = studio_.data().createImage(resultPixels, width, height,
-              bytesPerPixel, numComponents, coords, metadata);
+      processedImage_ = studio_.data().createImage(resultPixels, img.getWidth(),
+              img.getHeight(), img.getBytesPerPixel(), img.getNumComponents(),
+              img.getCoords(), img.getMetadata());
 
    }
 }
@@ -0,0 +1,234 @@
+package org.micromanager.plugins.framecombiner;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Image;
+
+public class FrameAccumulatorTest {
+   private static final String[] ALGOS = {
+      FrameCombinerPlugin.PROCESSOR_ALGO_MEAN,
+      FrameCombinerPlugin.PROCESSOR_ALGO_SUM,
+      FrameCombinerPlugin.PROCESSOR_ALGO_MAX,
+      FrameCombinerPlugin.PROCESSOR_ALGO_MIN,
+      FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN};
+
+   /**
+    * Image that only knows its size and pixels, which is all the
+    * accumulator uses.
+    */
+   private static Image makeImage(final Object pixels, final int width,
+           final int height) {
+      final int bytesPerPixel = pixels instanceof byte[] ? 1 : 2;
+      return (Image) Proxy.newProxyInstance(Image.class.getClassLoader(),
+              new Class<?>[] {Image.class}, (proxy, method, args) -> {
+                 switch (method.getName()) {
+                    case "getWidth":
+                       return width;
+                    case "getHeight":
+                       return height;
+                    case "getBytesPerPixel":
+                       return bytesPerPixel;
+                    case "getRawPixels":
+                       return pixels;
+                    default:
+                       throw new UnsupportedOperationException(method.getName());
+                 }
+              });
+   }
+
+   private static List<Object> makeFrames(int nrFrames, int nrPixels,
+           int bytesPerPixel, long seed) {
+      Random random = new Random(seed);
+      List<Object> frames = new ArrayList<>();
+      for (int f = 0; f < nrFrames; f++) {
+         if (bytesPerPixel == 1) {
+            byte[] frame = new byte[nrPixels];
+            random.nextBytes(frame);
+            frames.add(frame);
+         } else {
+            short[] frame = new short[nrPixels];
+            for (int i = 0; i < nrPixels; i++) {
+               frame[i] = (short) random.nextInt(65536);
+            }
+            frames.add(frame);
+         }
+      }
+      return frames;
+   }
+
+   private static int value(Object frame, int i) {
+      return frame instanceof byte[] ? ((byte[]) frame)[i] & 0xff
+              : ((short[]) frame)[i] & 0xffff;
+   }
+
+   /**
+    * Combines the frames the way SingleCombinationProcessor did before
+    * the accumulator: all frames at once, per pixel, truncating to the
+    * pixel type (sums wrap around).
+    */
+   private static int[] directCombine(String algo, List<Object> frames,
+           int nrPixels) {
+      int[] result = new int[nrPixels];
+      int[] values = new int[frames.size()];
+      for (int i = 0; i < nrPixels; i++) {
+         long sum = 0;
+         for (int f = 0; f < frames.size(); f++) {
+            values[f] = value(frames.get(f), i);
+            sum += values[f];
+         }
+         Arrays.sort(values);
+         if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)) {
+            result[i] = (int) (sum / frames.size());
+         } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+            result[i] = (int) sum;
+         } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
+            result[i] = values[values.length - 1];
+         } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+            result[i] = values[0];
+         } else {
+            // lower median for an even number of frames
+            result[i] = values[(values.length - 1) / 2];
+         }
+      }
+      return result;
+   }
+
+   private static void checkResult(String message, int[] expected,
+           Object result, int bytesPerPixel) {
+      if (bytesPerPixel == 1) {
+         byte[] expectedBytes = new byte[expected.length];
+         for (int i = 0; i < expected.length; i++) {
+            expectedBytes[i] = (byte) expected[i];
+         }
+         assertArrayEquals(message, expectedBytes, (byte[]) result);
+      } else {
+         short[] expectedShorts = new short[expected.length];
+         for (int i = 0; i < expected.length; i++) {
+            expectedShorts[i] = (short) expected[i];
+         }
+         assertArrayEquals(message, expectedShorts, (short[]) result);
+      }
+   }
+
+   private static void checkAlgorithms(int width, int height, int bytesPerPixel,
+           int windowSize, long seed) {
+      List<Object> frames = makeFrames(windowSize, width * height,
+              bytesPerPixel, seed);
+      for (String algo : ALGOS) {
+         FrameAccumulator accumulator = new FrameAccumulator(algo, windowSize,
+                 width, height, bytesPerPixel);
+         for (Object frame : frames) {
+            accumulator.add(makeImage(frame, width, height));
+         }
+         assertEquals(windowSize, accumulator.getCount());
+         checkResult(algo + ", window " + windowSize + ", "
+                 + (8 * bytesPerPixel) + " bit",
+                 directCombine(algo, frames, width * height),
+                 accumulator.getResult(), bytesPerPixel);
+      }
+   }
+
+   @Test
+   public void algorithmsMatchDirectComputation() {
+      for (int bytesPerPixel = 1; bytesPerPixel <= 2; bytesPerPixel++) {
+         // odd and even window sizes
+         for (int windowSize : new int[] {1, 2, 3, 4, 7, 10}) {
+            checkAlgorithms(37, 70, bytesPerPixel, windowSize, windowSize);
+         }
+      }
+   }
+
+   @Test
+   public void largeFramesAreSplitOverThreadsWithSameResult() {
+      checkAlgorithms(640, 480, 2, 4, 11);
+      checkAlgorithms(640, 480, 1, 5, 12);
+   }
+
+   @Test
+   public void sumOf16BitFramesWrapsAround() {
+      short[] frame = new short[] {(short) 65535, (short) 40000, 1000, 0};
+      FrameAccumulator sum = new FrameAccumulator(
+              FrameCombinerPlugin.PROCESSOR_ALGO_SUM, 3, 2, 2, 2);
+      FrameAccumulator mean = new FrameAccumulator(
+              FrameCombinerPlugin.PROCESSOR_ALGO_MEAN, 3, 2, 2, 2);
+      for (int f = 0; f < 3; f++) {
+         sum.add(makeImage(frame, 2, 2));
+         mean.add(makeImage(frame, 2, 2));
+      }
+      assertArrayEquals(new short[] {(short) (3 * 65535), (short) 120000,
+         3000, 0}, (short[]) sum.getResult());
+      // the running sum itself does not overflow
+      assertArrayEquals(frame, (short[]) mean.getResult());
+   }
+
+   @Test
+   public void resultOfPartialWindow() {
+      List<Object> frames = makeFrames(3, 12, 2, 13);
+      for (String algo : ALGOS) {
+         FrameAccumulator accumulator = new FrameAccumulator(algo, 6, 4, 3, 2);
+         for (Object frame : frames) {
+            accumulator.add(makeImage(frame, 4, 3));
+         }
+         checkResult(algo, directCombine(algo, frames, 12),
+                 accumulator.getResult(), 2);
+      }
+   }
+
+   @Test
+   public void resetStartsNewWindow() {
+      List<Object> first = makeFrames(4, 12, 2, 14);
+      List<Object> second = makeFrames(4, 12, 2, 15);
+      for (String algo : ALGOS) {
+         FrameAccumulator accumulator = new FrameAccumulator(algo, 4, 4, 3, 2);
+         for (Object frame : first) {
+            accumulator.add(makeImage(frame, 4, 3));
+         }
+         accumulator.getResult();
+         accumulator.reset();
+         assertEquals(0, accumulator.getCount());
+         for (Object frame : second) {
+            accumulator.add(makeImage(frame, 4, 3));
+         }
+         checkResult(algo, directCombine(algo, second, 12),
+                 accumulator.getResult(), 2);
+      }
+   }
+
+   @Test
+   public void acceptsOnlyFramesOfSameSizeAndType() {
+      FrameAccumulator accumulator = new FrameAccumulator(
+              FrameCombinerPlugin.PROCESSOR_ALGO_MEAN, 2, 4, 3, 2);
+      assertTrue(accumulator.accepts(makeImage(new short[12], 4, 3)));
+      assertFalse(accumulator.accepts(makeImage(new byte[12], 4, 3)));
+      assertFalse(accumulator.accepts(makeImage(new short[12], 3, 4)));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void fullAccumulatorThrows() {
+      FrameAccumulator accumulator = new FrameAccumulator(
+              FrameCombinerPlugin.PROCESSOR_ALGO_MEDIAN, 1, 4, 3, 1);
+      accumulator.add(makeImage(new byte[12], 4, 3));
+      accumulator.add(makeImage(new byte[12], 4, 3));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void emptyAccumulatorHasNoResult() {
+      new FrameAccumulator(FrameCombinerPlugin.PROCESSOR_ALGO_SUM, 2, 4, 3, 1).
+              getResult();
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void unknownAlgorithmIsRejected() {
+      new FrameAccumulator("Mode", 2, 4, 3, 1);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void otherPixelTypesAreRejected() {
+      new FrameAccumulator(FrameCombinerPlugin.PROCESSOR_ALGO_SUM, 2, 4, 3, 4);
+   }
+}
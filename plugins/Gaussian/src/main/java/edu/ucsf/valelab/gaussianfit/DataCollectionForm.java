@@ -52,6 +52,7 @@ import edu.ucsf.valelab.gaussianfit.datasettransformations.CoordinateMapper;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
 import edu.ucsf.valelab.gaussianfit.utils.DisplayUtils;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
 import edu.ucsf.valelab.gaussianfit.data.LoadAndSave;
 import edu.ucsf.valelab.gaussianfit.spotoperations.SpotLinker;
@@ -2539,16 +2540,12 @@ public class DataCollectionForm extends JFrame {
       final int[] rows = mainTable_.getSelectedRowsSorted();
       for (int i = 0; i < rows.length; i++) {
          RowData rowData = mainTableModel_.getRow(rows[i]);
-         List<SpotData> filteredData = new ArrayList<SpotData>();
-         for (SpotData spot : rowData.spotList_) {
-            if (sf.filter(spot)) {
-               filteredData.add(new SpotData(spot));
-            }
-         }
+         SpotTable spots = rowData.getSpotTable();
+         SpotTable filteredData = spots.select(sf.filter(spots));
          // Add transformed data to data overview window
          RowData.Builder builder = rowData.copy();
          builder.setName(rowData.getName() + "-Filtered").setMaxNrSpots(filteredData.size()).
-                 setSpotList(filteredData);
+                 setSpotTable(filteredData);
          addSpotData(builder);
       }
    }
@@ -56,7 +56,7 @@ import org.apache.commons.math.optimization.general.NonLinearConjugateGradientOp
  */
 public class GaussianFit {
    
-   public class Data {
+   public static class Data {
       private final double[] parms_;
       private final double apertureIntensity_; // in raw units
       private final double apertureBackground_; // in raw units
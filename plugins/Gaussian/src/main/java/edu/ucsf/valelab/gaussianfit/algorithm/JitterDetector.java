@@ -33,94 +33,47 @@ either expressed or implied, of the FreeBSD Project.
 
 package edu.ucsf.valelab.gaussianfit.algorithm;
 
-import ij.process.FHT;
 import ij.process.ImageProcessor;
-import java.awt.Point;
 import java.awt.geom.Point2D;
+import org.micromanager.internal.utils.imageanalysis.PhaseCorrelator;
 
 /**
+ * Finds the position of the peak of the correlation between the reference
+ * and a test image, relative to which the jitter of test images can be
+ * calculated.  Uses phase correlation with sub-pixel peak refinement; the
+ * FFT of the reference is computed only once.
  *
  * @author Nico Stuurman
  */
 public class JitterDetector {
-   private final FHT ref_;
+   // Only look for the peak in a square with this edge size around the center
+   private static final int SEARCH_SIZE = 32;
+
+   private final PhaseCorrelator correlator_;
+   private final int halfWidth_;
+   private final int halfHeight_;
    
    public JitterDetector(ImageProcessor reference) {
-     ref_ = new FHT(reference);
-     ref_.transform();
-     ref_.resetMinAndMax();
-   }
-   
-   public void getJitter(ImageProcessor test, Point2D.Double com) {
-      FHT t = new FHT(test);
-      t.transform();
-      t.resetMinAndMax();
-      
-      FHT m = ref_.conjugateMultiply(t);
-            
-      m.inverseTransform();
-      m.swapQuadrants();
-      
-      // return the position of the brightest pixel
-      Point brightPix = new Point(0, 0);
-      BrightestPixel(m, brightPix, 32);     
-      
-      try {
-         // Gaussian fit using Nelder Mead and 3D fitting
-         GaussianFit gs = new GaussianFit(3, 2);
-         // halfsize of the square around brightest pixel used for Gaussian fit
-         int hs = 5;
-         ImageProcessor ip = m.convertToShort(true);
-         ip.setRoi(brightPix.x - hs, brightPix.y - hs, 2 * hs, 2 * hs);
-         ImageProcessor ipc = ip.crop();
-
-         GaussianFit.Data fitResult = gs.dogaussianfit(ipc, 100);
-         com.x = fitResult.getParms()[GaussianFit.XC] - hs + brightPix.x;
-         com.y = fitResult.getParms()[GaussianFit.YC] - hs + brightPix.y;
-
-      } catch (Exception ex) { 
-         // Gaussian fit failed, try second best estimate
-         com.x = brightPix.x;
-         com.y = brightPix.y;
-      }
-         
+      correlator_ = new PhaseCorrelator(reference.getWidth(), 
+              reference.getHeight());
+      correlator_.setMaxShift(SEARCH_SIZE / 2);
+      correlator_.setReference(reference);
+      halfWidth_ = reference.getWidth() / 2;
+      halfHeight_ = reference.getHeight() / 2;
    }
    
    /**
-    * Finds the brightest pixel in the center of the image m
-    * only searches in the center of the image in a square with edge size searchsize
+    * Returns the position of the correlation peak, with the center of the 
+    * image corresponding to no movement, as the brightest pixel of the
+    * cross-correlation of the reference with the test image used to be.
     * 
-    * @param m image to be searched
-    * @param brightPix point use to return coordinates of pixel found
-    * @param searchSize size of edge of center square in which to look for brightest pixel 
+    * @param test image to be compared with the reference
+    * @param com returns the position of the correlation peak
     */
-   private void BrightestPixel(FHT m, Point brightPix, int searchSize) {
-      float pixels[] = (float[]) m.getPixels();
-            
-
-      int height = m.getHeight();
-      int width = m.getWidth();
-      int halfHeight = (height / 2);
-      int halfWidth = (width / 2);
-      int halfSearchSize = (searchSize / 2);
-    
-      double max = pixels[halfHeight * width + halfWidth];
-      brightPix.x = halfWidth;
-      brightPix.y = halfHeight;
-      
-      
-      for (int y = halfHeight - halfSearchSize; 
-              y < halfHeight + halfSearchSize; y++) {
-         for (int x = halfWidth - halfSearchSize; 
-                 x < halfWidth + halfSearchSize; x++) {
-            if (pixels[y*width + x] > max) {
-               max = pixels[y*width + x];
-               brightPix.x = x;
-               brightPix.y = y;
-            }
-         }
-      }
-      
+   public void getJitter(ImageProcessor test, Point2D.Double com) {
+      Point2D.Double shift = correlator_.measureShift(test);
+      com.x = halfWidth_ - shift.x;
+      com.y = halfHeight_ - shift.y;
    }
    
 }
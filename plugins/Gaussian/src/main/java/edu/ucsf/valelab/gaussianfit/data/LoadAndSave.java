@@ -37,10 +37,10 @@ import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.EXTENSION;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 import edu.ucsf.valelab.gaussianfit.LittleEndianDataInputStream;
-import ij.process.ImageProcessor;
 import java.awt.Cursor;
 import java.awt.FileDialog;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -412,36 +412,39 @@ public class LoadAndSave {
          double maxZ = Double.NEGATIVE_INFINITY;
          double minZ = Double.POSITIVE_INFINITY;
 
-         ArrayList<SpotData> spotList = new ArrayList<SpotData>();
+         // Spots go straight into columns, without creating SpotData objects
+         SpotTable.Builder spotTable = new SpotTable.Builder(
+                 (int) Math.min(expectedSpots, Integer.MAX_VALUE - 8));
          TaggedSpotsProtos.Spot pSpot;
-         while (fi.available() > 0 && (expectedSpots == 0 || maxNrSpots < expectedSpots)) {
+         BufferedInputStream bi = new BufferedInputStream(fi, 65536);
+         while (bi.available() > 0 && (expectedSpots == 0 || maxNrSpots < expectedSpots)) {
         
             try {
-               pSpot = TaggedSpotsProtos.Spot.parseDelimitedFrom(fi, registry);
+               pSpot = TaggedSpotsProtos.Spot.parseDelimitedFrom(bi, registry);
 
-               SpotData gSpot = new SpotData((ImageProcessor) null, pSpot.getChannel(),
-                       pSpot.getSlice(), pSpot.getFrame(), pSpot.getPos(),
-                       pSpot.getMolecule(), pSpot.getXPosition(), pSpot.getYPosition());
-               gSpot.setData(pSpot.getIntensity(), pSpot.getBackground(), pSpot.getX(),
-                       pSpot.getY(), 0.0, pSpot.getWidth(), pSpot.getA(), pSpot.getTheta(),
+               spotTable.addSpot(pSpot.getChannel(), pSpot.getSlice(),
+                       pSpot.getFrame(), pSpot.getPos(), pSpot.getMolecule(),
+                       pSpot.getXPosition(), pSpot.getYPosition(),
+                       pSpot.getIntensity(), pSpot.getBackground(), pSpot.getX(),
+                       pSpot.getY(), pSpot.getWidth(), pSpot.getA(), pSpot.getTheta(),
                        pSpot.getXPrecision());
                if (appId == MMAPPID) {
-                  gSpot.addKeyValue(SpotData.Keys.APERTUREINTENSITY,
+                  spotTable.setValue(SpotData.Keys.APERTUREINTENSITY,
                           pSpot.getExtension(MMLocM.intensityAperture));
-                  gSpot.addKeyValue(SpotData.Keys.APERTUREBACKGROUND,
+                  spotTable.setValue(SpotData.Keys.APERTUREBACKGROUND,
                           pSpot.getExtension(MMLocM.intensityBackground));
-                  gSpot.addKeyValue(SpotData.Keys.INTENSITYRATIO,
+                  spotTable.setValue(SpotData.Keys.INTENSITYRATIO,
                           pSpot.getExtension(MMLocM.intensityRatio));
-                  gSpot.addKeyValue(SpotData.Keys.MSIGMA,
+                  spotTable.setValue(SpotData.Keys.MSIGMA,
                           pSpot.getExtension(MMLocM.mSigma));
                   if (pSpot.hasExtension(MMLocM.integralApertureSigma)) {
-                     gSpot.addKeyValue(SpotData.Keys.INTEGRALAPERTURESIGMA, 
+                     spotTable.setValue(SpotData.Keys.INTEGRALAPERTURESIGMA, 
                              pSpot.getExtension(MMLocM.integralApertureSigma));
                   }
                }
                if (pSpot.hasZ()) {
                   double zc = pSpot.getZ();
-                  gSpot.setZCenter(zc);
+                  spotTable.setZCenter(zc);
                   hasZ = true;
                   if (zc > maxZ) {
                      maxZ = zc;
@@ -454,21 +457,21 @@ public class LoadAndSave {
                if ((esf > 0) && ((maxNrSpots % esf) == 0)) {
                   ij.IJ.showProgress((double) maxNrSpots / (double) expectedSpots);
                }
-
-               spotList.add(gSpot);
             } catch (InvalidProtocolBufferException ipbe) {
                spotsMissedWithErrors++;
                ReportingUtils.logError("ProtocolBuffer Exception: " + ipbe.getMessage());
             }
          }
 
+         bi.close();
+
          RowData.Builder builder = new RowData.Builder();
          builder.setName(name).setTitle(title).setWidth(width).setHeight(height).
                  setPixelSizeNm(pixelSize).setZStackStepSizeNm(0.0f).setShape(shape).
                  setHalfSize(halfSize).setNrChannels(nrChannels).
                  setNrFrames(nrFrames).setNrSlices(nrSlices).
                  setNrPositions(nrPositions).setMaxNrSpots(maxNrSpots).
-                 setSpotList(spotList).setIsTrack(isTrack).
+                 setSpotTable(spotTable.build()).setIsTrack(isTrack).
                  setCoordinate(DataCollectionForm.Coordinates.NM).
                  setHasZ(hasZ).setMinZ(minZ).setMaxZ(maxZ);
          DataCollectionForm.getInstance().addSpotData(builder);
@@ -573,56 +576,57 @@ public class LoadAndSave {
                   fo.write(0);
                }
 
-               int counter = 0;
-               for (SpotData gd : rowData[rowNr].spotList_) {
+               // Write the spots straight from the columns, through a buffer
+               BufferedOutputStream bo = new BufferedOutputStream(fo, 65536);
+               SpotTable table = rowData[rowNr].getSpotTable();
+               String[] keys = {SpotData.Keys.APERTUREINTENSITY,
+                  SpotData.Keys.APERTUREBACKGROUND, SpotData.Keys.INTENSITYRATIO,
+                  SpotData.Keys.MSIGMA, SpotData.Keys.INTEGRALAPERTURESIGMA};
+               float[] keyValues = new float[keys.length];
+               TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot.newBuilder();
+               for (int counter = 0; counter < table.size(); counter++) {
 
                   if ((counter % 1000) == 0) {
                      ij.IJ.showStatus("Saving spotData...");
-                     ij.IJ.showProgress(counter, rowData[rowNr].spotList_.size());
+                     ij.IJ.showProgress(counter, table.size());
                   }
 
-                  if (gd != null) {
-                     TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot.newBuilder();
-                     // TODO: precede all these calls with check for presence of member
-                     // or be OK with default values?
-                     spotBuilder.setMolecule(counter).
-                             setFrame(gd.getFrame()).
-                             setChannel(gd.getChannel()).
-                             setPos(gd.getPosition()).
-                             setSlice(gd.getSlice()).
-                             setX((float) gd.getXCenter()).
-                             setY((float) gd.getYCenter()).
-                             setIntensity((float) gd.getIntensity()).
-                             setBackground((float) gd.getBackground()).
-                             setXPosition(gd.getX()).
-                             setYPosition(gd.getY()).
-                             setWidth((float) gd.getWidth()).
-                             setA((float) gd.getA()).
-                             setTheta((float) gd.getTheta()).
-                             setXPrecision((float) gd.getSigma()).
-                             setExtension(MMLocM.intensityAperture, 
-                                  gd.getValue(SpotData.Keys.APERTUREINTENSITY, -1.0).floatValue()).
-                             setExtension(MMLocM.intensityBackground, 
-                                  gd.getValue(SpotData.Keys.APERTUREBACKGROUND, -1.0).floatValue()).
-                             setExtension(MMLocM.intensityRatio, 
-                                  gd.getValue(SpotData.Keys.INTENSITYRATIO, -1.0).floatValue()).
-                             setExtension(MMLocM.mSigma, 
-                                  gd.getValue(SpotData.Keys.MSIGMA, -1.0).floatValue()).
-                             setExtension(MMLocM.integralApertureSigma,
-                                  gd.getValue(SpotData.Keys.INTEGRALAPERTURESIGMA, -1.0).floatValue()
-                     );
-                     
-                     if (rowData[rowNr].hasZ_) {
-                        spotBuilder.setZ((float) gd.getZCenter());
-                     }
-
-                     TaggedSpotsProtos.Spot spot = spotBuilder.build();
-                     
-                     // write message size and message
-                     spot.writeDelimitedTo(fo);
-                     counter++;
+                  for (int k = 0; k < keys.length; k++) {
+                     double value = table.getValue(keys[k], counter);
+                     keyValues[k] = Double.isNaN(value) ? -1.0f : (float) value;
+                  }
+                  spotBuilder.clear();
+                  // TODO: precede all these calls with check for presence of member
+                  // or be OK with default values?
+                  spotBuilder.setMolecule(counter).
+                          setFrame(table.getFrame(counter)).
+                          setChannel(table.getChannel(counter)).
+                          setPos(table.getPosition(counter)).
+                          setSlice(table.getSlice(counter)).
+                          setX((float) table.getXCenter(counter)).
+                          setY((float) table.getYCenter(counter)).
+                          setIntensity((float) table.getIntensity(counter)).
+                          setBackground((float) table.getBackground(counter)).
+                          setXPosition(table.getX(counter)).
+                          setYPosition(table.getY(counter)).
+                          setWidth((float) table.getWidth(counter)).
+                          setA((float) table.getA(counter)).
+                          setTheta((float) table.getTheta(counter)).
+                          setXPrecision((float) table.getSigma(counter)).
+                          setExtension(MMLocM.intensityAperture, keyValues[0]).
+                          setExtension(MMLocM.intensityBackground, keyValues[1]).
+                          setExtension(MMLocM.intensityRatio, keyValues[2]).
+                          setExtension(MMLocM.mSigma, keyValues[3]).
+                          setExtension(MMLocM.integralApertureSigma, keyValues[4]);
+
+                  if (rowData[rowNr].hasZ_) {
+                     spotBuilder.setZ((float) table.getZCenter(counter));
                   }
+
+                  // write message size and message
+                  spotBuilder.build().writeDelimitedTo(bo);
                }
+               bo.flush();
 
                FileChannel fc = fo.getChannel();
                long offset = fc.position();
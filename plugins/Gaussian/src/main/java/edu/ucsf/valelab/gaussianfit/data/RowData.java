@@ -36,10 +36,12 @@ package edu.ucsf.valelab.gaussianfit.data;
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm.Coordinates;
 import edu.ucsf.valelab.gaussianfit.utils.ListUtils;
 import java.awt.geom.Point2D;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import org.micromanager.display.DisplayWindow;
 
 /**
@@ -65,6 +67,7 @@ public class RowData {
       private int nrPositions_ = 1;
       private long maxNrSpots_;
       private List<SpotData> spotList_;
+      private SpotTable spotTable_;
       private ArrayList<Double> timePoints_;
       private boolean isTrack_;
       private Coordinates coordinate_ = Coordinates.NM;
@@ -153,6 +156,18 @@ public class RowData {
 
       public Builder setSpotList(List<SpotData> spotList) {
          spotList_ = spotList;
+         spotTable_ = null;
+         return this;
+      }
+
+      /**
+       * Alternative to setSpotList that avoids creating spot objects
+       * @param spotTable spots of this row
+       * @return this builder
+       */
+      public Builder setSpotTable(SpotTable spotTable) {
+         spotTable_ = spotTable;
+         spotList_ = null;
          return this;
       }
 
@@ -188,9 +203,15 @@ public class RowData {
 
    }
 
+   // Read-only view of spotTable_
    public final List<SpotData> spotList_;
+   private final SpotTable spotTable_;
    private Map<Integer, List<SpotData>> frameIndexSpotList_;
-   private Map<ImageIndex, List<SpotData>> indexedSpotList_;
+   // Spot indices sorted by frame (or slice), and for each frame the range
+   // of these indices, starting at frameStarts_[frame - firstFrame_]
+   private int[] frameOrder_;
+   private int[] frameStarts_;
+   private int firstFrame_;
    public final ArrayList<Double> timePoints_;
    private String name_;             // name as it appears in the DataCollection table
    public final String title_;      // ImagePlus title of the image
@@ -237,7 +258,9 @@ public class RowData {
       nrSlices_ = b.nrSlices_;
       nrPositions_ = b.nrPositions_;
       maxNrSpots_ = b.maxNrSpots_;
-      spotList_ = new ArrayList<SpotData>(b.spotList_);
+      spotTable_ = b.spotTable_ != null ? b.spotTable_
+              : SpotTable.fromList(b.spotList_);
+      spotList_ = spotTable_.asList();
       if (b.timePoints_ != null) {
          timePoints_ = new ArrayList<Double>(b.timePoints_);
       } else {
@@ -261,13 +284,11 @@ public class RowData {
          stdX = stdPoint.x;
          stdY = stdPoint.y;
          std = Math.sqrt(stdX * stdX + stdY * stdY);
-         for (SpotData spot : spotList_) {
-            nrPhotons += spot.getIntensity();
-         }
          List<Integer> channelList = new ArrayList<Integer>();
-         for (SpotData spot : spotList_) {
-            if (!channelList.contains(spot.getChannel()) ) {
-               channelList.add(spot.getChannel());
+         for (int i = 0; i < spotTable_.size(); i++) {
+            nrPhotons += spotTable_.getIntensity(i);
+            if (!channelList.contains(spotTable_.getChannel(i)) ) {
+               channelList.add(spotTable_.getChannel(i));
             }
          }
          for (Integer i : channelList) {
@@ -293,58 +314,123 @@ public class RowData {
               setShape(shape_).setHalfSize(halfSize_).setNrChannels(nrChannels_).
               setNrFrames(nrFrames_).setNrSlices(nrSlices_).
               setNrPositions(nrPositions_).setMaxNrSpots(maxNrSpots_).
-              setSpotList(spotList_).setTimePoints(timePoints_).
+              setSpotTable(spotTable_).setTimePoints(timePoints_).
               setIsTrack(isTrack_).setCoordinate(coordinate_).setHasZ(hasZ_).
               setMinZ(minZ_).setMaxZ(maxZ_);
       return builder;
    }
    
    /**
-    * Populates the list frameIndexSpotList which gives access to spots by frame
+    * @return all spots of this row
+    */
+   public SpotTable getSpotTable() {
+      return spotTable_;
+   }
+
+   /**
+    * Sorts the spots by frame (or by slice when there are more slices than
+    * frames), giving access to spots by frame and by image
     */
-   public void index() {
+   public synchronized void index() {
+      if (frameOrder_ != null) {
+         return;
+      }
       boolean useFrames = nrFrames_ > nrSlices_;
-      int nr = nrSlices_;
-      if (useFrames) {
-         nr = nrFrames_;
+      int[] order = spotTable_.sortedIndices(useFrames);
+      int first = 0;
+      int[] starts = new int[] {0};
+      if (order.length > 0) {
+         first = frameIndex(order[0], useFrames);
+         int last = frameIndex(order[order.length - 1], useFrames);
+         starts = new int[last - first + 2];
+         for (int i = 0; i < order.length; i++) {
+            starts[frameIndex(order[i], useFrames) - first + 1]++;
+         }
+         for (int k = 1; k < starts.length; k++) {
+            starts[k] += starts[k - 1];
+         }
       }
 
-      frameIndexSpotList_ = new HashMap<Integer, List<SpotData>>(nr);
-      indexedSpotList_ = new HashMap<ImageIndex, List<SpotData>>();
-
-      for (SpotData spot : spotList_) {
-         int frameIndex = spot.getSlice();
-         if (useFrames) {
-            frameIndex = spot.getFrame();
-         }
-         if (frameIndexSpotList_.get(frameIndex) == null) {
-            frameIndexSpotList_.put(frameIndex, new ArrayList<SpotData>());
+      Map<Integer, List<SpotData>> frameIndexSpotList =
+              new HashMap<Integer, List<SpotData>>(starts.length);
+      for (int k = 0; k < starts.length - 1; k++) {
+         if (starts[k + 1] > starts[k]) {
+            frameIndexSpotList.put(k + first,
+                    new IndexedSpots(spotTable_, order, starts[k], starts[k + 1]));
          }
-         frameIndexSpotList_.get(frameIndex).add(spot);
+      }
+      firstFrame_ = first;
+      frameStarts_ = starts;
+      frameIndexSpotList_ = frameIndexSpotList;
+      frameOrder_ = order;
+   }
+
+   private int frameIndex(int spot, boolean useFrames) {
+      return useFrames ? spotTable_.getFrame(spot) : spotTable_.getSlice(spot);
+   }
 
-         ImageIndex ii = new ImageIndex(spot.getFrame(), spot.getSlice(),
-                 spot.getChannel(), spot.getPosition());
-         if (indexedSpotList_.get(ii) == null) {
-            indexedSpotList_.put(ii, new ArrayList<SpotData>());
+   /**
+    * Read-only view of a range of sorted spots
+    */
+   private static final class IndexedSpots extends AbstractList<SpotData>
+           implements RandomAccess {
+      private final SpotTable table_;
+      private final int[] order_;
+      private final int start_;
+      private final int end_;
+
+      private IndexedSpots(SpotTable table, int[] order, int start, int end) {
+         table_ = table;
+         order_ = order;
+         start_ = start;
+         end_ = end;
+      }
+
+      @Override
+      public SpotData get(int index) {
+         if (index < 0 || index >= end_ - start_) {
+            throw new IndexOutOfBoundsException();
          }
-         indexedSpotList_.get(ii).add(spot);
+         return table_.getSpot(order_[start_ + index]);
+      }
+
+      @Override
+      public int size() {
+         return end_ - start_;
       }
    }
    
-   public Map<Integer, List<SpotData>> getSpotListIndexedByFrame () {
-      if (frameIndexSpotList_ == null) {
-         index();
-      }
+   public synchronized Map<Integer, List<SpotData>> getSpotListIndexedByFrame () {
+      index();
       return frameIndexSpotList_;
    }
            
 
-   public List<SpotData> get(int frame, int slice, int channel, int position) {
-      ImageIndex ii = new ImageIndex(frame, slice, channel, position);
-      if (indexedSpotList_ == null) {
-         index();
+   /**
+    * Returns the spots found in a given image
+    *
+    * @return new list with the spots, or null when there are none
+    */
+   public synchronized List<SpotData> get(int frame, int slice, int channel, int position) {
+      index();
+      boolean useFrames = nrFrames_ > nrSlices_;
+      int k = (useFrames ? frame : slice) - firstFrame_;
+      if (k < 0 || k >= frameStarts_.length - 1) {
+         return null;
+      }
+      List<SpotData> spots = null;
+      for (int j = frameStarts_[k]; j < frameStarts_[k + 1]; j++) {
+         int i = frameOrder_[j];
+         if (spotTable_.getFrame(i) == frame && spotTable_.getSlice(i) == slice
+                 && spotTable_.getChannel(i) == channel
+                 && spotTable_.getPosition(i) == position) {
+            if (spots == null) {
+               spots = new ArrayList<SpotData>();
+            }
+            spots.add(spotTable_.getSpot(i));
+         }
       }
-      return indexedSpotList_.get(ii);
+      return spots;
    }
 
    /**
@@ -359,10 +445,10 @@ public class RowData {
     * @return desired spot or null if not found
     */
    public SpotData get(int frame, int channel, double xPos, double yPos) {
-      for (SpotData spot : spotList_) {
-         if (spot.getFrame() == frame && spot.getChannel() == channel
-                 && spot.getXCenter() == xPos && spot.getYCenter() == yPos) {
-            return spot;
+      for (int i = 0; i < spotTable_.size(); i++) {
+         if (spotTable_.getFrame(i) == frame && spotTable_.getChannel(i) == channel
+                 && spotTable_.getXCenter(i) == xPos && spotTable_.getYCenter(i) == yPos) {
+            return spotTable_.getSpot(i);
          }
       }
 
@@ -0,0 +1,549 @@
+/*
+ * Column oriented storage of spot data
+ *
+
+Copyright (c) 2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+package edu.ucsf.valelab.gaussianfit.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, column oriented store of spots.
+ *
+ * Every property of SpotData is kept in a primitive array with one entry per
+ * spot, rather than in one object (plus a HashMap of extra values) per spot.
+ * This takes several times less memory, and lets operations on a whole data
+ * set run as simple loops over the columns they need.
+ *
+ * Positions, intensity and background are stored as doubles.  Width, shape,
+ * localization error and the values stored under SpotData.Keys are stored as
+ * floats, the precision with which they are saved to file.  Missing key
+ * values are stored as NaN.
+ *
+ * asList() gives a read-only List of SpotData for code written against
+ * spot objects; each get() creates a new SpotData.
+ */
+public final class SpotTable {
+
+   private final int size_;
+   private final int[] channel_;
+   private final int[] slice_;
+   private final int[] frame_;
+   private final int[] position_;
+   private final int[] nr_;
+   private final int[] x_;
+   private final int[] y_;
+   private final double[] intensity_;
+   private final double[] background_;
+   private final double[] xCenter_;
+   private final double[] yCenter_;
+   private final double[] zCenter_;
+   private final double[] xOri_;
+   private final double[] yOri_;
+   private final double[] zOri_;
+   private final float[] width_;
+   private final float[] a_;
+   private final float[] theta_;
+   private final float[] sigma_;
+   private final Map<String, float[]> values_;
+
+   public static class Builder {
+      private int size_ = 0;
+      private int[] channel_;
+      private int[] slice_;
+      private int[] frame_;
+      private int[] position_;
+      private int[] nr_;
+      private int[] x_;
+      private int[] y_;
+      private double[] intensity_;
+      private double[] background_;
+      private double[] xCenter_;
+      private double[] yCenter_;
+      private double[] zCenter_;
+      private double[] xOri_;
+      private double[] yOri_;
+      private double[] zOri_;
+      private float[] width_;
+      private float[] a_;
+      private float[] theta_;
+      private float[] sigma_;
+      private final Map<String, float[]> values_ =
+              new LinkedHashMap<String, float[]>();
+
+      public Builder() {
+         this(1024);
+      }
+
+      /**
+       * @param expectedSize number of spots to allocate room for
+       */
+      public Builder(int expectedSize) {
+         allocate(Math.max(16, expectedSize));
+      }
+
+      private void allocate(int capacity) {
+         channel_ = resize(channel_, capacity);
+         slice_ = resize(slice_, capacity);
+         frame_ = resize(frame_, capacity);
+         position_ = resize(position_, capacity);
+         nr_ = resize(nr_, capacity);
+         x_ = resize(x_, capacity);
+         y_ = resize(y_, capacity);
+         intensity_ = resize(intensity_, capacity);
+         background_ = resize(background_, capacity);
+         xCenter_ = resize(xCenter_, capacity);
+         yCenter_ = resize(yCenter_, capacity);
+         zCenter_ = resize(zCenter_, capacity);
+         xOri_ = resize(xOri_, capacity);
+         yOri_ = resize(yOri_, capacity);
+         zOri_ = resize(zOri_, capacity);
+         width_ = resize(width_, capacity);
+         a_ = resize(a_, capacity);
+         theta_ = resize(theta_, capacity);
+         sigma_ = resize(sigma_, capacity);
+         for (Map.Entry<String, float[]> entry : values_.entrySet()) {
+            entry.setValue(resizeValues(entry.getValue(), capacity));
+         }
+      }
+
+      public int size() {
+         return size_;
+      }
+
+      /**
+       * Adds a spot.  Its z center and original position are 0 and it has
+       * no key values until set with the methods below.
+       * @return this builder
+       */
+      public Builder addSpot(int channel, int slice, int frame, int position,
+              int nr, int x, int y, double intensity, double background,
+              double xCenter, double yCenter, double width, double a,
+              double theta, double sigma) {
+         if (size_ == channel_.length) {
+            allocate(size_ + (size_ >> 1));
+         }
+         int i = size_;
+         channel_[i] = channel;
+         slice_[i] = slice;
+         frame_[i] = frame;
+         position_[i] = position;
+         nr_[i] = nr;
+         x_[i] = x;
+         y_[i] = y;
+         intensity_[i] = intensity;
+         background_[i] = background;
+         xCenter_[i] = xCenter;
+         yCenter_[i] = yCenter;
+         zCenter_[i] = 0.0;
+         xOri_[i] = 0.0;
+         yOri_[i] = 0.0;
+         zOri_[i] = 0.0;
+         width_[i] = (float) width;
+         a_[i] = (float) a;
+         theta_[i] = (float) theta;
+         sigma_[i] = (float) sigma;
+         for (float[] values : values_.values()) {
+            values[i] = Float.NaN;
+         }
+         size_++;
+         return this;
+      }
+
+      /**
+       * Adds a copy of the given spot.
+       * @param spot to be added
+       * @return this builder
+       */
+      public Builder addSpot(SpotData spot) {
+         addSpot(spot.getChannel(), spot.getSlice(), spot.getFrame(),
+                 spot.getPosition(), spot.getNr(), spot.getX(), spot.getY(),
+                 spot.getIntensity(), spot.getBackground(), spot.getXCenter(),
+                 spot.getYCenter(), spot.getWidth(), spot.getA(),
+                 spot.getTheta(), spot.getSigma());
+         setZCenter(spot.getZCenter());
+         setOriginalPosition(spot.getXOri(), spot.geYOri(), spot.getZOri());
+         for (String key : spot.getKeys()) {
+            setValue(key, spot.getValue(key));
+         }
+         return this;
+      }
+
+      /**
+       * Sets the z center of the last spot added.
+       */
+      public Builder setZCenter(double zCenter) {
+         zCenter_[size_ - 1] = zCenter;
+         return this;
+      }
+
+      /**
+       * Sets the original position of the last spot added.
+       */
+      public Builder setOriginalPosition(double xOri, double yOri, double zOri) {
+         xOri_[size_ - 1] = xOri;
+         yOri_[size_ - 1] = yOri;
+         zOri_[size_ - 1] = zOri;
+         return this;
+      }
+
+      /**
+       * Sets a key value (see SpotData.Keys) of the last spot added.
+       */
+      public Builder setValue(String key, double value) {
+         float[] values = values_.get(key);
+         if (values == null) {
+            values = new float[channel_.length];
+            Arrays.fill(values, Float.NaN);
+            values_.put(key, values);
+         }
+         values[size_ - 1] = (float) value;
+         return this;
+      }
+
+      public SpotTable build() {
+         allocate(size_);
+         return new SpotTable(this);
+      }
+   }
+
+   private SpotTable(Builder b) {
+      size_ = b.size_;
+      channel_ = b.channel_;
+      slice_ = b.slice_;
+      frame_ = b.frame_;
+      position_ = b.position_;
+      nr_ = b.nr_;
+      x_ = b.x_;
+      y_ = b.y_;
+      intensity_ = b.intensity_;
+      background_ = b.background_;
+      xCenter_ = b.xCenter_;
+      yCenter_ = b.yCenter_;
+      zCenter_ = b.zCenter_;
+      xOri_ = b.xOri_;
+      yOri_ = b.yOri_;
+      zOri_ = b.zOri_;
+      width_ = b.width_;
+      a_ = b.a_;
+      theta_ = b.theta_;
+      sigma_ = b.sigma_;
+      values_ = new LinkedHashMap<String, float[]>(b.values_);
+   }
+
+   /**
+    * Copy of source with different x and y centers; the other columns are
+    * shared.
+    */
+   private SpotTable(SpotTable source, double[] xCenter, double[] yCenter) {
+      size_ = source.size_;
+      channel_ = source.channel_;
+      slice_ = source.slice_;
+      frame_ = source.frame_;
+      position_ = source.position_;
+      nr_ = source.nr_;
+      x_ = source.x_;
+      y_ = source.y_;
+      intensity_ = source.intensity_;
+      background_ = source.background_;
+      xCenter_ = xCenter;
+      yCenter_ = yCenter;
+      zCenter_ = source.zCenter_;
+      xOri_ = source.xOri_;
+      yOri_ = source.yOri_;
+      zOri_ = source.zOri_;
+      width_ = source.width_;
+      a_ = source.a_;
+      theta_ = source.theta_;
+      sigma_ = source.sigma_;
+      values_ = source.values_;
+   }
+
+   /**
+    * Creates a table holding the given spots.  When the list was obtained
+    * from asList(), its table is returned without copying.
+    * @param spots List of spots
+    * @return table with the same spots, in the same order
+    */
+   public static SpotTable fromList(List<SpotData> spots) {
+      if (spots instanceof SpotList) {
+         return ((SpotList) spots).table_;
+      }
+      Builder builder = new Builder(spots.size());
+      for (SpotData spot : spots) {
+         builder.addSpot(spot);
+      }
+      return builder.build();
+   }
+
+   public int size() {
+      return size_;
+   }
+
+   public int getChannel(int i) {
+      return channel_[i];
+   }
+
+   public int getSlice(int i) {
+      return slice_[i];
+   }
+
+   public int getFrame(int i) {
+      return frame_[i];
+   }
+
+   public int getPosition(int i) {
+      return position_[i];
+   }
+
+   public int getNr(int i) {
+      return nr_[i];
+   }
+
+   public int getX(int i) {
+      return x_[i];
+   }
+
+   public int getY(int i) {
+      return y_[i];
+   }
+
+   public double getIntensity(int i) {
+      return intensity_[i];
+   }
+
+   public double getBackground(int i) {
+      return background_[i];
+   }
+
+   public double getXCenter(int i) {
+      return xCenter_[i];
+   }
+
+   public double getYCenter(int i) {
+      return yCenter_[i];
+   }
+
+   public double getZCenter(int i) {
+      return zCenter_[i];
+   }
+
+   public double getWidth(int i) {
+      return width_[i];
+   }
+
+   public double getA(int i) {
+      return a_[i];
+   }
+
+   public double getTheta(int i) {
+      return theta_[i];
+   }
+
+   public double getSigma(int i) {
+      return sigma_[i];
+   }
+
+   /**
+    * @param key one of SpotData.Keys
+    * @return whether any spot has a value for this key
+    */
+   public boolean hasKey(String key) {
+      return values_.containsKey(key);
+   }
+
+   /**
+    * @param key one of SpotData.Keys
+    * @param i spot index
+    * @return value of the key for the given spot, or NaN if it has none
+    */
+   public double getValue(String key, int i) {
+      float[] values = values_.get(key);
+      return values == null ? Double.NaN : values[i];
+   }
+
+   /**
+    * Creates a new spot object with the data of the given spot.
+    * @param i spot index
+    * @return spot, not associated with an ImageProcessor
+    */
+   public SpotData getSpot(int i) {
+      if (i < 0 || i >= size_) {
+         throw new IndexOutOfBoundsException("Spot " + i + " of " + size_);
+      }
+      SpotData spot = new SpotData(null, channel_[i], slice_[i], frame_[i],
+              position_[i], nr_[i], x_[i], y_[i]);
+      spot.setData(intensity_[i], background_[i], xCenter_[i], yCenter_[i],
+              zCenter_[i], width_[i], a_[i], theta_[i], sigma_[i]);
+      spot.setZCenter(zCenter_[i]);
+      spot.setOriginalPosition(xOri_[i], yOri_[i], zOri_[i]);
+      for (Map.Entry<String, float[]> entry : values_.entrySet()) {
+         float value = entry.getValue()[i];
+         if (!Float.isNaN(value)) {
+            spot.addKeyValue(entry.getKey(), value);
+         }
+      }
+      return spot;
+   }
+
+   /**
+    * @param keep one entry per spot, true for spots to keep
+    * @return new table with the selected spots, in the same order
+    */
+   public SpotTable select(boolean[] keep) {
+      Builder builder = new Builder(size_);
+      for (int i = 0; i < size_; i++) {
+         if (keep[i]) {
+            builder.addSpot(channel_[i], slice_[i], frame_[i], position_[i],
+                    nr_[i], x_[i], y_[i], intensity_[i], background_[i],
+                    xCenter_[i], yCenter_[i], width_[i], a_[i], theta_[i],
+                    sigma_[i]);
+            builder.setZCenter(zCenter_[i]);
+            builder.setOriginalPosition(xOri_[i], yOri_[i], zOri_[i]);
+            for (Map.Entry<String, float[]> entry : values_.entrySet()) {
+               float value = entry.getValue()[i];
+               if (!Float.isNaN(value)) {
+                  builder.setValue(entry.getKey(), value);
+               }
+            }
+         }
+      }
+      return builder.build();
+   }
+
+   /**
+    * @param xCenter new x center of every spot
+    * @param yCenter new y center of every spot
+    * @return new table that differs from this one only in the x and y centers
+    */
+   public SpotTable withCenters(double[] xCenter, double[] yCenter) {
+      if (xCenter.length != size_ || yCenter.length != size_) {
+         throw new IllegalArgumentException("Expected " + size_ + " centers");
+      }
+      return new SpotTable(this, xCenter, yCenter);
+   }
+
+   /**
+    * @return copies of the x centers of all spots
+    */
+   public double[] getXCenters() {
+      return Arrays.copyOf(xCenter_, size_);
+   }
+
+   /**
+    * @return copies of the y centers of all spots
+    */
+   public double[] getYCenters() {
+      return Arrays.copyOf(yCenter_, size_);
+   }
+
+   /**
+    * @return read-only list view of the spots in this table
+    */
+   public List<SpotData> asList() {
+      return new SpotList(this);
+   }
+
+   /**
+    * Returns the indices of all spots, sorted (stably) by frame or by slice.
+    * @param byFrame sort by frame when true, by slice otherwise
+    * @return spot indices
+    */
+   public int[] sortedIndices(boolean byFrame) {
+      int[] keys = byFrame ? frame_ : slice_;
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      for (int i = 0; i < size_; i++) {
+         min = Math.min(min, keys[i]);
+         max = Math.max(max, keys[i]);
+      }
+      int[] order = new int[size_];
+      if (size_ == 0) {
+         return order;
+      }
+      // counting sort: frame numbers are dense
+      int[] starts = new int[max - min + 2];
+      for (int i = 0; i < size_; i++) {
+         starts[keys[i] - min + 1]++;
+      }
+      for (int k = 1; k < starts.length; k++) {
+         starts[k] += starts[k - 1];
+      }
+      for (int i = 0; i < size_; i++) {
+         order[starts[keys[i] - min]++] = i;
+      }
+      return order;
+   }
+
+   // AbstractList does not support modification
+   private static final class SpotList extends AbstractList<SpotData>
+           implements RandomAccess {
+      private final SpotTable table_;
+
+      private SpotList(SpotTable table) {
+         table_ = table;
+      }
+
+      @Override
+      public SpotData get(int index) {
+         return table_.getSpot(index);
+      }
+
+      @Override
+      public int size() {
+         return table_.size_;
+      }
+   }
+
+   private static int[] resize(int[] array, int capacity) {
+      return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+   }
+
+   private static double[] resize(double[] array, int capacity) {
+      return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+   }
+
+   private static float[] resize(float[] array, int capacity) {
+      return array == null ? new float[capacity] : Arrays.copyOf(array, capacity);
+   }
+
+   private static float[] resizeValues(float[] array, int capacity) {
+      int oldLength = array.length;
+      float[] values = Arrays.copyOf(array, capacity);
+      if (capacity > oldLength) {
+         Arrays.fill(values, oldLength, capacity, Float.NaN);
+      }
+      return values;
+   }
+}
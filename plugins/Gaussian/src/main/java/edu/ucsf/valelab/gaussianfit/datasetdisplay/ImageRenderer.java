@@ -34,7 +34,7 @@ package edu.ucsf.valelab.gaussianfit.datasetdisplay;
 
 import edu.ucsf.valelab.gaussianfit.datasettransformations.SpotDataFilter;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
-import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
 import ij.ImageStack;
 import ij.process.ColorProcessor;
@@ -83,199 +83,61 @@ public class ImageRenderer {
          rect = new Rectangle(0, 0, (int) (rowData.width_ * magnification),
                  (int) (rowData.height_ * magnification));
       }
-      final double renderedPixelInNm = rowData.pixelSizeNm_ / magnification;
       final int width = rect.width;
       final int height = rect.height;
       final int fullWidth = (int) (rowData.width_ * magnification);
       final int fullHeight = (int) (rowData.height_ * magnification);
-      int endx = rect.x + rect.width;
-      int endy = rect.y + rect.height;
       final int size = width * height;
       double factor = magnification / rowData.pixelSizeNm_;
 
 
       try {
+         SpotTable spots = rowData.getSpotTable();
+         TiledRenderer renderer = new TiledRenderer(spots, sf.filter(spots),
+                 factor, rect, fullWidth, fullHeight);
+         TiledRenderer.TileListener progress = 
+                 (Rectangle tile, int tilesDone, int nrTiles) -> 
+                         ij.IJ.showProgress(tilesDone, nrTiles);
          if (method == 0) {
             if (!rowData.hasZ_) {
-               ip = new ShortProcessor(width, height);
-               short pixels[] = new short[size];
-               ip.setPixels(pixels);
-               for (SpotData spot : rowData.spotList_) {
-                  if (sf.filter(spot)) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
-                     if (x > rect.x && x < endx && y > rect.y && y < endy) {
-                        x -= rect.x;
-                        y -= rect.y;
-                        int index = (y * width) + x;
-                        if (index < size && index > 0) {
-                           if (pixels[index] != -1) {
-                              pixels[index] += 1;
-                           }
-                        }
-                     }
-                  }
-               }
+               ip = new ShortProcessor(width, height, 
+                       renderer.renderHistogram(null, 0.0, 0.0, progress)[0], 
+                       null);
             } else if (rowData.hasZ_) {
-               ShortProcessor[] sp = new ShortProcessor[3];
-               short[][] pixels = new short[3][size];
-               for (int i = 0; i < 3; i++) {
-                  sp[i] = new ShortProcessor(width, height);
-                  sp[i].setPixels(pixels[i]);
-               }
-               double spread = rowData.maxZ_ - rowData.minZ_;
-               for (SpotData spot : rowData.spotList_) {
-                  if (sf.filter(spot)) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
-                     if (x > rect.x && x < endx && y > rect.y && y < endy) {
-                        x -= rect.x;
-                        y -= rect.y;
-                        int index = (y * width) + x;
-                        if (index < size && index > 0) {
-                           int zIndex = (int) (256 * (spot.getZCenter() - rowData.minZ_) / spread);
-                           if (zIndex < 0) {
-                              zIndex = 0;
-                           }
-                           if (zIndex > 255) {
-                              zIndex = 255;
-                           }
-                           for (int i = 0; i < 3; i++) {
-                              pixels[i][index] += zLut_[zIndex][i];
-                           }
-                        }
-                     }
-                  }
-               }
-               // we have 3 ShortProcessors.  Combine into a color image:
+               short[][] pixels = renderer.renderHistogram(zLut_, 
+                       rowData.minZ_, rowData.maxZ_, progress);
+               // we have 3 planes.  Combine into a color image:
                ColorProcessor cp = new ColorProcessor(width, height);
                byte[][] colorPixels = new byte[3][];
                for (int i = 0; i < 3; i++) {
                   colorPixels[i] = new byte[size];
                }
-               //ip.setPixels(colorPixels);
-               double max = sp[0].getMax();
-               for (int i = 1; i < 3; i++) {
-                  if (sp[i].getMax() > max) {
-                     max = sp[i].getMax();
+               int max = 0;
+               for (int i = 0; i < 3; i++) {
+                  for (int p = 0; p < size; p++) {
+                     max = Math.max(max, pixels[i][p] & 0xffff);
                   }
                }
                for (int p = 0; p < size; p++) {
                   for (int i = 0; i < 3; i++) {
-                     colorPixels[i][p] = (byte) (256.0 * pixels[i][p] / max);
+                     colorPixels[i][p] = (byte) (256.0 * (pixels[i][p] & 0xffff) / max);
                   }
-
                }
                cp.setRGB(colorPixels[0], colorPixels[1], colorPixels[2]);
                ip = cp;
             }
+            ij.IJ.showProgress(1);
 
          } else if (method == 1 || method == 2) {  // Gaussian and normalized Gaussian
 
-
             // determines whether gaussians should be normalized by their total intensity
-            boolean normalize = false;
-            if (method == 2) {
-               normalize = true;
-            }
-
-            ip = new FloatProcessor(width, height);
-            float pixels[] = new float[size];
-            ip.setPixels(pixels);
+            boolean normalize = method == 2;
 
             ij.IJ.showStatus("Rendering Image...");
-            int updateQuantum = rowData.spotList_.size() / 100;
-            int counter = 0;
-            int spotsUsed = 0;
-            for (SpotData spot : rowData.spotList_) {
-               if (counter % updateQuantum == 0) {
-                  ij.IJ.showProgress(counter, rowData.spotList_.size());
-               }
-
-
-               if (sf.filter(spot)) {
-
-
-                  // cover 3 * precision
-                  int halfWidth = (int) (2 * spot.getSigma() / renderedPixelInNm);
-                  if (halfWidth == 0) {
-                     halfWidth = 2;
-                  }
-
-                  /*
-                   * A *  exp(-((x-xc)^2+(y-yc)^2)/(2 sigy^2))+b
-                   * A = params[INT]  (amplitude)
-                   * b = params[BGR]  (background)
-                   * xc = params[XC]
-                   * yc = params[YC]
-                   * sig = params[S]
-                   * 
-                   */
-                  int xc = (int) (factor * spot.getXCenter());
-                  int yc = (int) (factor * spot.getYCenter());
-                  //int xc = (int) Math.round(spot.getXCenter() / renderedPixelInNm);
-                  //int yc = (int) Math.round(spot.getYCenter() / renderedPixelInNm);
-
-
-                  if (xc > rect.x + halfWidth && xc < endx - halfWidth
-                          && yc > rect.y + halfWidth && yc < endy - halfWidth) {
-
-                     if (xc > halfWidth && xc < (fullWidth - halfWidth)
-                             && yc > halfWidth && yc < (fullHeight - halfWidth)) {
-                        counter++;
-                        spotsUsed++;
-                        double totalInt = 0.0;
-                        int xStart = xc - halfWidth;
-                        int xEnd = xc + halfWidth;
-                        int yStart = yc - halfWidth;
-                        int yEnd = yc + halfWidth;
-                        float[][] boxPixels = new float[xEnd - xStart][yEnd - yStart];
-                        for (int x = xStart; x < xEnd; x++) {
-                           for (int y = yStart; y < yEnd; y++) {
-                              double[] parms = {1.0, 0.0,
-                                 spot.getXCenter() / renderedPixelInNm,
-                                 spot.getYCenter() / renderedPixelInNm,
-                                 spot.getSigma() / renderedPixelInNm};
-                              double val = GaussianUtils.gaussian(parms, x, y);
-                              totalInt += val;
-                              if (normalize) {
-                                 boxPixels[x - xStart][y - yStart] = (float) val;
-                              } else {
-                                 ip.setf(x, y, ip.getf(x, y) + (float) val);
-                              }
-                           }
-                        }
-                        // normalize if requested
-                        if (normalize && totalInt > 0) {
-                           for (int x = xStart; x < xEnd; x++) {
-                              for (int y = yStart; y < yEnd; y++) {
-                                 boxPixels[x - xStart][y - yStart] /= totalInt;
-                                 if (boxPixels[x - xStart][y - yStart] != boxPixels[x - xStart][y - yStart]) {
-                                    System.out.println("<0");
-                                 }
-                              }
-                           }
-                           // now add to the image
-                           for (int x = xStart; x < xEnd; x++) {
-                              for (int y = yStart; y < yEnd; y++) {
-                                 try {
-                                    ip.setf(x - rect.x, y - rect.y,
-                                            ip.getf(x - rect.x, y - rect.y) + boxPixels[x - xStart][y - yStart]);
-                                 } catch (Exception ex) {
-                                    System.out.println("Exception");
-                                 }
-                              }
-                           }
-                        }
-
-                     }
-                  }
-               }
-            }
-
-
+            ip = new FloatProcessor(width, height, 
+                    renderer.renderGaussians(normalize, progress));
             ij.IJ.showProgress(1);
-            ij.IJ.showStatus("Rendered image using " + spotsUsed + " spots.");
+            ij.IJ.showStatus("Rendered image using " + renderer.getSpotsRendered() + " spots.");
 
          }
       } catch (java.lang.OutOfMemoryError ome) {
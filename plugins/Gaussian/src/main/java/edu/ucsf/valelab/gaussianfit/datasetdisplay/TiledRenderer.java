@@ -0,0 +1,369 @@
+/*
+ * Multi-threaded rendering of localization microscopy data
+ *
+
+Copyright (c) 2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.datasetdisplay;
+
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Renders spots into an image in parallel.
+ *
+ * The rendered area is divided into square tiles.  In a first, parallel pass
+ * over the spots each spot is assigned to the tile(s) its footprint touches
+ * (a counting sort, so that no lists of spots are created).  In a second
+ * pass the tiles are rendered in parallel, each by a single thread.  Since
+ * tiles do not overlap, threads write to the output without synchronization
+ * and there is no need to combine per-thread images.  Spots are rendered in
+ * their original order within each tile, so the result does not depend on
+ * the number of threads.
+ *
+ * The rendered area can be any part of the magnified image, so that only the
+ * part shown on screen needs to be rendered.  A TileListener is told about
+ * every finished tile, for progress reporting or progressive display.
+ */
+public final class TiledRenderer {
+   private static final int TILE_SIZE = 256;
+   private static final int SPOTS_PER_CHUNK = 64 * 1024;
+
+   /**
+    * Receives each tile when it has been rendered.  Called on the rendering
+    * threads.
+    */
+   public interface TileListener {
+      /**
+       * @param tile area of the output that is now final
+       * @param tilesDone number of tiles rendered so far
+       * @param nrTiles total number of tiles
+       */
+      void tileRendered(Rectangle tile, int tilesDone, int nrTiles);
+   }
+
+   private final SpotTable spots_;
+   private final boolean[] accept_;
+   private final double pixelsPerNm_;
+   private final Rectangle rect_;
+   private final int fullWidth_;
+   private final int fullHeight_;
+   private final int tileColumns_;
+   private final int tileRows_;
+   private volatile int spotsRendered_;
+
+   /**
+    * @param spots spots to render
+    * @param accept spots to include (e.g. from SpotDataFilter), or null for all
+    * @param pixelsPerNm size of the rendered image relative to the spot
+    *                    coordinates
+    * @param rect area of the rendered image to render
+    * @param fullWidth width of the complete rendered image
+    * @param fullHeight height of the complete rendered image
+    */
+   public TiledRenderer(SpotTable spots, boolean[] accept, double pixelsPerNm,
+           Rectangle rect, int fullWidth, int fullHeight) {
+      spots_ = spots;
+      accept_ = accept;
+      pixelsPerNm_ = pixelsPerNm;
+      rect_ = new Rectangle(rect);
+      fullWidth_ = fullWidth;
+      fullHeight_ = fullHeight;
+      tileColumns_ = Math.max(1, (rect.width + TILE_SIZE - 1) / TILE_SIZE);
+      tileRows_ = Math.max(1, (rect.height + TILE_SIZE - 1) / TILE_SIZE);
+   }
+
+   /**
+    * Footprint of a spot, in coordinates relative to the rendered area
+    */
+   private interface Footprint {
+      /**
+       * @param spot index
+       * @param box receives x0, y0, x1, y1 (exclusive)
+       * @return false if the spot is not rendered
+       */
+      boolean get(int spot, int[] box);
+   }
+
+   /**
+    * 2D histogram: counts the spots in each pixel, saturating at 65535.
+    *
+    * @param zLut when not null, every spot adds the RGB value from this table
+    *             for its z position (from minZ to maxZ) rather than 1
+    * @param minZ z mapped to the first entry of zLut
+    * @param maxZ z mapped to the last entry of zLut
+    * @param listener may be null
+    * @return one plane of counts, or three (RGB) when zLut is given
+    */
+   public short[][] renderHistogram(final int[][] zLut, final double minZ,
+           final double maxZ, TileListener listener) {
+      final int width = rect_.width;
+      final int size = width * rect_.height;
+      final int nrPlanes = zLut == null ? 1 : 3;
+      final int[][] sums = new int[nrPlanes][size];
+      final double spread = maxZ - minZ;
+      final Footprint footprint = (int spot, int[] box) -> {
+         int x = (int) (pixelsPerNm_ * spots_.getXCenter(spot));
+         int y = (int) (pixelsPerNm_ * spots_.getYCenter(spot));
+         if (!(x > rect_.x && x < rect_.x + rect_.width
+                 && y > rect_.y && y < rect_.y + rect_.height)) {
+            return false;
+         }
+         box[0] = x - rect_.x;
+         box[1] = y - rect_.y;
+         box[2] = box[0] + 1;
+         box[3] = box[1] + 1;
+         // pixel 0 has always been left out
+         return box[1] * width + box[0] > 0;
+      };
+      render(footprint, (int tile, int[] spots, int start, int end, int[] box) -> {
+         for (int k = start; k < end; k++) {
+            int spot = spots[k];
+            footprint.get(spot, box);
+            int index = box[1] * width + box[0];
+            if (zLut == null) {
+               sums[0][index]++;
+            } else {
+               int zIndex = (int) (256 * (spots_.getZCenter(spot) - minZ) / spread);
+               int[] rgb = zLut[Math.min(255, Math.max(0, zIndex))];
+               for (int i = 0; i < 3; i++) {
+                  sums[i][index] += rgb[i];
+               }
+            }
+         }
+      }, listener);
+
+      short[][] planes = new short[nrPlanes][size];
+      for (int i = 0; i < nrPlanes; i++) {
+         final int[] sum = sums[i];
+         final short[] plane = planes[i];
+         IntStream.range(0, (size + SPOTS_PER_CHUNK - 1) / SPOTS_PER_CHUNK).parallel().
+                 forEach((int chunk) -> {
+                    int end = Math.min(size, (chunk + 1) * SPOTS_PER_CHUNK);
+                    for (int p = chunk * SPOTS_PER_CHUNK; p < end; p++) {
+                       plane[p] = (short) Math.min(65535, sum[p]);
+                    }
+                 });
+      }
+      return planes;
+   }
+
+   /**
+    * Renders every spot as a Gaussian with its localization precision as
+    * width, covering twice that width on either side.  Only spots whose
+    * Gaussian lies completely within the rendered area are included.
+    *
+    * @param normalize when true, each spot adds a total of 1, otherwise each
+    *                  spot has a peak value of 1
+    * @param listener may be null
+    * @return rendered pixels
+    */
+   public float[] renderGaussians(final boolean normalize, TileListener listener) {
+      final int width = rect_.width;
+      final float[] pixels = new float[width * rect_.height];
+      final double renderedPixelInNm = 1.0 / pixelsPerNm_;
+      final Footprint footprint = (int spot, int[] box) -> {
+         int halfWidth = (int) (2 * spots_.getSigma(spot) / renderedPixelInNm);
+         if (halfWidth == 0) {
+            halfWidth = 2;
+         }
+         int xc = (int) (pixelsPerNm_ * spots_.getXCenter(spot));
+         int yc = (int) (pixelsPerNm_ * spots_.getYCenter(spot));
+         if (!(xc > rect_.x + halfWidth && xc < rect_.x + rect_.width - halfWidth
+                 && yc > rect_.y + halfWidth && yc < rect_.y + rect_.height - halfWidth
+                 && xc > halfWidth && xc < fullWidth_ - halfWidth
+                 && yc > halfWidth && yc < fullHeight_ - halfWidth)) {
+            return false;
+         }
+         box[0] = xc - halfWidth - rect_.x;
+         box[1] = yc - halfWidth - rect_.y;
+         box[2] = xc + halfWidth - rect_.x;
+         box[3] = yc + halfWidth - rect_.y;
+         return true;
+      };
+      render(footprint, (int tile, int[] spots, int start, int end, int[] box) -> {
+         int tx0 = (tile % tileColumns_) * TILE_SIZE;
+         int ty0 = (tile / tileColumns_) * TILE_SIZE;
+         int tx1 = Math.min(rect_.width, tx0 + TILE_SIZE);
+         int ty1 = Math.min(rect_.height, ty0 + TILE_SIZE);
+         double[] gx = new double[64];
+         double[] gy = new double[64];
+         for (int k = start; k < end; k++) {
+            int spot = spots[k];
+            footprint.get(spot, box);
+            int n = box[2] - box[0];
+            if (gx.length < n) {
+               gx = new double[n];
+               gy = new double[n];
+            }
+            // The Gaussian is separable: exp(-(dx^2 + dy^2) / 2s^2) = gx * gy
+            double s = spots_.getSigma(spot) / renderedPixelInNm;
+            double twoSSqr = 2 * s * s;
+            double xc = spots_.getXCenter(spot) / renderedPixelInNm - rect_.x;
+            double yc = spots_.getYCenter(spot) / renderedPixelInNm - rect_.y;
+            double sumX = 0.0;
+            double sumY = 0.0;
+            for (int i = 0; i < n; i++) {
+               double dx = box[0] + i - xc;
+               double dy = box[1] + i - yc;
+               gx[i] = Math.exp(-dx * dx / twoSSqr);
+               gy[i] = Math.exp(-dy * dy / twoSSqr);
+               sumX += gx[i];
+               sumY += gy[i];
+            }
+            double scale = 1.0;
+            if (normalize) {
+               if (!(sumX * sumY > 0)) {
+                  continue;
+               }
+               scale = 1.0 / (sumX * sumY);
+            }
+            int x0 = Math.max(box[0], tx0);
+            int x1 = Math.min(box[2], tx1);
+            int y0 = Math.max(box[1], ty0);
+            int y1 = Math.min(box[3], ty1);
+            for (int y = y0; y < y1; y++) {
+               double rowScale = scale * gy[y - box[1]];
+               int offset = y * width;
+               for (int x = x0; x < x1; x++) {
+                  pixels[offset + x] += (float) (rowScale * gx[x - box[0]]);
+               }
+            }
+         }
+      }, listener);
+      return pixels;
+   }
+
+   /**
+    * @return number of spots included in the last rendered image
+    */
+   public int getSpotsRendered() {
+      return spotsRendered_;
+   }
+
+   private interface TileTask {
+      /**
+       * Renders the spots spots[start] to spots[end - 1] into the given tile
+       * @param box workspace for Footprint.get()
+       */
+      void render(int tile, int[] spots, int start, int end, int[] box);
+   }
+
+   private void render(final Footprint footprint, final TileTask task,
+           final TileListener listener) {
+      final int nrTiles = tileColumns_ * tileRows_;
+      final int nrSpots = spots_.size();
+      final int nrChunks = (nrSpots + SPOTS_PER_CHUNK - 1) / SPOTS_PER_CHUNK;
+
+      // Count the spots per tile, per chunk of spots
+      final int[][] counts = new int[nrChunks][nrTiles];
+      final int[] chunkSpots = new int[nrChunks];
+      final int[] lastSpot = new int[nrChunks];
+      Arrays.fill(lastSpot, -1);
+      forEachSpot(nrChunks, nrSpots, footprint, (int chunk, int spot, int tile) -> {
+         counts[chunk][tile]++;
+         if (lastSpot[chunk] != spot) {
+            lastSpot[chunk] = spot;
+            chunkSpots[chunk]++;
+         }
+      });
+      int rendered = 0;
+      for (int chunk = 0; chunk < nrChunks; chunk++) {
+         rendered += chunkSpots[chunk];
+      }
+      spotsRendered_ = rendered;
+
+      // Offsets of each chunk's spots within the list of each tile, such that
+      // spots are listed tile by tile, in their original order
+      final int[] tileStarts = new int[nrTiles + 1];
+      int total = 0;
+      for (int tile = 0; tile < nrTiles; tile++) {
+         tileStarts[tile] = total;
+         for (int chunk = 0; chunk < nrChunks; chunk++) {
+            int count = counts[chunk][tile];
+            counts[chunk][tile] = total;
+            total += count;
+         }
+      }
+      tileStarts[nrTiles] = total;
+      final int[] tileSpots = new int[total];
+      forEachSpot(nrChunks, nrSpots, footprint, (int chunk, int spot, int tile) ->
+              tileSpots[counts[chunk][tile]++] = spot);
+
+      final int[] tilesDone = new int[1];
+      IntStream.range(0, nrTiles).parallel().forEach((int tile) -> {
+         task.render(tile, tileSpots, tileStarts[tile], tileStarts[tile + 1],
+                 new int[4]);
+         if (listener != null) {
+            int done;
+            synchronized (tilesDone) {
+               done = ++tilesDone[0];
+            }
+            int x = (tile % tileColumns_) * TILE_SIZE;
+            int y = (tile / tileColumns_) * TILE_SIZE;
+            listener.tileRendered(new Rectangle(x, y,
+                    Math.min(TILE_SIZE, rect_.width - x),
+                    Math.min(TILE_SIZE, rect_.height - y)), done, nrTiles);
+         }
+      });
+   }
+
+   private interface SpotTileVisitor {
+      void visit(int chunk, int spot, int tile);
+   }
+
+   /**
+    * Visits all tiles touched by each accepted spot, in parallel over chunks
+    * of spots and in spot order within a chunk.
+    */
+   private void forEachSpot(int nrChunks, final int nrSpots,
+           final Footprint footprint, final SpotTileVisitor visitor) {
+      IntStream.range(0, nrChunks).parallel().forEach((int chunk) -> {
+         int[] box = new int[4];
+         int end = Math.min(nrSpots, (chunk + 1) * SPOTS_PER_CHUNK);
+         for (int spot = chunk * SPOTS_PER_CHUNK; spot < end; spot++) {
+            if ((accept_ == null || accept_[spot]) && footprint.get(spot, box)) {
+               int firstColumn = Math.max(0, box[0]) / TILE_SIZE;
+               int lastColumn = Math.min(tileColumns_ * TILE_SIZE, box[2]) - 1;
+               int firstRow = Math.max(0, box[1]) / TILE_SIZE;
+               int lastRow = Math.min(tileRows_ * TILE_SIZE, box[3]) - 1;
+               lastColumn = Math.min(tileColumns_ - 1, lastColumn / TILE_SIZE);
+               lastRow = Math.min(tileRows_ - 1, lastRow / TILE_SIZE);
+               for (int row = firstRow; row <= lastRow; row++) {
+                  for (int column = firstColumn; column <= lastColumn; column++) {
+                     visitor.visit(chunk, spot, row * tileColumns_ + column);
+                  }
+               }
+            }
+         }
+      });
+   }
+}
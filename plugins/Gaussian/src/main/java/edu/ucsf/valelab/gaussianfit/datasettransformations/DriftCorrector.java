@@ -34,12 +34,12 @@ import edu.ucsf.valelab.gaussianfit.data.SpotData;
 import edu.ucsf.valelab.gaussianfit.algorithm.JitterDetector;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.swing.JOptionPane;
@@ -147,15 +147,16 @@ public class DriftCorrector {
                double factor = (double) mag / rowData.pixelSizeNm_;
 
                // make 2D scattergrams of all pixelData
-               for (SpotData spot : rowData.spotList_) {
+               SpotTable spots = rowData.getSpotTable();
+               for (int s = 0; s < spots.size(); s++) {
                   int j;
                   if (useSlices) {
-                     j = (spot.getSlice() - 1) / framesToCombine;
+                     j = (spots.getSlice(s) - 1) / framesToCombine;
                   } else {
-                     j = (spot.getFrame() - 1) / framesToCombine;
+                     j = (spots.getFrame(s) - 1) / framesToCombine;
                   }
-                  int x = (int) (factor * spot.getXCenter());
-                  int y = (int) (factor * spot.getYCenter());
+                  int x = (int) (factor * spots.getXCenter(s));
+                  int y = (int) (factor * spots.getYCenter(s));
                   int index = (y * width) + x;
                   if (index < size && index > 0) {
                      if (pixels[j][index] != -1) {
@@ -202,16 +203,17 @@ public class DriftCorrector {
 
 
                // take the first image as reference
-               for (SpotData spot : rowData.spotList_) {
+               SpotTable spots = rowData.getSpotTable();
+               for (int s = 0; s < spots.size(); s++) {
                   int j;
                   if (useSlices) {
-                     j = (spot.getSlice() - 1) / framesToCombine;
+                     j = (spots.getSlice(s) - 1) / framesToCombine;
                   } else {
-                     j = (spot.getFrame() - 1) / framesToCombine;
+                     j = (spots.getFrame(s) - 1) / framesToCombine;
                   }
                   if (j == 0) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
+                     int x = (int) (factor * spots.getXCenter(s));
+                     int y = (int) (factor * spots.getYCenter(s));
                      int index = (y * width) + x;
                      if (index < size && index > 0) {
                         if (pixelsRef[index] != -1) {
@@ -238,16 +240,16 @@ public class DriftCorrector {
                      ipTest.set(p, 0);
                   }
                   
-                  for (SpotData spot : rowData.spotList_) {
+                  for (int s = 0; s < spots.size(); s++) {
                      int j;
                      if (useSlices) {
-                        j = (spot.getSlice() - 1) / framesToCombine;
+                        j = (spots.getSlice(s) - 1) / framesToCombine;
                      } else {
-                        j = (spot.getFrame() - 1) / framesToCombine;
+                        j = (spots.getFrame(s) - 1) / framesToCombine;
                      }
                      if (j == i) {
-                        int x = (int) (factor * spot.getXCenter());
-                        int y = (int) (factor * spot.getYCenter());
+                        int x = (int) (factor * spots.getXCenter(s));
+                        int y = (int) (factor * spots.getYCenter(s));
                         int index = (y * width) + x;
                         if (index < size && index > 0) {
                            if (pixelsTest[index] != -1) {
@@ -325,20 +327,19 @@ public class DriftCorrector {
                ij.IJ.showStatus("Assembling jitter corrected dataset...");
                ij.IJ.showProgress(1);
                
-               List<SpotData> correctedData = new ArrayList<SpotData>();
-               Iterator it = rowData.spotList_.iterator();
+               // shift the x and y columns, other columns are shared
+               SpotTable spots = rowData.getSpotTable();
+               double[] xCenters = spots.getXCenters();
+               double[] yCenters = spots.getYCenters();
                
                int testNr = 0;
                StageMovementData smd = stagePosMA.get(0);
-               int counter = 0;
-               while (it.hasNext()) {
-                  counter++;
-                  SpotData gs = (SpotData) it.next();
+               for (int s = 0; s < spots.size(); s++) {
                   int test;
                   if (useSlices) {
-                     test = gs.getSlice();
+                     test = spots.getSlice(s);
                   } else {
-                     test = gs.getFrame();
+                     test = spots.getFrame(s);
                   }
                   if (test != testNr) {
                      testNr = test - 1;
@@ -356,23 +357,15 @@ public class DriftCorrector {
                      }
                   }
                   if (found) {
-                     Point2D.Double point = new Point2D.Double(gs.getXCenter() - smd.pos_.x,
-                             gs.getYCenter() - smd.pos_.y);
-                     SpotData gsn = new SpotData(gs);
-                     gsn.setXCenter(point.x);
-                     gsn.setYCenter(point.y);
-                     correctedData.add(gsn);
-                  } else {
-                     correctedData.add(gs);
+                     xCenters[s] -= smd.pos_.x;
+                     yCenters[s] -= smd.pos_.y;
                   }
-                  
-                  
                }
                
                // Add transformed data to data overview window
                builder = rowData.copy();
                builder.setName(rowData.getName() + "-Jitter-Correct").
-                       setSpotList(correctedData);
+                       setSpotTable(spots.withCenters(xCenters, yCenters));
                DataCollectionForm.getInstance().addSpotData(builder);
                
                ij.IJ.showStatus("Finished jitter correction");
@@ -557,18 +550,19 @@ public class DriftCorrector {
          ij.IJ.showStatus("Assembling jitter corrected dataset...");
          ij.IJ.showProgress(1);
 
-         List<SpotData> correctedData = new ArrayList<SpotData>();
-         Iterator it = rowData.spotList_.iterator();
+         // shift the x and y columns, other columns are shared
+         SpotTable spots = rowData.getSpotTable();
+         double[] xCenters = spots.getXCenters();
+         double[] yCenters = spots.getYCenters();
 
          testNr = 0;
          StageMovementData smd = stagePos.get(0);
-         while (it.hasNext()) {
-            SpotData gs = (SpotData) it.next();
+         for (int s = 0; s < spots.size(); s++) {
             int test;
             if (useSlices) {
-               test = gs.getSlice();
+               test = spots.getSlice(s);
             } else {
-               test = gs.getFrame();
+               test = spots.getFrame(s);
             }
             if (test != testNr) {
                testNr = test - 1;
@@ -586,20 +580,15 @@ public class DriftCorrector {
                }
             }
             if (found) {
-               Point2D.Double point = new Point2D.Double(gs.getXCenter() - smd.pos_.x,
-                       gs.getYCenter() - smd.pos_.y);
-               SpotData gsn = new SpotData(gs);
-               gsn.setXCenter(point.x);
-               gsn.setYCenter(point.y);
-               correctedData.add(gsn);
-            } else {
-               correctedData.add(gs);
+               xCenters[s] -= smd.pos_.x;
+               yCenters[s] -= smd.pos_.y;
             }
          }
 
          // Add transformed data to data overview window
          builder = rowData.copy();
-         builder.setName(rowData.getName() + "-Jitter-Corrected").setSpotList(correctedData);
+         builder.setName(rowData.getName() + "-Jitter-Corrected").
+                 setSpotTable(spots.withCenters(xCenters, yCenters));
          DataCollectionForm.getInstance().addSpotData(builder);
 
          ij.IJ.showStatus("Finished jitter correction");
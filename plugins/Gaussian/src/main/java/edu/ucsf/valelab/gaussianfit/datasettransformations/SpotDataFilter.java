@@ -30,6 +30,8 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.datasettransformations;
 
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -120,7 +122,44 @@ public class SpotDataFilter {
       
       return true;
    }
-   
-   
+
+   /**
+    * Tests all spots of a table at once, one column at a time.  Spots that do
+    * not have a value for a key are not filtered on that key.
+    *
+    * @param table - spots to test
+    * @return for each spot, whether or not it is acceptable
+    */
+   public boolean[] filter(SpotTable table) {
+      final int n = table.size();
+      boolean[] accept = new boolean[n];
+      Arrays.fill(accept, true);
+      if (useSigma_) {
+         reject(table, SpotData.Keys.INTEGRALSIGMA, sigmaMin_, sigmaMax_, accept);
+      }
+      if (useIntensity_) {
+         reject(table, SpotData.Keys.APERTUREINTENSITY, intensityMin_,
+                 intensityMax_, accept);
+      }
+      for (Map.Entry<String, Extremes> entry : itemFilter_.entrySet()) {
+         reject(table, entry.getKey(), entry.getValue().minimum_,
+                 entry.getValue().maximum_, accept);
+      }
+      return accept;
+   }
+
+   private static void reject(SpotTable table, String key, double min,
+           double max, boolean[] accept) {
+      if (!table.hasKey(key)) {
+         return;
+      }
+      for (int i = 0; i < accept.length; i++) {
+         double value = table.getValue(key, i);
+         // NaN (no value) compares false
+         if (value < min || value > max) {
+            accept[i] = false;
+         }
+      }
+   }
    
 }
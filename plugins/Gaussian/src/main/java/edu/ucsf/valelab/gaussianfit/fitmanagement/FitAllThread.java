@@ -88,6 +88,7 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
    private final Studio studio_;
    private final ExecutorService threadPool_;
    private final int nrThreads_;
+   private volatile LocalizationEngine engine_ = null;
 
    public FitAllThread(Studio studio, 
            int nrThreads,
@@ -118,6 +119,10 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
    } 
 
    public synchronized void stop() {
+      LocalizationEngine engine = engine_;
+      if (engine != null) {
+         engine.stop();
+      }
       if (gfsThreads_ != null) {
          for (GaussianFitStackThread gfsThread : gfsThreads_) {
             if (gfsThread != null) {
@@ -191,39 +196,51 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
          }
 
          try {
-            CoordsBuilder builder = dw.getDisplayedImages().get(0).getCoords().copy();
-            for (int p = startPos - 1; p <= endPos - 1; p++) {
-
-               Image image = dw.getDataProvider().getImage(builder.stagePosition(p).build());
-               int width = image.getWidth();
-               int height = image.getHeight();
-               ImageStack stack = new ImageStack(width, height);
-               for (int f = 0; f < nrFrames; f++) {
-                  for (int z = 0; z < nrSlices; z++) {
-                     for (int c = 0; c < nrChannels; c++) {
-                        image = dw.getDataProvider().getImage(builder.stagePosition(p).
-                                channel(c).time(f).z(z).build());
-                        ImageProcessor iProcessor;
-                        if (image != null) {
-                           iProcessor = studio_.data().ij().createProcessor(image);
-                        } else {
-                           iProcessor = new ShortProcessor(width, height);
+            if (LocalizationEngine.supports(super.getShape(), super.getFitMode())) {
+               // Fit straight from the DataProvider
+               engine_ = new LocalizationEngine(this, nrThreads_,
+                       preFilterType_, resultList_);
+               if (running_) {
+                  engine_.fit(dw.getDataProvider(),
+                          dw.getDisplayedImages().get(0).getCoords(),
+                          startPos - 1, endPos - 1, originalRoi);
+               }
+               engine_ = null;
+            } else {
+               CoordsBuilder builder = dw.getDisplayedImages().get(0).getCoords().copy();
+               for (int p = startPos - 1; p <= endPos - 1; p++) {
+
+                  Image image = dw.getDataProvider().getImage(builder.stagePosition(p).build());
+                  int width = image.getWidth();
+                  int height = image.getHeight();
+                  ImageStack stack = new ImageStack(width, height);
+                  for (int f = 0; f < nrFrames; f++) {
+                     for (int z = 0; z < nrSlices; z++) {
+                        for (int c = 0; c < nrChannels; c++) {
+                           image = dw.getDataProvider().getImage(builder.stagePosition(p).
+                                   channel(c).time(f).z(z).build());
+                           ImageProcessor iProcessor;
+                           if (image != null) {
+                              iProcessor = studio_.data().ij().createProcessor(image);
+                           } else {
+                              iProcessor = new ShortProcessor(width, height);
+                           }
+                           stack.addSlice(iProcessor);
                         }
-                        stack.addSlice(iProcessor);
                      }
                   }
-               }
 
-               ImagePlus tmpSP = (new ImagePlus("tmp", stack)).duplicate();
-               tmpSP = HyperStackConverter.toHyperStack(tmpSP, nrChannels,
-                       nrSlices, nrFrames);
-               //tmpSP.show();
+                  ImagePlus tmpSP = (new ImagePlus("tmp", stack)).duplicate();
+                  tmpSP = HyperStackConverter.toHyperStack(tmpSP, nrChannels,
+                          nrSlices, nrFrames);
+                  //tmpSP.show();
 
-               siPlus.deleteRoi();
+                  siPlus.deleteRoi();
 
-               analyzeImagePlus(tmpSP, p + 1, originalRoi);
+                  analyzeImagePlus(tmpSP, p + 1, originalRoi);
 
-               siPlus.setRoi(originalRoi);
+                  siPlus.setRoi(originalRoi);
+               }
             }
 
          } catch (IOException ioe) {
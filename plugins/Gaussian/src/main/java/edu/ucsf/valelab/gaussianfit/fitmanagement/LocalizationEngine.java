@@ -0,0 +1,295 @@
+/**
+ * Localizes all spots in a Micro-Manager data set: images are read from the
+ * DataProvider and each image is searched for spots and fitted on a
+ * work-stealing thread pool.
+ *
+ * Part of Micro-Manager's Localization Plugin
+ *
+
+Copyright (c) 2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.fitmanagement;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.fitting.GaussianLMFitter;
+import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
+import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ShortProcessor;
+import java.awt.Polygon;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Image;
+
+/**
+ * Fitting engine used by "Fit All" for data in a Micro-Manager window.
+ *
+ * Rather than building an ImageJ hyperstack of each position and queueing
+ * one ImageProcessor per spot, every image is handed as a whole to a
+ * ForkJoinPool.  The task finds the local maxima and fits the box around each
+ * of them directly from the image's pixel array with a GaussianLMFitter, of
+ * which each worker thread keeps one, so that no per-spot objects other than
+ * the resulting SpotData are created.  A single thread reads images from the
+ * DataProvider; the number of images waiting to be fitted is bounded.
+ *
+ * Only circular Gaussians fitted with Levenberg-Marquardt (least squares or
+ * MLE) are supported, see supports().
+ */
+public class LocalizationEngine extends GaussianInfo {
+   // Images read ahead of the fitting, per thread
+   private static final int IMAGES_IN_FLIGHT_PER_THREAD = 4;
+
+   private final int nrThreads_;
+   private final FindLocalMaxima.FilterType preFilterType_;
+   private final List<SpotData> results_;
+   private volatile boolean running_ = true;
+
+   /**
+    * @param settings fit settings to use, copied
+    * @param nrThreads number of fitting threads
+    * @param preFilterType filter to apply before searching for maxima
+    * @param resultList receives the fitted spots, should be synchronized
+    */
+   public LocalizationEngine(GaussianInfo settings, int nrThreads,
+           FindLocalMaxima.FilterType preFilterType, List<SpotData> resultList) {
+      super.copy(settings);
+      nrThreads_ = Math.max(1, nrThreads);
+      preFilterType_ = preFilterType;
+      results_ = resultList;
+   }
+
+   /**
+    * @param shape one of the GaussianFit shapes
+    * @param fitMode one of the GaussianFit fit modes
+    * @return whether this engine can fit with the given settings
+    */
+   public static boolean supports(int shape, int fitMode) {
+      return shape == GaussianFit.CIRCLE
+              && (fitMode == GaussianFit.LEVENBERGMARQUARD
+              || fitMode == GaussianFit.LEVENBERGMARQUARDMLE);
+   }
+
+   /**
+    * Stops fitting; images already being fitted are finished.
+    */
+   public void stop() {
+      running_ = false;
+   }
+
+   /**
+    * Fits all images of the given positions.  Blocks until done or stopped.
+    *
+    * @param provider source of the images
+    * @param template coords of which the axes other than channel, z, time
+    *                 and position are used to select images
+    * @param firstPosition first position to analyze, 0-based
+    * @param lastPosition last position to analyze, 0-based, inclusive
+    * @param roi area to search for spots, or null for the whole image
+    * @throws IOException when an image can not be read
+    */
+   public void fit(DataProvider provider, Coords template, int firstPosition,
+           int lastPosition, Roi roi) throws IOException {
+      final int nrChannels = Math.max(1, provider.getAxisLength(Coords.CHANNEL));
+      final int nrSlices = Math.max(1, provider.getAxisLength(Coords.Z));
+      final int nrFrames = Math.max(1, provider.getAxisLength(Coords.T));
+      int nrFittedChannels = nrChannels;
+      if (skipChannels_) {
+         nrFittedChannels -= channelsToSkip_.length;
+      }
+      final int nrImages = nrFittedChannels * nrSlices * nrFrames
+              * (lastPosition - firstPosition + 1);
+      final AtomicInteger imagesDone = new AtomicInteger(0);
+
+      final int boxSize = 2 * super.getHalfBoxSize();
+      final boolean mle = super.getFitMode() == GaussianFit.LEVENBERGMARQUARDMLE;
+      final double fixedWidth = super.getUseFixedWidth()
+              ? super.getFixedWidthNm() / super.getPixelSize() / 2 : -1.0;
+      final ThreadLocal<GaussianLMFitter> fitters = new ThreadLocal<GaussianLMFitter>() {
+         @Override
+         protected GaussianLMFitter initialValue() {
+            return new GaussianLMFitter(boxSize, mle, fixedWidth);
+         }
+      };
+
+      final Semaphore inFlight = new Semaphore(IMAGES_IN_FLIGHT_PER_THREAD * nrThreads_);
+      ForkJoinPool pool = new ForkJoinPool(nrThreads_);
+      Coords.CoordsBuilder builder = template.copy();
+      try {
+         for (int p = firstPosition; p <= lastPosition && running_; p++) {
+            for (int c = 0; c < nrChannels && running_; c++) {
+               if (skipChannels_ && inArray(channelsToSkip_, c + 1)) {
+                  continue;
+               }
+               for (int z = 0; z < nrSlices && running_; z++) {
+                  for (int f = 0; f < nrFrames && running_; f++) {
+                     final Image image = provider.getImage(builder.stagePosition(p).
+                             channel(c).time(f).z(z).build());
+                     if (image == null) {
+                        imagesDone.incrementAndGet();
+                        continue;
+                     }
+                     inFlight.acquireUninterruptibly();
+                     // ImageJ-style 1-based indices, as used in SpotData
+                     final int channel = c + 1;
+                     final int slice = z + 1;
+                     final int frame = f + 1;
+                     final int position = p + 1;
+                     pool.execute(() -> {
+                        try {
+                           if (running_) {
+                              fitImage(image, channel, slice, frame, position,
+                                      roi, fitters.get());
+                           }
+                        } catch (Exception ex) {
+                           ReportingUtils.logError(ex, "In Gaussian plugin");
+                        } finally {
+                           inFlight.release();
+                           ij.IJ.showProgress(imagesDone.incrementAndGet(), nrImages);
+                        }
+                     });
+                  }
+               }
+            }
+         }
+      } finally {
+         pool.shutdown();
+         try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+               ij.IJ.showStatus("Fitting " + results_.size() + " spots");
+            }
+         } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+         }
+         ij.IJ.showProgress(1.0);
+      }
+   }
+
+   private void fitImage(Image image, int channel, int slice, int frame,
+           int position, Roi roi, GaussianLMFitter fitter) {
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final int halfSize = super.getHalfBoxSize();
+      short[] pixels = toShorts(image.getRawPixels());
+      if (pixels == null) {
+         return;
+      }
+
+      ShortProcessor proc = new ShortProcessor(width, height, pixels, null);
+      ImagePlus imp = new ImagePlus("", proc);
+      if (roi != null) {
+         imp.setRoi(roi, false);
+      }
+      Polygon maxima;
+      if (preFilterType_ == FindLocalMaxima.FilterType.NONE) {
+         maxima = FindLocalMaxima.FindMax(imp, 2 * halfSize, noiseTolerance_,
+                 preFilterType_);
+      } else {
+         // The prefilter uses shared ImageJ filter instances
+         synchronized (SpotData.LOCK_IP) {
+            maxima = FindLocalMaxima.FindMax(imp, 2 * halfSize, noiseTolerance_,
+                    preFilterType_);
+         }
+      }
+
+      // Sort by x, then y, so that spot numbers match those of the stack path
+      long[] sorted = new long[maxima.npoints];
+      for (int j = 0; j < maxima.npoints; j++) {
+         sorted[j] = ((long) maxima.xpoints[j] << 32) | (maxima.ypoints[j] & 0xffffffffL);
+      }
+      Arrays.sort(sorted);
+
+      ZCalibrator zc = DataCollectionForm.zc_;
+      double[] parms = new double[fitter.getNrParms()];
+      for (int j = 0; j < sorted.length && running_; j++) {
+         int x = (int) (sorted[j] >> 32);
+         int y = (int) sorted[j];
+         // filter out spots too close to the edge
+         if (!(x > halfSize && x < width - halfSize
+                 && y > halfSize && y < height - halfSize)) {
+            continue;
+         }
+         fitter.setData(pixels, width, x - halfSize, y - halfSize,
+                 2 * halfSize, 2 * halfSize);
+         fitter.estimate(parms);
+         double[] result = fitter.fit(parms, maxIterations_)
+                 ? parms.clone() : new double[] {0.0};
+         GaussianFit.Data fitResult = new GaussianFit.Data(result,
+                 fitter.getApertureIntensity(), fitter.getApertureBackground());
+         SpotData spot = new SpotData(null, channel, slice, frame, position,
+                 j, x, y);
+         SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
+         if (result.length > 1
+                 && (!useWidthFilter_
+                 || (spotData.getWidth() > widthMin_ && spotData.getWidth() < widthMax_))
+                 && (!useNrPhotonsFilter_
+                 || (spotData.getIntensity() > nrPhotonsMin_
+                 && spotData.getIntensity() < nrPhotonsMax_))) {
+            results_.add(spotData);
+         }
+      }
+   }
+
+   private static short[] toShorts(Object rawPixels) {
+      if (rawPixels instanceof short[]) {
+         return (short[]) rawPixels;
+      }
+      if (rawPixels instanceof byte[]) {
+         byte[] bytes = (byte[]) rawPixels;
+         short[] shorts = new short[bytes.length];
+         for (int i = 0; i < bytes.length; i++) {
+            shorts[i] = (short) (bytes[i] & 0xff);
+         }
+         return shorts;
+      }
+      ReportingUtils.logError("Gaussian plugin: unsupported pixel type "
+              + rawPixels.getClass().getSimpleName());
+      return null;
+   }
+
+   private static boolean inArray(int[] input, final int c) {
+      for (final int n : input) {
+         if (n == c) {
+            return true;
+         }
+      }
+      return false;
+   }
+}
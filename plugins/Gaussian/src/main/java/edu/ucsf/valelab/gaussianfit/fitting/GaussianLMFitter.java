@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2017, Regents the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+/**
+ * Levenberg-Marquardt fitter specialized for the symmetric 2D Gaussian
+ * A * exp(-((x-xc)^2 + (y-yc)^2) / (2 s^2)) + b
+ * with analytic derivatives, either by least squares or by Poisson maximum
+ * likelihood (Laurence and Chromy, http://dx.doi.org/10.1038/nmeth.1441).
+ *
+ * Parameters are ordered as in GaussianFit (INT, BGR, XC, YC and, unless
+ * the width is fixed, S), with XC and YC in pixels relative to the box.
+ *
+ * All work arrays are allocated once, so that fitting a spot does not
+ * allocate.  Instances are not thread safe; use one per thread.
+ *
+ */
+public class GaussianLMFitter {
+   public static final int INT = 0;
+   public static final int BGR = 1;
+   public static final int XC = 2;
+   public static final int YC = 3;
+   public static final int S = 4;
+
+   private static final double LAMBDA_START = 1e-3;
+   private static final double LAMBDA_MAX = 1e10;
+
+   private final boolean mle_;
+   private final double fixedWidth_; // negative when the width is fitted
+   private final int nrParms_;
+   private final int maxPixels_;
+
+   // Workspace
+   private final double[] data_;
+   private final double[] jacobian_;  // nrParms_ values per pixel
+   private final double[] alpha_;
+   private final double[] beta_;
+   private final double[] matrix_;
+   private final double[] delta_;
+   private final double[] trial_;
+   private int nx_;
+   private int ny_;
+   private double apertureIntensity_;
+   private double apertureBackground_;
+   private int iterations_;
+
+   /**
+    * @param maxBoxSize largest box width (and height) that will be fit
+    * @param mle true for Poisson maximum likelihood, false for least squares
+    * @param fixedWidth width (sigma) of the Gaussian in pixels, or a value
+    *                   <= 0 to fit the width
+    */
+   public GaussianLMFitter(int maxBoxSize, boolean mle, double fixedWidth) {
+      mle_ = mle;
+      fixedWidth_ = fixedWidth > 0.0 ? fixedWidth : -1.0;
+      nrParms_ = fixedWidth_ > 0.0 ? 4 : 5;
+      maxPixels_ = maxBoxSize * maxBoxSize;
+      data_ = new double[maxPixels_];
+      jacobian_ = new double[maxPixels_ * nrParms_];
+      alpha_ = new double[nrParms_ * nrParms_];
+      beta_ = new double[nrParms_];
+      matrix_ = new double[nrParms_ * (nrParms_ + 1)];
+      delta_ = new double[nrParms_];
+      trial_ = new double[nrParms_];
+   }
+
+   public int getNrParms() {
+      return nrParms_;
+   }
+
+   /**
+    * Copies a box out of an image into the workspace.
+    *
+    * @param pixels 16-bit image pixels
+    * @param imageWidth width of the image
+    * @param x0 left side of the box
+    * @param y0 top of the box
+    * @param width width of the box
+    * @param height height of the box
+    */
+   public void setData(short[] pixels, int imageWidth, int x0, int y0,
+           int width, int height) {
+      if (width * height > maxPixels_) {
+         throw new IllegalArgumentException("Box larger than workspace");
+      }
+      nx_ = width;
+      ny_ = height;
+      for (int j = 0; j < height; j++) {
+         int offset = (y0 + j) * imageWidth + x0;
+         for (int i = 0; i < width; i++) {
+            data_[j * width + i] = pixels[offset + i] & 0xffff;
+         }
+      }
+   }
+
+   /**
+    * Estimates starting parameters from the data, in the same way as
+    * GaussianFit: background from the outer rows and columns, intensity from
+    * the background corrected sum, center from the centroid, and a width of
+    * 0.9 pixel.
+    *
+    * @param parms receives the estimated parameters
+    */
+   public void estimate(double[] parms) {
+      double s = fixedWidth_ > 0.0 ? fixedWidth_ : 0.9;
+      double bg = 0.0;
+      int n = 0;
+      int lastRowOffset = (ny_ - 1) * nx_;
+      for (int i = 0; i < nx_; i++) {
+         bg += data_[i] + data_[i + lastRowOffset];
+         n += 2;
+      }
+      for (int j = 1; j < ny_ - 1; j++) {
+         bg += data_[j * nx_] + data_[(j + 1) * nx_ - 1];
+         n += 2;
+      }
+      double background = bg / n;
+      double total = 0.0;
+      double mx = 0.0;
+      double my = 0.0;
+      for (int j = 0; j < ny_; j++) {
+         for (int i = 0; i < nx_; i++) {
+            double v = data_[j * nx_ + i];
+            total += v;
+            mx += v * i;
+            my += v * j;
+         }
+      }
+      double signal = total - background * nx_ * ny_;
+      parms[INT] = signal / (2 * Math.PI * s * s);
+      parms[BGR] = background;
+      parms[XC] = mx / total;
+      parms[YC] = my / total;
+      if (nrParms_ > S) {
+         parms[S] = s;
+      }
+      apertureIntensity_ = signal;
+      apertureBackground_ = background;
+   }
+
+   /**
+    * @return total signal above background found by the last estimate()
+    */
+   public double getApertureIntensity() {
+      return apertureIntensity_;
+   }
+
+   /**
+    * @return background found by the last estimate()
+    */
+   public double getApertureBackground() {
+      return apertureBackground_;
+   }
+
+   /**
+    * @return number of iterations used by the last fit()
+    */
+   public int getIterations() {
+      return iterations_;
+   }
+
+   /**
+    * Fits the data set with setData().
+    *
+    * @param parms starting parameters on input, fitted parameters on output
+    * @param maxIterations maximum number of Levenberg-Marquardt iterations
+    * @return true if the fit converged to finite parameters
+    */
+   public boolean fit(double[] parms, int maxIterations) {
+      double lambda = LAMBDA_START;
+      double chi2 = evaluate(parms, true);
+      if (Double.isNaN(chi2)) {
+         return false;
+      }
+      iterations_ = 0;
+      while (iterations_ < maxIterations) {
+         iterations_++;
+         // Solve (alpha + lambda * diag(alpha)) delta = beta
+         int cols = nrParms_ + 1;
+         for (int k = 0; k < nrParms_; k++) {
+            for (int l = 0; l < nrParms_; l++) {
+               matrix_[k * cols + l] = alpha_[k * nrParms_ + l];
+            }
+            matrix_[k * cols + k] *= 1.0 + lambda;
+            matrix_[k * cols + nrParms_] = beta_[k];
+         }
+         if (!solve(matrix_, delta_, nrParms_)) {
+            return false;
+         }
+         for (int k = 0; k < nrParms_; k++) {
+            trial_[k] = parms[k] + delta_[k];
+         }
+         double trialChi2 = evaluate(trial_, false);
+         if (trialChi2 < chi2) {
+            System.arraycopy(trial_, 0, parms, 0, nrParms_);
+            lambda = Math.max(lambda / 10.0, 1e-12);
+            if (converged(delta_)) {
+               return isValid(parms);
+            }
+            chi2 = evaluate(parms, true);
+         } else {
+            // Includes NaN, e.g. for non-positive expectations in MLE
+            lambda *= 10.0;
+            if (lambda > LAMBDA_MAX) {
+               // No further improvement possible
+               return isValid(parms);
+            }
+         }
+      }
+      return isValid(parms);
+   }
+
+   // Same criteria as the convergence checker used with the commons-math
+   // Levenberg-Marquardt optimizer in GaussianFit
+   private boolean converged(double[] delta) {
+      return Math.abs(delta[INT]) < 10 && Math.abs(delta[BGR]) < 0.2
+              && Math.abs(delta[XC]) < 0.01 && Math.abs(delta[YC]) < 0.01
+              && (nrParms_ <= S || Math.abs(delta[S]) < 5);
+   }
+
+   private boolean isValid(double[] parms) {
+      for (int k = 0; k < nrParms_; k++) {
+         if (Double.isNaN(parms[k]) || Double.isInfinite(parms[k])) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Computes the goodness of fit (sum of squared residuals, or Poisson
+    * deviance for MLE) for the given parameters and, if requested, the
+    * curvature matrix alpha_ and gradient vector beta_.
+    * @return goodness of fit, NaN if not defined for these parameters
+    */
+   private double evaluate(double[] p, boolean derivatives) {
+      double a = p[INT];
+      double b = p[BGR];
+      double xc = p[XC];
+      double yc = p[YC];
+      double s = nrParms_ > S ? p[S] : fixedWidth_;
+      double s2 = s * s;
+      double inv2s2 = 1.0 / (2.0 * s2);
+      double chi2 = 0.0;
+      if (derivatives) {
+         for (int k = 0; k < nrParms_ * nrParms_; k++) {
+            alpha_[k] = 0.0;
+         }
+         for (int k = 0; k < nrParms_; k++) {
+            beta_[k] = 0.0;
+         }
+      }
+      for (int j = 0; j < ny_; j++) {
+         double dy = j - yc;
+         for (int i = 0; i < nx_; i++) {
+            int index = j * nx_ + i;
+            double dx = i - xc;
+            double r2 = dx * dx + dy * dy;
+            double e = Math.exp(-r2 * inv2s2);
+            double q = a * e;
+            double model = q + b;
+            double d = data_[index];
+            double weight;
+            double residual;
+            if (mle_) {
+               if (!(model > 0.0)) {
+                  return Double.NaN;
+               }
+               chi2 += 2.0 * (model - d);
+               if (d > 0.0) {
+                  chi2 -= 2.0 * d * Math.log(model / d);
+               }
+               weight = d / (model * model);
+               residual = d / model - 1.0;
+            } else {
+               residual = d - model;
+               chi2 += residual * residual;
+               weight = 1.0;
+            }
+            if (!derivatives) {
+               continue;
+            }
+            int jOffset = index * nrParms_;
+            jacobian_[jOffset + INT] = e;
+            jacobian_[jOffset + BGR] = 1.0;
+            jacobian_[jOffset + XC] = dx * q / s2;
+            jacobian_[jOffset + YC] = dy * q / s2;
+            if (nrParms_ > S) {
+               jacobian_[jOffset + S] = r2 * q / (s2 * s);
+            }
+            for (int k = 0; k < nrParms_; k++) {
+               double jk = jacobian_[jOffset + k];
+               beta_[k] += residual * jk;
+               double wjk = weight * jk;
+               for (int l = 0; l <= k; l++) {
+                  alpha_[k * nrParms_ + l] += wjk * jacobian_[jOffset + l];
+               }
+            }
+         }
+      }
+      if (derivatives) {
+         for (int k = 0; k < nrParms_; k++) {
+            for (int l = k + 1; l < nrParms_; l++) {
+               alpha_[k * nrParms_ + l] = alpha_[l * nrParms_ + k];
+            }
+         }
+      }
+      return chi2;
+   }
+
+   /**
+    * Gaussian elimination with partial pivoting on an n x (n + 1) augmented
+    * matrix, in place.
+    */
+   private static boolean solve(double[] m, double[] x, int n) {
+      int cols = n + 1;
+      for (int c = 0; c < n; c++) {
+         int pivot = c;
+         for (int r = c + 1; r < n; r++) {
+            if (Math.abs(m[r * cols + c]) > Math.abs(m[pivot * cols + c])) {
+               pivot = r;
+            }
+         }
+         if (m[pivot * cols + c] == 0.0) {
+            return false;
+         }
+         if (pivot != c) {
+            for (int k = c; k < cols; k++) {
+               double tmp = m[c * cols + k];
+               m[c * cols + k] = m[pivot * cols + k];
+               m[pivot * cols + k] = tmp;
+            }
+         }
+         for (int r = c + 1; r < n; r++) {
+            double f = m[r * cols + c] / m[c * cols + c];
+            for (int k = c; k < cols; k++) {
+               m[r * cols + k] -= f * m[c * cols + k];
+            }
+         }
+      }
+      for (int r = n - 1; r >= 0; r--) {
+         double sum = m[r * cols + n];
+         for (int k = r + 1; k < n; k++) {
+            sum -= m[r * cols + k] * x[k];
+         }
+         x[r] = sum / m[r * cols + r];
+      }
+      return true;
+   }
+}
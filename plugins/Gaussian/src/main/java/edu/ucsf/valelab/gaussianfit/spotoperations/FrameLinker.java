@@ -0,0 +1,122 @@
+/*
+ * Links spots in consecutive frames into tracks
+ *
+
+Copyright (c) 2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Links spots in consecutive frames into tracks.
+ * 
+ * Every spot is linked to the spot nearest to it (within maxDistance) in the 
+ * next frame.  These links only depend on two frames, so they are found for 
+ * all frames in parallel, each with a SpatialGrid over the next frame.  The
+ * links are then followed from every spot that is not linked to from the 
+ * previous frame.  As in the original (sequential) SpotLinker, two tracks can
+ * end on the same spot, in which case both continue along the same spots.
+ * 
+ * Tracks are returned in the order of their first spot, so the result does 
+ * not depend on the number of threads.
+ */
+public final class FrameLinker {
+
+   private FrameLinker() {
+   }
+
+   /**
+    * @param x x coordinates of the spots in each frame.  Frames without spots
+    *          should be left out, tracks continue across them.
+    * @param y y coordinates of the spots in each frame
+    * @param maxDistance maximum distance between spots in consecutive frames
+    * @return tracks, each as the indices of its spots, in frame order.  Spots
+    *         are numbered consecutively over all frames: spot i in frame f 
+    *         has index getFrameStarts(x)[f] + i.
+    */
+   public static int[][] link(final double[][] x, final double[][] y,
+           final double maxDistance) {
+      final int[] starts = getFrameStarts(x);
+      final int total = starts[x.length];
+      final int[] next = new int[total];
+      Arrays.fill(next, -1);
+      IntStream.range(0, Math.max(0, x.length - 1)).parallel().forEach((int f) -> {
+         SpatialGrid grid = new SpatialGrid(x[f + 1], y[f + 1], maxDistance);
+         for (int i = 0; i < x[f].length; i++) {
+            int j = grid.nearest(x[f][i], y[f][i]);
+            if (j >= 0) {
+               next[starts[f] + i] = starts[f + 1] + j;
+            }
+         }
+      });
+
+      boolean[] linkedTo = new boolean[total];
+      int nrTracks = total;
+      for (int i = 0; i < total; i++) {
+         if (next[i] >= 0 && !linkedTo[next[i]]) {
+            linkedTo[next[i]] = true;
+            nrTracks--;
+         }
+      }
+      int[] firstSpots = new int[nrTracks];
+      for (int i = 0, t = 0; i < total; i++) {
+         if (!linkedTo[i]) {
+            firstSpots[t++] = i;
+         }
+      }
+
+      return Arrays.stream(firstSpots).parallel().mapToObj((int first) -> {
+         int length = 1;
+         for (int i = next[first]; i >= 0; i = next[i]) {
+            length++;
+         }
+         int[] track = new int[length];
+         track[0] = first;
+         for (int k = 1; k < length; k++) {
+            track[k] = next[track[k - 1]];
+         }
+         return track;
+      }).toArray(int[][]::new);
+   }
+
+   /**
+    * @param x coordinates of the spots in each frame
+    * @return index of the first spot of each frame, followed by the total 
+    *         number of spots
+    */
+   public static int[] getFrameStarts(double[][] x) {
+      int[] starts = new int[x.length + 1];
+      for (int f = 0; f < x.length; f++) {
+         starts[f + 1] = starts[f] + x[f].length;
+      }
+      return starts;
+   }
+}
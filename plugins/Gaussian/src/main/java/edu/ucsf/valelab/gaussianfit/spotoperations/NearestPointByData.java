@@ -34,7 +34,6 @@ either expressed or implied, of the FreeBSD Project.
  */
 package edu.ucsf.valelab.gaussianfit.spotoperations;
 
-import ags.utils.KdTree;
 import edu.ucsf.valelab.gaussianfit.data.PointData;
 import java.awt.geom.Point2D;
 import java.util.List;
@@ -42,7 +41,8 @@ import java.util.List;
 /**
  * Class that finds the closest by point in a point collection given a single point
  * 
- * The method findKDWSE uses a kd tree approach based written by Rednaxela
+ * The method findKDWSE uses a SpatialGrid (it used to use a kd tree written by
+ * Rednaxela, hence the name)
  * 
  * 
  * @author nico
@@ -51,46 +51,35 @@ public class NearestPointByData {
 
    private final List<? extends PointData> theList_;
    private final double maxDistance_;
-   private final double maxDistanceSquared_;
-   private KdTree<Integer> we_;
+   private SpatialGrid grid_;
    
    public NearestPointByData(List<? extends PointData> unsorted, double maxDistance) {
       theList_ = unsorted;
       maxDistance_ = maxDistance;
-      maxDistanceSquared_ = maxDistance * maxDistance;
    }
    
    /**
     * method to find the nearest point in the collection of Points
-    * Uses Squared Euclidian distance method from Rednaxela
-    * TODO: evaluate if the copy of the spot is actually needed.
     * 
     * @param input - point for which we want to find the nearest neighbor
-    * @return copy of the point found or null when it was farther away than 
+    * @return the point found or null when it was farther away than 
     * the cutoff set in the constructor
     */
    public PointData findKDWSE(Point2D.Double input) {
-      // construct a new KD tree if needed
-      if (we_ == null) {
-         we_ = new KdTree.SqrEuclid<Integer>(2, 50 * theList_.size());
-         for (int i = 0; i < theList_.size(); i++) {
+      // construct the grid if needed
+      if (grid_ == null) {
+         double[] x = new double[theList_.size()];
+         double[] y = new double[theList_.size()];
+         for (int i = 0; i < x.length; i++) {
             Point2D.Double p = theList_.get(i).getPoint();
-            double[] point = {p.x, p.y};
-            we_.addPoint(point, i);
+            x[i] = p.x;
+            y[i] = p.y;
          }
+         grid_ = new SpatialGrid(x, y, maxDistance_);
       }
-      double[] testPoint = {input.x, input.y};
-      List<KdTree.Entry<Integer>> result = we_.nearestNeighbor(testPoint, 1, false);
-      
-      if (result != null && !result.isEmpty()) {
-         Integer index = result.get(0).value;
-         double distance = result.get(0).distance;
-
-         PointData ret = theList_.get(index);
-
-         if (distance < maxDistanceSquared_) {
-            return ret;
-         }
+      int index = grid_.nearest(input.x, input.y);
+      if (index >= 0) {
+         return theList_.get(index);
       }
       
       return null;
@@ -0,0 +1,198 @@
+/*
+ * Nearest neighbour search on a uniform grid
+ *
+
+Copyright (c) 2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+/**
+ * Finds the nearest point within a maximum distance, using a uniform grid 
+ * over primitive coordinate arrays.
+ * 
+ * Cells are at least maxDistance wide, so that every point within reach of
+ * a query lies in the 3x3 block of cells around it.  Points are stored cell
+ * by cell (counting sort), so that building the grid allocates three arrays
+ * and queries allocate nothing.  Instances are immutable after construction
+ * and can be queried from multiple threads.
+ */
+public final class SpatialGrid {
+   private final double[] x_;
+   private final double[] y_;
+   private final double maxDistanceSquared_;
+   private final double minX_;
+   private final double minY_;
+   private final double cellSize_;
+   private final int nx_;
+   private final int ny_;
+   // points in cell c are cellPoints_[cellStarts_[c]] to cellPoints_[cellStarts_[c + 1] - 1]
+   private final int[] cellStarts_;
+   private final int[] cellPoints_;
+
+   /**
+    * @param x x coordinates of the points.  Not copied, do not change.
+    * @param y y coordinates of the points.  Not copied, do not change.
+    * @param maxDistance points farther away than this are never returned
+    */
+   public SpatialGrid(double[] x, double[] y, double maxDistance) {
+      x_ = x;
+      y_ = y;
+      maxDistanceSquared_ = maxDistance * maxDistance;
+      final int n = x.length;
+
+      double minX = Double.POSITIVE_INFINITY;
+      double minY = Double.POSITIVE_INFINITY;
+      double maxX = Double.NEGATIVE_INFINITY;
+      double maxY = Double.NEGATIVE_INFINITY;
+      int nrValid = 0;
+      for (int i = 0; i < n; i++) {
+         if (isValid(x[i], y[i])) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+            nrValid++;
+         }
+      }
+      if (nrValid == 0 || !(maxDistance > 0)) {
+         minX_ = 0.0;
+         minY_ = 0.0;
+         cellSize_ = Double.POSITIVE_INFINITY;
+         nx_ = 0;
+         ny_ = 0;
+         cellStarts_ = new int[1];
+         cellPoints_ = new int[0];
+         return;
+      }
+      double w = maxX - minX;
+      double h = maxY - minY;
+      // About one point per cell, but never so many cells along one axis 
+      // that a thin strip of points gets more cells than points
+      double cellSize = Math.max(maxDistance, Math.sqrt(w * h / nrValid));
+      cellSize = Math.max(cellSize, Math.max(w, h) / (2 * nrValid));
+      minX_ = minX;
+      minY_ = minY;
+      cellSize_ = cellSize;
+      nx_ = cellSize == Double.POSITIVE_INFINITY ? 1 : (int) (w / cellSize) + 1;
+      ny_ = cellSize == Double.POSITIVE_INFINITY ? 1 : (int) (h / cellSize) + 1;
+
+      int[] cells = new int[n];
+      int[] starts = new int[nx_ * ny_ + 1];
+      for (int i = 0; i < n; i++) {
+         if (isValid(x[i], y[i])) {
+            cells[i] = cell(x[i], y[i]);
+            starts[cells[i] + 1]++;
+         } else {
+            cells[i] = -1;
+         }
+      }
+      for (int c = 0; c < nx_ * ny_; c++) {
+         starts[c + 1] += starts[c];
+      }
+      int[] fill = new int[nx_ * ny_];
+      int[] points = new int[nrValid];
+      for (int i = 0; i < n; i++) {
+         if (cells[i] >= 0) {
+            points[starts[cells[i]] + fill[cells[i]]++] = i;
+         }
+      }
+      cellStarts_ = starts;
+      cellPoints_ = points;
+   }
+
+   private static boolean isValid(double x, double y) {
+      return !Double.isNaN(x) && !Double.isInfinite(x)
+              && !Double.isNaN(y) && !Double.isInfinite(y);
+   }
+
+   private int cell(double x, double y) {
+      if (nx_ == 1 && ny_ == 1) {
+         return 0;
+      }
+      int cx = Math.min(nx_ - 1, (int) ((x - minX_) / cellSize_));
+      int cy = Math.min(ny_ - 1, (int) ((y - minY_) / cellSize_));
+      return cy * nx_ + cx;
+   }
+
+   /**
+    * @return number of points (including those with non-finite coordinates, 
+    * which are never found)
+    */
+   public int size() {
+      return x_.length;
+   }
+
+   /**
+    * Finds the point closest to (x, y).  Of points at the same distance, the
+    * one with the lowest index is returned.
+    * 
+    * @param x x coordinate of the query
+    * @param y y coordinate of the query
+    * @return index of the nearest point, or -1 when no point is closer than
+    * the maximum distance
+    */
+   public int nearest(double x, double y) {
+      if (nx_ == 0 || !isValid(x, y)) {
+         return -1;
+      }
+      int x0 = 0;
+      int x1 = nx_ - 1;
+      int y0 = 0;
+      int y1 = ny_ - 1;
+      if (nx_ > 1 || ny_ > 1) {
+         double cx = Math.floor((x - minX_) / cellSize_);
+         double cy = Math.floor((y - minY_) / cellSize_);
+         // Cells are at least maxDistance wide, so only neighbouring cells count
+         if (cx < -1 || cx > nx_ || cy < -1 || cy > ny_) {
+            return -1;
+         }
+         x0 = Math.max(0, (int) cx - 1);
+         x1 = Math.min(nx_ - 1, (int) cx + 1);
+         y0 = Math.max(0, (int) cy - 1);
+         y1 = Math.min(ny_ - 1, (int) cy + 1);
+      }
+      int best = -1;
+      double bestDistance = maxDistanceSquared_;
+      for (int cy = y0; cy <= y1; cy++) {
+         for (int c = cy * nx_ + x0; c <= cy * nx_ + x1; c++) {
+            for (int k = cellStarts_[c]; k < cellStarts_[c + 1]; k++) {
+               int i = cellPoints_[k];
+               double dx = x_[i] - x;
+               double dy = y_[i] - y;
+               double d2 = dx * dx + dy * dy;
+               if (d2 < bestDistance || (d2 == bestDistance && best >= 0 && i < best)) {
+                  bestDistance = d2;
+                  best = i;
+               }
+            }
+         }
+      }
+      return best;
+   }
+}
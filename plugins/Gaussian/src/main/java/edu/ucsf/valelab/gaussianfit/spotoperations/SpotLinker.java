@@ -35,7 +35,6 @@ package edu.ucsf.valelab.gaussianfit.spotoperations;
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
-import edu.ucsf.valelab.gaussianfit.data.GsSpotPair;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
 import edu.ucsf.valelab.gaussianfit.data.TrackData;
 import java.awt.geom.Point2D;
@@ -43,8 +42,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.swing.JOptionPane;
 
 /**
@@ -66,6 +67,7 @@ public class SpotLinker {
     * maximum distance of maxDistance.  If no spot is found, the link is added
     * and the linked (averaged) spot is added to the destination list 
     * through the function linkSpots.  This code could also be used for spot tracking
+    * The links between frames are found in parallel by FrameLinker.
     * 
     * @param rowData
     * @param maxDistance 
@@ -81,66 +83,35 @@ public class SpotLinker {
 
          // linked spots go here:
          List<SpotData> destList = new ArrayList<SpotData>();
-         // maintain active tracks here
-         List< List<SpotData>> tracks = 
-                 new ArrayList<List<SpotData>>();
          for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
             for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
                for (int s = 1; s <= rowData.nrSlices_; s++) {
+                  List<SpotData> allSpots = new ArrayList<SpotData>();
+                  List<double[]> xs = new ArrayList<double[]>();
+                  List<double[]> ys = new ArrayList<double[]>();
                   for (int f = 1; f <= rowData.nrFrames_; f++) {
                      List<SpotData> spots = rowData.get(f, s, ch, pos);
                      if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           ArrayList<GsSpotPair> gsSpots = new ArrayList<GsSpotPair>();
-                           for (SpotData spot : spots) {
-                              gsSpots.add(new GsSpotPair(spot, null,
-                                      new Point2D.Double(spot.getXCenter(), spot.getYCenter()),
-                                      new Point2D.Double(0.0, 0.0)));
-                           }
-                           NearestPointByData nsp = new NearestPointByData(gsSpots, maxDistance);
-                           List<List<SpotData>> removedTracks = 
-                                   new ArrayList<List<SpotData>>();
-                           for (List<SpotData> track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              GsSpotPair newSpot = ((GsSpotPair) nsp.findKDWSE(new Point2D.Double(
-                                      tSpot.getXCenter(), tSpot.getYCenter()))).copy();
-                              if (newSpot == null) {
-                                 // track could not be extended, finalize it
-                                 linkSpots(track, destList, useFrames);
-                                 // and remove from the list of tracks
-                                 // to avoid a concurrent modification exception
-                                 // the removal needs to be a two step process
-                                 removedTracks.add(track);
-                              } else {
-                                 track.add(newSpot.getFirstSpot());
-                                 markedSpots.add(newSpot.getFirstSpot());
-                              }
-                           }
-                           // second part of removing tracks
-                           for (List<SpotData> track : removedTracks) {
-                              tracks.remove(track);
-                           }
-                        }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              List<SpotData> track = new ArrayList<SpotData>();
-                              track.add(spot);
-                              tracks.add(track);
-                           }
+                        double[] x = new double[spots.size()];
+                        double[] y = new double[spots.size()];
+                        for (int i = 0; i < x.length; i++) {
+                           x[i] = spots.get(i).getXCenter();
+                           y[i] = spots.get(i).getYCenter();
                         }
+                        xs.add(x);
+                        ys.add(y);
+                        allSpots.addAll(spots);
                      }
                   }
-                  // add tracks that made it to the end to destination list
-                  for (List<SpotData> track : tracks) {
-                     linkSpots(track, destList, useFrames);
+                  int[][] tracks = FrameLinker.link(xs.toArray(new double[0][]),
+                          ys.toArray(new double[0][]), maxDistance);
+                  for (int[] track : tracks) {
+                     List<SpotData> trackSpots = new ArrayList<SpotData>(track.length);
+                     for (int spot : track) {
+                        trackSpots.add(allSpots.get(spot));
+                     }
+                     linkSpots(trackSpots, destList, useFrames);
                   }
-                  tracks.clear();
                }
             }
          }
@@ -284,7 +255,7 @@ public class SpotLinker {
                      List<SpotData> spots = rowData.get(f, s, ch, pos);
                      if (spots != null) {
                         // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
+                        Set<SpotData> markedSpots = new HashSet<SpotData>();
                         // go through all tracks to see if they can be extended
                         if (tracks.size() > 0) {
                            NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
@@ -0,0 +1,106 @@
+package edu.ucsf.valelab.gaussianfit.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SpotTableTest {
+
+   private static SpotData makeSpot(int frame, double x, double y) {
+      SpotData spot = new SpotData(null, 1, 2, frame, 3, 4, 5, 6);
+      spot.setData(1000.0, 10.0, x, y, 0.0, 250.0, 1.25, 0.5, 12.0);
+      spot.setZCenter(-100.0);
+      spot.setOriginalPosition(x + 1.0, y + 1.0, 7.0);
+      return spot;
+   }
+
+   @Test
+   public void spotsSurviveRoundTrip() {
+      SpotData spot = makeSpot(8, 123.456789, 987.654321);
+      spot.addKeyValue(SpotData.Keys.APERTUREINTENSITY, 900.0);
+      List<SpotData> spots = new ArrayList<SpotData>();
+      spots.add(spot);
+      spots.add(makeSpot(9, 1.0, 2.0));
+      SpotTable table = SpotTable.fromList(spots);
+
+      Assert.assertEquals(2, table.size());
+      SpotData copy = table.asList().get(0);
+      Assert.assertEquals(1, copy.getChannel());
+      Assert.assertEquals(2, copy.getSlice());
+      Assert.assertEquals(8, copy.getFrame());
+      Assert.assertEquals(3, copy.getPosition());
+      Assert.assertEquals(4, copy.getNr());
+      Assert.assertEquals(5, copy.getX());
+      Assert.assertEquals(6, copy.getY());
+      Assert.assertEquals(1000.0, copy.getIntensity(), 0.0);
+      Assert.assertEquals(10.0, copy.getBackground(), 0.0);
+      Assert.assertEquals(123.456789, copy.getXCenter(), 0.0);
+      Assert.assertEquals(987.654321, copy.getYCenter(), 0.0);
+      Assert.assertEquals(-100.0, copy.getZCenter(), 0.0);
+      Assert.assertEquals(124.456789, copy.getXOri(), 0.0);
+      Assert.assertEquals(250.0, copy.getWidth(), 0.0);
+      Assert.assertEquals(1.25, copy.getA(), 0.0);
+      Assert.assertEquals(0.5, copy.getTheta(), 0.0);
+      Assert.assertEquals(12.0, copy.getSigma(), 0.0);
+      Assert.assertEquals(900.0, copy.getValue(SpotData.Keys.APERTUREINTENSITY), 0.0);
+      // Key values that were never set are absent, not 0
+      Assert.assertFalse(table.asList().get(1).hasKey(SpotData.Keys.APERTUREINTENSITY));
+      Assert.assertTrue(Double.isNaN(table.getValue(SpotData.Keys.APERTUREINTENSITY, 1)));
+
+      // A list view converts back without copying
+      Assert.assertSame(table, SpotTable.fromList(table.asList()));
+   }
+
+   @Test
+   public void builderGrows() {
+      SpotTable.Builder builder = new SpotTable.Builder(1);
+      for (int i = 0; i < 1000; i++) {
+         builder.addSpot(1, 1, i, 1, i, 0, 0, i, 0, i, -i, 0, 0, 0, 0);
+         if (i % 2 == 0) {
+            builder.setValue(SpotData.Keys.MSIGMA, i);
+         }
+      }
+      SpotTable table = builder.build();
+      Assert.assertEquals(1000, table.size());
+      for (int i = 0; i < 1000; i++) {
+         Assert.assertEquals(-i, table.getYCenter(i), 0.0);
+         if (i % 2 == 0) {
+            Assert.assertEquals(i, table.getValue(SpotData.Keys.MSIGMA, i), 0.0);
+         } else {
+            Assert.assertTrue(Double.isNaN(table.getValue(SpotData.Keys.MSIGMA, i)));
+         }
+      }
+   }
+
+   @Test
+   public void sortsByFrameStably() {
+      int[] frames = {3, 1, 2, 1, 3, 2, 1};
+      List<SpotData> spots = new ArrayList<SpotData>();
+      for (int i = 0; i < frames.length; i++) {
+         spots.add(makeSpot(frames[i], i, 0.0));
+      }
+      int[] order = SpotTable.fromList(spots).sortedIndices(true);
+      Assert.assertArrayEquals(new int[] {1, 3, 6, 2, 5, 0, 4}, order);
+   }
+
+   @Test
+   public void selectAndShift() {
+      List<SpotData> spots = new ArrayList<SpotData>();
+      for (int i = 0; i < 5; i++) {
+         spots.add(makeSpot(i, i, 10.0 * i));
+      }
+      SpotTable table = SpotTable.fromList(spots);
+      SpotTable selected = table.select(new boolean[] {false, true, false, true, true});
+      Assert.assertEquals(3, selected.size());
+      Assert.assertEquals(3, selected.getFrame(1));
+
+      double[] x = table.getXCenters();
+      double[] y = table.getYCenters();
+      x[2] += 0.5;
+      SpotTable shifted = table.withCenters(x, y);
+      Assert.assertEquals(2.5, shifted.getXCenter(2), 0.0);
+      Assert.assertEquals(2.0, table.getXCenter(2), 0.0);
+      Assert.assertEquals(20.0, shifted.getYCenter(2), 0.0);
+   }
+}
@@ -0,0 +1,76 @@
+package edu.ucsf.valelab.gaussianfit.datasetdisplay;
+
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.awt.Rectangle;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TiledRendererTest {
+
+   /**
+    * Spots in nm, for an image of 1000 x 800 pixels of 100 nm
+    */
+   private static SpotTable makeSpots(int nrSpots) {
+      Random random = new Random(1);
+      SpotTable.Builder builder = new SpotTable.Builder(nrSpots);
+      for (int i = 0; i < nrSpots; i++) {
+         builder.addSpot(1, 1, i, 1, i, 0, 0, 1000.0, 10.0,
+                 100000.0 * random.nextDouble(), 80000.0 * random.nextDouble(),
+                 250.0f, 1.0f, 0.0f, 5.0f + 20.0f * random.nextFloat());
+      }
+      return builder.build();
+   }
+
+   @Test
+   public void normalizedGaussiansAddUpToSpots() {
+      SpotTable spots = makeSpots(200000);
+      // 50 nm pixels, keeping the image small enough for the test JVM
+      TiledRenderer renderer = new TiledRenderer(spots, null, 0.02,
+              new Rectangle(0, 0, 2000, 1600), 2000, 1600);
+      float[] pixels = renderer.renderGaussians(true, null);
+      double total = 0.0;
+      for (float p : pixels) {
+         total += p;
+      }
+      Assert.assertTrue(renderer.getSpotsRendered() > 199000);
+      Assert.assertEquals(renderer.getSpotsRendered(), total, 1.0);
+   }
+
+   @Test
+   public void viewportMatchesFullImage() {
+      SpotTable spots = makeSpots(20000);
+      Rectangle full = new Rectangle(0, 0, 2000, 1600);
+      Rectangle view = new Rectangle(600, 400, 300, 250);
+      float[] all = new TiledRenderer(spots, null, 0.02, full, 2000, 1600).
+              renderGaussians(false, null);
+      float[] part = new TiledRenderer(spots, null, 0.02, view, 2000, 1600).
+              renderGaussians(false, null);
+      // Spots that are cut off at the border of the view are left out, so
+      // compare away from the border
+      for (int y = 20; y < view.height - 20; y++) {
+         for (int x = 20; x < view.width - 20; x++) {
+            Assert.assertEquals(all[(y + view.y) * full.width + x + view.x],
+                    part[y * view.width + x], 1e-5);
+         }
+      }
+   }
+
+   @Test
+   public void histogramCountsAcceptedSpots() {
+      SpotTable spots = makeSpots(1000);
+      boolean[] accept = new boolean[spots.size()];
+      for (int i = 0; i < accept.length; i += 2) {
+         accept[i] = true;
+      }
+      TiledRenderer renderer = new TiledRenderer(spots, accept, 0.01,
+              new Rectangle(0, 0, 1000, 800), 1000, 800);
+      short[] pixels = renderer.renderHistogram(null, 0.0, 0.0, null)[0];
+      int total = 0;
+      for (short p : pixels) {
+         total += p & 0xffff;
+      }
+      Assert.assertEquals(renderer.getSpotsRendered(), total);
+      Assert.assertTrue(total > 490 && total <= 500);
+   }
+}
@@ -0,0 +1,157 @@
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Fits synthetic spots (Gaussian plus Poisson noise) with GaussianLMFitter.
+ */
+public class GaussianLMFitterTest {
+   private static final int BOX = 10;
+
+   /**
+    * Renders nrSpots boxes side by side into one image with Poisson noise.
+    * truth receives x, y (relative to each box) for every spot.
+    */
+   private static short[] makeSpots(int nrSpots, double amplitude,
+           double background, double sigma, double[] truth, long seed) {
+      Random random = new Random(seed);
+      short[] pixels = new short[nrSpots * BOX * BOX];
+      int width = nrSpots * BOX;
+      for (int n = 0; n < nrSpots; n++) {
+         double xc = BOX / 2 - 0.5 + random.nextDouble();
+         double yc = BOX / 2 - 0.5 + random.nextDouble();
+         truth[2 * n] = xc;
+         truth[2 * n + 1] = yc;
+         for (int j = 0; j < BOX; j++) {
+            for (int i = 0; i < BOX; i++) {
+               double r2 = (i - xc) * (i - xc) + (j - yc) * (j - yc);
+               double mean = amplitude * Math.exp(-r2 / (2 * sigma * sigma))
+                       + background;
+               pixels[j * width + n * BOX + i] = (short) poisson(random, mean);
+            }
+         }
+      }
+      return pixels;
+   }
+
+   private static int poisson(Random random, double mean) {
+      if (mean > 50) {
+         return (int) Math.max(0, Math.round(mean
+                 + Math.sqrt(mean) * random.nextGaussian()));
+      }
+      double l = Math.exp(-mean);
+      int k = 0;
+      double p = 1.0;
+      do {
+         k++;
+         p *= random.nextDouble();
+      } while (p > l);
+      return k - 1;
+   }
+
+   private static void checkLocalization(boolean mle, double fixedWidth) {
+      int nrSpots = 500;
+      double[] truth = new double[2 * nrSpots];
+      short[] pixels = makeSpots(nrSpots, 300, 50, 1.3, truth, 1);
+      GaussianLMFitter fitter = new GaussianLMFitter(BOX, mle, fixedWidth);
+      double[] parms = new double[fitter.getNrParms()];
+      double sumSqError = 0.0;
+      for (int n = 0; n < nrSpots; n++) {
+         fitter.setData(pixels, nrSpots * BOX, n * BOX, 0, BOX, BOX);
+         fitter.estimate(parms);
+         Assert.assertTrue(fitter.fit(parms, 200));
+         sumSqError += Math.pow(parms[GaussianLMFitter.XC] - truth[2 * n], 2)
+                 + Math.pow(parms[GaussianLMFitter.YC] - truth[2 * n + 1], 2);
+         if (fixedWidth <= 0) {
+            Assert.assertEquals(1.3, parms[GaussianLMFitter.S], 0.3);
+         }
+         Assert.assertEquals(50, parms[GaussianLMFitter.BGR], 10);
+      }
+      double rmsError = Math.sqrt(sumSqError / nrSpots);
+      // The Cramer-Rao bound is about 0.07 pixel for these spots
+      Assert.assertTrue("RMS error " + rmsError, rmsError < 0.15);
+   }
+
+   @Test
+   public void leastSquaresLocalizes() {
+      checkLocalization(false, -1.0);
+   }
+
+   @Test
+   public void mleLocalizes() {
+      checkLocalization(true, -1.0);
+   }
+
+   @Test
+   public void fixedWidthLocalizes() {
+      checkLocalization(false, 1.3);
+   }
+
+   @Test
+   public void noiseFreeSpotIsExact() {
+      double[] truth = new double[2];
+      short[] pixels = new short[BOX * BOX];
+      for (int j = 0; j < BOX; j++) {
+         for (int i = 0; i < BOX; i++) {
+            double r2 = (i - 4.3) * (i - 4.3) + (j - 5.1) * (j - 5.1);
+            pixels[j * BOX + i] = (short) Math.round(
+                    10000 * Math.exp(-r2 / (2 * 1.5 * 1.5)) + 1000);
+         }
+      }
+      GaussianLMFitter fitter = new GaussianLMFitter(BOX, false, -1.0);
+      double[] parms = new double[5];
+      fitter.setData(pixels, BOX, 0, 0, BOX, BOX);
+      fitter.estimate(parms);
+      Assert.assertTrue(fitter.fit(parms, 200));
+      Assert.assertEquals(4.3, parms[GaussianLMFitter.XC], 0.01);
+      Assert.assertEquals(5.1, parms[GaussianLMFitter.YC], 0.01);
+      Assert.assertEquals(1.5, parms[GaussianLMFitter.S], 0.01);
+   }
+
+   /**
+    * Prints spots per second for GaussianLMFitter and for GaussianFit
+    * (commons-math Levenberg-Marquardt) on synthetic spots.  Run manually.
+    */
+   @Ignore("Benchmark")
+   @Test
+   public void benchmark() {
+      int nrSpots = 20000;
+      double[] truth = new double[2 * nrSpots];
+      short[] pixels = makeSpots(nrSpots, 300, 50, 1.3, truth, 2);
+      for (boolean mle : new boolean[] {false, true}) {
+         GaussianLMFitter fitter = new GaussianLMFitter(BOX, mle, -1.0);
+         double[] parms = new double[5];
+         for (int pass = 0; pass < 2; pass++) { // first pass is warm up
+            long start = System.nanoTime();
+            for (int n = 0; n < nrSpots; n++) {
+               fitter.setData(pixels, nrSpots * BOX, n * BOX, 0, BOX, BOX);
+               fitter.estimate(parms);
+               fitter.fit(parms, 200);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (pass == 1) {
+               System.out.println(String.format("GaussianLMFitter %s: %.0f spots/s",
+                       mle ? "MLE" : "LSQ", nrSpots / seconds));
+            }
+         }
+
+         GaussianFit gs = new GaussianFit(GaussianFit.CIRCLE, mle
+                 ? GaussianFit.LEVENBERGMARQUARDMLE : GaussianFit.LEVENBERGMARQUARD);
+         int nrReference = nrSpots / 10;
+         long start = System.nanoTime();
+         for (int n = 0; n < nrReference; n++) {
+            ShortProcessor sp = new ShortProcessor(nrSpots * BOX, BOX, pixels, null);
+            sp.setRoi(n * BOX, 0, BOX, BOX);
+            gs.dogaussianfit(sp.crop(), 200);
+         }
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("GaussianFit %s: %.0f spots/s",
+                 mle ? "LM-MLE" : "LM", nrReference / seconds));
+      }
+   }
+}
@@ -0,0 +1,180 @@
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import ags.utils.KdTree;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class FrameLinkerTest {
+
+   @Test
+   public void gridFindsSameNeighbourAsBruteForce() {
+      Random random = new Random(1);
+      int n = 5000;
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i = 0; i < n; i++) {
+         x[i] = 10000.0 * random.nextDouble();
+         y[i] = 1000.0 * random.nextDouble();
+      }
+      x[7] = Double.NaN;
+      for (double maxDistance : new double[] {1.0, 50.0, 1e6, Double.POSITIVE_INFINITY}) {
+         SpatialGrid grid = new SpatialGrid(x, y, maxDistance);
+         for (int q = 0; q < 1000; q++) {
+            double qx = 12000.0 * random.nextDouble() - 1000.0;
+            double qy = 1200.0 * random.nextDouble() - 100.0;
+            int expected = -1;
+            double best = maxDistance * maxDistance;
+            for (int i = 0; i < n; i++) {
+               double d2 = (x[i] - qx) * (x[i] - qx) + (y[i] - qy) * (y[i] - qy);
+               if (d2 < best) {
+                  best = d2;
+                  expected = i;
+               }
+            }
+            Assert.assertEquals(expected, grid.nearest(qx, qy));
+         }
+      }
+      Assert.assertEquals(-1, new SpatialGrid(new double[0], new double[0], 1.0).
+              nearest(0.0, 0.0));
+   }
+
+   /**
+    * Spots that move by a small random step each frame, and appear and
+    * disappear at random
+    */
+   private static void makeTracks(int nrFrames, int nrParticles, double[][] x,
+           double[][] y, long seed) {
+      Random random = new Random(seed);
+      double[] px = new double[nrParticles];
+      double[] py = new double[nrParticles];
+      for (int p = 0; p < nrParticles; p++) {
+         px[p] = 50000.0 * random.nextDouble();
+         py[p] = 50000.0 * random.nextDouble();
+      }
+      for (int f = 0; f < nrFrames; f++) {
+         List<Integer> visible = new ArrayList<Integer>();
+         for (int p = 0; p < nrParticles; p++) {
+            px[p] += 10.0 * random.nextGaussian();
+            py[p] += 10.0 * random.nextGaussian();
+            if (random.nextDouble() < 0.9) {
+               visible.add(p);
+            }
+         }
+         x[f] = new double[visible.size()];
+         y[f] = new double[visible.size()];
+         for (int i = 0; i < visible.size(); i++) {
+            x[f][i] = px[visible.get(i)];
+            y[f][i] = py[visible.get(i)];
+         }
+      }
+   }
+
+   /**
+    * The way SpotLinker used to link spots: frame by frame, with a kd tree
+    * per frame, extending the list of active tracks.
+    */
+   private static List<List<Integer>> linkSequentially(double[][] x, double[][] y,
+           double maxDistance) {
+      int[] starts = FrameLinker.getFrameStarts(x);
+      double[] allX = new double[starts[x.length]];
+      double[] allY = new double[starts[x.length]];
+      for (int f = 0; f < x.length; f++) {
+         System.arraycopy(x[f], 0, allX, starts[f], x[f].length);
+         System.arraycopy(y[f], 0, allY, starts[f], y[f].length);
+      }
+      List<List<Integer>> finished = new ArrayList<List<Integer>>();
+      List<List<Integer>> tracks = new ArrayList<List<Integer>>();
+      for (int f = 0; f < x.length; f++) {
+         Set<Integer> marked = new HashSet<Integer>();
+         if (!tracks.isEmpty()) {
+            KdTree<Integer> tree = new KdTree.SqrEuclid<Integer>(2, 50 * x[f].length);
+            for (int i = 0; i < x[f].length; i++) {
+               tree.addPoint(new double[] {x[f][i], y[f][i]}, i);
+            }
+            List<List<Integer>> removed = new ArrayList<List<Integer>>();
+            for (List<Integer> track : tracks) {
+               int last = track.get(track.size() - 1);
+               List<KdTree.Entry<Integer>> result = tree.nearestNeighbor(
+                       new double[] {allX[last], allY[last]}, 1, false);
+               if (result.isEmpty() || !(result.get(0).distance < maxDistance * maxDistance)) {
+                  finished.add(track);
+                  removed.add(track);
+               } else {
+                  int spot = starts[f] + result.get(0).value;
+                  track.add(spot);
+                  marked.add(spot);
+               }
+            }
+            tracks.removeAll(removed);
+         }
+         for (int i = 0; i < x[f].length; i++) {
+            if (!marked.contains(starts[f] + i)) {
+               List<Integer> track = new ArrayList<Integer>();
+               track.add(starts[f] + i);
+               tracks.add(track);
+            }
+         }
+      }
+      finished.addAll(tracks);
+      return finished;
+   }
+
+   private static Set<List<Integer>> asSet(int[][] tracks) {
+      Set<List<Integer>> result = new HashSet<List<Integer>>();
+      for (int[] track : tracks) {
+         List<Integer> list = new ArrayList<Integer>();
+         for (int spot : track) {
+            list.add(spot);
+         }
+         result.add(list);
+      }
+      return result;
+   }
+
+   @Test
+   public void findsSameTracksAsSequentialLinking() {
+      double[][] x = new double[200][];
+      double[][] y = new double[200][];
+      makeTracks(200, 500, x, y, 2);
+      int[][] tracks = FrameLinker.link(x, y, 50.0);
+      List<List<Integer>> expected = linkSequentially(x, y, 50.0);
+      Assert.assertEquals(expected.size(), tracks.length);
+      Assert.assertEquals(new HashSet<List<Integer>>(expected), asSet(tracks));
+      // Tracks are ordered by their first spot
+      for (int t = 1; t < tracks.length; t++) {
+         Assert.assertTrue(tracks[t - 1][0] < tracks[t][0]);
+      }
+   }
+
+   /**
+    * Prints the time taken by FrameLinker and by frame-by-frame linking with
+    * kd trees on synthetic tracks.  Run manually.
+    */
+   @Ignore("Benchmark")
+   @Test
+   public void benchmark() {
+      int nrFrames = 50000;
+      double[][] x = new double[nrFrames][];
+      double[][] y = new double[nrFrames][];
+      makeTracks(nrFrames, 200, x, y, 3);
+      for (int pass = 0; pass < 2; pass++) { // first pass is warm up
+         long start = System.nanoTime();
+         int nrTracks = FrameLinker.link(x, y, 50.0).length;
+         double gridSeconds = (System.nanoTime() - start) / 1e9;
+         start = System.nanoTime();
+         int nrReference = linkSequentially(x, y, 50.0).size();
+         double kdSeconds = (System.nanoTime() - start) / 1e9;
+         if (pass == 1) {
+            System.out.println(String.format(
+                    "FrameLinker: %.2f s (%d tracks), sequential kd tree: %.2f s (%d tracks)",
+                    gridSeconds, nrTracks, kdSeconds, nrReference));
+         }
+      }
+   }
+}
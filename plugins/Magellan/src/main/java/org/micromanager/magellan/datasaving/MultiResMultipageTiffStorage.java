@@ -26,7 +26,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeMap;
@@ -34,12 +33,14 @@ import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 import mmcorej.TaggedImage;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -77,7 +78,29 @@ public class MultiResMultipageTiffStorage {
    private AffineTransform affine_;
    private boolean rgb_;
    private ThreadPoolExecutor writingExecutor_;
+   //Lower resolution levels are computed on their own thread and each level is 
+   //written by its own executor, so that they don't hold up full resolution saving
+   private ThreadPoolExecutor pyramidExecutor_;
+   private final TreeMap<Integer, ThreadPoolExecutor> lowResWritingExecutors_
+           = new TreeMap<Integer, ThreadPoolExecutor>();
+   //Each image waiting for the pyramid executor holds on to its pixels, so
+   //putImage blocks when too many are waiting
+   private static final int MAX_PENDING_LOW_RES_IMAGES = 16;
+   private final Semaphore pyramidPermits_ = new Semaphore(MAX_PENDING_LOW_RES_IMAGES);
+   private volatile RuntimeException pyramidException_;
+   private volatile boolean deferLowResLevels_ = false;
+   private volatile boolean finishing_ = false;
+   private volatile long lastPutNanos_;
+   //when deferring, lower resolutions are computed after no image arrived for this long
+   private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+   private volatile Runnable tilesChangedListener_;
    private volatile int maxResolutionLevel_ = 0;
+   //decoded tiles for the display, at most 1/8 of the heap
+   private final TileCache tileCache_ = new TileCache(this::loadTile,
+           Math.min(512L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8));
+   //channel, slice, frame, resolution, x and y of the last displayed image
+   private volatile long[] lastDisplayed_;
+   private static final int MIN_PARALLEL_PIXELS = 256 * 256;
 
    /**
     * Constructor to load existing storage from disk dir --top level saving
@@ -138,6 +161,9 @@ public class MultiResMultipageTiffStorage {
    public MultiResMultipageTiffStorage(String dir, JSONObject summaryMetadata) {
       writingExecutor_ = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
               new LinkedBlockingQueue<java.lang.Runnable>());
+      pyramidExecutor_ = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+              new LinkedBlockingQueue<java.lang.Runnable>(),
+              (Runnable r) -> new Thread(r, "Magellan downsampling thread"));
       try {
          //make a copy in case tag changes are needed later
          summaryMD_ = new JSONObject(summaryMetadata.toString());
@@ -179,6 +205,25 @@ public class MultiResMultipageTiffStorage {
       lowResStorages_ = new TreeMap<Integer, TaggedImageStorageMultipageTiff>();
    }
 
+   /**
+    * Set a listener to be called (on the downsampling thread) whenever the
+    * lower resolution tiles of an image have been written, so that views of
+    * those tiles can be redrawn
+    */
+   public void setTilesChangedListener(Runnable listener) {
+      tilesChangedListener_ = listener;
+   }
+
+   /**
+    * When true, lower resolution levels are only computed and written when no
+    * new images arrived for a while (or when acquisition finishes, or when
+    * putImage would otherwise block), so that they do not compete with saving
+    * full resolution images
+    */
+   public void setDeferLowResolutionLevels(boolean defer) {
+      deferLowResLevels_ = defer;
+   }
+
    public void setDisplaySettings(DisplaySettings displaySettings) {
       try {
          if (displaySettings != null) {
@@ -358,56 +403,35 @@ public class MultiResMultipageTiffStorage {
       }
       //go line by line through one column of tiles at a time, then move to next column
       JSONObject topLeftMD = null;
-      //first calculate how many columns and rows of tiles are relevant and the number of pixels
-      //of each tile to copy into the returned image
-      long previousCol = tileIndexFromPixelIndex(x, true) - 1; //make it one less than the first col in loop
-      LinkedList<Integer> lineWidths = new LinkedList<Integer>();
-      for (long i = x; i < x + width; i++) { //Iterate through every column of pixels in the image to be returned
-         long colIndex = tileIndexFromPixelIndex(i, true);
-         if (colIndex != previousCol) {
-            lineWidths.add(0);
-         }
-         //Increment current width
-         lineWidths.add(lineWidths.removeLast() + 1);
-         previousCol = colIndex;
-      }
-      //do the same thing for rows
-      long previousRow = tileIndexFromPixelIndex(y, false) - 1; //one less than first row in loop?
-      LinkedList<Integer> lineHeights = new LinkedList<Integer>();
-      for (long i = y; i < y + height; i++) {
-         long rowIndex = tileIndexFromPixelIndex(i, false);
-         if (rowIndex != previousRow) {
-            lineHeights.add(0);
-         }
-         //add one to pixel count of current height
-         lineHeights.add(lineHeights.removeLast() + 1);
-         previousRow = rowIndex;
-      }
-      //get starting row and column
+      int multiplier = rgb_ ? 4 : 1;
+      //account for overlaps when viewing full resolution tiles
+      int tileStride = dsIndex == 0 ? fullResTileWidthIncludingOverlap_ : tileWidth_;
+      int overlapX = dsIndex == 0 ? xOverlap_ / 2 : 0;
+      int overlapY = dsIndex == 0 ? yOverlap_ / 2 : 0;
       long rowStart = tileIndexFromPixelIndex(y, false);
       long colStart = tileIndexFromPixelIndex(x, true);
-      //xOffset and y offset are the distance from the top left of the display image into which 
-      //we are copying data
-      int xOffset = 0;
-      for (long col = colStart; col < colStart + lineWidths.size(); col++) {
-         int yOffset = 0;
-         for (long row = rowStart; row < rowStart + lineHeights.size(); row++) {
-            TaggedImage tile = null;
-            if (dsIndex == 0) {
-               tile = fullResStorage_.getImage(channel, slice, frame, posManager_.getPositionIndexFromTilePosition(dsIndex, row, col));
-            } else {
-               tile = lowResStorages_.get(dsIndex) == null ? null
-                       : lowResStorages_.get(dsIndex).getImage(channel, slice, frame, posManager_.getPositionIndexFromTilePosition(dsIndex, row, col));
-            }
+      long rowEnd = tileIndexFromPixelIndex(y + height - 1, false);
+      long colEnd = tileIndexFromPixelIndex(x + width - 1, true);
+      for (long col = colStart; col <= colEnd; col++) {
+         //xOffset is the distance from the left of the display image into which 
+         //we are copying data, lineWidth the number of pixels copied from this column of tiles
+         long tileLeft = col * tileWidth_;
+         int xOffset = (int) (Math.max(x, tileLeft) - x);
+         int lineWidth = (int) (Math.min(x + width, tileLeft + tileWidth_) - x) - xOffset;
+         int tileXPix = (int) (x + xOffset - tileLeft) + overlapX;
+         for (long row = rowStart; row <= rowEnd; row++) {
+            long tileTop = row * tileHeight_;
+            int yOffset = (int) (Math.max(y, tileTop) - y);
+            int lineHeight = (int) (Math.min(y + height, tileTop + tileHeight_) - y) - yOffset;
+            int tileYPix = (int) (y + yOffset - tileTop) + overlapY;
+            TaggedImage tile = tileCache_.get(channel, slice, frame, dsIndex, row, col);
             if (tile == null) {
-               yOffset += lineHeights.get((int) (row - rowStart)); //increment y offset so new tiles appear in correct position
                continue; //If no data present for this tile go on to next one
             } else if ((tile.pix instanceof byte[] && ((byte[]) tile.pix).length == 0)
                     || (tile.pix instanceof short[] && ((short[]) tile.pix).length == 0)) {
                //Somtimes an inability to read IFDs soon after they are written results in an image being read 
                //with 0 length pixels. Can't figure out why this happens, but it is rare and will result at worst with
                //a black flickering during acquisition
-               yOffset += lineHeights.get((int) (row - rowStart)); //increment y offset so new tiles appear in correct position
                continue;
             }
             //take top left tile for metadata
@@ -415,40 +439,57 @@ public class MultiResMultipageTiffStorage {
                topLeftMD = tile.tags;
             }
             //Copy pixels into the image to be returned
-            //yOffset is how many rows from top of viewable area, y is top of image to top of area
-            for (int line = yOffset; line < lineHeights.get((int) (row - rowStart)) + yOffset; line++) {
-               int tileYPix = (int) ((y + line) % tileHeight_);
-               int tileXPix = (int) ((x + xOffset) % tileWidth_);
-               //make sure tile pixels are positive
-               while (tileXPix < 0) {
-                  tileXPix += tileWidth_;
-               }
-               while (tileYPix < 0) {
-                  tileYPix += tileHeight_;
-               }
-               try {
-                  int multiplier = rgb_ ? 4 : 1;
-                  if (dsIndex == 0) {
-                     //account for overlaps when viewing full resolution tiles
-                     tileYPix += yOverlap_ / 2;
-                     tileXPix += xOverlap_ / 2;
-                     System.arraycopy(tile.pix, multiplier * (tileYPix * fullResTileWidthIncludingOverlap_ + tileXPix), pixels, (xOffset + width * line) * multiplier, multiplier * lineWidths.get((int) (col - colStart)));
-                  } else {
-                     System.arraycopy(tile.pix, multiplier * (tileYPix * tileWidth_ + tileXPix), pixels, multiplier * (xOffset + width * line), multiplier * lineWidths.get((int) (col - colStart)));
-                  }
-               } catch (Exception e) {
-                  e.printStackTrace();
-                  Log.log("Problem copying pixels");
+            try {
+               for (int line = 0; line < lineHeight; line++) {
+                  System.arraycopy(tile.pix, multiplier * ((tileYPix + line) * tileStride + tileXPix),
+                          pixels, multiplier * (xOffset + width * (yOffset + line)), multiplier * lineWidth);
                }
+            } catch (Exception e) {
+               e.printStackTrace();
+               Log.log("Problem copying pixels");
             }
-            yOffset += lineHeights.get((int) (row - rowStart));
-
          }
-         xOffset += lineWidths.get((int) (col - colStart));
       }
+      prefetchAround(channel, slice, frame, dsIndex, x, y, rowStart, rowEnd, colStart, colEnd);
       return new TaggedImage(pixels, topLeftMD);
    }
 
+   /**
+    * When the displayed area moved since the last call, start loading the tiles 
+    * just beyond it in the direction it moved
+    */
+   private void prefetchAround(int channel, int slice, int frame, int dsIndex, long x, long y,
+           long rowStart, long rowEnd, long colStart, long colEnd) {
+      long[] last = lastDisplayed_;
+      lastDisplayed_ = new long[]{channel, slice, frame, dsIndex, x, y};
+      if (last == null || last[0] != channel || last[1] != slice || last[2] != frame
+              || last[3] != dsIndex) {
+         return;
+      }
+      long dx = x - last[4];
+      long dy = y - last[5];
+      if (dx != 0) {
+         long col = dx > 0 ? colEnd + 1 : colStart - 1;
+         for (long row = rowStart; row <= rowEnd; row++) {
+            tileCache_.prefetch(channel, slice, frame, dsIndex, row, col);
+         }
+      }
+      if (dy != 0) {
+         long row = dy > 0 ? rowEnd + 1 : rowStart - 1;
+         for (long col = colStart; col <= colEnd; col++) {
+            tileCache_.prefetch(channel, slice, frame, dsIndex, row, col);
+         }
+      }
+   }
+
+   private TaggedImage loadTile(int channel, int slice, int frame, int resIndex, long row, long col) {
+      TaggedImageStorageMultipageTiff storage = resIndex == 0 ? fullResStorage_ : lowResStorages_.get(resIndex);
+      if (storage == null) {
+         return null;
+      }
+      return storage.getImage(channel, slice, frame, posManager_.getPositionIndexFromTilePosition(resIndex, row, col));
+   }
+
 //   /**
 //    * Called before any images have been added to initialize the resolution to
 //    * the specifiec zoom level
@@ -486,88 +527,114 @@ public class MultiResMultipageTiffStorage {
       //Determine which position in 2x2 this tile sits in
       int xPos = (int) Math.abs((posManager_.getGridCol(fullResPositionIndex, resolutionIndex - 1) % 2));
       int yPos = (int) Math.abs((posManager_.getGridRow(fullResPositionIndex, resolutionIndex - 1) % 2));
-      //Add one if top or left so border pixels from an odd length image gets added in
-      for (int x = 0; x < tileWidth_; x += 2) { //iterate over previous res level pixels
-         for (int y = 0; y < tileHeight_; y += 2) {
-            //average a square of 4 pixels from previous level
-            //edges: if odd number of pixels in tile, round to determine which
-            //tiles pixels make it to next res level
-
-            //these are the indices of pixels at the previous res level, which are offset
-            //when moving from res level 0 to one as we throw away the overlapped image edges
-            int pixelX, pixelY, previousLevelWidth, previousLevelHeight;
-            if (resolutionIndex == 1) {
-               //add offsets to account for overlap pixels at resolution level 0
-               pixelX = x + xOverlap_ / 2;
-               pixelY = y + yOverlap_ / 2;
-               previousLevelWidth = fullResTileWidthIncludingOverlap_;
-               previousLevelHeight = fullResTileHeightIncludingOverlap_;
-            } else {
-               pixelX = x;
-               pixelY = y;
-               previousLevelWidth = tileWidth_;
-               previousLevelHeight = tileHeight_;
+      //these are the offsets of pixels at the previous res level, which are nonzero
+      //when moving from res level 0 to one as we throw away the overlapped image edges
+      int offsetX, offsetY, previousLevelWidth, previousLevelHeight;
+      if (resolutionIndex == 1) {
+         offsetX = xOverlap_ / 2;
+         offsetY = yOverlap_ / 2;
+         previousLevelWidth = fullResTileWidthIncludingOverlap_;
+         previousLevelHeight = fullResTileHeightIncludingOverlap_;
+      } else {
+         offsetX = 0;
+         offsetY = 0;
+         previousLevelWidth = tileWidth_;
+         previousLevelHeight = tileHeight_;
+      }
+      try {
+         if (byteDepth_ == 1 || rgb_) {
+            downsampleBytes((byte[]) previousLevelPix, (byte[]) currentLevelPix, previousLevelWidth,
+                    previousLevelHeight, offsetX, offsetY, xPos * tileWidth_, yPos * tileHeight_,
+                    rgb_ ? 4 : 1, rgb_ ? 3 : 1);
+         } else {
+            downsampleShorts((short[]) previousLevelPix, (short[]) currentLevelPix, previousLevelWidth,
+                    previousLevelHeight, offsetX, offsetY, xPos * tileWidth_, yPos * tileHeight_);
+         }
+      } catch (Exception e) {
+         Log.log("Couldn't copy pixels to lower resolution");
+         e.printStackTrace();
+         throw new RuntimeException(e);
+      }
+   }
 
-            }
-            int rgbMultiplier_ = rgb_ ? 4 : 1;
-            for (int compIndex = 0; compIndex < (rgb_ ? 3 : 1); compIndex++) {
-               int count = 1; //count is number of pixels (out of 4) used to create a pixel at this level
-               //always take top left pixel, maybe take others depending on whether at image edge
-               int sum = 0;
-               if (byteDepth_ == 1 || rgb_) {
-                  sum += ((byte[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xff;
-               } else {
-                  sum += ((short[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xffff;
-               }
+   /**
+    * Rows of pixel pairs to downsample, in parallel for large tiles
+    */
+   private IntStream downsampleRows() {
+      IntStream rows = IntStream.range(0, (tileHeight_ + 1) / 2);
+      return tileWidth_ * tileHeight_ >= MIN_PARALLEL_PIXELS ? rows.parallel() : rows;
+   }
 
-               //pixel index can be different from index in tile at resolution level 0 if there is nonzero overlap
-               if (x < previousLevelWidth - 1 && y < previousLevelHeight - 1) { //if not bottom right corner, add three more pix
-                  count += 3;
-                  if (byteDepth_ == 1 || rgb_) {
-                     sum += (((byte[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xff)
-                             + (((byte[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xff)
-                             + (((byte[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xff);
-                  } else {
-                     sum += (((short[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xffff)
-                             + (((short[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xffff)
-                             + (((short[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xffff);
-                  }
-               } else if (x < previousLevelWidth - 1) { //if not right edge, add one more pix
-                  count++;
-                  if (byteDepth_ == 1 || rgb_) {
-                     sum += ((byte[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xff;
-                  } else {
-                     sum += ((short[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xffff;
-                  }
-               } else if (y < previousLevelHeight - 1) { // if not bottom edge, add one more pix
-                  count++;
-                  if (byteDepth_ == 1 || rgb_) {
-                     sum += ((byte[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xff;
-                  } else {
-                     sum += ((short[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xffff;
-                  }
+   /**
+    * Average squares of 4 pixels from previous level into the appropriate 
+    * quadrant of the current level. At the edges of the previous level, fewer 
+    * pixels are averaged. If the tile has an odd number of pixels, the last 
+    * one gets chopped off to make it fit into tile containers.
+    *
+    * @param dstX x offset of this tile in the current level, before halving
+    * @param dstY y offset of this tile in the current level, before halving
+    * @param samplesPerPixel 4 for RGB, 1 otherwise
+    * @param components number of samples per pixel to average (alpha is not)
+    */
+   private void downsampleBytes(final byte[] src, final byte[] dst, final int srcWidth,
+           final int srcHeight, final int offsetX, final int offsetY, final int dstX, final int dstY,
+           final int samplesPerPixel, final int components) {
+      final int spp = samplesPerPixel;
+      downsampleRows().forEach((int r) -> {
+         int y = 2 * r;
+         boolean atBottomEdge = !(y < srcHeight - 1);
+         int line = ((y + offsetY) * srcWidth + offsetX) * spp;
+         int nextLine = line + srcWidth * spp;
+         int dstLine = ((y + dstY) / 2) * tileWidth_;
+         for (int x = 0; x < tileWidth_; x += 2) {
+            int s0 = line + x * spp;
+            int s1 = nextLine + x * spp;
+            int d = (dstLine + (x + dstX) / 2) * spp;
+            boolean atRightEdge = !(x < srcWidth - 1);
+            for (int c = 0; c < components; c++) {
+               if (!atRightEdge && !atBottomEdge) {
+                  dst[d + c] = (byte) (((src[s0 + c] & 0xff) + (src[s0 + spp + c] & 0xff)
+                          + (src[s1 + c] & 0xff) + (src[s1 + spp + c] & 0xff)) / 4);
+               } else if (!atRightEdge) {
+                  dst[d + c] = (byte) (((src[s0 + c] & 0xff) + (src[s0 + spp + c] & 0xff)) / 2);
+               } else if (!atBottomEdge) {
+                  dst[d + c] = (byte) (((src[s0 + c] & 0xff) + (src[s1 + c] & 0xff)) / 2);
                } else {
-                  //it is the bottom right corner, no more pix to add
-               }
-               //add averaged pixel into appropriate quadrant of current res level
-               //if full res tile has an odd number of pix, the last one gets chopped off
-               //to make it fit into tile containers
-               try {
-                  int index = (((y + yPos * tileHeight_) / 2) * tileWidth_ + (x + xPos * tileWidth_) / 2) * rgbMultiplier_ + compIndex;
-                  if (byteDepth_ == 1 || rgb_) {
-                     ((byte[]) currentLevelPix)[index] = (byte) Math.round(sum / count);
-                  } else {
-                     ((short[]) currentLevelPix)[index] = (short) Math.round(sum / count);
-                  }
-               } catch (Exception e) {
-                  Log.log("Couldn't copy pixels to lower resolution");
-                  e.printStackTrace();
-                  throw new RuntimeException(e);
+                  dst[d + c] = src[s0 + c];
                }
+            }
+         }
+      });
+   }
 
+   /**
+    * 16 bit version of downsampleBytes
+    */
+   private void downsampleShorts(final short[] src, final short[] dst, final int srcWidth,
+           final int srcHeight, final int offsetX, final int offsetY, final int dstX, final int dstY) {
+      downsampleRows().forEach((int r) -> {
+         int y = 2 * r;
+         boolean atBottomEdge = !(y < srcHeight - 1);
+         int line = (y + offsetY) * srcWidth + offsetX;
+         int nextLine = line + srcWidth;
+         int dstLine = ((y + dstY) / 2) * tileWidth_;
+         for (int x = 0; x < tileWidth_; x += 2) {
+            int s0 = line + x;
+            int s1 = nextLine + x;
+            int d = dstLine + (x + dstX) / 2;
+            boolean atRightEdge = !(x < srcWidth - 1);
+            if (!atRightEdge && !atBottomEdge) {
+               dst[d] = (short) (((src[s0] & 0xffff) + (src[s0 + 1] & 0xffff)
+                       + (src[s1] & 0xffff) + (src[s1 + 1] & 0xffff)) / 4);
+            } else if (!atRightEdge) {
+               dst[d] = (short) (((src[s0] & 0xffff) + (src[s0 + 1] & 0xffff)) / 2);
+            } else if (!atBottomEdge) {
+               dst[d] = (short) (((src[s0] & 0xffff) + (src[s1] & 0xffff)) / 2);
+            } else {
+               dst[d] = src[s0];
             }
          }
-      }
+      });
    }
 
    private void populateNewResolutionLevel(List<Future> writeFinishedList, int resolutionIndex) {
@@ -672,7 +739,11 @@ public class MultiResMultipageTiffStorage {
          //reset dimensions so that overlap not included
          MD.setWidth(smd, tileWidth_);
          MD.setHeight(smd, tileHeight_);
-         TaggedImageStorageMultipageTiff storage = new TaggedImageStorageMultipageTiff(dsDir, true, smd, writingExecutor_, this);
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+                 new LinkedBlockingQueue<java.lang.Runnable>(),
+                 (Runnable r) -> new Thread(r, "Magellan writing thread, resolution " + resIndex));
+         lowResWritingExecutors_.put(resIndex, executor);
+         TaggedImageStorageMultipageTiff storage = new TaggedImageStorageMultipageTiff(dsDir, true, smd, executor, this);
          lowResStorages_.put(resIndex, storage);
       } catch (Exception ex) {
          Log.log("Couldnt create downsampled storage");
@@ -680,26 +751,85 @@ public class MultiResMultipageTiffStorage {
    }
 
    /**
-    * Don't return until all images have been written to disk
+    * Don't return until the full resolution image has been written to disk.
+    * Lower resolutions are added on a separate thread, but this waits if that
+    * thread has fallen too far behind.
     */
    public void putImage(TaggedImage MagellanTaggedImage) {
+      if (pyramidException_ != null) {
+         throw pyramidException_;
+      }
+      lastPutNanos_ = System.nanoTime();
       try {
-         List<Future> writeFinishedList = new ArrayList<Future>();
          //write to full res storage as normal (i.e. with overlap pixels present)
-         writeFinishedList.add(fullResStorage_.putImage(MagellanTaggedImage));
+         Future fullResWritten = fullResStorage_.putImage(MagellanTaggedImage);
+         pyramidPermits_.acquire();
+         pyramidExecutor_.submit(() -> {
+            try {
+               addToLowResStorages(MagellanTaggedImage);
+            } finally {
+               pyramidPermits_.release();
+            }
+         });
+         fullResWritten.get();
+         int positionIndex = MD.getPositionIndex(MagellanTaggedImage.tags);
+         tileCache_.invalidate(MD.getChannelIndex(MagellanTaggedImage.tags),
+                 MD.getSliceIndex(MagellanTaggedImage.tags),
+                 MD.getFrameIndex(MagellanTaggedImage.tags), 0,
+                 posManager_.getGridRow(positionIndex, 0),
+                 posManager_.getGridCol(positionIndex, 0));
+      } catch (IOException | ExecutionException | InterruptedException ex) {
+         Log.log(ex.toString());
+         throw new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * Add an image to all lower resolution levels, and wait until they have been
+    * written to disk. Runs on the pyramid executor.
+    */
+   private void addToLowResStorages(TaggedImage image) {
+      try {
+         waitForIdle();
+         List<Future> writeFinishedList = new ArrayList<Future>();
          //check if maximum resolution level needs to be updated based on full size of image
          long fullResPixelWidth = getNumCols() * getTileWidth();
          long fullResPixelHeight = getNumRows() * getTileHeight();
          int maxResIndex = (int) Math.ceil(Math.log((Math.max(fullResPixelWidth, fullResPixelHeight)
                  / 4)) / Math.log(2));
          addResolutionsUpTo(maxResIndex);
-         writeFinishedList.addAll(addToLowResStorage(MagellanTaggedImage, 0, MD.getPositionIndex(MagellanTaggedImage.tags)));
+         int fullResPositionIndex = MD.getPositionIndex(image.tags);
+         writeFinishedList.addAll(addToLowResStorage(image, 0, fullResPositionIndex));
          for (Future f : writeFinishedList) {
             f.get();
          }
-      } catch (IOException | ExecutionException | InterruptedException ex) {
+         //the lower resolution tiles containing this tile have changed
+         for (int res = 1; res <= maxResolutionLevel_; res++) {
+            tileCache_.invalidate(MD.getChannelIndex(image.tags),
+                    MD.getSliceIndex(image.tags), MD.getFrameIndex(image.tags),
+                    res, posManager_.getGridRow(fullResPositionIndex, res),
+                    posManager_.getGridCol(fullResPositionIndex, res));
+         }
+         Runnable listener = tilesChangedListener_;
+         if (listener != null) {
+            listener.run();
+         }
+      } catch (ExecutionException | InterruptedException | RuntimeException ex) {
          Log.log(ex.toString());
-         throw new RuntimeException(ex);
+         pyramidException_ = ex instanceof RuntimeException ? (RuntimeException) ex : new RuntimeException(ex);
+      }
+   }
+
+   /**
+    * When deferring lower resolutions, wait until images stop arriving, the
+    * acquisition finishes, or no more images can be queued without blocking
+    * putImage.
+    */
+   private void waitForIdle() throws InterruptedException {
+      while (deferLowResLevels_ && !finishing_
+              && pyramidPermits_.availablePermits() > 0
+              && System.nanoTime() - lastPutNanos_ < IDLE_NANOS) {
+         Thread.sleep(10);
       }
    }
 
@@ -728,6 +858,14 @@ public class MultiResMultipageTiffStorage {
       if (finished_) {
          return;
       }
+      //add all outstanding images to the lower resolution levels
+      finishing_ = true;
+      pyramidExecutor_.shutdown();
+      try {
+         pyramidExecutor_.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ex) {
+         Log.log("unexpected interrupt while finishing lower resolutions");
+      }
       fullResStorage_.finished();
       for (TaggedImageStorageMultipageTiff s : lowResStorages_.values()) {
          if (s != null) {
@@ -737,12 +875,18 @@ public class MultiResMultipageTiffStorage {
          }
       }
       writingExecutor_.shutdown();
+      for (ThreadPoolExecutor executor : lowResWritingExecutors_.values()) {
+         executor.shutdown();
+      }
       //shut down writing executor--pause here until all tasks have finished writing
       //so that no attempt is made to close the dataset (and thus the FileChannel)
       //before everything has finished writing
       //mkae sure all images have finished writing if they are on seperate thread 
       try {
          writingExecutor_.awaitTermination(5, TimeUnit.MILLISECONDS);
+         for (ThreadPoolExecutor executor : lowResWritingExecutors_.values()) {
+            executor.awaitTermination(5, TimeUnit.MILLISECONDS);
+         }
       } catch (InterruptedException ex) {
          Log.log("unexpected interrup when closing image storage");
       }
@@ -766,6 +910,7 @@ public class MultiResMultipageTiffStorage {
    }
 
    public void close() {
+      tileCache_.close();
       //put closing on differnt channel so as to not hang up EDT while waiting for finishing
       new Thread(new Runnable() {
          @Override
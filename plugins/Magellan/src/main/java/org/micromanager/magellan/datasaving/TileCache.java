@@ -0,0 +1,296 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.datasaving;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import mmcorej.TaggedImage;
+import org.micromanager.magellan.misc.Log;
+
+/**
+ * Least recently used cache of tiles read from disk, so that repainting the
+ * display does not read and parse every visible tile again. The total size of
+ * the cached pixels is kept below a memory budget.
+ *
+ * Tiles can also be loaded on a background thread ahead of time (prefetch),
+ * most recently requested first. Tiles that change on disk must be
+ * invalidated; loads that were in progress while a tile was invalidated are
+ * not cached.
+ */
+final class TileCache {
+
+   /**
+    * Reads a tile from disk
+    */
+   interface TileLoader {
+
+      /**
+       * @return the tile, or null if there is no data for it
+       */
+      TaggedImage load(int channel, int slice, int frame, int resIndex, long row, long col);
+   }
+
+   private static final int MAX_PENDING_PREFETCHES = 64;
+
+   private final TileLoader loader_;
+   private final long maxBytes_;
+   private final LinkedHashMap<Key, TaggedImage> tiles_
+           = new LinkedHashMap<Key, TaggedImage>(64, 0.75f, true);
+   private final Set<Key> prefetching_ = new HashSet<Key>();
+   private final LinkedBlockingDeque<Runnable> prefetchQueue_ = new LinkedBlockingDeque<Runnable>();
+   private final ThreadPoolExecutor prefetchExecutor_;
+   private long bytes_ = 0;
+   // tiles being read from disk, so that loads that overlap with an
+   // invalidation of the same tile can be recognized
+   private final HashMap<Key, Loads> loading_ = new HashMap<Key, Loads>();
+
+   TileCache(TileLoader loader, long maxBytes) {
+      loader_ = loader;
+      maxBytes_ = maxBytes;
+      prefetchExecutor_ = new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+              prefetchQueue_, (Runnable r) -> {
+                 Thread t = new Thread(r, "Magellan tile prefetch");
+                 t.setDaemon(true);
+                 return t;
+              });
+   }
+
+   private static final class Key {
+
+      final int channel_, slice_, frame_, resIndex_;
+      final long row_, col_;
+
+      Key(int channel, int slice, int frame, int resIndex, long row, long col) {
+         channel_ = channel;
+         slice_ = slice;
+         frame_ = frame;
+         resIndex_ = resIndex;
+         row_ = row;
+         col_ = col;
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) {
+            return false;
+         }
+         Key k = (Key) o;
+         return channel_ == k.channel_ && slice_ == k.slice_ && frame_ == k.frame_
+                 && resIndex_ == k.resIndex_ && row_ == k.row_ && col_ == k.col_;
+      }
+
+      @Override
+      public int hashCode() {
+         long h = channel_;
+         h = 31 * h + slice_;
+         h = 31 * h + frame_;
+         h = 31 * h + resIndex_;
+         h = 31 * h + row_;
+         h = 31 * h + col_;
+         return (int) (h ^ (h >>> 32));
+      }
+   }
+
+   private static final class Loads {
+
+      int inProgress_ = 0;
+      // incremented when the tile is invalidated while being loaded
+      long invalidations_ = 0;
+   }
+
+   private static long sizeOf(TaggedImage tile) {
+      if (tile.pix instanceof byte[]) {
+         return ((byte[]) tile.pix).length;
+      } else if (tile.pix instanceof short[]) {
+         return 2L * ((short[]) tile.pix).length;
+      }
+      return 0;
+   }
+
+   private static boolean isEmpty(TaggedImage tile) {
+      return tile == null || sizeOf(tile) == 0;
+   }
+
+   /**
+    * Return the tile from the cache, or load (and cache) it
+    */
+   TaggedImage get(int channel, int slice, int frame, int resIndex, long row, long col) {
+      Key key = new Key(channel, slice, frame, resIndex, row, col);
+      long invalidations;
+      synchronized (this) {
+         TaggedImage tile = tiles_.get(key);
+         if (tile != null) {
+            return tile;
+         }
+         invalidations = startLoad(key);
+      }
+      TaggedImage tile = null;
+      try {
+         tile = loader_.load(channel, slice, frame, resIndex, row, col);
+      } finally {
+         put(key, tile, invalidations);
+      }
+      return tile;
+   }
+
+   /**
+    * Call with the lock held before loading a tile, and call put when the
+    * load is done
+    *
+    * @return the value to pass to put
+    */
+   private long startLoad(Key key) {
+      Loads loads = loading_.get(key);
+      if (loads == null) {
+         loads = new Loads();
+         loading_.put(key, loads);
+      }
+      loads.inProgress_++;
+      return loads.invalidations_;
+   }
+
+   /**
+    * Finish a load started with startLoad, and cache the tile unless it was
+    * invalidated in the meantime
+    */
+   private synchronized void put(Key key, TaggedImage tile, long invalidations) {
+      Loads loads = loading_.get(key);
+      boolean stale = loads.invalidations_ != invalidations;
+      if (--loads.inProgress_ == 0) {
+         loading_.remove(key);
+      }
+      //Tiles with no pixels can be read soon after they are written, don't keep those
+      if (isEmpty(tile) || stale || tiles_.containsKey(key)) {
+         return;
+      }
+      long size = sizeOf(tile);
+      if (size > maxBytes_) {
+         return;
+      }
+      tiles_.put(key, tile);
+      bytes_ += size;
+      Iterator<TaggedImage> it = tiles_.values().iterator();
+      while (bytes_ > maxBytes_ && it.hasNext()) {
+         bytes_ -= sizeOf(it.next());
+         it.remove();
+      }
+   }
+
+   private final class PrefetchTask implements Runnable {
+
+      final Key key_;
+
+      PrefetchTask(Key key) {
+         key_ = key;
+      }
+
+      @Override
+      public void run() {
+         try {
+            long invalidations;
+            synchronized (TileCache.this) {
+               if (tiles_.containsKey(key_)) {
+                  return;
+               }
+               invalidations = startLoad(key_);
+            }
+            TaggedImage tile = null;
+            try {
+               tile = loader_.load(key_.channel_, key_.slice_, key_.frame_,
+                       key_.resIndex_, key_.row_, key_.col_);
+            } finally {
+               put(key_, tile, invalidations);
+            }
+         } catch (Exception e) {
+            Log.log("Couldn't prefetch tile", false);
+         } finally {
+            done(key_);
+         }
+      }
+   }
+
+   private synchronized void done(Key key) {
+      prefetching_.remove(key);
+   }
+
+   /**
+    * Load the tile on a background thread if it is not in the cache. Requests
+    * that have waited too long are dropped in favour of newer ones.
+    */
+   void prefetch(int channel, int slice, int frame, int resIndex, long row, long col) {
+      Key key = new Key(channel, slice, frame, resIndex, row, col);
+      PrefetchTask task;
+      synchronized (this) {
+         if (tiles_.containsKey(key) || !prefetching_.add(key)) {
+            return;
+         }
+         task = new PrefetchTask(key);
+      }
+      try {
+         prefetchExecutor_.execute(task);
+      } catch (RejectedExecutionException e) {
+         done(key);
+         return;
+      }
+      //The executor runs the oldest request first, but the newest is most 
+      //useful when panning, so move it to the front and drop stale requests
+      if (prefetchQueue_.remove(task)) {
+         prefetchQueue_.offerFirst(task);
+      }
+      while (prefetchQueue_.size() > MAX_PENDING_PREFETCHES) {
+         Runnable stale = prefetchQueue_.pollLast();
+         if (stale != null) {
+            done(((PrefetchTask) stale).key_);
+         }
+      }
+   }
+
+   /**
+    * Remove a tile whose pixels have changed
+    */
+   synchronized void invalidate(int channel, int slice, int frame, int resIndex, long row, long col) {
+      Key key = new Key(channel, slice, frame, resIndex, row, col);
+      Loads loads = loading_.get(key);
+      if (loads != null) {
+         loads.invalidations_++;
+      }
+      TaggedImage tile = tiles_.remove(key);
+      if (tile != null) {
+         bytes_ -= sizeOf(tile);
+      }
+   }
+
+   synchronized void clear() {
+      for (Loads loads : loading_.values()) {
+         loads.invalidations_++;
+      }
+      tiles_.clear();
+      bytes_ = 0;
+   }
+
+   void close() {
+      prefetchExecutor_.shutdownNow();
+      prefetchQueue_.clear();
+      clear();
+   }
+}
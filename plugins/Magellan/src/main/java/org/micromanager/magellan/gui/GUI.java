@@ -268,6 +268,7 @@ public class GUI extends javax.swing.JFrame {
 
       //load global settings     
       globalSavingDirTextField_.setText(settings_.getStoredSavingDirectory());
+      deferLowResCheckBox_.setSelected(settings_.getDeferLowResolutionLevels());
       //load explore settings
       exploreSavingNameTextField_.setText(ExploreAcqSettings.getNameFromPrefs());
       exploreZStepSpinner_.setValue(ExploreAcqSettings.getZStepFromPrefs());
@@ -669,6 +670,7 @@ public class GUI extends javax.swing.JFrame {
       exploreBrowseButton_ = new javax.swing.JButton();
       exploreSavingDirLabel_ = new javax.swing.JLabel();
       globalSavingDirTextField_ = new javax.swing.JTextField();
+      deferLowResCheckBox_ = new javax.swing.JCheckBox();
 
       setBounds(new java.awt.Rectangle(0, 23, 740, 654));
       setMinimumSize(new java.awt.Dimension(730, 650));
@@ -1822,6 +1824,15 @@ public class GUI extends javax.swing.JFrame {
       globalSavingDirTextField_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
       globalSavingDirTextField_.setText("jTextField1");
 
+      deferLowResCheckBox_.setFont(new java.awt.Font("Tahoma", 0, 14)); // NOI18N
+      deferLowResCheckBox_.setText("Compute low resolution levels when idle");
+      deferLowResCheckBox_.setToolTipText("Compute lower resolution levels only when images stop arriving, so that they don't slow down saving of fast acquisitions");
+      deferLowResCheckBox_.addActionListener(new java.awt.event.ActionListener() {
+         public void actionPerformed(java.awt.event.ActionEvent evt) {
+            deferLowResCheckBox_ActionPerformed(evt);
+         }
+      });
+
       javax.swing.GroupLayout jPanel1Layout = new javax.swing.GroupLayout(jPanel1);
       jPanel1.setLayout(jPanel1Layout);
       jPanel1Layout.setHorizontalGroup(
@@ -1838,7 +1849,10 @@ public class GUI extends javax.swing.JFrame {
                   .addGap(127, 127, 127)
                   .addComponent(freeDiskSpaceLabel_, javax.swing.GroupLayout.PREFERRED_SIZE, 197, javax.swing.GroupLayout.PREFERRED_SIZE)
                   .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                  .addComponent(exploreBrowseButton_)))
+                  .addComponent(exploreBrowseButton_))
+               .addGroup(jPanel1Layout.createSequentialGroup()
+                  .addContainerGap()
+                  .addComponent(deferLowResCheckBox_)))
             .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
       );
       jPanel1Layout.setVerticalGroup(
@@ -1853,6 +1867,8 @@ public class GUI extends javax.swing.JFrame {
                .addComponent(openDatasetButton_)
                .addComponent(exploreBrowseButton_)
                .addComponent(freeDiskSpaceLabel_))
+            .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+            .addComponent(deferLowResCheckBox_)
             .addContainerGap())
       );
 
@@ -1940,6 +1956,10 @@ public class GUI extends javax.swing.JFrame {
    private void exploreSavingNameTextField_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exploreSavingNameTextField_ActionPerformed
    }//GEN-LAST:event_exploreSavingNameTextField_ActionPerformed
 
+   private void deferLowResCheckBox_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_deferLowResCheckBox_ActionPerformed
+      settings_.setDeferLowResolutionLevels(deferLowResCheckBox_.isSelected());
+   }//GEN-LAST:event_deferLowResCheckBox_ActionPerformed
+
    private void openDatasetButton_ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_openDatasetButton_ActionPerformed
       File selectedFile = null;
       if (JavaUtils.isMac()) {
@@ -2209,6 +2229,7 @@ public class GUI extends javax.swing.JFrame {
    private javax.swing.JLabel collectionPlaneLabel_;
    private javax.swing.JPanel controls2DOr3D_;
    private javax.swing.JRadioButton cuboidVolumeButton_;
+   private javax.swing.JCheckBox deferLowResCheckBox_;
    private javax.swing.JButton deleteAllRegionsButton_;
    private javax.swing.JButton deleteSelectedRegionButton_;
    private javax.swing.JSpinner distanceAboveFixedSurfaceSpinner_;
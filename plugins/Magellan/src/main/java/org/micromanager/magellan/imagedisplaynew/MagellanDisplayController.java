@@ -45,6 +45,7 @@ import org.micromanager.magellan.imagedisplaynew.events.CanvasResizeEvent;
 import org.micromanager.magellan.imagedisplaynew.events.ContrastUpdatedEvent;
 import org.micromanager.magellan.imagedisplaynew.events.DisplayClosingEvent;
 import org.micromanager.magellan.imagedisplaynew.events.ImageCacheFinishedEvent;
+import org.micromanager.magellan.imagedisplaynew.events.ImageCacheTilesChangedEvent;
 import org.micromanager.magellan.imagedisplaynew.events.MagellanScrollbarPosition;
 import org.micromanager.magellan.misc.JavaUtils;
 import org.micromanager.magellan.misc.Log;
@@ -342,6 +343,11 @@ public final class MagellanDisplayController {
       displayWindow_.setTitle(imageCache_.getUniqueAcqName() + " (Finished)");
    }
 
+   @Subscribe
+   public void onTilesChanged(final ImageCacheTilesChangedEvent event) {
+      recomputeDisplayedImage();
+   }
+
    @Subscribe
    public void onNewImage(final MagellanNewImageEvent event) {
       displayWindow_.onNewImage(); //needed because events dont propagte for some reason
@@ -35,8 +35,10 @@ import org.json.JSONObject;
 import org.micromanager.magellan.coordinates.XYStagePosition;
 import org.micromanager.magellan.imagedisplaynew.events.ImageCacheClosingEvent;
 import org.micromanager.magellan.imagedisplaynew.events.ImageCacheFinishedEvent;
+import org.micromanager.magellan.imagedisplaynew.events.ImageCacheTilesChangedEvent;
 import org.micromanager.magellan.imagedisplaynew.events.MagellanNewImageEvent;
 import org.micromanager.magellan.misc.Log;
+import org.micromanager.magellan.misc.GlobalSettings;
 import org.micromanager.magellan.misc.LongPoint;
 import org.micromanager.magellan.misc.MD;
 
@@ -56,6 +58,13 @@ public class MagellanImageCache {
    public MagellanImageCache(String dir, JSONObject summaryMetadata, DisplaySettings displaySettings) {
       imageStorage_ = new MultiResMultipageTiffStorage(dir, summaryMetadata);
       imageStorage_.setDisplaySettings(displaySettings);
+      imageStorage_.setTilesChangedListener(() -> {
+         dataProviderBus_.post(new ImageCacheTilesChangedEvent());
+      });
+      if (GlobalSettings.getInstance() != null) {
+         imageStorage_.setDeferLowResolutionLevels(
+                 GlobalSettings.getInstance().getDeferLowResolutionLevels());
+      }
       loadedData_ = false;
    }
    
@@ -0,0 +1,10 @@
+package org.micromanager.magellan.imagedisplaynew.events;
+
+/**
+ * Posted when lower resolution tiles have been written after the new image
+ * event for their full resolution image, so that displays showing them can
+ * redraw.
+ */
+public class ImageCacheTilesChangedEvent {
+
+}
@@ -40,6 +40,7 @@ public class GlobalSettings {
    private static final String SAVING_DIR = "SAVING DIRECTORY";
    private static final String FIRST_OPENING = "FIRST_OPEN";
    private static final String CHANNEL_OFFSET_PREFIX = "CHANNEL_OFFSET_";
+   private static final String DEFER_LOW_RES = "DEFER_LOW_RESOLUTION_LEVELS";
    
    private static GlobalSettings singleton_;
    MutablePropertyMapView prefs_;
@@ -133,6 +134,18 @@ public class GlobalSettings {
       return afBetweenAcqs_;
    }
    
+   /**
+    * Whether lower resolution levels of acquisitions should only be computed
+    * when no images arrive, to keep up with fast acquisitions
+    */
+   public boolean getDeferLowResolutionLevels() {
+      return prefs_.getBoolean(DEFER_LOW_RES, false);
+   }
+
+   public void setDeferLowResolutionLevels(boolean defer) {
+      prefs_.putBoolean(DEFER_LOW_RES, defer);
+   }
+
    public boolean getDemoMode() {
       return demoMode_;
    }
@@ -0,0 +1,222 @@
+package org.micromanager.magellan.datasaving;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import mmcorej.TaggedImage;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+public class TileCacheTest {
+
+   // Loads tiles of a fixed size, counting the loads of each column
+   private static class CountingLoader implements TileCache.TileLoader {
+
+      final int bytesPerTile_;
+      final ConcurrentHashMap<Long, AtomicInteger> loads_
+              = new ConcurrentHashMap<Long, AtomicInteger>();
+      // when set, loads of column blockedCol_ wait for release_
+      volatile long blockedCol_ = -1;
+      final CountDownLatch loading_ = new CountDownLatch(1);
+      final CountDownLatch release_ = new CountDownLatch(1);
+
+      CountingLoader(int bytesPerTile) {
+         bytesPerTile_ = bytesPerTile;
+      }
+
+      @Override
+      public TaggedImage load(int channel, int slice, int frame, int resIndex,
+              long row, long col) {
+         loads_.putIfAbsent(col, new AtomicInteger());
+         loads_.get(col).incrementAndGet();
+         if (col == blockedCol_) {
+            loading_.countDown();
+            try {
+               release_.await();
+            } catch (InterruptedException e) {
+               throw new RuntimeException(e);
+            }
+         }
+         return new TaggedImage(new byte[bytesPerTile_], null);
+      }
+
+      int loads(long col) {
+         AtomicInteger count = loads_.get(col);
+         return count == null ? 0 : count.get();
+      }
+   }
+
+   private TileCache cache_;
+   private final ExecutorService executor_ = Executors.newSingleThreadExecutor();
+
+   @After
+   public void tearDown() {
+      executor_.shutdownNow();
+      if (cache_ != null) {
+         cache_.close();
+      }
+   }
+
+   private TaggedImage get(long col) {
+      return cache_.get(0, 0, 0, 0, 0, col);
+   }
+
+   // Start loading a tile on another thread, and wait until the loader blocks
+   private Future<TaggedImage> startBlockedLoad(CountingLoader loader, long col)
+           throws InterruptedException {
+      loader.blockedCol_ = col;
+      Future<TaggedImage> load = executor_.submit(() -> get(col));
+      assertTrue(loader.loading_.await(5, TimeUnit.SECONDS));
+      return load;
+   }
+
+   @Test
+   public void cachedTileIsNotLoadedAgain() {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 1000);
+      TaggedImage first = get(1);
+      assertSame(first, get(1));
+      assertEquals(1, loader.loads(1));
+   }
+
+   @Test
+   public void leastRecentlyUsedTileIsEvicted() {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 300);
+      get(1);
+      get(2);
+      get(3);
+      get(1); // 2 is now the least recently used
+      get(4);
+      get(1);
+      get(3);
+      get(4);
+      assertEquals(1, loader.loads(1));
+      assertEquals(1, loader.loads(3));
+      assertEquals(1, loader.loads(4));
+      get(2);
+      assertEquals(2, loader.loads(2));
+   }
+
+   @Test
+   public void bytesStayWithinBudget() {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 250);
+      for (long col = 0; col < 10; col++) {
+         get(col);
+      }
+      // Only the last two tiles fit
+      get(8);
+      get(9);
+      get(7);
+      assertEquals(1, loader.loads(8));
+      assertEquals(1, loader.loads(9));
+      assertEquals(2, loader.loads(7));
+   }
+
+   @Test
+   public void tileLargerThanBudgetIsNotCached() {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 99);
+      get(1);
+      get(1);
+      assertEquals(2, loader.loads(1));
+   }
+
+   @Test
+   public void shortTilesCountTwoBytesPerPixel() {
+      TileCache.TileLoader loader = (c, s, f, r, row, col)
+              -> new TaggedImage(new short[100], null);
+      AtomicInteger loads = new AtomicInteger();
+      cache_ = new TileCache((c, s, f, r, row, col) -> {
+         loads.incrementAndGet();
+         return loader.load(c, s, f, r, row, col);
+      }, 300);
+      get(1);
+      get(2); // 400 bytes, so 1 is evicted
+      get(1);
+      assertEquals(3, loads.get());
+   }
+
+   @Test
+   public void emptyTileIsNotCached() {
+      CountingLoader loader = new CountingLoader(0);
+      cache_ = new TileCache(loader, 1000);
+      get(1);
+      get(1);
+      assertEquals(2, loader.loads(1));
+   }
+
+   @Test
+   public void invalidatedTileIsLoadedAgain() {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 1000);
+      get(1);
+      get(2);
+      cache_.invalidate(0, 0, 0, 0, 0, 1);
+      get(1);
+      get(2);
+      assertEquals(2, loader.loads(1));
+      assertEquals(1, loader.loads(2));
+   }
+
+   @Test
+   public void tileInvalidatedWhileLoadingIsNotCached() throws Exception {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 1000);
+      Future<TaggedImage> load = startBlockedLoad(loader, 1);
+      cache_.invalidate(0, 0, 0, 0, 0, 1);
+      loader.release_.countDown();
+      assertNotNull(load.get(5, TimeUnit.SECONDS));
+      get(1);
+      assertEquals(2, loader.loads(1));
+      // Once loaded after the invalidation, the tile is cached again
+      get(1);
+      assertEquals(2, loader.loads(1));
+   }
+
+   @Test
+   public void invalidatingOtherTilesWhileLoadingKeepsTile() throws Exception {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 1000);
+      Future<TaggedImage> load = startBlockedLoad(loader, 1);
+      cache_.invalidate(0, 0, 0, 0, 0, 2);
+      cache_.invalidate(0, 0, 0, 1, 0, 1);
+      loader.release_.countDown();
+      load.get(5, TimeUnit.SECONDS);
+      get(1);
+      assertEquals(1, loader.loads(1));
+   }
+
+   @Test
+   public void tileClearedWhileLoadingIsNotCached() throws Exception {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 1000);
+      Future<TaggedImage> load = startBlockedLoad(loader, 1);
+      cache_.clear();
+      loader.release_.countDown();
+      load.get(5, TimeUnit.SECONDS);
+      get(1);
+      assertEquals(2, loader.loads(1));
+   }
+
+   @Test
+   public void prefetchedTileIsCached() throws Exception {
+      CountingLoader loader = new CountingLoader(100);
+      cache_ = new TileCache(loader, 1000);
+      cache_.prefetch(0, 0, 0, 0, 0, 1);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (loader.loads(1) == 0 && System.nanoTime() < deadline) {
+         Thread.sleep(1);
+      }
+      // Wait for the prefetched tile to be put in the cache
+      Thread.sleep(50);
+      get(1);
+      assertEquals(1, loader.loads(1));
+   }
+}
@@ -48,6 +48,8 @@ public class ImagePlusInfo extends ImagePlus{
    private final int binning_;
    private final Rectangle roi_;
    private final Map<ClearCLContext, ClearCLBuffer> clBuffers_;
+   private int[] intPixels_;
+   private int[] fixedPointGains_;
     
    
    public ImagePlusInfo(ImagePlus ip, int binning, Rectangle roi) {
@@ -112,4 +114,48 @@ public class ImagePlusInfo extends ImagePlus{
       }
       return clBuffers_.get(cclContext);
    }
+   
+   /**
+    * Provides the pixel values as (unsigned) ints, as used for background
+    * subtraction on the CPU.  Float pixels are truncated.
+    * Values are computed on first use and cached.
+    * @return - pixel values, one per pixel
+    */
+   public synchronized int[] getIntPixels() {
+      if (intPixels_ == null) {
+         ImageProcessor proc = super.getProcessor();
+         int nrPixels = proc.getPixelCount();
+         int[] table = new int[nrPixels];
+         if (proc instanceof FloatProcessor) {
+            for (int i = 0; i < nrPixels; i++) {
+               table[i] = ImageUtils.unsignedValue((short) proc.getf(i));
+            }
+         } else {
+            for (int i = 0; i < nrPixels; i++) {
+               table[i] = proc.get(i);
+            }
+         }
+         intPixels_ = table;
+      }
+      return intPixels_;
+   }
+   
+   /**
+    * Provides the pixel values as fixed point gains (see 
+    * ShadingCorrector.GAIN_FRACTION_BITS), as used for flatfield correction
+    * on the CPU.  Values are computed on first use and cached.
+    * @return - fixed point gains, one per pixel
+    */
+   public synchronized int[] getFixedPointGains() {
+      if (fixedPointGains_ == null) {
+         ImageProcessor proc = super.getProcessor();
+         int nrPixels = proc.getPixelCount();
+         int[] table = new int[nrPixels];
+         for (int i = 0; i < nrPixels; i++) {
+            table[i] = ShadingCorrector.toFixedPointGain(proc.getf(i));
+         }
+         fixedPointGains_ = table;
+      }
+      return fixedPointGains_;
+   }
 }
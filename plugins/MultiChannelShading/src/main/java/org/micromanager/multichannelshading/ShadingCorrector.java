@@ -0,0 +1,219 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ShadingCorrector.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     MultiChannelShading plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco 2017
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.multichannelshading;
+
+import java.lang.reflect.Array;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+
+/**
+ * CPU implementation of background subtraction and flatfield correction,
+ * used when no GPU is available.
+ *
+ * Background and flatfield images are converted once (and cached in their
+ * ImagePlusInfo) to int tables: background pixel values, and flatfield gains
+ * as fixed point numbers with GAIN_FRACTION_BITS fractional bits.  Each frame
+ * is then corrected in a single integer pass, split in stripes of rows that
+ * are processed in parallel for large images.  Pixel arrays are taken from
+ * a pool, since the image factories copy the pixels anyway.
+ */
+public final class ShadingCorrector {
+   public static final int GAIN_FRACTION_BITS = 20;
+   // Largest gain that can be represented in the fixed point table
+   public static final float MAX_GAIN = (float) (Integer.MAX_VALUE >> GAIN_FRACTION_BITS);
+   private static final long GAIN_ROUNDING = 1L << (GAIN_FRACTION_BITS - 1);
+
+   private static final int STRIPE_ROWS = 64;
+   private static final int MIN_PARALLEL_PIXELS = 256 * 1024;
+   private static final int MAX_POOLED_BUFFERS = 8;
+
+   private final ConcurrentLinkedQueue<Object> pool_ =
+           new ConcurrentLinkedQueue<Object>();
+
+   /**
+    * Converts a gain to the fixed point representation used by the gain table.
+    * Gains that can not be represented (negative, too large, NaN) are clipped.
+    * @param gain multiplication factor
+    * @return gain * 2^GAIN_FRACTION_BITS, rounded
+    */
+   public static int toFixedPointGain(float gain) {
+      if (!(gain > 0.0f)) { // also catches NaN
+         return 0;
+      }
+      if (gain >= MAX_GAIN) {
+         return Integer.MAX_VALUE;
+      }
+      return (int) (gain * (1 << GAIN_FRACTION_BITS) + 0.5f);
+   }
+
+   /**
+    * Corrects the pixels of the given image.
+    *
+    * @param image 8 or 16 bit grayscale image
+    * @param background background image, or null for no background subtraction
+    * @param flatField flatfield image, or null for no flatfield correction
+    * @return byte[] or short[] with the corrected pixels.  The array is owned
+    * by the caller until handed back with recycle().
+    * @throws ShadingException if the background or flatfield does not match
+    * the image size
+    */
+   public Object correct(Image image, ImagePlusInfo background,
+           ImagePlusInfo flatField) throws ShadingException {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] bgTable = background == null ? null : background.getIntPixels();
+      int[] gainTable = flatField == null ? null : flatField.getFixedPointGains();
+      if ((bgTable != null && bgTable.length != width * height)
+              || (gainTable != null && gainTable.length != width * height)) {
+         throw new ShadingException("Error: Images are of unequal size");
+      }
+      if (image.getBytesPerPixel() == 1) {
+         byte[] input = (byte[]) obtain(byte[].class, width * height);
+         readPixels(image, input);
+         // The input buffer is reused as output
+         correctBytes(input, input, width, height, bgTable, gainTable);
+         return input;
+      } else if (image.getBytesPerPixel() == 2) {
+         short[] input = (short[]) obtain(short[].class, width * height);
+         readPixels(image, input);
+         correctShorts(input, input, width, height, bgTable, gainTable);
+         return input;
+      }
+      throw new ShadingException("Can only correct 8 or 16 bit grayscale images");
+   }
+
+   /**
+    * Hands a pixel array obtained from correct() back to the pool.
+    * @param pixels array returned by correct()
+    */
+   public void recycle(Object pixels) {
+      if (pixels != null && pool_.size() < MAX_POOLED_BUFFERS) {
+         pool_.offer(pixels);
+      }
+   }
+
+   private Object obtain(Class<?> type, int length) {
+      // Pooled arrays of the wrong type or size (e.g. after an ROI change)
+      // are discarded
+      for (Object pooled; (pooled = pool_.poll()) != null; ) {
+         if (pooled.getClass() == type && Array.getLength(pooled) == length) {
+            return pooled;
+         }
+      }
+      return type == byte[].class ? new byte[length] : new short[length];
+   }
+
+   private static void readPixels(Image image, Object target) {
+      if (image instanceof DefaultImage) {
+         // Bulk copy out of the direct buffer without an intermediate array
+         Buffer buffer = ((DefaultImage) image).getPixelBuffer();
+         if (target instanceof byte[]) {
+            ByteBuffer copy = ((ByteBuffer) buffer).duplicate();
+            copy.rewind();
+            copy.get((byte[]) target);
+         } else {
+            ShortBuffer copy = ((ShortBuffer) buffer).duplicate();
+            copy.rewind();
+            copy.get((short[]) target);
+         }
+      } else {
+         Object raw = image.getRawPixels();
+         System.arraycopy(raw, 0, target, 0, Array.getLength(target));
+      }
+   }
+
+   /**
+    * Subtracts the background (clipping at 0) and multiplies by the gain
+    * (rounding, and clipping at 255).  Input and output may be the same array.
+    * @param input 8 bit pixels
+    * @param output destination, same length as input
+    * @param width image width
+    * @param height image height
+    * @param background background pixel values, or null
+    * @param gains fixed point gains, or null
+    */
+   public static void correctBytes(final byte[] input, final byte[] output,
+           final int width, final int height, final int[] background,
+           final int[] gains) {
+      forEachStripe(width, height, (int start, int end) -> {
+         for (int i = start; i < end; i++) {
+            int value = input[i] & 0xff;
+            if (background != null) {
+               value = Math.max(0, value - background[i]);
+            }
+            if (gains != null) {
+               long scaled = (value * (long) gains[i] + GAIN_ROUNDING) >> GAIN_FRACTION_BITS;
+               value = (int) Math.min(scaled, 0xff);
+            }
+            output[i] = (byte) value;
+         }
+      });
+   }
+
+   /**
+    * Subtracts the background (clipping at 0) and multiplies by the gain
+    * (rounding, and clipping at 65535).  Input and output may be the same
+    * array.
+    * @param input 16 bit pixels
+    * @param output destination, same length as input
+    * @param width image width
+    * @param height image height
+    * @param background background pixel values, or null
+    * @param gains fixed point gains, or null
+    */
+   public static void correctShorts(final short[] input, final short[] output,
+           final int width, final int height, final int[] background,
+           final int[] gains) {
+      forEachStripe(width, height, (int start, int end) -> {
+         for (int i = start; i < end; i++) {
+            int value = input[i] & 0xffff;
+            if (background != null) {
+               value = Math.max(0, value - background[i]);
+            }
+            if (gains != null) {
+               long scaled = (value * (long) gains[i] + GAIN_ROUNDING) >> GAIN_FRACTION_BITS;
+               value = (int) Math.min(scaled, 0xffff);
+            }
+            output[i] = (short) value;
+         }
+      });
+   }
+
+   private interface StripeTask {
+      void run(int start, int end);
+   }
+
+   private static void forEachStripe(final int width, final int height,
+           final StripeTask task) {
+      int nrStripes = (height + STRIPE_ROWS - 1) / STRIPE_ROWS;
+      IntStream stripes = IntStream.range(0, nrStripes);
+      if (width * height >= MIN_PARALLEL_PIXELS) {
+         stripes = stripes.parallel();
+      }
+      stripes.forEach((int stripe) -> task.run(
+              stripe * STRIPE_ROWS * width,
+              Math.min(height, (stripe + 1) * STRIPE_ROWS) * width));
+   }
+}
@@ -31,7 +31,6 @@ import clearcl.backend.ClearCLBackends;
 import clearcl.enums.BuildStatus;
 import clearcl.exceptions.OpenCLException;
 import coremem.enums.NativeTypeEnum;
-import ij.process.ImageProcessor;
 
 import java.awt.Rectangle;
 import java.io.IOException;
@@ -60,6 +59,7 @@ public class ShadingProcessor extends Processor {
    private Boolean useOpenCL_;
    private final List<String> presets_;
    private final ImageCollection imageCollection_;
+   private final ShadingCorrector cpuCorrector_;
    private ClearCL ccl_;
    private ClearCLContext cclContext_;
    private ClearCLProgram cclProgram_;
@@ -91,6 +91,7 @@ public class ShadingProcessor extends Processor {
          }
       }
       presets_ = presets;
+      cpuCorrector_ = new ShadingCorrector();
       imageCollection_ = new ImageCollection(studio_);
       if (backgroundFile != null && !backgroundFile.equals("")) {
          try {
@@ -138,9 +139,6 @@ public class ShadingProcessor extends Processor {
       Metadata metadata = image.getMetadata();
       PropertyMap userData = metadata.getUserData();
 
-      Image bgSubtracted = image;
-      Image result;
-
       // subtract background
       Integer binning = metadata.getBinning();
       if (binning == null) {
@@ -220,74 +218,40 @@ public class ShadingProcessor extends Processor {
       }
 
 
-      if (background != null) {
-         ImageProcessor ip = studio_.data().ij().createProcessor(image);
-         ImageProcessor ipBackground = background.getProcessor();
-         try {
-            ip = ImageUtils.subtractImageProcessors(ip, ipBackground);
-            if (userData != null) {
-               userData = userData.copy().putBoolean("Background-corrected", true).build();
-            }
-         } catch (ShadingException e) {
-            String msg = "Unable to subtract background: " + e.getMessage();
-            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, 
-                 ErrorSubtractingClass.class, msg);
-         }
-         bgSubtracted = studio_.data().ij().createImage(ip, image.getCoords(),
-                 metadata.copy().userData(userData).build());
+      // do not correct if we have neither a background nor a matching 
+      // flatfield image
+      if (background == null && flatFieldImage == null) {
+         context.outputImage(image);
+         return;
       }
 
-
-      // do not calculate flat field if we don't have a matching channel;
-      // just return the background-subtracted image (which is the unmodified
-      // image if we also don't have a background subtraction file).
-      if (flatFieldImage == null) {
-         context.outputImage(bgSubtracted);
+      Object newPixels;
+      try {
+         newPixels = cpuCorrector_.correct(image, background, flatFieldImage);
+      } catch (ShadingException e) {
+         String msg = "Unable to subtract background: " + e.getMessage();
+         studio_.alerts().postAlert(MultiChannelShading.MENUNAME, 
+              ErrorSubtractingClass.class, msg);
+         context.outputImage(image);
          return;
       }
 
       if (userData != null) {
-         userData = userData.copy().putBoolean("Flatfield-corrected", true).build();
-         metadata = metadata.copy().userData(userData).build();
-      }
-      
-      
-      
-      if (image.getBytesPerPixel() == 1) {
-         byte[] newPixels = new byte[width * height];
-         byte[] oldPixels = (byte[]) image.getRawPixels();
-         int length = oldPixels.length;
-         float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
-         for (int index = 0; index < length; index++) {
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x000000ff);
-            float newValue = oldPixel * flatFieldPixels[index];
-            if (newValue > 2 * Byte.MAX_VALUE) {
-               newValue = 2 * Byte.MAX_VALUE;
-            }
-            newPixels[index] = (byte) (newValue);
+         PropertyMap.Builder userDataBuilder = userData.copyBuilder();
+         if (background != null) {
+            userDataBuilder.putBoolean("Background-corrected", true);
          }
-         result = studio_.data().createImage(newPixels, width, height,
-                 1, 1, image.getCoords(), metadata);
-         context.outputImage(result);
-      } else if (image.getBytesPerPixel() == 2) {
-         short[] newPixels = new short[width * height];
-         short[] oldPixels = (short[]) bgSubtracted.getRawPixels();
-         int length = oldPixels.length;
-         for (int index = 0; index < length; index++) {
-            // shorts are signed in java so have to do this conversion to get 
-            // the right value
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x0000ffff);
-            float newValue = (oldPixel
-                    * flatFieldImage.getProcessor().getf(index)) + 0.5f;
-            if (newValue > 2 * Short.MAX_VALUE) {
-               newValue = 2 * Short.MAX_VALUE;
-            }
-            newPixels[index] = (short) (((int) newValue) & 0x0000ffff);
+         if (flatFieldImage != null) {
+            userDataBuilder.putBoolean("Flatfield-corrected", true);
          }
-         result = studio_.data().createImage(newPixels, width, height,
-                 2, 1, image.getCoords(), metadata);
-         context.outputImage(result);
+         metadata = metadata.copy().userData(userDataBuilder.build()).build();
       }
+
+      // createImage copies the pixels, so the array can be reused right away
+      Image result = studio_.data().createImage(newPixels, width, height,
+              image.getBytesPerPixel(), 1, image.getCoords(), metadata);
+      cpuCorrector_.recycle(newPixels);
+      context.outputImage(result);
    }
 
 
@@ -0,0 +1,203 @@
+package org.micromanager.multichannelshading;
+
+import java.util.Random;
+import org.junit.Ignore;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the fixed point CPU correction against the floating point
+ * computation done by the OpenCL kernels.
+ */
+public class ShadingCorrectorTest {
+
+   private static int[] makeBackground(int nrPixels, int max, long seed) {
+      Random random = new Random(seed);
+      int[] background = new int[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         background[i] = random.nextInt(max);
+      }
+      return background;
+   }
+
+   private static float[] makeGains(int nrPixels, long seed) {
+      Random random = new Random(seed);
+      float[] gains = new float[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         gains[i] = 0.5f + 2.0f * random.nextFloat();
+      }
+      return gains;
+   }
+
+   private static int[] toFixedPoint(float[] gains) {
+      int[] table = new int[gains.length];
+      for (int i = 0; i < gains.length; i++) {
+         table[i] = ShadingCorrector.toFixedPointGain(gains[i]);
+      }
+      return table;
+   }
+
+   private static int reference(int value, int background, float gain, int max) {
+      float corrected = Math.max(0, value - background) * gain + 0.5f;
+      return (int) Math.min(corrected, max);
+   }
+
+   private static void checkShorts(int width, int height) {
+      int nrPixels = width * height;
+      Random random = new Random(1);
+      short[] input = new short[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         input[i] = (short) random.nextInt(65536);
+      }
+      int[] background = makeBackground(nrPixels, 2000, 2);
+      float[] gains = makeGains(nrPixels, 3);
+      short[] output = new short[nrPixels];
+      ShadingCorrector.correctShorts(input, output, width, height,
+              background, toFixedPoint(gains));
+      for (int i = 0; i < nrPixels; i++) {
+         int expected = reference(input[i] & 0xffff, background[i], gains[i], 0xffff);
+         // float and fixed point rounding may differ by one
+         assertEquals("pixel " + i, expected, output[i] & 0xffff, 1);
+      }
+   }
+
+   @Test
+   public void smallShortImageMatchesFloatComputation() {
+      checkShorts(37, 23);
+   }
+
+   @Test
+   public void largeShortImageMatchesFloatComputation() {
+      // Large enough to be corrected in parallel stripes
+      checkShorts(700, 501);
+   }
+
+   @Test
+   public void byteImageMatchesFloatComputation() {
+      int width = 600;
+      int height = 500;
+      int nrPixels = width * height;
+      Random random = new Random(4);
+      byte[] pixels = new byte[nrPixels];
+      random.nextBytes(pixels);
+      byte[] original = pixels.clone();
+      int[] background = makeBackground(nrPixels, 30, 5);
+      float[] gains = makeGains(nrPixels, 6);
+      // in place
+      ShadingCorrector.correctBytes(pixels, pixels, width, height,
+              background, toFixedPoint(gains));
+      for (int i = 0; i < nrPixels; i++) {
+         int expected = reference(original[i] & 0xff, background[i], gains[i], 0xff);
+         assertEquals("pixel " + i, expected, pixels[i] & 0xff, 1);
+      }
+   }
+
+   @Test
+   public void backgroundOnlyClipsAtZero() {
+      short[] pixels = {10, 20, (short) 40000, 0};
+      int[] background = {15, 5, 100, 1};
+      ShadingCorrector.correctShorts(pixels, pixels, 2, 2, background, null);
+      assertArrayEquals(new short[] {0, 15, (short) 39900, 0}, pixels);
+   }
+
+   @Test
+   public void gainsSaturate() {
+      short[] pixels = {(short) 60000, 100};
+      int[] gains = {ShadingCorrector.toFixedPointGain(2.0f),
+         ShadingCorrector.toFixedPointGain(Float.POSITIVE_INFINITY)};
+      ShadingCorrector.correctShorts(pixels, pixels, 2, 1, null, gains);
+      assertArrayEquals(new short[] {(short) 65535, (short) 65535}, pixels);
+      assertEquals(0, ShadingCorrector.toFixedPointGain(Float.NaN));
+      assertEquals(0, ShadingCorrector.toFixedPointGain(-1.0f));
+   }
+
+   /**
+    * Prints the throughput of the previous scalar float implementation and
+    * of the fixed point implementation for 8 and 16 bit frames.  Run manually.
+    */
+   @Ignore("Benchmark")
+   @Test
+   public void benchmark() {
+      final int width = 2048;
+      final int height = 2048;
+      final int nrPixels = width * height;
+      final int repeats = 50;
+      int[] background = makeBackground(nrPixels, 200, 7);
+      float[] gains = makeGains(nrPixels, 8);
+      int[] gainTable = toFixedPoint(gains);
+      Random random = new Random(9);
+      byte[] bytes = new byte[nrPixels];
+      random.nextBytes(bytes);
+      short[] shorts = new short[nrPixels];
+      for (int i = 0; i < nrPixels; i++) {
+         shorts[i] = (short) random.nextInt(4096);
+      }
+      byte[] byteOut = new byte[nrPixels];
+      short[] shortOut = new short[nrPixels];
+
+      for (int bits : new int[] {8, 16}) {
+         // Warm up
+         for (int i = 0; i < 5; i++) {
+            scalarCorrect(bits == 8 ? bytes : shorts, background, gains);
+            if (bits == 8) {
+               ShadingCorrector.correctBytes(bytes, byteOut, width, height,
+                       background, gainTable);
+            } else {
+               ShadingCorrector.correctShorts(shorts, shortOut, width, height,
+                       background, gainTable);
+            }
+         }
+         long start = System.nanoTime();
+         for (int i = 0; i < repeats; i++) {
+            scalarCorrect(bits == 8 ? bytes : shorts, background, gains);
+         }
+         double scalarMs = (System.nanoTime() - start) / 1e6 / repeats;
+         start = System.nanoTime();
+         for (int i = 0; i < repeats; i++) {
+            if (bits == 8) {
+               ShadingCorrector.correctBytes(bytes, byteOut, width, height,
+                       background, gainTable);
+            } else {
+               ShadingCorrector.correctShorts(shorts, shortOut, width, height,
+                       background, gainTable);
+            }
+         }
+         double fixedMs = (System.nanoTime() - start) / 1e6 / repeats;
+         System.out.println(String.format(
+                 "%2d-bit %dx%d: scalar %7.2f ms (%6.1f fps), fixed point %7.2f ms (%6.1f fps)",
+                 bits, width, height, scalarMs, 1000.0 / scalarMs,
+                 fixedMs, 1000.0 / fixedMs));
+      }
+   }
+
+   // The per-frame work of the previous CPU implementation: background
+   // subtraction into a new array, followed by float multiplication into
+   // another new array
+   private static Object scalarCorrect(Object pixels, int[] background,
+           float[] gains) {
+      if (pixels instanceof byte[]) {
+         byte[] input = (byte[]) pixels;
+         byte[] subtracted = new byte[input.length];
+         for (int i = 0; i < input.length; i++) {
+            subtracted[i] = (byte) Math.max(0, (input[i] & 0xff) - background[i]);
+         }
+         byte[] result = new byte[input.length];
+         for (int i = 0; i < input.length; i++) {
+            float value = (subtracted[i] & 0xff) * gains[i];
+            result[i] = (byte) Math.min(value, 254);
+         }
+         return result;
+      }
+      short[] input = (short[]) pixels;
+      short[] subtracted = new short[input.length];
+      for (int i = 0; i < input.length; i++) {
+         subtracted[i] = (short) Math.max(0, (input[i] & 0xffff) - background[i]);
+      }
+      short[] result = new short[input.length];
+      for (int i = 0; i < input.length; i++) {
+         float value = (subtracted[i] & 0xffff) * gains[i] + 0.5f;
+         result[i] = (short) Math.min(value, 65534);
+      }
+      return result;
+   }
+}
@@ -0,0 +1,127 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          PixelMapCalculator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     PTCTools plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2018
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.ptctools;
+
+import java.util.stream.IntStream;
+
+/**
+ * Calculates per-pixel offset, read noise and gain maps, as needed for
+ * sCMOS cameras, in which every pixel has its own amplifier.
+ *
+ * Offset and read noise are the mean and standard deviation of each pixel in
+ * the dark.  For every light exposure, the shot-noise variance of a pixel
+ * (variance minus dark variance) is proportional to its signal (mean minus
+ * offset), the slope being the gain in ADU per electron.  The slope is
+ * fitted through the origin by least squares, accumulated one exposure at a
+ * time.  Exposures in which a pixel is (close to) saturated are left out for
+ * that pixel.
+ */
+public class PixelMapCalculator {
+   private static final int MIN_PARALLEL_PIXELS = 65536;
+
+   private final float[] offset_;
+   private final float[] darkVariance_;
+   private final double[] sxx_;
+   private final double[] sxy_;
+   private final double saturation_;
+
+   /**
+    * @param dark statistics of the dark frames
+    * @param maxValue largest possible pixel value (2^bitDepth - 1)
+    */
+   public PixelMapCalculator(PixelStatsAccumulator dark, int maxValue) {
+      final int n = dark.getWidth() * dark.getHeight();
+      offset_ = new float[n];
+      darkVariance_ = new float[n];
+      double[] means = dark.getMeans();
+      for (int i = 0; i < n; i++) {
+         offset_[i] = (float) means[i];
+         darkVariance_[i] = (float) dark.getVariance(i);
+      }
+      sxx_ = new double[n];
+      sxy_ = new double[n];
+      saturation_ = 0.9 * maxValue;
+   }
+
+   /**
+    * Adds the statistics of the frames taken at one light exposure.
+    * @param light statistics of frames taken with light
+    */
+   public void addExposure(PixelStatsAccumulator light) {
+      final double[] means = light.getMeans();
+      if (means.length != offset_.length) {
+         throw new IllegalArgumentException("Image size does not match");
+      }
+      IntStream pixels = IntStream.range(0, offset_.length);
+      if (offset_.length >= MIN_PARALLEL_PIXELS) {
+         pixels = pixels.parallel();
+      }
+      pixels.forEach((int i) -> {
+         if (means[i] < saturation_) {
+            final double signal = means[i] - offset_[i];
+            final double shotNoise = light.getVariance(i) - darkVariance_[i];
+            sxx_[i] += signal * signal;
+            sxy_[i] += signal * shotNoise;
+         }
+      });
+   }
+
+   /**
+    * @return per-pixel offset (ADU)
+    */
+   public float[] getOffsetMap() {
+      return offset_.clone();
+   }
+
+   /**
+    * @return per-pixel read noise (ADU rms)
+    */
+   public float[] getReadNoiseMap() {
+      float[] result = new float[darkVariance_.length];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = (float) Math.sqrt(darkVariance_[i]);
+      }
+      return result;
+   }
+
+   /**
+    * @return per-pixel gain (ADU per electron), NaN for pixels without
+    *         usable light exposures
+    */
+   public float[] getGainMap() {
+      float[] result = new float[sxx_.length];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = sxx_[i] > 0.0 ? (float) (sxy_[i] / sxx_[i]) : Float.NaN;
+      }
+      return result;
+   }
+
+   /**
+    * @return per-pixel read noise (electrons rms)
+    */
+   public float[] getReadNoiseElectronsMap() {
+      float[] gain = getGainMap();
+      float[] result = getReadNoiseMap();
+      for (int i = 0; i < result.length; i++) {
+         result[i] = gain[i] > 0.0f ? result[i] / gain[i] : Float.NaN;
+      }
+      return result;
+   }
+}
@@ -0,0 +1,183 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          PixelStatsAccumulator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     PTCTools plugin
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2018
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.ptctools;
+
+import java.util.stream.IntStream;
+
+/**
+ * Calculates per-pixel mean and variance of a series of frames while the
+ * frames arrive, so that the frames themselves do not need to be kept.
+ * Uses Welford's online algorithm, which is numerically stable even for
+ * many frames with large offsets.  Pixels are split over all cores for
+ * large frames.
+ *
+ * Also keeps the mean and standard deviation of the average intensity of
+ * each frame, which is used to estimate the stability of the light source.
+ */
+public class PixelStatsAccumulator {
+   // below this number of pixels frames are processed on the calling thread
+   private static final int MIN_PARALLEL_PIXELS = 65536;
+   private static final int CHUNK_SIZE = 16384;
+
+   private final int width_;
+   private final int height_;
+   private final double[] mean_;
+   private final double[] m2_;
+   private final double[] chunkSums_;
+   private int count_ = 0;
+
+   // Welford accumulator for the average intensity of each frame
+   private double frameMean_ = 0.0;
+   private double frameM2_ = 0.0;
+
+   public PixelStatsAccumulator(int width, int height) {
+      width_ = width;
+      height_ = height;
+      mean_ = new double[width * height];
+      m2_ = new double[width * height];
+      chunkSums_ = new double[(mean_.length + CHUNK_SIZE - 1) / CHUNK_SIZE];
+   }
+
+   /**
+    * Adds one frame.
+    * @param pixels byte[] or short[] (both interpreted as unsigned) with
+    *          width * height pixels
+    */
+   public void add(Object pixels) {
+      final int n = mean_.length;
+      if (pixels instanceof short[]) {
+         if (((short[]) pixels).length != n) {
+            throw new IllegalArgumentException("Image size does not match");
+         }
+      } else if (pixels instanceof byte[]) {
+         if (((byte[]) pixels).length != n) {
+            throw new IllegalArgumentException("Image size does not match");
+         }
+      } else {
+         throw new IllegalArgumentException("Only 8 and 16 bit images are supported");
+      }
+      count_++;
+      final double invCount = 1.0 / count_;
+      IntStream chunks = IntStream.range(0, chunkSums_.length);
+      if (n >= MIN_PARALLEL_PIXELS) {
+         chunks = chunks.parallel();
+      }
+      // every chunk updates its own pixels and its own partial sum
+      chunks.forEach((int c) -> {
+         final int end = Math.min(n, (c + 1) * CHUNK_SIZE);
+         double sum = 0.0;
+         if (pixels instanceof short[]) {
+            final short[] p = (short[]) pixels;
+            for (int i = c * CHUNK_SIZE; i < end; i++) {
+               final double value = p[i] & 0xffff;
+               final double delta = value - mean_[i];
+               mean_[i] += delta * invCount;
+               m2_[i] += delta * (value - mean_[i]);
+               sum += value;
+            }
+         } else {
+            final byte[] p = (byte[]) pixels;
+            for (int i = c * CHUNK_SIZE; i < end; i++) {
+               final double value = p[i] & 0xff;
+               final double delta = value - mean_[i];
+               mean_[i] += delta * invCount;
+               m2_[i] += delta * (value - mean_[i]);
+               sum += value;
+            }
+         }
+         chunkSums_[c] = sum;
+      });
+      double total = 0.0;
+      for (double sum : chunkSums_) {
+         total += sum;
+      }
+      final double frameAvg = total / n;
+      final double delta = frameAvg - frameMean_;
+      frameMean_ += delta * invCount;
+      frameM2_ += delta * (frameAvg - frameMean_);
+   }
+
+   public int getWidth() {
+      return width_;
+   }
+
+   public int getHeight() {
+      return height_;
+   }
+
+   /**
+    * @return number of frames added so far
+    */
+   public int getCount() {
+      return count_;
+   }
+
+   /**
+    * @return per-pixel mean.  Not a copy, do not modify.
+    */
+   public double[] getMeans() {
+      return mean_;
+   }
+
+   /**
+    * @param i pixel index (y * width + x)
+    * @return sample variance of pixel i, 0 when fewer than 2 frames were added
+    */
+   public double getVariance(int i) {
+      return count_ < 2 ? 0.0 : m2_[i] / (count_ - 1);
+   }
+
+   /**
+    * @return per-pixel mean as an image
+    */
+   public float[] getMeanImage() {
+      float[] result = new float[mean_.length];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = (float) mean_[i];
+      }
+      return result;
+   }
+
+   /**
+    * @return per-pixel (sample) standard deviation as an image
+    */
+   public float[] getStdDevImage() {
+      float[] result = new float[mean_.length];
+      for (int i = 0; i < result.length; i++) {
+         result[i] = (float) Math.sqrt(getVariance(i));
+      }
+      return result;
+   }
+
+   /**
+    * @return mean of the average intensities of all frames
+    */
+   public double getFrameMean() {
+      return frameMean_;
+   }
+
+   /**
+    * @return (sample) standard deviation of the average intensities of all
+    *         frames
+    */
+   public double getFrameStdDev() {
+      return count_ < 2 ? 0.0 : Math.sqrt(frameM2_ / (count_ - 1));
+   }
+}
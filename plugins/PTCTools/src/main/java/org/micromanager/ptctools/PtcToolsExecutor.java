@@ -27,11 +27,7 @@ import ij.CompositeImage;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.measure.ResultsTable;
-import ij.plugin.ZProjector;
 import ij.process.FloatProcessor;
-import ij.process.ImageProcessor;
-import ij.process.ImageStatistics;
-import ij.process.ShortProcessor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
@@ -54,7 +50,6 @@ import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
-import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.MMFrame;
 import org.micromanager.internal.utils.NumberUtils;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -64,6 +59,9 @@ public class PtcToolsExecutor extends Thread  {
    private final PropertyMap settings_;
    private final List<ExpMeanStdDev> expMeanStdDev_;
    private ImageStack stack_;
+   private PixelMapCalculator pixelMaps_;
+   // raw frames, only when the user asked to keep them
+   private Datastore framesStore_;
    
    /**
     * Simple class to hold Avg. Intensity and StdDev of Avg. intensities
@@ -108,18 +106,16 @@ public class PtcToolsExecutor extends Thread  {
          // Stack that holds the resulting images
          stack_ = new ImageStack((int) core.getImageWidth(),
                  (int) core.getImageHeight());
-
-         // temporary store to hold images while calculating mean and stdDev
-         Datastore store = studio_.data().createRAMDatastore();
-         final SummaryMetadata.Builder smb = studio_.data().getSummaryMetadataBuilder();
-         final Coords.Builder cb = Coordinates.builder();
-         Coords coords = cb.c(1).p(1).
-                 t(nrFrames).z(1).build();
-         try {
-            store.setSummaryMetadata(smb.intendedDimensions(coords).startDate(
-                    new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date())).build());
-         } catch (IOException ex) {
-            // should never happen with a RAMDatastore...
+         pixelMaps_ = null;
+         framesStore_ = null;
+         if (settings_.getBoolean(PtcToolsTerms.KEEPFRAMES, false)) {
+            try {
+               framesStore_ = createFramesStore(nrFrames,
+                       settings_.getInteger(PtcToolsTerms.NREXPOSURES, 30) + 1);
+            } catch (IOException ex) {
+               // should never happen with a RAMDatastore...
+               studio_.logs().logError(ex);
+            }
          }
 
          double exposure;
@@ -131,28 +127,28 @@ public class PtcToolsExecutor extends Thread  {
             return;
          }
 
+         PixelStatsAccumulator stats;
          try {
-            runSequence(core, store, nrFrames, exposure);
+            stats = runSequence(core, nrFrames, exposure, 0);
          } catch (Exception ex) {
             studio_.logs().showError(ex, "Error while acquiring images");
             return;
          }
 
-         // TODO: make sure that we have 16-bit (short) images
-         try {
-            calculateAndAddToStack(stack_, store);
-            ExpMeanStdDev cemsd = calcExpMeanStdDev(store);
-            expMeanStdDev_.add(cemsd);
-            rt.incrementCounter();
-            rt.addValue("Exposure", 0.0);
-            rt.addValue("Mean", cemsd.mean_);
-            rt.addValue("Std.Dev", cemsd.stdDev_);
+         addToStack(stats);
+         ExpMeanStdDev cemsd = calcExpMeanStdDev(stats);
+         expMeanStdDev_.add(cemsd);
+         rt.incrementCounter();
+         rt.addValue("Exposure", 0.0);
+         rt.addValue("Mean", cemsd.mean_);
+         rt.addValue("Std.Dev", cemsd.stdDev_);
 
-            store.freeze();
-            store.close();
-         } catch (IOException ex) {
-            studio_.logs().showError(ex, "Error while calculating mean and stdDev");
-            return;
+         if (settings_.getBoolean(PtcToolsTerms.PIXELMAPS, true)) {
+            int bitDepth = (int) core.getImageBitDepth();
+            if (bitDepth <= 0) {
+               bitDepth = 16;
+            }
+            pixelMaps_ = new PixelMapCalculator(stats, (1 << bitDepth) - 1);
          }
 
          PtcSequenceRunner sr = new LightSequence();
@@ -199,45 +195,48 @@ public class PtcToolsExecutor extends Thread  {
             
             exposures[i] = Math.exp(minExpLog + i * expLogStep);
 
-            Datastore store = studio_.data().createRAMDatastore();
+            PixelStatsAccumulator stats;
             try {
-               runSequence(core, store, nrFrames, exposures[i]);
+               stats = runSequence(core, nrFrames, exposures[i], i + 1);
             } catch (Exception ex) {
                studio_.logs().showError(ex, "Error while acquiring images");
                return;
             }
 
-            // TODO: make sure that we have 16-bit (short) images
+            addToStack(stats);
+            ExpMeanStdDev cemsd = calcExpMeanStdDev(stats);
+            double realExposure;
             try {
-               calculateAndAddToStack(stack_, store);
-               ExpMeanStdDev cemsd = calcExpMeanStdDev(store);
-               double realExposure;
-               try {
-                  realExposure = core.getExposure();
-               } catch (Exception e) {
-                  ReportingUtils.showError(e);
-                  return;
-               }
-               expMeanStdDev_.add(cemsd);
-               rt.incrementCounter();
-               rt.addValue("Exposure", realExposure);
-               rt.addValue("Mean", cemsd.mean_);
-               rt.addValue("Std.Dev", cemsd.stdDev_);
-               store.close();
-            } catch (IOException ex) {
-               studio_.logs().showError(ex, "Error while calculating mean and stdDev");
+               realExposure = core.getExposure();
+            } catch (Exception e) {
+               ReportingUtils.showError(e);
                return;
             }
-            System.gc();
+            expMeanStdDev_.add(cemsd);
+            rt.incrementCounter();
+            rt.addValue("Exposure", realExposure);
+            rt.addValue("Mean", cemsd.mean_);
+            rt.addValue("Std.Dev", cemsd.stdDev_);
+            if (pixelMaps_ != null) {
+               pixelMaps_.addExposure(stats);
+            }
 
          }
 
          rt.show("Results");
          ij.IJ.showProgress(1.0);
-         ImagePlus imp = new ImagePlus("PTCTools stack", stack_);
-         imp.setDimensions(2, 1, stack_.getSize() / 2);
-         CompositeImage comp = new CompositeImage(imp, CompositeImage.COLOR);
-         comp.show();
+         if (stack_.getSize() > 0) {
+            ImagePlus imp = new ImagePlus("PTCTools stack", stack_);
+            imp.setDimensions(2, 1, stack_.getSize() / 2);
+            CompositeImage comp = new CompositeImage(imp, CompositeImage.COLOR);
+            comp.show();
+         }
+         if (pixelMaps_ != null) {
+            showPixelMaps(stack_.getWidth(), stack_.getHeight());
+         }
+         if (framesStore_ != null) {
+            showFrames();
+         }
       }
    }
    
@@ -282,91 +281,99 @@ public class PtcToolsExecutor extends Thread  {
       dialog.setVisible(true);
    }
 
-   private void runSequence(CMMCore core, Datastore store, int nrFrames,
-           double exposure) throws Exception {
-      final Coords.Builder cb = Coordinates.builder().c(1).p(1).t(1).z(1);
+   /**
+    * Acquires nrFrames frames at the given exposure time and returns their
+    * per-pixel statistics.  Frames are processed as they arrive, and are
+    * only kept (in framesStore_, at z = exposureIndex) when the user asked
+    * for it.
+    */
+   private PixelStatsAccumulator runSequence(CMMCore core, int nrFrames,
+           double exposure, int exposureIndex) throws Exception {
       core.setExposure(exposure);
-      core.startSequenceAcquisition(nrFrames, 0.0, true);
+      PixelStatsAccumulator stats = new PixelStatsAccumulator(
+              (int) core.getImageWidth(), (int) core.getImageHeight());
+      final Coords.Builder cb = Coordinates.builder().c(0).p(0).t(0).
+              z(exposureIndex);
       int frCounter = 0;
+      core.startSequenceAcquisition(nrFrames, 0.0, true);
       // TODO: this can hang
       while (core.isSequenceRunning() || core.getRemainingImageCount() > 0) {
          if (core.getRemainingImageCount() > 0) {
             TaggedImage nextImage = core.popNextTaggedImage();
             if (nextImage != null) {
-               Image img = studio_.data().convertTaggedImage(nextImage);
-               store.putImage(img.copyAtCoords(cb.t(frCounter).build()));
+               stats.add(nextImage.pix);
+               if (framesStore_ != null) {
+                  Image img = studio_.data().convertTaggedImage(nextImage);
+                  framesStore_.putImage(img.copyAtCoords(cb.t(frCounter).build()));
+               }
                frCounter++;
             }
          }
       }
-      store.freeze();
+      return stats;
    }
-   
-   private void calculateAndAddToStack(ImageStack stack, Datastore store) 
-            throws IOException, OutOfMemoryError {
-      final Coords.Builder cb = Coordinates.builder().c(1).p(1).t(1).z(1);
-      int nrFrames = store.getAxisLength(Coords.T);
-      ImageStack tmpStack = new ImageStack(stack.getWidth(), stack.getHeight());
-      List<ShortProcessor> lc = new ArrayList<>(nrFrames);
-         for (int i = 0; i < nrFrames; i++) {
-            ShortProcessor tmpShortProc = new ShortProcessor(stack.getWidth(), 
-                    stack.getHeight());
-            tmpShortProc.setPixels(store.getImage(cb.t(i).build()).getRawPixels());
-            tmpStack.addSlice(tmpShortProc);
-         }
-         ZProjector zProj = new ZProjector(new ImagePlus("tmp", tmpStack));
-         zProj.setMethod(ZProjector.AVG_METHOD);
-         zProj.doProjection();
-         ImagePlus  meanP = zProj.getProjection();
-         FloatProcessor mean = (FloatProcessor) meanP.getProcessor().convertToFloat();
-         zProj.setMethod(ZProjector.SD_METHOD);
-         zProj.doProjection();
-         ImagePlus  stdDevP = zProj.getProjection();
-         FloatProcessor stdDev = (FloatProcessor) stdDevP.getProcessor().convertToFloat();
-         
-         stack.addSlice(mean);
-         stack.addSlice(stdDev);
+
+   /**
+    * Creates the RAM datastore holding the raw frames, with the frames of
+    * each exposure along the time axis, and the exposures (dark first)
+    * along the z axis.
+    */
+   private Datastore createFramesStore(int nrFrames, int nrExposures)
+           throws IOException {
+      Datastore store = studio_.data().createRAMDatastore();
+      Coords coords = Coordinates.builder().c(1).p(1).t(nrFrames).
+              z(nrExposures).build();
+      store.setSummaryMetadata(studio_.data().getSummaryMetadataBuilder().
+              intendedDimensions(coords).startDate(
+              new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss").format(new Date())).
+              build());
+      store.setName("PTCTools frames");
+      return store;
    }
-   
-   
-   private ExpMeanStdDev calcExpMeanStdDev(Datastore store) throws IOException {
-      ExpMeanStdDev result = new ExpMeanStdDev();
-      final Coords.Builder cb = Coordinates.builder().c(1).p(1).t(1).z(1);
-      final int nrFrames = store.getAxisLength(Coords.T);
-      double[] means = new double[nrFrames];
-      for (int i = 0; i < nrFrames; i++) {
-         Image image = store.getImage(cb.t(i).build());
-         ImageProcessor proc = studio_.data().ij().createProcessor(image);
-         ImageStatistics stats = ImageStatistics.getStatistics(proc,
-              ImageStatistics.MEAN, null);
-         means[i] = stats.mean;
+
+   private void showFrames() {
+      try {
+         framesStore_.freeze();
+      } catch (IOException ex) {
+         // should never happen with a RAMDatastore...
+         studio_.logs().logError(ex);
       }
-      result.mean_ = avg(means);
-      result.stdDev_ = stdDev(means, result.mean_);
-      
-      return result;
+      studio_.displays().manage(framesStore_);
+      studio_.displays().createDisplay(framesStore_);
    }
    
-   public static double avg(double[] numbers) {
-      double sum = 0.0;
-      for (double num : numbers) {
-         sum += num;
+   /**
+    * Adds mean and standard deviation images to the result stack,
+    * if the user asked to keep these.
+    */
+   private void addToStack(PixelStatsAccumulator stats) {
+      if (!settings_.getBoolean(PtcToolsTerms.KEEPIMAGES, true)) {
+         return;
       }
-      return sum / numbers.length;
+      stack_.addSlice(new FloatProcessor(stats.getWidth(), stats.getHeight(),
+              stats.getMeanImage()));
+      stack_.addSlice(new FloatProcessor(stats.getWidth(), stats.getHeight(),
+              stats.getStdDevImage()));
    }
    
-      
-   public static double stdDev(double[] numbers, double avg) {
-      double result = 0.0;
-      for (double val : numbers) {
-         result += (val - avg) * (val - avg);
-      }
-      if (numbers.length < 2) {
-         return 0.0;
-      }
-      result /= (numbers.length -1);
-      
-      return Math.sqrt(result);
+   private void showPixelMaps(int width, int height) {
+      ImageStack maps = new ImageStack(width, height);
+      maps.addSlice("Offset (ADU)", 
+              new FloatProcessor(width, height, pixelMaps_.getOffsetMap()));
+      maps.addSlice("Gain (ADU per e-)", 
+              new FloatProcessor(width, height, pixelMaps_.getGainMap()));
+      maps.addSlice("Read noise (ADU)", 
+              new FloatProcessor(width, height, pixelMaps_.getReadNoiseMap()));
+      maps.addSlice("Read noise (e-)", 
+              new FloatProcessor(width, height, pixelMaps_.getReadNoiseElectronsMap()));
+      new ImagePlus("PTCTools pixel maps", maps).show();
+   }
+   
+   private ExpMeanStdDev calcExpMeanStdDev(PixelStatsAccumulator stats) {
+      ExpMeanStdDev result = new ExpMeanStdDev();
+      result.mean_ = stats.getFrameMean();
+      result.stdDev_ = stats.getFrameStdDev();
+      return result;
    }
    
   
@@ -29,6 +29,7 @@ package org.micromanager.ptctools;
 
 import java.awt.event.ActionEvent;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JSpinner;
 import javax.swing.JTextField;
@@ -56,6 +57,7 @@ public class PtcToolsFrame extends MMFrame {
    private final MutablePropertyMapView settings_;
    private JTextField minExpTF_, maxExpTF_;
    private JSpinner nrFramesSp_, nrExpSp_;
+   private JCheckBox keepImagesCB_, keepFramesCB_, pixelMapsCB_;
    
 
    public PtcToolsFrame(Studio studio) {
@@ -93,6 +95,15 @@ public class PtcToolsFrame extends MMFrame {
       nrFramesSp_.setModel(new SpinnerNumberModel(
               settings_.getInteger(PtcToolsTerms.NRFRAMES, 100), 1, null, 1));
       add(nrFramesSp_, "w 60, wrap");
+      keepImagesCB_ = new JCheckBox(PtcToolsTerms.KEEPIMAGES);
+      keepImagesCB_.setSelected(settings_.getBoolean(PtcToolsTerms.KEEPIMAGES, true));
+      add(keepImagesCB_, "span 2, wrap");
+      keepFramesCB_ = new JCheckBox(PtcToolsTerms.KEEPFRAMES);
+      keepFramesCB_.setSelected(settings_.getBoolean(PtcToolsTerms.KEEPFRAMES, false));
+      add(keepFramesCB_, "span 2, wrap");
+      pixelMapsCB_ = new JCheckBox(PtcToolsTerms.PIXELMAPS);
+      pixelMapsCB_.setSelected(settings_.getBoolean(PtcToolsTerms.PIXELMAPS, true));
+      add(pixelMapsCB_, "span 2, wrap");
       
       MMFrame ptf = this;
       JButton helpButton = new JButton("Help");
@@ -124,6 +135,9 @@ public class PtcToolsFrame extends MMFrame {
       settings_.putString(PtcToolsTerms.MAXIMUMEXPOSURE, maxExpTF_.getText());
       settings_.putInteger(PtcToolsTerms.NREXPOSURES, (int) nrExpSp_.getValue());
       settings_.putInteger(PtcToolsTerms.NRFRAMES, (int) nrFramesSp_.getValue());
+      settings_.putBoolean(PtcToolsTerms.KEEPIMAGES, keepImagesCB_.isSelected());
+      settings_.putBoolean(PtcToolsTerms.KEEPFRAMES, keepFramesCB_.isSelected());
+      settings_.putBoolean(PtcToolsTerms.PIXELMAPS, pixelMapsCB_.isSelected());
       settings_.putInteger(PtcToolsTerms.WINDOWX, this.getX());
       settings_.putInteger(PtcToolsTerms.WINDOWY, this.getY());
    }
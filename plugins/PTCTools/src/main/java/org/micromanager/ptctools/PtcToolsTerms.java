@@ -11,6 +11,9 @@ public class PtcToolsTerms {
    public static final String MAXIMUMEXPOSURE = "Maximum Exposure";
    public static final String NRFRAMES = "Nr. of Frames per Exposure";
    public static final String NREXPOSURES = "Nr. Exposures";
+   public static final String KEEPIMAGES = "Keep Mean and Std. Dev. Images";
+   public static final String KEEPFRAMES = "Keep All Frames (uses a lot of memory)";
+   public static final String PIXELMAPS = "Calculate Pixel Maps (sCMOS)";
    public static final String WINDOWX = "windowX";
    public static final String WINDOWY = "windowY";
    
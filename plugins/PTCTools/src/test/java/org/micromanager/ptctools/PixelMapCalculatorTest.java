@@ -0,0 +1,169 @@
+package org.micromanager.ptctools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PixelMapCalculatorTest {
+   private static final int WIDTH = 16;
+   private static final int HEIGHT = 12;
+   private static final int N = WIDTH * HEIGHT;
+   // 12-bit camera
+   private static final int MAX_VALUE = 4095;
+   private static final int NR_FRAMES = 100;
+   // photo-electrons per pixel at each light exposure
+   private static final double[] ELECTRONS = {50, 100, 200, 400, 800, 1600, 3200};
+
+   private static double offset(int i) {
+      return 100 + i % 50;
+   }
+
+   private static double readNoise(int i) {
+      return 2.0 + i % 3;
+   }
+
+   private static double gain(int i) {
+      return 0.6 + 0.2 * (i % 4);
+   }
+
+   /**
+    * Synthetic sCMOS frames: every pixel has its own offset, read noise
+    * and gain, with shot noise (variance equal to the signal in electrons).
+    */
+   private static List<short[]> makeFrames(double electrons, Random random) {
+      List<short[]> frames = new ArrayList<>();
+      for (int f = 0; f < NR_FRAMES; f++) {
+         short[] frame = new short[N];
+         for (int i = 0; i < N; i++) {
+            double e = electrons + Math.sqrt(electrons) * random.nextGaussian();
+            double value = offset(i) + gain(i) * e
+                    + readNoise(i) * random.nextGaussian();
+            frame[i] = (short) Math.max(0, Math.min(MAX_VALUE,
+                    Math.round(value)));
+         }
+         frames.add(frame);
+      }
+      return frames;
+   }
+
+   private static PixelStatsAccumulator accumulate(List<short[]> frames) {
+      PixelStatsAccumulator stats = new PixelStatsAccumulator(WIDTH, HEIGHT);
+      for (short[] frame : frames) {
+         stats.add(frame);
+      }
+      return stats;
+   }
+
+   /**
+    * @return {mean, sample variance} of pixel i over the frames
+    */
+   private static double[] twoPass(List<short[]> frames, int i) {
+      double sum = 0.0;
+      for (short[] frame : frames) {
+         sum += frame[i] & 0xffff;
+      }
+      double mean = sum / frames.size();
+      double ss = 0.0;
+      for (short[] frame : frames) {
+         double d = (frame[i] & 0xffff) - mean;
+         ss += d * d;
+      }
+      return new double[] {mean, ss / (frames.size() - 1)};
+   }
+
+   @Test
+   public void mapsMatchDirectFit() {
+      Random random = new Random(1);
+      List<short[]> dark = makeFrames(0.0, random);
+      List<List<short[]>> light = new ArrayList<>();
+      for (double electrons : ELECTRONS) {
+         light.add(makeFrames(electrons, random));
+      }
+
+      PixelMapCalculator maps = new PixelMapCalculator(accumulate(dark), MAX_VALUE);
+      for (List<short[]> frames : light) {
+         maps.addExposure(accumulate(frames));
+      }
+      float[] offsetMap = maps.getOffsetMap();
+      float[] readNoiseMap = maps.getReadNoiseMap();
+      float[] gainMap = maps.getGainMap();
+      float[] readNoiseElectronsMap = maps.getReadNoiseElectronsMap();
+
+      int saturatedExposures = 0;
+      for (int i = 0; i < N; i++) {
+         double[] darkStats = twoPass(dark, i);
+         // least squares fit through the origin of shot noise variance
+         // against signal, leaving out (nearly) saturated exposures
+         double sxx = 0.0;
+         double sxy = 0.0;
+         for (List<short[]> frames : light) {
+            double[] lightStats = twoPass(frames, i);
+            if (lightStats[0] >= 0.9 * MAX_VALUE) {
+               saturatedExposures++;
+               continue;
+            }
+            double signal = lightStats[0] - darkStats[0];
+            double shotNoise = lightStats[1] - darkStats[1];
+            sxx += signal * signal;
+            sxy += signal * shotNoise;
+         }
+         double expectedGain = sxy / sxx;
+         double expectedReadNoise = Math.sqrt(darkStats[1]);
+         assertEquals("offset of pixel " + i, darkStats[0], offsetMap[i],
+                 1e-5 * darkStats[0]);
+         assertEquals("read noise of pixel " + i, expectedReadNoise,
+                 readNoiseMap[i], 1e-5 * expectedReadNoise);
+         assertEquals("gain of pixel " + i, expectedGain, gainMap[i],
+                 1e-4 * expectedGain);
+         assertEquals(expectedReadNoise / expectedGain, readNoiseElectronsMap[i],
+                 1e-3 * expectedReadNoise / expectedGain);
+      }
+      // the brightest exposures saturate the high gain pixels
+      assertTrue(saturatedExposures > 0);
+   }
+
+   @Test
+   public void mapsRecoverCameraProperties() {
+      Random random = new Random(2);
+      PixelMapCalculator maps = new PixelMapCalculator(
+              accumulate(makeFrames(0.0, random)), MAX_VALUE);
+      for (double electrons : ELECTRONS) {
+         maps.addExposure(accumulate(makeFrames(electrons, random)));
+      }
+      float[] offsetMap = maps.getOffsetMap();
+      float[] gainMap = maps.getGainMap();
+      double gainSum = 0.0;
+      double expectedGainSum = 0.0;
+      for (int i = 0; i < N; i++) {
+         // offset within a few standard errors of the mean
+         assertEquals(offset(i), offsetMap[i], 2.0);
+         gainSum += gainMap[i];
+         expectedGainSum += gain(i);
+      }
+      assertEquals(1.0, gainSum / expectedGainSum, 0.02);
+   }
+
+   @Test
+   public void pixelsWithoutUsableExposuresHaveNoGain() {
+      Random random = new Random(3);
+      PixelMapCalculator maps = new PixelMapCalculator(
+              accumulate(makeFrames(0.0, random)), MAX_VALUE);
+      // saturates all pixels
+      maps.addExposure(accumulate(makeFrames(8000, random)));
+      float[] gainMap = maps.getGainMap();
+      float[] readNoiseElectronsMap = maps.getReadNoiseElectronsMap();
+      for (int i = 0; i < N; i++) {
+         assertTrue(Float.isNaN(gainMap[i]));
+         assertTrue(Float.isNaN(readNoiseElectronsMap[i]));
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void exposureOfOtherSizeIsRejected() {
+      PixelMapCalculator maps = new PixelMapCalculator(
+              new PixelStatsAccumulator(WIDTH, HEIGHT), MAX_VALUE);
+      maps.addExposure(new PixelStatsAccumulator(WIDTH, HEIGHT + 1));
+   }
+}
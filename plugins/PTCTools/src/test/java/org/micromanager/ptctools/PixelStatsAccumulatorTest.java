@@ -0,0 +1,142 @@
+package org.micromanager.ptctools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class PixelStatsAccumulatorTest {
+
+   private static List<short[]> makeShortFrames(int n, int nrFrames,
+           int offset, int noise, long seed) {
+      Random random = new Random(seed);
+      List<short[]> frames = new ArrayList<>();
+      for (int f = 0; f < nrFrames; f++) {
+         short[] frame = new short[n];
+         for (int i = 0; i < n; i++) {
+            // large, per-pixel offset, as in the dark frames of a camera
+            int value = offset + (i % 97) + (int) (noise * random.nextGaussian());
+            frame[i] = (short) Math.max(0, Math.min(65535, value));
+         }
+         frames.add(frame);
+      }
+      return frames;
+   }
+
+   private static double value(Object frame, int i) {
+      return frame instanceof short[] ? ((short[]) frame)[i] & 0xffff
+              : ((byte[]) frame)[i] & 0xff;
+   }
+
+   /**
+    * Checks the accumulated statistics against a two-pass calculation
+    * over the frames.
+    */
+   private static void checkAgainstTwoPass(List<?> frames, int width,
+           int height, PixelStatsAccumulator stats) {
+      final int n = width * height;
+      final int count = frames.size();
+      assertEquals(count, stats.getCount());
+      float[] meanImage = stats.getMeanImage();
+      float[] stdDevImage = stats.getStdDevImage();
+      double[] frameAvgs = new double[count];
+      for (int i = 0; i < n; i++) {
+         double sum = 0.0;
+         for (Object frame : frames) {
+            sum += value(frame, i);
+         }
+         double mean = sum / count;
+         double ss = 0.0;
+         for (int f = 0; f < count; f++) {
+            double d = value(frames.get(f), i) - mean;
+            ss += d * d;
+            frameAvgs[f] += value(frames.get(f), i);
+         }
+         double variance = count < 2 ? 0.0 : ss / (count - 1);
+         assertEquals("mean of pixel " + i, mean, stats.getMeans()[i], 1e-9 * mean);
+         assertEquals("variance of pixel " + i, variance, stats.getVariance(i),
+                 1e-9 * Math.max(1.0, variance));
+         assertEquals(mean, meanImage[i], 1e-6 * mean);
+         assertEquals(Math.sqrt(variance), stdDevImage[i],
+                 1e-6 * Math.max(1.0, Math.sqrt(variance)));
+      }
+
+      double sum = 0.0;
+      for (int f = 0; f < count; f++) {
+         frameAvgs[f] /= n;
+         sum += frameAvgs[f];
+      }
+      double frameMean = sum / count;
+      double ss = 0.0;
+      for (double avg : frameAvgs) {
+         ss += (avg - frameMean) * (avg - frameMean);
+      }
+      double frameStdDev = count < 2 ? 0.0 : Math.sqrt(ss / (count - 1));
+      assertEquals(frameMean, stats.getFrameMean(), 1e-9 * frameMean);
+      assertEquals(frameStdDev, stats.getFrameStdDev(), 1e-7 * Math.max(1.0, frameStdDev));
+   }
+
+   @Test
+   public void shortFramesMatchTwoPass() {
+      int width = 31;
+      int height = 17;
+      List<short[]> frames = makeShortFrames(width * height, 60, 60000, 5, 1);
+      PixelStatsAccumulator stats = new PixelStatsAccumulator(width, height);
+      for (short[] frame : frames) {
+         stats.add(frame);
+      }
+      checkAgainstTwoPass(frames, width, height, stats);
+   }
+
+   @Test
+   public void byteFramesMatchTwoPass() {
+      int width = 20;
+      int height = 10;
+      Random random = new Random(2);
+      List<byte[]> frames = new ArrayList<>();
+      for (int f = 0; f < 25; f++) {
+         byte[] frame = new byte[width * height];
+         random.nextBytes(frame);
+         frames.add(frame);
+      }
+      PixelStatsAccumulator stats = new PixelStatsAccumulator(width, height);
+      for (byte[] frame : frames) {
+         stats.add(frame);
+      }
+      checkAgainstTwoPass(frames, width, height, stats);
+   }
+
+   @Test
+   public void largeFramesAreSplitOverThreadsWithSameResult() {
+      // more than MIN_PARALLEL_PIXELS, and not a multiple of the chunk size
+      int width = 301;
+      int height = 257;
+      List<short[]> frames = makeShortFrames(width * height, 8, 1000, 40, 3);
+      PixelStatsAccumulator stats = new PixelStatsAccumulator(width, height);
+      for (short[] frame : frames) {
+         stats.add(frame);
+      }
+      checkAgainstTwoPass(frames, width, height, stats);
+   }
+
+   @Test
+   public void singleFrameHasNoVariance() {
+      List<short[]> frames = makeShortFrames(12, 1, 300, 10, 4);
+      PixelStatsAccumulator stats = new PixelStatsAccumulator(4, 3);
+      stats.add(frames.get(0));
+      checkAgainstTwoPass(frames, 4, 3, stats);
+      assertEquals(0.0, stats.getVariance(5), 0.0);
+      assertEquals(0.0, stats.getFrameStdDev(), 0.0);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void wrongSizeIsRejected() {
+      new PixelStatsAccumulator(4, 3).add(new short[11]);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void otherPixelTypesAreRejected() {
+      new PixelStatsAccumulator(4, 3).add(new int[12]);
+   }
+}